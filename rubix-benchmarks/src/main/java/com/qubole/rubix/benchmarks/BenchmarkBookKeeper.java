@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.qubole.rubix.bookkeeper.BookKeeper;
+import com.qubole.rubix.bookkeeper.CoordinatorBookKeeper;
+import com.qubole.rubix.common.metrics.BookKeeperMetrics;
+import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.thrift.BlockLocation;
+import com.qubole.rubix.spi.thrift.CacheStatusRequest;
+import com.qubole.rubix.spi.thrift.SetCachedRequest;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.thrift.shaded.TException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures BookKeeper#getCacheStatus for a file with every other block cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BenchmarkBookKeeper
+{
+  private static final String BENCHMARK_NAME = "BenchmarkBookKeeper";
+  private static final String REMOTE_PATH = "/benchmark/bookkeeper/file";
+  private static final long LAST_MODIFIED = 1514764800; // 2018-01-01T00:00:00
+
+  @Param({"67108864", "1073741824", "107374182400"})
+  private long fileSize;
+
+  @Param({"1", "64", "1024"})
+  private int blockRange;
+
+  private BookKeeperMetrics bookKeeperMetrics;
+  private BookKeeper bookKeeper;
+  private CacheStatusRequest request;
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    Configuration conf = BenchmarkUtils.createCacheConfiguration(BENCHMARK_NAME);
+    bookKeeperMetrics = new BookKeeperMetrics(conf, new MetricRegistry());
+    bookKeeper = new CoordinatorBookKeeper(conf, bookKeeperMetrics);
+
+    int blockSize = CacheConfig.getBlockSize(conf);
+    long endBlock = Math.min(blockRange, (fileSize + blockSize - 1) / blockSize);
+    request = new CacheStatusRequest(REMOTE_PATH, fileSize, LAST_MODIFIED, 0, endBlock);
+
+    bookKeeper.getCacheStatus(request);
+    for (long blockNum = 0; blockNum < endBlock; blockNum += 2) {
+      bookKeeper.setAllCached(new SetCachedRequest(REMOTE_PATH, fileSize, LAST_MODIFIED, blockNum, blockNum + 1));
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception
+  {
+    bookKeeperMetrics.close();
+    BenchmarkUtils.removeCacheDirectories(BENCHMARK_NAME);
+  }
+
+  @Benchmark
+  public List<BlockLocation> getCacheStatus() throws TException
+  {
+    return bookKeeper.getCacheStatus(request);
+  }
+}
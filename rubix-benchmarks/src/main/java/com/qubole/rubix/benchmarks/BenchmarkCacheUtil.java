@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.benchmarks;
+
+import com.qubole.rubix.spi.CacheUtil;
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the mapping of remote paths to their location in the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BenchmarkCacheUtil
+{
+  private static final String BENCHMARK_NAME = "BenchmarkCacheUtil";
+
+  @Param({"/benchmark/file", "s3://bucket/warehouse/db/table/dt=2019-01-01/part-00000"})
+  private String remotePath;
+
+  private Configuration conf;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    conf = BenchmarkUtils.createCacheConfiguration(BENCHMARK_NAME);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException
+  {
+    BenchmarkUtils.removeCacheDirectories(BENCHMARK_NAME);
+  }
+
+  @Benchmark
+  public String getLocalPath()
+  {
+    return CacheUtil.getLocalPath(remotePath, conf);
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.benchmarks;
+
+import com.qubole.rubix.core.BlockChecksumFile;
+import com.qubole.rubix.core.CachedReadRequestChain;
+import com.qubole.rubix.core.ReadRequest;
+import com.qubole.rubix.spi.BookKeeperFactory;
+import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.CacheUtil;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures CachedReadRequestChain#call reading a cached file from the local disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BenchmarkCachedReadRequestChain
+{
+  private static final String BENCHMARK_NAME = "BenchmarkCachedReadRequestChain";
+  private static final String REMOTE_PATH = "/benchmark/cachedread/file";
+  private static final int FILE_SIZE = 64 * 1024 * 1024;
+
+  @Param({"4096", "65536", "1048576"})
+  private int readSize;
+
+  @Param({"false", "true"})
+  private boolean checksumEnabled;
+
+  private Configuration conf;
+  private FileSystem remoteFileSystem;
+  private BookKeeperFactory bookKeeperFactory;
+  private ByteBuffer directBuffer;
+  private byte[] buffer;
+  private int blockSize;
+  private long nextRead;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    conf = BenchmarkUtils.createCacheConfiguration(BENCHMARK_NAME);
+    CacheConfig.setCacheChecksumEnabled(conf, checksumEnabled);
+    blockSize = CacheConfig.getBlockSize(conf);
+
+    byte[] data = BenchmarkUtils.populateFile(CacheUtil.getLocalPath(REMOTE_PATH, conf), FILE_SIZE);
+    if (checksumEnabled) {
+      try (BlockChecksumFile checksums = new BlockChecksumFile(CacheUtil.getChecksumFilePath(REMOTE_PATH, conf),
+          blockSize, FILE_SIZE, true)) {
+        checksums.update(0, data, 0, data.length);
+      }
+    }
+
+    // Only used to fall back on when the cached file cannot be read
+    remoteFileSystem = FileSystem.getLocal(conf);
+    bookKeeperFactory = new BookKeeperFactory();
+    directBuffer = ByteBuffer.allocateDirect(CacheConfig.getDiskReadBufferSize(conf));
+    buffer = new byte[readSize];
+  }
+
+  @TearDown
+  public void tearDown() throws IOException
+  {
+    BenchmarkUtils.removeCacheDirectories(BENCHMARK_NAME);
+  }
+
+  @Benchmark
+  public int call() throws IOException
+  {
+    long actualReadStart = nextRead;
+    nextRead = (nextRead + readSize) % (FILE_SIZE - readSize);
+    long backendReadStart = actualReadStart / blockSize * blockSize;
+    long backendReadEnd = Math.min(FILE_SIZE, (actualReadStart + readSize + blockSize - 1) / blockSize * blockSize);
+
+    CachedReadRequestChain chain = new CachedReadRequestChain(remoteFileSystem, REMOTE_PATH, directBuffer, null,
+        conf, bookKeeperFactory);
+    chain.addReadRequest(new ReadRequest(backendReadStart, backendReadEnd, actualReadStart, actualReadStart + readSize,
+        buffer, 0, FILE_SIZE));
+    chain.lock();
+    return chain.call();
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.benchmarks;
+
+import com.qubole.rubix.bookkeeper.utils.ConsistentHashUtil;
+import com.qubole.rubix.spi.thrift.ClusterNode;
+import com.qubole.rubix.spi.thrift.NodeState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ConsistentHashUtil#getNodeIndex on a cluster with every tenth node inactive.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BenchmarkConsistentHashUtil
+{
+  private static final int KEY_COUNT = 1024;
+  private static final long SPLIT_SIZE = 256 * 1024 * 1024;
+
+  @Param({"10", "100", "1000"})
+  private int nodeCount;
+
+  private List<ClusterNode> nodes;
+  private String[] keys;
+  private int nextKey;
+
+  @Setup
+  public void setUp()
+  {
+    nodes = new ArrayList<>(nodeCount);
+    for (int i = 0; i < nodeCount; i++) {
+      nodes.add(new ClusterNode("node" + i, i % 10 == 9 ? NodeState.INACTIVE : NodeState.ACTIVE));
+    }
+
+    keys = new String[KEY_COUNT];
+    for (int i = 0; i < KEY_COUNT; i++) {
+      // Same shape as the split keys of BookKeeper#getCacheStatus
+      keys[i] = "s3://bucket/warehouse/table/part-" + i + (i * SPLIT_SIZE) + ((i + 1) * SPLIT_SIZE);
+    }
+  }
+
+  @Benchmark
+  public int getNodeIndex()
+  {
+    nextKey = (nextKey + 1) % KEY_COUNT;
+    return ConsistentHashUtil.getNodeIndex(nodes, keys[nextKey]);
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.benchmarks;
+
+import com.qubole.rubix.bookkeeper.BitmapStore;
+import com.qubole.rubix.bookkeeper.FileMetadata;
+import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.CacheUtil;
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the bitmap lookups and updates of FileMetadata for a file with its first half cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BenchmarkFileMetadata
+{
+  private static final String BENCHMARK_NAME = "BenchmarkFileMetadata";
+  private static final String REMOTE_PATH = "/benchmark/filemetadata/file";
+  private static final long LAST_MODIFIED = 1514764800; // 2018-01-01T00:00:00
+
+  @Param({"67108864", "1073741824", "107374182400"})
+  private long fileSize;
+
+  private Configuration conf;
+  private FileMetadata metadata;
+  private long blockCount;
+  private long nextBlock;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    conf = BenchmarkUtils.createCacheConfiguration(BENCHMARK_NAME);
+    // The bitmaps of the files live in the bitmap store, which is opened by the BookKeeper otherwise
+    BitmapStore.initialize(conf, false);
+    int blockSize = CacheConfig.getBlockSize(conf);
+    blockCount = (fileSize + blockSize - 1) / blockSize;
+
+    metadata = new FileMetadata(REMOTE_PATH, fileSize, LAST_MODIFIED, 0, conf);
+    metadata.setBlocksCached(0, blockCount / 2);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException
+  {
+    BitmapStore.getInstance(CacheUtil.getLocalPath(REMOTE_PATH, conf)).close();
+    BenchmarkUtils.removeCacheDirectories(BENCHMARK_NAME);
+  }
+
+  @Benchmark
+  public boolean isBlockCached() throws IOException
+  {
+    return metadata.isBlockCached(nextBlock());
+  }
+
+  @Benchmark
+  public long setBlocksCached() throws IOException
+  {
+    long blockNum = nextBlock();
+    return metadata.setBlocksCached(blockNum, blockNum + 1);
+  }
+
+  private long nextBlock()
+  {
+    nextBlock = (nextBlock + 1) % blockCount;
+    return nextBlock;
+  }
+}
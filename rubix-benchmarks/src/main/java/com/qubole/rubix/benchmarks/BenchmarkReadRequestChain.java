@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.benchmarks;
+
+import com.qubole.rubix.core.DirectReadRequestChain;
+import com.qubole.rubix.core.ReadRequest;
+import com.qubole.rubix.core.ReadRequestChain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ReadRequestChain#addReadRequest for block requests which are coalesced or kept apart.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BenchmarkReadRequestChain
+{
+  private static final int BLOCK_SIZE = 1024 * 1024;
+
+  @Param({"16", "256"})
+  private int requestCount;
+
+  @Param({"true", "false"})
+  private boolean contiguous;
+
+  private final byte[] buffer = new byte[BLOCK_SIZE];
+
+  @Benchmark
+  public ReadRequestChain addReadRequest()
+  {
+    ReadRequestChain chain = new DirectReadRequestChain(null);
+    long fileSize = 2L * requestCount * BLOCK_SIZE;
+    long stride = contiguous ? BLOCK_SIZE : 2L * BLOCK_SIZE;
+    for (int i = 0; i < requestCount; i++) {
+      // Requests are mutated when coalesced, so every invocation needs new ones
+      long start = i * stride;
+      chain.addReadRequest(new ReadRequest(start, start + BLOCK_SIZE, start, start + BLOCK_SIZE, buffer, 0, fileSize));
+    }
+    return chain;
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.benchmarks;
+
+import com.qubole.rubix.common.utils.DeleteFileVisitor;
+import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.CacheUtil;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Helpers to set up the cache used by the benchmarks in a temporary directory.
+ */
+final class BenchmarkUtils
+{
+  private static final String BENCHMARK_DIR = System.getProperty("java.io.tmpdir") + "/rubix-benchmarks/";
+
+  private BenchmarkUtils()
+  {
+  }
+
+  /**
+   * Create a configuration with a single cache disk owned by the given benchmark.
+   *
+   * @param benchmarkName The name of the benchmark.
+   * @return The configuration of the benchmark cache.
+   * @throws IOException if the cache directories could not be created.
+   */
+  static Configuration createCacheConfiguration(String benchmarkName) throws IOException
+  {
+    String cacheDirPrefix = BENCHMARK_DIR + benchmarkName + "/disk";
+    Files.createDirectories(Paths.get(cacheDirPrefix + "0"));
+
+    Configuration conf = new Configuration();
+    CacheConfig.setCacheDataDirPrefix(conf, cacheDirPrefix);
+    CacheConfig.setMaxDisks(conf, 1);
+    CacheUtil.createCacheDirectories(conf);
+    return conf;
+  }
+
+  /**
+   * Remove the cache of the given benchmark.
+   *
+   * @param benchmarkName The name of the benchmark.
+   * @throws IOException if the cache directories could not be removed.
+   */
+  static void removeCacheDirectories(String benchmarkName) throws IOException
+  {
+    Path benchmarkDir = Paths.get(BENCHMARK_DIR + benchmarkName);
+    if (Files.exists(benchmarkDir)) {
+      Files.walkFileTree(benchmarkDir, new DeleteFileVisitor());
+    }
+  }
+
+  /**
+   * Fill a file with random data.
+   *
+   * @param path  The path of the file.
+   * @param size  The size of the file.
+   * @return The content of the file.
+   * @throws IOException if the file could not be written.
+   */
+  static byte[] populateFile(String path, int size) throws IOException
+  {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+      file.setLength(0);
+      file.write(data);
+    }
+    return data;
+  }
+}
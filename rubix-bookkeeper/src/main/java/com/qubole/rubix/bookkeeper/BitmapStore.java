@@ -0,0 +1,373 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.qubole.rubix.spi.CacheUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the block bitmaps of all the files cached on a disk in a single memory-mapped file.
+ *
+ * Every cached file owns a slot in the store, referenced from its mdfile. Slots are sized in powers of two and
+ * never cross a chunk boundary, so that a bitmap is always backed by a single mapping. Marking a block as cached
+ * is an in-place update of the mapping; the OS writes the dirty pages back to disk, at the latest when the store
+ * is closed.
+ *
+ * Free space is managed as a buddy allocator: a freed slot is merged with its free buddy into a slot twice as
+ * large, and larger free slots are split to serve smaller allocations before the store is extended.
+ *
+ * Each allocation is identified by a tag, so that a stale {@link FileMetadata} cannot read or update a slot which
+ * was freed and handed out to another file in the meantime.
+ */
+public class BitmapStore implements Closeable
+{
+  private static final Log log = LogFactory.getLog(BitmapStore.class);
+
+  static final String BITMAP_STORE_FILE_NAME = "rubix_bitmap_store";
+  static final int CHUNK_SIZE = 16 * 1024 * 1024;
+  static final int MIN_SLOT_SIZE = 8;
+
+  private static final Map<String, BitmapStore> stores = new ConcurrentHashMap<>();
+
+  private final String diskPath;
+  private final RandomAccessFile storeFile;
+  private final List<MappedByteBuffer> chunks = new CopyOnWriteArrayList<>();
+  private final ConcurrentMap<Long, Long> slotTags = new ConcurrentHashMap<>();
+  private final Map<Integer, TreeSet<Long>> freeSlots = new HashMap<>();
+
+  // Slots claimed by recovered files, only used until recovery finishes
+  private TreeMap<Long, Integer> recoveredSlots;
+  private long end;
+  private long nextTag = 1;
+
+  private BitmapStore(String diskPath, boolean recover) throws IOException
+  {
+    this.diskPath = diskPath;
+    File file = new File(diskPath, BITMAP_STORE_FILE_NAME);
+    if (!recover) {
+      file.delete();
+    }
+    this.storeFile = new RandomAccessFile(file, "rw");
+
+    long length = storeFile.length();
+    while ((long) chunks.size() * CHUNK_SIZE < length) {
+      mapChunk();
+    }
+    if (recover) {
+      recoveredSlots = new TreeMap<>();
+    }
+  }
+
+  /**
+   * Open the bitmap stores of all the cache disks.
+   *
+   * @param conf     The current Hadoop configuration.
+   * @param recover  Whether the existing bitmaps should be kept for recovery, otherwise the stores start empty.
+   * @throws IOException if a store cannot be opened.
+   */
+  public static synchronized void initialize(Configuration conf, boolean recover) throws IOException
+  {
+    for (BitmapStore store : stores.values()) {
+      store.close();
+    }
+    stores.clear();
+
+    for (int d = 0; d < CacheUtil.getCacheDiskCount(conf); d++) {
+      String diskPath = CacheUtil.getDirPath(d, conf);
+      stores.put(diskPath, new BitmapStore(diskPath, recover));
+    }
+  }
+
+  /**
+   * Get the bitmap store of the disk holding the given cached file.
+   *
+   * @param localPath  The local path of a cached file.
+   * @return The bitmap store of its disk.
+   * @throws IOException if no store was initialized for the disk.
+   */
+  public static synchronized BitmapStore getInstance(String localPath) throws IOException
+  {
+    for (Map.Entry<String, BitmapStore> store : stores.entrySet()) {
+      if (localPath.startsWith(store.getKey() + "/")) {
+        return store.getValue();
+      }
+    }
+
+    throw new IOException("No bitmap store is initialized for " + localPath);
+  }
+
+  static int getSlotSize(int bitmapBytes)
+  {
+    int slotSize = MIN_SLOT_SIZE;
+    while (slotSize < bitmapBytes) {
+      slotSize <<= 1;
+    }
+    return slotSize;
+  }
+
+  /**
+   * Allocate a zeroed slot for a bitmap.
+   *
+   * @param bitmapBytes  The size of the bitmap in bytes.
+   * @return The allocated slot.
+   * @throws IOException if the store cannot be extended.
+   */
+  public synchronized Slot allocate(int bitmapBytes) throws IOException
+  {
+    int slotSize = getSlotSize(bitmapBytes);
+    if (recoveredSlots != null) {
+      completeRecovery();
+    }
+    if (slotSize > CHUNK_SIZE) {
+      throw new IOException(String.format("Bitmap of %d bytes does not fit in the bitmap store", bitmapBytes));
+    }
+
+    Long offset = pollFreeSlot(slotSize);
+    if (offset == null) {
+      offset = alignUp(end, slotSize);
+      addFreeRange(end, offset);
+      end = offset + slotSize;
+      while ((long) chunks.size() * CHUNK_SIZE < end) {
+        mapChunk();
+      }
+    }
+
+    MappedByteBuffer chunk = chunks.get(getChunkIndex(offset));
+    int chunkOffset = getChunkOffset(offset);
+    for (int i = 0; i < slotSize; i++) {
+      chunk.put(chunkOffset + i, (byte) 0);
+    }
+
+    long tag = nextTag++;
+    slotTags.put(offset, tag);
+    return new Slot(offset, tag);
+  }
+
+  /**
+   * Claim the slot referenced by a recovered file. Only allowed until recovery finishes.
+   *
+   * @return true if the slot is within the store and does not overlap with slots claimed before.
+   */
+  public synchronized boolean claim(long offset, long tag, int bitmapBytes)
+  {
+    int slotSize = getSlotSize(bitmapBytes);
+    if (recoveredSlots == null || tag <= 0 || offset < 0 || offset % slotSize != 0
+        || offset + slotSize > (long) chunks.size() * CHUNK_SIZE) {
+      return false;
+    }
+
+    Map.Entry<Long, Integer> previous = recoveredSlots.floorEntry(offset);
+    Map.Entry<Long, Integer> next = recoveredSlots.ceilingEntry(offset);
+    if ((previous != null && previous.getKey() + previous.getValue() > offset)
+        || (next != null && next.getKey() < offset + slotSize)) {
+      return false;
+    }
+
+    recoveredSlots.put(offset, slotSize);
+    slotTags.put(offset, tag);
+    nextTag = Math.max(nextTag, tag + 1);
+    return true;
+  }
+
+  /**
+   * Make the space which is not used by recovered files available for new allocations, on all the disks.
+   */
+  public static synchronized void finishRecovery()
+  {
+    for (BitmapStore store : stores.values()) {
+      store.completeRecovery();
+    }
+  }
+
+  private synchronized void completeRecovery()
+  {
+    if (recoveredSlots == null) {
+      return;
+    }
+
+    long position = 0;
+    for (Map.Entry<Long, Integer> slot : recoveredSlots.entrySet()) {
+      addFreeRange(position, slot.getKey());
+      position = slot.getKey() + slot.getValue();
+    }
+    end = position;
+    log.info(String.format("Recovered %d bitmaps in %s", recoveredSlots.size(), diskPath));
+    recoveredSlots = null;
+  }
+
+  /**
+   * Release a slot. Does nothing if the slot was already released.
+   */
+  public synchronized void free(long offset, long tag, int bitmapBytes)
+  {
+    if (slotTags.remove(offset, tag)) {
+      if (recoveredSlots != null) {
+        recoveredSlots.remove(offset);
+      }
+      else {
+        addFreeSlot(offset, getSlotSize(bitmapBytes));
+      }
+    }
+  }
+
+  public boolean isOwner(long offset, long tag)
+  {
+    Long slotTag = slotTags.get(offset);
+    return slotTag != null && slotTag == tag;
+  }
+
+  /**
+   * Get the bitmap backed by a slot.
+   */
+  public ByteBufferBitmap getBitmap(long offset, int bitmapBytes)
+  {
+    return new ByteBufferBitmap(chunks.get(getChunkIndex(offset)), getChunkOffset(offset), bitmapBytes);
+  }
+
+  @VisibleForTesting
+  synchronized long getEnd()
+  {
+    return end;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    // The mdfiles may already reference bitmaps which are only in memory
+    for (MappedByteBuffer chunk : chunks) {
+      chunk.force();
+    }
+    storeFile.close();
+  }
+
+  // Split the range into the largest aligned free slots
+  private void addFreeRange(long start, long rangeEnd)
+  {
+    while (start < rangeEnd) {
+      int slotSize = MIN_SLOT_SIZE;
+      while (slotSize < CHUNK_SIZE && start % (slotSize * 2) == 0 && start + slotSize * 2 <= rangeEnd) {
+        slotSize *= 2;
+      }
+      if (start + slotSize > rangeEnd) {
+        // Sub-minimum leftovers cannot happen as all offsets are multiples of the minimum slot size
+        break;
+      }
+      addFreeSlot(start, slotSize);
+      start += slotSize;
+    }
+  }
+
+  // Merge the slot with its buddies for as long as they are free
+  private void addFreeSlot(long offset, int slotSize)
+  {
+    while (slotSize < CHUNK_SIZE) {
+      long buddy = offset ^ slotSize;
+      if (!getFreeSlots(slotSize).remove(buddy)) {
+        break;
+      }
+      offset = Math.min(offset, buddy);
+      slotSize *= 2;
+    }
+    getFreeSlots(slotSize).add(offset);
+  }
+
+  // Take the lowest free slot of the size, splitting the smallest larger free slot if there is none
+  private Long pollFreeSlot(int slotSize)
+  {
+    for (int size = slotSize; size <= CHUNK_SIZE; size *= 2) {
+      Long offset = getFreeSlots(size).pollFirst();
+      if (offset != null) {
+        while (size > slotSize) {
+          size /= 2;
+          getFreeSlots(size).add(offset + size);
+        }
+        return offset;
+      }
+    }
+    return null;
+  }
+
+  private TreeSet<Long> getFreeSlots(int slotSize)
+  {
+    TreeSet<Long> slots = freeSlots.get(slotSize);
+    if (slots == null) {
+      slots = new TreeSet<>();
+      freeSlots.put(slotSize, slots);
+    }
+    return slots;
+  }
+
+  private void mapChunk() throws IOException
+  {
+    long position = (long) chunks.size() * CHUNK_SIZE;
+    chunks.add(storeFile.getChannel().map(FileChannel.MapMode.READ_WRITE, position, CHUNK_SIZE));
+  }
+
+  private static long alignUp(long position, int alignment)
+  {
+    return (position + alignment - 1) / alignment * alignment;
+  }
+
+  private static int getChunkIndex(long offset)
+  {
+    return (int) (offset / CHUNK_SIZE);
+  }
+
+  private static int getChunkOffset(long offset)
+  {
+    return (int) (offset % CHUNK_SIZE);
+  }
+
+  /**
+   * A slot allocated to a cached file.
+   */
+  public static class Slot
+  {
+    private final long offset;
+    private final long tag;
+
+    Slot(long offset, long tag)
+    {
+      this.offset = offset;
+      this.tag = tag;
+    }
+
+    public long getOffset()
+    {
+      return offset;
+    }
+
+    public long getTag()
+    {
+      return tag;
+    }
+  }
+}
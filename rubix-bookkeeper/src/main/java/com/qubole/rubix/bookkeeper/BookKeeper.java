@@ -18,13 +18,12 @@ import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.base.Ticker;
-import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
-import com.google.common.cache.Weigher;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Service;
 import com.qubole.rubix.bookkeeper.exception.BookKeeperInitializationException;
@@ -34,6 +33,7 @@ import com.qubole.rubix.bookkeeper.validation.CachingValidator;
 import com.qubole.rubix.common.metrics.BookKeeperMetrics;
 import com.qubole.rubix.core.ReadRequest;
 import com.qubole.rubix.core.RemoteReadRequestChain;
+import com.qubole.rubix.spi.BookKeeperClientPool;
 import com.qubole.rubix.spi.BookKeeperFactory;
 import com.qubole.rubix.spi.CacheConfig;
 import com.qubole.rubix.spi.CacheUtil;
@@ -50,7 +50,6 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.thrift.shaded.TException;
 
@@ -58,18 +57,22 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.CACHE_ADMISSION_REJECTION_COUNT;
 import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.CACHE_AVAILABLE_SIZE_GAUGE;
+import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.CACHE_BLOCK_EVICTION_COUNT;
 import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.CACHE_EVICTION_COUNT;
 import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.CACHE_EXPIRY_COUNT;
 import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.CACHE_HIT_RATE_GAUGE;
@@ -77,9 +80,14 @@ import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.CACH
 import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.CACHE_MISS_RATE_GAUGE;
 import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.CACHE_REQUEST_COUNT;
 import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.CACHE_SIZE_GAUGE;
+import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.CACHE_WRITTEN_BYTES_COUNT;
 import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.NONLOCAL_REQUEST_COUNT;
 import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.REMOTE_REQUEST_COUNT;
 import static com.qubole.rubix.common.metrics.BookKeeperMetrics.CacheMetric.TOTAL_REQUEST_COUNT;
+import static com.qubole.rubix.common.metrics.BookKeeperMetrics.ClientPoolMetric.CLIENT_POOL_HIT_COUNT_GAUGE;
+import static com.qubole.rubix.common.metrics.BookKeeperMetrics.ClientPoolMetric.CLIENT_POOL_IDLE_CONNECTIONS_GAUGE;
+import static com.qubole.rubix.common.metrics.BookKeeperMetrics.ClientPoolMetric.CLIENT_POOL_MISS_COUNT_GAUGE;
+import static com.qubole.rubix.common.metrics.BookKeeperMetrics.ClientPoolMetric.CLIENT_POOL_WAIT_COUNT_GAUGE;
 
 /**
  * Created by stagra on 12/2/16.
@@ -88,12 +96,29 @@ public abstract class BookKeeper implements BookKeeperService.Iface
 {
   private static Log log = LogFactory.getLog(BookKeeper.class);
 
-  protected static Cache<String, FileMetadata> fileMetadataCache;
+  protected static PerDiskFileMetadataCache fileMetadataCache;
+  private static EvictionPolicy evictionPolicy;
+  private static boolean blockEvictionEnabled;
+  private static int blockEvictionHoleDelay;
+  private static final ScheduledExecutorService holePunchService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+  {
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread thread = Executors.defaultThreadFactory().newThread(r);
+      thread.setName("rubix-hole-punch-thread");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  private static CacheSizeTracker cacheSizeTracker;
   private static LoadingCache<String, FileInfo> fileInfoCache;
+  private static RemoteFileSystemPool remoteFileSystemPool;
   String nodeName;
   protected final Configuration conf;
 
   static long splitSize;
+  private final SplitOwnerCache splitOwnerCache;
   private RemoteFetchProcessor fetchProcessor;
   private final Ticker ticker;
   private static long totalAvailableForCache;
@@ -106,10 +131,14 @@ public abstract class BookKeeper implements BookKeeperService.Iface
   private static Counter cacheEvictionCount;
   private static Counter cacheInvalidationCount;
   private static Counter cacheExpiryCount;
+  private static Counter cacheBlockEvictionCount;
   private Counter totalRequestCount;
   private Counter remoteRequestCount;
   private Counter cacheRequestCount;
   private Counter nonlocalRequestCount;
+  private Counter admissionRejectionCount;
+  private Counter writtenBytesCount;
+  private final List<Counter> diskWrittenBytesCounts = new ArrayList<>();
 
   public BookKeeper(Configuration conf, BookKeeperMetrics bookKeeperMetrics) throws BookKeeperInitializationException
   {
@@ -130,11 +159,18 @@ public abstract class BookKeeper implements BookKeeperService.Iface
     this.metrics = bookKeeperMetrics.getMetricsRegistry();
     this.ticker = ticker;
     this.splitSize = CacheConfig.getCacheFileSplitSize(conf);
-    cleanupOldCacheFiles(conf);
+    this.splitOwnerCache = new SplitOwnerCache(splitSize, CacheConfig.getSplitOwnerCacheMaxFiles(conf));
+    if (!CacheConfig.isRecoverFilesDuringStartEnabled(conf)) {
+      cleanupOldCacheFiles(conf);
+    }
 
     setupCacheDirectory(conf);
+    initializeBitmapStores(conf);
     initializeMetrics();
     initializeCache(conf, ticker);
+    if (CacheConfig.isRecoverFilesDuringStartEnabled(conf)) {
+      recoverOldCacheFiles(conf);
+    }
     fetchProcessor = null;
     if (CacheConfig.isParallelWarmupEnabled(conf)) {
       fetchProcessor = new RemoteFetchProcessor(this, metrics, conf);
@@ -151,6 +187,16 @@ public abstract class BookKeeper implements BookKeeperService.Iface
     }
   }
 
+  private void initializeBitmapStores(Configuration conf) throws BookKeeperInitializationException
+  {
+    try {
+      BitmapStore.initialize(conf, CacheConfig.isRecoverFilesDuringStartEnabled(conf));
+    }
+    catch (IOException ex) {
+      throw new BookKeeperInitializationException(ex.toString(), ex);
+    }
+  }
+
   RemoteFetchProcessor getRemoteFetchProcessorInstance()
   {
     return fetchProcessor;
@@ -158,8 +204,7 @@ public abstract class BookKeeper implements BookKeeperService.Iface
 
   // Cleanup the cached files that were downloaded as a part of previous bookkeeper session.
   // This makes sure we always start with a clean empty cash.
-  // TODO: We need to come up with a way to persist the files being downloaded before
-  // So that we can use that info to load those files in guava cache.
+  // Not used when recovery is enabled, see recoverOldCacheFiles.
   private void cleanupOldCacheFiles(Configuration conf)
   {
     if (CacheConfig.isCleanupFilesDuringStartEnabled(conf)) {
@@ -181,6 +226,39 @@ public abstract class BookKeeper implements BookKeeperService.Iface
     }
   }
 
+  // Load the cached files that were downloaded as a part of previous bookkeeper session into the cache
+  // so that the node starts warm. Files whose metadata cannot be validated are deleted.
+  private void recoverOldCacheFiles(Configuration conf)
+  {
+    long startTime = System.currentTimeMillis();
+    int recoveredFiles = 0;
+    int discardedFiles = 0;
+    long recoveredBytes = 0;
+
+    for (int d = 0; d < CacheUtil.getCacheDiskCount(conf); d++) {
+      java.nio.file.Path diskCachePath = Paths.get(CacheUtil.getDirPath(d, conf), CacheConfig.getCacheDataDirSuffix(conf));
+      CacheRecoveryVisitor recoveryVisitor = new CacheRecoveryVisitor(conf);
+      try {
+        Files.walkFileTree(diskCachePath, recoveryVisitor);
+      }
+      catch (IOException e) {
+        log.error("Could not recover all the cached files in " + diskCachePath, e);
+      }
+
+      for (FileMetadata md : recoveryVisitor.getRecoveredFiles()) {
+        fileMetadataCache.put(md.getRemotePath(), md);
+        cacheSizeTracker.add(md.getRemotePath(), md.getCurrentFileSize());
+        recoveredBytes += md.getCurrentFileSize();
+      }
+      recoveredFiles += recoveryVisitor.getRecoveredFiles().size();
+      discardedFiles += recoveryVisitor.getDiscardedFileCount();
+    }
+    BitmapStore.finishRecovery();
+
+    log.info(String.format("Recovered %d cached files (%d MB) and discarded %d in %d ms", recoveredFiles,
+        DiskUtils.bytesToMB(recoveredBytes), discardedFiles, System.currentTimeMillis() - startTime));
+  }
+
   /**
    * Initialize the instruments used for gathering desired metrics.
    */
@@ -189,10 +267,13 @@ public abstract class BookKeeper implements BookKeeperService.Iface
     cacheEvictionCount = metrics.counter(CACHE_EVICTION_COUNT.getMetricName());
     cacheInvalidationCount = metrics.counter(CACHE_INVALIDATION_COUNT.getMetricName());
     cacheExpiryCount = metrics.counter(CACHE_EXPIRY_COUNT.getMetricName());
+    cacheBlockEvictionCount = metrics.counter(CACHE_BLOCK_EVICTION_COUNT.getMetricName());
     totalRequestCount = metrics.counter(TOTAL_REQUEST_COUNT.getMetricName());
     cacheRequestCount = metrics.counter(CACHE_REQUEST_COUNT.getMetricName());
     nonlocalRequestCount = metrics.counter(NONLOCAL_REQUEST_COUNT.getMetricName());
     remoteRequestCount = metrics.counter(REMOTE_REQUEST_COUNT.getMetricName());
+    admissionRejectionCount = metrics.counter(CACHE_ADMISSION_REJECTION_COUNT.getMetricName());
+    writtenBytesCount = metrics.counter(CACHE_WRITTEN_BYTES_COUNT.getMetricName());
 
     metrics.register(CACHE_HIT_RATE_GAUGE.getMetricName(), new Gauge<Double>()
     {
@@ -202,6 +283,16 @@ public abstract class BookKeeper implements BookKeeperService.Iface
         return ((double) cacheRequestCount.getCount() / (cacheRequestCount.getCount() + remoteRequestCount.getCount()));
       }
     });
+    // Also reported under the name of the eviction policy, to compare the hit rates of policies across nodes
+    metrics.register(CACHE_HIT_RATE_GAUGE.getMetricName() + "." + CacheConfig.getCacheEvictionPolicy(conf).name().toLowerCase(),
+        new Gauge<Double>()
+        {
+          @Override
+          public Double getValue()
+          {
+            return ((double) cacheRequestCount.getCount() / (cacheRequestCount.getCount() + remoteRequestCount.getCount()));
+          }
+        });
     metrics.register(CACHE_MISS_RATE_GAUGE.getMetricName(), new Gauge<Double>()
     {
       @Override
@@ -215,9 +306,29 @@ public abstract class BookKeeper implements BookKeeperService.Iface
       @Override
       public Integer getValue()
       {
-        return DiskUtils.getCacheSizeMB(conf);
+        return (int) DiskUtils.bytesToMB(cacheSizeTracker.getCachedBytes());
       }
     });
+    for (int d = 0; d < CacheUtil.getCacheDiskCount(conf); d++) {
+      final int disk = d;
+      metrics.register(CACHE_SIZE_GAUGE.getMetricName() + ".disk" + disk, new Gauge<Integer>()
+      {
+        @Override
+        public Integer getValue()
+        {
+          return (int) DiskUtils.bytesToMB(cacheSizeTracker.getCachedBytes(disk));
+        }
+      });
+      metrics.register(CACHE_AVAILABLE_SIZE_GAUGE.getMetricName() + ".disk" + disk, new Gauge<Long>()
+      {
+        @Override
+        public Long getValue()
+        {
+          return DiskUtils.bytesToMB(cacheSizeTracker.getCapacity(disk));
+        }
+      });
+      diskWrittenBytesCounts.add(metrics.counter(CACHE_WRITTEN_BYTES_COUNT.getMetricName() + ".disk" + disk));
+    }
     metrics.register(CACHE_AVAILABLE_SIZE_GAUGE.getMetricName(), new Gauge<Long>()
     {
       @Override
@@ -226,30 +337,52 @@ public abstract class BookKeeper implements BookKeeperService.Iface
         return totalAvailableForCache;
       }
     });
+
+    final BookKeeperClientPool clientPool = BookKeeperFactory.getClientPool();
+    metrics.register(CLIENT_POOL_HIT_COUNT_GAUGE.getMetricName(), new Gauge<Long>()
+    {
+      @Override
+      public Long getValue()
+      {
+        return clientPool.getHitCount();
+      }
+    });
+    metrics.register(CLIENT_POOL_MISS_COUNT_GAUGE.getMetricName(), new Gauge<Long>()
+    {
+      @Override
+      public Long getValue()
+      {
+        return clientPool.getMissCount();
+      }
+    });
+    metrics.register(CLIENT_POOL_WAIT_COUNT_GAUGE.getMetricName(), new Gauge<Long>()
+    {
+      @Override
+      public Long getValue()
+      {
+        return clientPool.getWaitCount();
+      }
+    });
+    metrics.register(CLIENT_POOL_IDLE_CONNECTIONS_GAUGE.getMetricName(), new Gauge<Integer>()
+    {
+      @Override
+      public Integer getValue()
+      {
+        return clientPool.getIdleConnectionCount();
+      }
+    });
   }
 
   @Override
   public List<BlockLocation> getCacheStatus(CacheStatusRequest request) throws TException
   {
-    Map<Long, String> blockSplits = new HashMap<>();
-    long blockNumber = 0;
-
     long fileLength = request.getFileLength();
     String remotePath = request.getRemotePath();
     long lastModified = request.getLastModified();
     long startBlock = request.getStartBlock();
     long endBlock = request.getEndBlock();
 
-    for (long i = 0; i < fileLength; i = i + splitSize) {
-      long end = i + splitSize;
-      if (end > fileLength) {
-        end = fileLength;
-      }
-      String key = remotePath + i + end;
-      String hostName = getOwnerNodeForPath(key);
-      blockSplits.put(blockNumber, hostName);
-      blockNumber++;
-    }
+    SplitOwnerCache.FileSplitOwners splitOwners = splitOwnerCache.getFileSplitOwners(getClusterNodes(), nodeName, remotePath, fileLength);
 
     FileMetadata md;
     try {
@@ -263,36 +396,64 @@ public abstract class BookKeeper implements BookKeeperService.Iface
       log.error(String.format("Could not fetch Metadata for %s : %s", remotePath, Throwables.getStackTraceAsString(e)));
       throw new TException(e);
     }
+    // Statuses looked up ahead of the reads, with incrMetrics set to false, only count as accesses once they are
+    // used, see incrCacheStatusMetrics
+    boolean accessed = request.isIncrMetrics() || !request.isSetIncrMetrics();
+    // Clients only count the first lookup of a stream, or of a transfer to another node, as a read of the file
+    if (accessed && request.isCountAccess() && !isValidatingCachingBehavior(remotePath)) {
+      evictionPolicy.recordAccess(remotePath);
+    }
+    // Blocks of files which are not admitted are read from the remote file system without being cached. A file
+    // which does not fit on its disk any more is weighed against the file the disk would evict for it.
+    boolean admitted = isValidatingCachingBehavior(remotePath)
+        || md.getCurrentFileSize() > 0
+        || cacheSizeTracker.hasRoom(remotePath, fileLength)
+        || evictionPolicy.admit(remotePath, fileMetadataCache.getEvictionCandidate(remotePath));
     endBlock = setCorrectEndBlock(endBlock, fileLength, remotePath);
     List<BlockLocation> blockLocations = new ArrayList<>((int) (endBlock - startBlock));
     int blockSize = CacheConfig.getBlockSize(conf);
 
-    //TODO: Store Node indices too, i.e. split to nodeIndex map and compare indices here instead of strings(nodenames).
     int totalRequests = 0;
     int cacheRequests = 0;
     int remoteRequests = 0;
     int nonLocalRequests = 0;
+    int rejectedRequests = 0;
 
     try {
       for (long blockNum = startBlock; blockNum < endBlock; blockNum++) {
         totalRequests++;
 
         long split = (blockNum * blockSize) / splitSize;
-        if (blockSplits.get(split) == null) {
+        if (splitOwners == null || split >= splitOwners.getSplitCount()) {
           blockLocations.add(new BlockLocation(Location.UNKNOWN, ""));
+          continue;
         }
-        else if (!blockSplits.get(split).equalsIgnoreCase(nodeName)) {
-          blockLocations.add(new BlockLocation(Location.NON_LOCAL, blockSplits.get(split)));
+
+        int owner = splitOwners.getOwner((int) split);
+        if (!splitOwners.isLocal(owner)) {
+          blockLocations.add(new BlockLocation(Location.NON_LOCAL, splitOwners.getNodeUrl(owner)));
           nonLocalRequests++;
         }
         else {
           if (md.isBlockCached(blockNum)) {
-            blockLocations.add(new BlockLocation(Location.CACHED, blockSplits.get(split)));
+            if (blockEvictionEnabled && accessed) {
+              md.setBlockAccessed(blockNum);
+            }
+            blockLocations.add(new BlockLocation(Location.CACHED, splitOwners.getNodeUrl(owner)));
             cacheRequests++;
           }
+          else if (admitted) {
+            if (blockEvictionEnabled) {
+              // The block is downloaded again, so a hole punched later would zero it
+              md.cancelHolePunch(blockNum);
+            }
+            blockLocations.add(new BlockLocation(Location.LOCAL, splitOwners.getNodeUrl(owner)));
+            remoteRequests++;
+          }
           else {
-            blockLocations.add(new BlockLocation(Location.LOCAL, blockSplits.get(split)));
+            blockLocations.add(new BlockLocation(Location.UNKNOWN, ""));
             remoteRequests++;
+            rejectedRequests++;
           }
         }
       }
@@ -306,11 +467,45 @@ public abstract class BookKeeper implements BookKeeperService.Iface
       nonlocalRequestCount.inc(nonLocalRequests);
       cacheRequestCount.inc(cacheRequests);
       remoteRequestCount.inc(remoteRequests);
+      admissionRejectionCount.inc(rejectedRequests);
     }
 
     return blockLocations;
   }
 
+  @Override
+  public void incrCacheStatusMetrics(String remotePath, List<BlockLocation> blockLocations, List<Long> blockNums)
+      throws TException
+  {
+    if (isValidatingCachingBehavior(remotePath) || blockLocations.isEmpty()) {
+      return;
+    }
+
+    // Older clients do not send the block numbers, whose accesses are then not recorded
+    FileMetadata md = blockEvictionEnabled && blockNums != null ? fileMetadataCache.getIfPresent(remotePath) : null;
+    for (int i = 0; i < blockLocations.size(); i++) {
+      totalRequestCount.inc();
+      switch (blockLocations.get(i).getLocation()) {
+        case NON_LOCAL:
+          nonlocalRequestCount.inc();
+          break;
+        case CACHED:
+          cacheRequestCount.inc();
+          if (md != null) {
+            md.setBlockAccessed(blockNums.get(i));
+          }
+          break;
+        case LOCAL:
+          remoteRequestCount.inc();
+          break;
+        default:
+          // Unknown blocks are counted as rejected by the admission policy, the usual reason for them
+          remoteRequestCount.inc();
+          admissionRejectionCount.inc();
+      }
+    }
+  }
+
   @Override
   public void setAllCached(SetCachedRequest request)
       throws TException
@@ -332,15 +527,91 @@ public abstract class BookKeeper implements BookKeeperService.Iface
     log.debug("Updating cache for " + request.getRemotePath() + " StarBlock : " + request.getStartBlock() + " EndBlock : " + endBlock);
 
     try {
-      md.setBlocksCached(request.getStartBlock(), endBlock);
-      long currentFileSize = md.incrementCurrentFileSize((endBlock - request.getStartBlock()) * CacheConfig.getBlockSize(conf));
-      replaceFileMetadata(request.getRemotePath(), currentFileSize, conf);
+      // Blocks cached before, e.g. by a concurrent download of the same range, are only accounted for once
+      long cachedBytes = md.setBlocksCached(request.getStartBlock(), endBlock);
+      if (cachedBytes == 0) {
+        return;
+      }
+      long currentFileSize = md.incrementCurrentFileSize(cachedBytes);
+      if (replaceFileMetadata(request.getRemotePath(), currentFileSize, conf)) {
+        cacheSizeTracker.add(request.getRemotePath(), cachedBytes);
+      }
+      writtenBytesCount.inc(cachedBytes);
+      diskWrittenBytesCounts.get(CacheUtil.getCacheDiskIndex(request.getRemotePath(), conf)).inc(cachedBytes);
+    }
+    catch (IOException e) {
+      throw new TException(e);
+    }
+  }
+
+  @Override
+  public void setUncached(SetCachedRequest request)
+      throws TException
+  {
+    FileMetadata md = fileMetadataCache.getIfPresent(request.getRemotePath());
+    if (md == null) {
+      return;
+    }
+    if (isInvalidationRequired(md.getLastModified(), request.getLastModified())) {
+      invalidateFileMetadata(request.getRemotePath());
+      return;
+    }
+    long endBlock = setCorrectEndBlock(request.getEndBlock(), request.getFileSize(), request.getRemotePath());
+    log.info("Uncaching corrupted blocks of " + request.getRemotePath() + " StartBlock : " + request.getStartBlock() + " EndBlock : " + endBlock);
+
+    try {
+      long uncachedBytes = md.setBlocksUncached(request.getStartBlock(), endBlock);
+      if (uncachedBytes > 0) {
+        long currentFileSize = md.incrementCurrentFileSize(-uncachedBytes);
+        if (replaceFileMetadata(request.getRemotePath(), currentFileSize, conf)) {
+          cacheSizeTracker.add(request.getRemotePath(), -uncachedBytes);
+        }
+      }
     }
     catch (IOException e) {
       throw new TException(e);
     }
   }
 
+  @Override
+  public void setUncachedBatch(List<SetCachedRequest> requests)
+      throws TException
+  {
+    for (SetCachedRequest request : requests) {
+      try {
+        setUncached(request);
+      }
+      catch (TException e) {
+        log.error(String.format("Could not uncache the blocks of file %s", request.getRemotePath()), e);
+      }
+    }
+  }
+
+  @Override
+  public List<List<BlockLocation>> getCacheStatusBatch(List<CacheStatusRequest> requests) throws TException
+  {
+    List<List<BlockLocation>> blockLocations = new ArrayList<>(requests.size());
+    for (CacheStatusRequest request : requests) {
+      blockLocations.add(getCacheStatus(request));
+    }
+    return blockLocations;
+  }
+
+  @Override
+  public void setAllCachedBatch(List<SetCachedRequest> requests)
+      throws TException
+  {
+    // Requests are independent, so a failing one should not prevent the rest from being applied
+    for (SetCachedRequest request : requests) {
+      try {
+        setAllCached(request);
+      }
+      catch (TException e) {
+        log.error(String.format("Could not update the metadata for file %s", request.getRemotePath()), e);
+      }
+    }
+  }
+
   @Override
   public Map<String, Double> getCacheMetrics()
   {
@@ -403,11 +674,7 @@ public abstract class BookKeeper implements BookKeeperService.Iface
   {
     if (CacheConfig.isFileStalenessCheckEnabled(conf)) {
       try {
-        Path path = new Path(remotePath);
-        FileSystem fs = path.getFileSystem(conf);
-        FileStatus status = fs.getFileStatus(path);
-        FileInfo info = new FileInfo(status.getLen(), status.getModificationTime());
-        return info;
+        return getRemoteFileInfo(new Path(remotePath));
       }
       catch (Exception e) {
         log.error(String.format("Could not fetch FileStatus from remote file system for %s : %s", remotePath, Throwables.getStackTraceAsString(e)));
@@ -426,6 +693,20 @@ public abstract class BookKeeper implements BookKeeperService.Iface
     return null;
   }
 
+  private static FileInfo getRemoteFileInfo(Path path) throws IOException
+  {
+    try (RemoteFileSystemPool.Handle fs = remoteFileSystemPool.acquire(path)) {
+      FileStatus status = fs.getFileSystem().getFileStatus(path);
+      return new FileInfo(status.getLen(), status.getModificationTime());
+    }
+  }
+
+  // The remote file systems shared by the downloads of this BookKeeper
+  RemoteFileSystemPool getRemoteFileSystemPool()
+  {
+    return remoteFileSystemPool;
+  }
+
   public abstract List<ClusterNode> getClusterNodes();
 
   @Override
@@ -453,7 +734,7 @@ public abstract class BookKeeper implements BookKeeperService.Iface
     long lastModified = readDataRequest.getLastModified();
 
     String localPath = CacheUtil.getLocalPath(remotePath, conf);
-    FileSystem fs = null;
+    RemoteFileSystemPool.Handle fs = null;
     FSDataInputStream inputStream = null;
     Path path = new Path(remotePath);
     long startBlock = offset / blockSize;
@@ -461,6 +742,7 @@ public abstract class BookKeeper implements BookKeeperService.Iface
     try {
       int idx = 0;
       CacheStatusRequest request = new CacheStatusRequest(remotePath, fileSize, lastModified, startBlock, endBlock);
+      request.setCountAccess(readDataRequest.isCountAccess());
       List<BlockLocation> blockLocations = getCacheStatus(request);
 
       for (long blockNum = startBlock; blockNum < endBlock; blockNum++, idx++) {
@@ -472,18 +754,15 @@ public abstract class BookKeeper implements BookKeeperService.Iface
           }
 
           if (fs == null) {
-            fs = path.getFileSystem(conf);
-            log.info("Initializing FileSystem " + fs.toString() + " for Path " + path.toString());
-            fs.initialize(path.toUri(), conf);
-
-            inputStream = fs.open(path, blockSize);
+            fs = remoteFileSystemPool.acquire(path);
+            inputStream = fs.getFileSystem().open(path, blockSize);
           }
 
           // Cache the data
           // Ue RRRC directly instead of creating instance of CachingFS as in certain circumstances, CachingFS could
           // send this request to NonLocalRRC which would be wrong as that would not cache it on disk
           long expectedBytesToRead = (readStart + blockSize) > fileSize ? (fileSize - readStart) : blockSize;
-          RemoteReadRequestChain remoteReadRequestChain = new RemoteReadRequestChain(inputStream, localPath, byteBuffer, buffer, new BookKeeperFactory(this));
+          RemoteReadRequestChain remoteReadRequestChain = new RemoteReadRequestChain(inputStream, localPath, byteBuffer, buffer, conf, new BookKeeperFactory(this));
           remoteReadRequestChain.addReadRequest(new ReadRequest(readStart, readStart + blockSize, readStart, readStart + blockSize, buffer, 0, fileSize));
           remoteReadRequestChain.lock();
           Integer dataRead = remoteReadRequestChain.call();
@@ -509,12 +788,14 @@ public abstract class BookKeeper implements BookKeeperService.Iface
       if (inputStream != null) {
         try {
           inputStream.close();
-          fs.close();
         }
         catch (IOException e) {
           log.error(Throwables.getStackTraceAsString(e));
         }
       }
+      if (fs != null) {
+        fs.close();
+      }
     }
   }
 
@@ -531,9 +812,12 @@ public abstract class BookKeeper implements BookKeeperService.Iface
 
   private static synchronized void initializeCache(final Configuration conf, final Ticker ticker)
   {
+    final int numDisks = CacheUtil.getCacheDiskCount(conf);
+    final long[] diskSpace = new long[numDisks];
     long avail = 0;
-    for (int d = 0; d < CacheUtil.getCacheDiskCount(conf); d++) {
-      avail += new File(CacheUtil.getDirPath(d, conf)).getUsableSpace();
+    for (int d = 0; d < numDisks; d++) {
+      diskSpace[d] = new File(CacheUtil.getDirPath(d, conf)).getUsableSpace();
+      avail += diskSpace[d];
     }
     avail = DiskUtils.bytesToMB(avail);
     log.info("total free space " + avail + "MB");
@@ -549,20 +833,32 @@ public abstract class BookKeeper implements BookKeeperService.Iface
 
     initializeFileInfoCache(conf, ticker);
 
-    fileMetadataCache = CacheBuilder.newBuilder()
-        .ticker(ticker)
-        .weigher(new Weigher<String, FileMetadata>()
-        {
-          @Override
-          public int weigh(String key, FileMetadata md)
-          {
-            return md.getWeight(conf);
-          }
-        })
-        .maximumWeight(totalAvailableForCache)
-        .expireAfterWrite(CacheConfig.getCacheDataExpirationAfterWrite(conf), TimeUnit.MILLISECONDS)
-        .removalListener(new CacheRemovalListener())
-        .build();
+    // Every disk may fill the same share of its own free space, or its share of the configured maximum size
+    final long[] diskCapacities = new long[numDisks];
+    final long[] diskWeights = CacheConfig.isCacheDiskPlacementWeighted(conf) ? CacheUtil.getCacheDiskWeights(conf) : null;
+    long totalWeight = 0;
+    for (int d = 0; d < numDisks; d++) {
+      totalWeight += diskWeights == null ? 1 : diskWeights[d];
+    }
+    for (int d = 0; d < numDisks; d++) {
+      diskCapacities[d] = (cacheMaxSize == 0)
+          ? (long) (0.95 * diskSpace[d] * CacheConfig.getCacheDataFullnessPercentage(conf) / 100.0)
+          : (long) (cacheMaxSize * 1024.0 * 1024.0 * (diskWeights == null ? 1 : diskWeights[d]) / totalWeight);
+    }
+
+    blockEvictionEnabled = CacheConfig.isBlockEvictionEnabled(conf);
+    blockEvictionHoleDelay = CacheConfig.getBlockEvictionHoleDelay(conf);
+    cacheSizeTracker = new CacheSizeTracker(conf, diskCapacities);
+    switch (CacheConfig.getCacheEvictionPolicy(conf)) {
+      case TINY_LFU:
+        evictionPolicy = new TinyLfuEvictionPolicy(CacheConfig.getCacheEvictionSketchSize(conf));
+        break;
+      default:
+        evictionPolicy = new LruEvictionPolicy();
+    }
+
+    // Every disk evicts its own least recently used files once it is full
+    fileMetadataCache = new PerDiskFileMetadataCache(conf, diskCapacities, ticker, new CacheRemovalListener());
   }
 
   public FileMetadata getEntry(String key, Callable<FileMetadata> callable) throws ExecutionException
@@ -572,6 +868,11 @@ public abstract class BookKeeper implements BookKeeperService.Iface
 
   private static void initializeFileInfoCache(final Configuration conf, final Ticker ticker)
   {
+    if (remoteFileSystemPool != null) {
+      remoteFileSystemPool.close();
+    }
+    remoteFileSystemPool = new RemoteFileSystemPool(conf);
+
     ExecutorService executor = Executors.newSingleThreadExecutor();
     int expiryPeriod = CacheConfig.getStaleFileInfoExpiryPeriod(conf);
     fileInfoCache = CacheBuilder.newBuilder()
@@ -591,11 +892,7 @@ public abstract class BookKeeper implements BookKeeperService.Iface
           public FileInfo load(String s) throws Exception
           {
             log.info("Fetching FileStatus for : " + s);
-            Path path = new Path(s);
-            FileSystem fs = path.getFileSystem(conf);
-            FileStatus status = fs.getFileStatus(path);
-            FileInfo info = new FileInfo(status.getLen(), status.getModificationTime());
-            return info;
+            return getRemoteFileInfo(new Path(s));
           }
         }, executor));
   }
@@ -606,6 +903,12 @@ public abstract class BookKeeper implements BookKeeperService.Iface
     public void onRemoval(RemovalNotification<String, FileMetadata> notification)
     {
       FileMetadata md = notification.getValue();
+      if (notification.getCause() == RemovalCause.SIZE && blockEvictionEnabled && retainAccessedBlocks(md)) {
+        return;
+      }
+      if (notification.getCause() != RemovalCause.REPLACED) {
+        cacheSizeTracker.add(notification.getKey(), -md.getCurrentFileSize());
+      }
       try {
         md.closeAndCleanup(notification.getCause(), fileMetadataCache);
         if (!isValidatingCachingBehavior(md.getRemotePath())) {
@@ -628,6 +931,59 @@ public abstract class BookKeeper implements BookKeeperService.Iface
         log.warn("Could not cleanup FileMetadata for " + notification.getKey(), e);
       }
     }
+
+    /**
+     * Evict only the blocks of a file which were not accessed since it was last evicted, and put the file back
+     * into the cache with its remaining blocks.
+     *
+     * @return false if the whole file has to be evicted.
+     */
+    private static boolean retainAccessedBlocks(final FileMetadata md)
+    {
+      long cachedBytes = md.getCurrentFileSize();
+      int trimmedBlocks;
+      try {
+        trimmedBlocks = md.trimColdBlocks();
+      }
+      catch (IOException e) {
+        log.warn("Could not evict the cold blocks of " + md.getRemotePath(), e);
+        return false;
+      }
+      if (trimmedBlocks < 0) {
+        return false;
+      }
+
+      // A FileMetadata created for the file in the meantime loads the trimmed bitmap from the mdfile. It does not
+      // know about the blocks to punch though, so their space is only reclaimed when the file is deleted.
+      if (fileMetadataCache.putIfAbsent(md.getRemotePath(), md) == null) {
+        cacheSizeTracker.add(md.getRemotePath(), md.getCurrentFileSize() - cachedBytes);
+        holePunchService.schedule(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            punchHoles(md);
+          }
+        }, blockEvictionHoleDelay, TimeUnit.MILLISECONDS);
+      }
+      else {
+        cacheSizeTracker.add(md.getRemotePath(), -cachedBytes);
+      }
+      log.info(String.format("Evicted %d blocks of %s", trimmedBlocks, md.getRemotePath()));
+      cacheBlockEvictionCount.inc(trimmedBlocks);
+      return true;
+    }
+
+    private static void punchHoles(FileMetadata md)
+    {
+      try {
+        int punchedBlocks = md.punchPendingHoles();
+        log.debug(String.format("Punched %d blocks of %s", punchedBlocks, md.getRemotePath()));
+      }
+      catch (IOException e) {
+        log.warn("Could not reclaim the space of the evicted blocks of " + md.getRemotePath(), e);
+      }
+    }
   }
 
   private static class CreateFileMetadataCallable
@@ -670,16 +1026,42 @@ public abstract class BookKeeper implements BookKeeperService.Iface
     }
   }
 
-  private void replaceFileMetadata(String key, long currentFileSize, Configuration conf) throws IOException
+  /**
+   * Check whether a block is already cached, without loading the metadata of the file.
+   *
+   * @param remotePath    The path of the remote file.
+   * @param lastModified  The last modified time of the remote file.
+   * @param blockNum      The block to check.
+   * @return true if the block of this version of the file is cached.
+   * @throws IOException if the cache status of the block could not be read.
+   */
+  boolean isBlockCached(String remotePath, long lastModified, long blockNum) throws IOException
+  {
+    if (fileMetadataCache == null) {
+      return false;
+    }
+
+    FileMetadata md = fileMetadataCache.getIfPresent(remotePath);
+    if (md == null || isInvalidationRequired(md.getLastModified(), lastModified)) {
+      return false;
+    }
+    return md.isBlockCached(blockNum);
+  }
+
+  // Returns false if the file is not cached anymore
+  private boolean replaceFileMetadata(String key, long currentFileSize, Configuration conf) throws IOException
   {
     if (fileMetadataCache != null) {
       FileMetadata metadata = fileMetadataCache.getIfPresent(key);
       if (metadata != null) {
         FileMetadata newMetaData = new FileMetadata(key, metadata.getFileSize(), metadata.getLastModified(),
             currentFileSize, conf);
+        newMetaData.shareBitmap(metadata);
         fileMetadataCache.put(key, newMetaData);
+        return true;
       }
     }
+    return false;
   }
 
   private boolean isInvalidationRequired(long metadataLastModifiedTime, long remoteLastModifiedTime)
@@ -12,6 +12,7 @@
  */
 package com.qubole.rubix.bookkeeper;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.jvm.CachedThreadStatesGaugeSet;
@@ -22,6 +23,7 @@ import com.google.common.base.Throwables;
 import com.qubole.rubix.bookkeeper.exception.BookKeeperInitializationException;
 import com.qubole.rubix.common.metrics.BookKeeperMetrics;
 import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.ServerMode;
 import com.qubole.rubix.spi.thrift.BookKeeperService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,15 +31,24 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
+import org.apache.thrift.shaded.TProcessor;
+import org.apache.thrift.shaded.server.THsHaServer;
 import org.apache.thrift.shaded.server.TServer;
 import org.apache.thrift.shaded.server.TThreadPoolServer;
+import org.apache.thrift.shaded.server.TThreadedSelectorServer;
+import org.apache.thrift.shaded.transport.TNonblockingServerSocket;
 import org.apache.thrift.shaded.transport.TServerSocket;
 import org.apache.thrift.shaded.transport.TServerTransport;
 import org.apache.thrift.shaded.transport.TTransportException;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import static com.qubole.rubix.common.metrics.BookKeeperMetrics.ServerMetric.SERVER_HANDLER_LATENCY_TIMER;
+import static com.qubole.rubix.common.metrics.BookKeeperMetrics.ServerMetric.SERVER_QUEUE_SIZE_GAUGE;
 import static com.qubole.rubix.spi.CacheConfig.getServerMaxThreads;
 import static com.qubole.rubix.spi.CacheConfig.getServerPort;
 
@@ -117,13 +128,30 @@ public class BookKeeperServer extends Configured implements Tool
   private void startThriftServer(Configuration conf, BookKeeper bookKeeper)
   {
     processor = new BookKeeperService.Processor(bookKeeper);
-    log.info("Starting BookKeeperServer on port " + getServerPort(conf));
+    ServerMode serverMode = CacheConfig.getServerMode(conf);
+    log.info(String.format("Starting BookKeeperServer on port %d in %s mode", getServerPort(conf), serverMode));
     try {
-      TServerTransport serverTransport = new TServerSocket(getServerPort(conf));
-      server = new TThreadPoolServer(new TThreadPoolServer
-          .Args(serverTransport)
-          .processor(processor)
-          .maxWorkerThreads(getServerMaxThreads(conf)));
+      switch (serverMode) {
+        case THREADED_SELECTOR:
+          server = new TThreadedSelectorServer(new TThreadedSelectorServer
+              .Args(new TNonblockingServerSocket(getServerPort(conf)))
+              .processor(createTimedProcessor())
+              .selectorThreads(CacheConfig.getServerSelectorThreads(conf))
+              .executorService(createWorkerPool(conf)));
+          break;
+        case HSHA:
+          server = new THsHaServer(new THsHaServer
+              .Args(new TNonblockingServerSocket(getServerPort(conf)))
+              .processor(createTimedProcessor())
+              .executorService(createWorkerPool(conf)));
+          break;
+        default:
+          TServerTransport serverTransport = new TServerSocket(getServerPort(conf));
+          server = new TThreadPoolServer(new TThreadPoolServer
+              .Args(serverTransport)
+              .processor(processor)
+              .maxWorkerThreads(getServerMaxThreads(conf)));
+      }
 
       server.serve();
     }
@@ -132,6 +160,34 @@ public class BookKeeperServer extends Configured implements Tool
     }
   }
 
+  /**
+   * Wrap the processor to record the handler latency. Only used by the non-blocking servers, which hand fully
+   * read requests to the processor; a blocking server waits for the next request inside the processor.
+   */
+  private TProcessor createTimedProcessor()
+  {
+    return new TimedProcessor(processor, metrics.timer(SERVER_HANDLER_LATENCY_TIMER.getMetricName()));
+  }
+
+  /**
+   * Create the pool of threads handling the requests read by the selector threads of a non-blocking server,
+   * and export the number of requests waiting for a free thread.
+   */
+  private ExecutorService createWorkerPool(Configuration conf)
+  {
+    final ThreadPoolExecutor workerPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(CacheConfig.getServerWorkerThreads(conf));
+
+    metrics.register(SERVER_QUEUE_SIZE_GAUGE.getMetricName(), new Gauge<Integer>()
+    {
+      @Override
+      public Integer getValue()
+      {
+        return workerPool.getQueue().size();
+      }
+    });
+    return workerPool;
+  }
+
   /**
    * Register desired metrics.
    */
@@ -159,6 +215,11 @@ public class BookKeeperServer extends Configured implements Tool
   {
     MetricFilter filter = bookKeeperMetrics.getMetricsFilter();
     metrics.removeMatching(filter);
+
+    // Server metrics are registered regardless of the filter and must not be left behind for a restarted server
+    for (String metricName : BookKeeperMetrics.ServerMetric.getAllNames()) {
+      metrics.remove(metricName);
+    }
   }
 
   @VisibleForTesting
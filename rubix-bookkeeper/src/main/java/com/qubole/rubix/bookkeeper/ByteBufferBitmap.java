@@ -12,24 +12,36 @@
  */
 package com.qubole.rubix.bookkeeper;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created by stagra on 29/12/15.
  */
 
-// This class provides bitmap semantics over MappeByteBuffer
+// This class provides bitmap semantics over a region of a MappedByteBuffer
+// Updates are done in place, callers are expected to serialize writers of the same bitmap
 public class ByteBufferBitmap
 {
-  final byte[] bytes;
+  private final ByteBuffer buffer;
+  private final int offset;
+  private final int length;
 
   public ByteBufferBitmap(byte[] bytes)
   {
-    this.bytes = bytes;
+    this(ByteBuffer.wrap(bytes), 0, bytes.length);
+  }
+
+  public ByteBufferBitmap(ByteBuffer buffer, int offset, int length)
+  {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
   }
 
   // keeping idx in int as mbuf.get can take only Int. And Integer.MAX_VALUE large enough to keep us safe for big files
   public boolean isSet(int idx)
   {
-    byte containerByte = bytes[(idx / 8)];
+    byte containerByte = buffer.get(position(idx));
     int offset = idx % 8;
     if (((containerByte & (1 << offset)) != 0)) {
       return true;
@@ -40,20 +52,30 @@ public class ByteBufferBitmap
 
   public void set(int idx)
   {
-    byte containerByte = bytes[(idx / 8)];
+    int position = position(idx);
+    byte containerByte = buffer.get(position);
     int offset = idx % 8;
-    bytes[(idx / 8)] = (byte) (containerByte | (1 << offset));
+    buffer.put(position, (byte) (containerByte | (1 << offset)));
   }
 
   public void unset(int idx)
   {
-    byte containerByte = bytes[(idx / 8)];
+    int position = position(idx);
+    byte containerByte = buffer.get(position);
     int offset = idx % 8;
-    bytes[(idx / 8)] = (byte) (containerByte & ~(1 << offset));
+    buffer.put(position, (byte) (containerByte & ~(1 << offset)));
   }
 
-  public byte[] getBytes()
+  public int getLength()
   {
-    return bytes;
+    return length;
+  }
+
+  private int position(int idx)
+  {
+    if (idx < 0 || idx / 8 >= length) {
+      throw new IndexOutOfBoundsException("Block " + idx + " is outside of bitmap of " + length + " bytes");
+    }
+    return offset + (idx / 8);
   }
 }
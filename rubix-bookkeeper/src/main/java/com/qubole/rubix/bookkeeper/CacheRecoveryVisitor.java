@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.CacheUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Walks a cache directory left behind by a previous BookKeeper session and rebuilds the metadata
+ * of every cached file that can be validated. Files that cannot be trusted are removed.
+ */
+public class CacheRecoveryVisitor extends SimpleFileVisitor<Path>
+{
+  private static final Log log = LogFactory.getLog(CacheRecoveryVisitor.class);
+
+  private final Configuration conf;
+  private final String metadataFileSuffix;
+  private final String checksumFileSuffix;
+
+  private final List<FileMetadata> recoveredFiles = new ArrayList<>();
+  private final Set<Path> recoveredDataFiles = new HashSet<>();
+  private int discardedFiles;
+
+  public CacheRecoveryVisitor(Configuration conf)
+  {
+    this.conf = conf;
+    this.metadataFileSuffix = CacheConfig.getCacheMetadataFileSuffix(conf);
+    this.checksumFileSuffix = CacheConfig.getCacheChecksumFileSuffix(conf);
+  }
+
+  @Override
+  public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+  {
+    if (CacheUtil.isMetadataFile(file.toString(), conf)) {
+      FileMetadata md = null;
+      try {
+        md = FileMetadata.recoverFromMetadataFile(file.toFile(), conf);
+      }
+      catch (IOException e) {
+        log.warn("Could not recover metadata from " + file, e);
+      }
+
+      if (md != null) {
+        recoveredFiles.add(md);
+        String mdFileName = file.getFileName().toString();
+        recoveredDataFiles.add(file.resolveSibling(mdFileName.substring(0, mdFileName.length() - metadataFileSuffix.length())));
+      }
+      else {
+        discard(file);
+      }
+    }
+
+    return super.visitFile(file, attrs);
+  }
+
+  @Override
+  public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException
+  {
+    // Data files are always next to their mdfile, so by now every data file of this directory has been matched
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+      for (Path file : files) {
+        if (Files.isRegularFile(file) && !CacheUtil.isMetadataFile(file.toString(), conf)
+            && !recoveredDataFiles.contains(getDataFile(file))) {
+          discard(file);
+        }
+      }
+    }
+
+    return super.postVisitDirectory(dir, exc);
+  }
+
+  // Checksum files live and die with the data file they describe
+  private Path getDataFile(Path file)
+  {
+    if (!CacheUtil.isChecksumFile(file.toString(), conf)) {
+      return file;
+    }
+
+    String checksumFileName = file.getFileName().toString();
+    return file.resolveSibling(checksumFileName.substring(0, checksumFileName.length() - checksumFileSuffix.length()));
+  }
+
+  private void discard(Path file) throws IOException
+  {
+    log.debug("Discarding unrecoverable cache file " + file);
+    if (Files.deleteIfExists(file) && !CacheUtil.isMetadataFile(file.toString(), conf)
+        && !CacheUtil.isChecksumFile(file.toString(), conf)) {
+      discardedFiles++;
+    }
+  }
+
+  /**
+   * Get the metadata of the files that were successfully recovered.
+   *
+   * @return The list of recovered file metadata.
+   */
+  public List<FileMetadata> getRecoveredFiles()
+  {
+    return recoveredFiles;
+  }
+
+  /**
+   * Get the number of cached data files that were discarded.
+   *
+   * @return The number of discarded data files.
+   */
+  public int getDiscardedFileCount()
+  {
+    return discardedFiles;
+  }
+}
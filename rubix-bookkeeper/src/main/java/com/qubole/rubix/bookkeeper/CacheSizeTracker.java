@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+import com.qubole.rubix.spi.CacheUtil;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The number of bytes cached on every disk, maintained as blocks are cached and evicted
+ * so that the size of the cache is known without walking the cache directories,
+ * along with the space every disk may use for the cache.
+ */
+class CacheSizeTracker
+{
+  private final Configuration conf;
+  private final AtomicLongArray cachedBytes;
+  private final long[] capacities;
+
+  /**
+   * @param conf        The current Hadoop configuration.
+   * @param capacities  The number of bytes every disk may use for the cache.
+   */
+  CacheSizeTracker(Configuration conf, long[] capacities)
+  {
+    this.conf = conf;
+    this.cachedBytes = new AtomicLongArray(capacities.length);
+    this.capacities = capacities;
+  }
+
+  /**
+   * Account for data cached or removed for a file.
+   *
+   * @param remotePath  The remote path of the file.
+   * @param bytes       The number of bytes cached, negative if they were removed.
+   */
+  void add(String remotePath, long bytes)
+  {
+    if (bytes != 0) {
+      cachedBytes.addAndGet(CacheUtil.getCacheDiskIndex(remotePath, conf), bytes);
+    }
+  }
+
+  /**
+   * Check whether a file fits on its disk without evicting other files.
+   *
+   * @param remotePath  The remote path of the file.
+   * @param bytes       The number of bytes to cache for the file.
+   * @return false if the disk of the file would have to evict other files.
+   */
+  boolean hasRoom(String remotePath, long bytes)
+  {
+    int disk = CacheUtil.getCacheDiskIndex(remotePath, conf);
+    return cachedBytes.get(disk) + bytes <= capacities[disk];
+  }
+
+  int getDiskCount()
+  {
+    return cachedBytes.length();
+  }
+
+  long getCachedBytes(int disk)
+  {
+    return cachedBytes.get(disk);
+  }
+
+  long getCapacity(int disk)
+  {
+    return capacities[disk];
+  }
+
+  long getCachedBytes()
+  {
+    long total = 0;
+    for (int disk = 0; disk < cachedBytes.length(); disk++) {
+      total += cachedBytes.get(disk);
+    }
+    return total;
+  }
+}
@@ -26,6 +26,8 @@ public class DownloadRequestContext
   private long fileSize;
   private long lastModified;
   RangeSet<Long> rangeSet;
+  private long firstRequestedTime = Long.MAX_VALUE;
+  private long lastRequestedTime;
 
   public DownloadRequestContext(String remoteFilePath, long fileSize, long lastModified)
   {
@@ -59,4 +61,22 @@ public class DownloadRequestContext
   {
     return rangeSet;
   }
+
+  public void addRequestedTime(long requestedTime)
+  {
+    firstRequestedTime = Math.min(firstRequestedTime, requestedTime);
+    lastRequestedTime = Math.max(lastRequestedTime, requestedTime);
+  }
+
+  // The time the oldest request merged into this context was made, to measure how long downloads waited
+  public long getFirstRequestedTime()
+  {
+    return firstRequestedTime;
+  }
+
+  // The time the latest request merged into this context was made, to download recently read files first
+  public long getLastRequestedTime()
+  {
+    return lastRequestedTime;
+  }
 }
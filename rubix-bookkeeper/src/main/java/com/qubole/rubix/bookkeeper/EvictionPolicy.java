@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+/**
+ * Decides which files may be cached, on top of the LRU eviction of the file metadata cache.
+ */
+interface EvictionPolicy
+{
+  /**
+   * Record a new read of a file.
+   *
+   * @param remotePath  The remote file.
+   */
+  void recordAccess(String remotePath);
+
+  /**
+   * Decide whether the missing blocks of a file may be cached on a full disk.
+   *
+   * @param remotePath  The remote file.
+   * @param victim      The file the disk of the remote file evicts next, or null if it has none.
+   * @return false if the blocks of the file must be read from the remote file system without caching them.
+   */
+  boolean admit(String remotePath, String victim);
+}
@@ -13,6 +13,9 @@
 package com.qubole.rubix.bookkeeper;
 
 import com.google.common.base.Throwables;
+import com.qubole.rubix.core.BlockChecksumFile;
+import com.qubole.rubix.core.FileChannelCache;
+import com.qubole.rubix.core.ParallelRangeReader;
 import com.qubole.rubix.core.ReadRequest;
 import com.qubole.rubix.core.ReadRequestChain;
 import com.qubole.rubix.core.ReadRequestChainStats;
@@ -26,11 +29,11 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.DirectBufferPool;
+import org.apache.thrift.shaded.TException;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.List;
@@ -40,7 +43,7 @@ import static com.google.common.base.Preconditions.checkState;
 public class FileDownloadRequestChain extends ReadRequestChain
 {
   private BookKeeper bookKeeper;
-  private FileSystem remoteFileSystem;
+  private RemoteFileSystemPool remoteFileSystems;
   private String localFile;
   private String remotePath;
   private long fileSize;
@@ -52,15 +55,23 @@ public class FileDownloadRequestChain extends ReadRequestChain
   Configuration conf;
   ByteBuffer directBuffer;
   private long timeSpentOnDownload;
+  private long requestedTime = Long.MAX_VALUE;
+  private long startTime;
+  private long endTime;
+
+  private DirectBufferPool bufferPool;
 
   private static final Log log = LogFactory.getLog(FileDownloadRequestChain.class);
 
-  public FileDownloadRequestChain(BookKeeper bookKeeper, FileSystem remoteFileSystem, String localfile,
-                                  ByteBuffer directBuffer, Configuration conf, String remotePath,
-                                  long fileSize, long lastModified)
+  // Parts are copied by the threads of the parallel range reader, each reusing a chunk array of its own
+  private static final ThreadLocal<byte[]> partChunks = new ThreadLocal<>();
+
+  public FileDownloadRequestChain(BookKeeper bookKeeper, RemoteFileSystemPool remoteFileSystems, String localfile,
+                                  DirectBufferPool bufferPool, ByteBuffer directBuffer, Configuration conf,
+                                  String remotePath, long fileSize, long lastModified)
   {
     this.bookKeeper = bookKeeper;
-    this.remoteFileSystem = remoteFileSystem;
+    this.remoteFileSystems = remoteFileSystems;
     this.localFile = localfile;
     this.conf = conf;
     this.remotePath = remotePath;
@@ -68,6 +79,7 @@ public class FileDownloadRequestChain extends ReadRequestChain
     this.lastModified = lastModified;
     this.bookKeeperFactory = new BookKeeperFactory();
     this.blockSize = CacheConfig.getBlockSize(conf);
+    this.bufferPool = bufferPool;
     this.directBuffer = directBuffer;
   }
 
@@ -91,6 +103,27 @@ public class FileDownloadRequestChain extends ReadRequestChain
     return this.timeSpentOnDownload;
   }
 
+  public void setRequestedTime(long requestedTime)
+  {
+    this.requestedTime = requestedTime;
+  }
+
+  // The time the oldest request served by this chain was made
+  public long getRequestedTime()
+  {
+    return this.requestedTime;
+  }
+
+  public long getStartTime()
+  {
+    return this.startTime;
+  }
+
+  public long getEndTime()
+  {
+    return this.endTime;
+  }
+
   public Integer call() throws IOException
   {
     log.debug(String.format("Read Request threadName: %s, FileDownload Executor threadName: %s", threadName, Thread.currentThread().getName()));
@@ -103,7 +136,7 @@ public class FileDownloadRequestChain extends ReadRequestChain
       return 0;
     }
 
-    long startTime = System.currentTimeMillis();
+    startTime = System.currentTimeMillis();
     File file = new File(localFile);
     if (!file.exists()) {
       log.info("Creating localfile : " + localFile);
@@ -118,12 +151,22 @@ public class FileDownloadRequestChain extends ReadRequestChain
       file.createNewFile();
     }
 
+    RemoteFileSystemPool.Handle remoteFileSystem = null;
     FSDataInputStream inputStream = null;
-    FileChannel fileChannel = null;
+    FileChannelCache.Handle fileHandle = null;
+    BlockChecksumFile checksums = null;
 
     try {
-      inputStream = remoteFileSystem.open(new Path(remotePath), CacheConfig.getBlockSize(conf));
-      fileChannel = new FileOutputStream(new RandomAccessFile(file, "rw").getFD()).getChannel();
+      Path path = new Path(remotePath);
+      remoteFileSystem = remoteFileSystems.acquire(path);
+      inputStream = remoteFileSystem.getFileSystem().open(path, CacheConfig.getBlockSize(conf));
+      fileHandle = FileChannelCache.open(localFile, true, conf);
+      FileChannel fileChannel = fileHandle.getChannel();
+      if (CacheConfig.isCacheChecksumEnabled(conf)) {
+        checksums = new BlockChecksumFile(CacheUtil.getChecksumFilePath(remotePath, conf), blockSize, fileSize, true);
+      }
+      // The only heap buffer used by ranges read sequentially, whatever their size
+      byte[] chunk = new byte[directBuffer.capacity()];
       for (ReadRequest readRequest : readRequests) {
         if (isCancelled()) {
           log.info("Request Cancelled for " + readRequest.getBackendReadStart());
@@ -131,14 +174,19 @@ public class FileDownloadRequestChain extends ReadRequestChain
         }
 
         int readBytes = 0;
-        inputStream.seek(readRequest.getBackendReadStart());
-        log.info("Seeking to " + readRequest.getBackendReadStart());
-        //log.info("Processing request of  " + readRequest.getBackendReadLength() + " from " + readRequest.backendReadStart);
-        readBytes = copyIntoCache(inputStream, fileChannel, readRequest.getBackendReadLength(),
-            readRequest.getBackendReadStart());
+        if (ParallelRangeReader.isReadInParts(readRequest.getBackendReadStart(), readRequest.getBackendReadEnd(), conf)) {
+          readBytes = copyPartsIntoCache(remoteFileSystem.getFileSystem(), path, fileChannel, readRequest);
+        }
+        else {
+          inputStream.seek(readRequest.getBackendReadStart());
+          log.info("Seeking to " + readRequest.getBackendReadStart());
+          //log.info("Processing request of  " + readRequest.getBackendReadLength() + " from " + readRequest.backendReadStart);
+          readBytes = copyIntoCache(inputStream, fileChannel, checksums, directBuffer, chunk,
+              readRequest.getBackendReadLength(), readRequest.getBackendReadStart());
+        }
         totalRequestedRead += readBytes;
       }
-      long endTime = System.currentTimeMillis();
+      endTime = System.currentTimeMillis();
       timeSpentOnDownload = (endTime - startTime) / 1000;
 
       log.info("Downloaded " + totalRequestedRead + " bytes of file " + remotePath);
@@ -146,69 +194,133 @@ public class FileDownloadRequestChain extends ReadRequestChain
       return totalRequestedRead;
     }
     finally {
-      if (fileChannel != null) {
-        fileChannel.close();
+      if (fileHandle != null) {
+        fileHandle.close();
+      }
+
+      if (checksums != null) {
+        checksums.close();
       }
 
       if (inputStream != null) {
         inputStream.close();
       }
 
-      remoteFileSystem.close();
+      if (remoteFileSystem != null) {
+        remoteFileSystem.close();
+      }
     }
   }
 
-  private int copyIntoCache(FSDataInputStream inputStream, FileChannel fileChannel, int length,
-                            long cacheReadStart) throws IOException
+  /**
+   * Download a large range as block aligned parts read at the same time, each through its own stream and written to
+   * the cache file as it completes.
+   */
+  private int copyPartsIntoCache(final FileSystem fileSystem, final Path path, final FileChannel fileChannel,
+                                 ReadRequest readRequest) throws IOException
   {
-    byte[] buffer = null;
-    int nread = 0;
-    try {
-      long start = System.nanoTime();
-      buffer = new byte[length];
-      log.info("Copying data of file " + remotePath + " of length " + length + " from offset " + cacheReadStart);
-      while (nread < length) {
-        int nbytes = inputStream.read(buffer, nread, length - nread);
-        if (nbytes < 0) {
-          break;
-        }
-        nread += nbytes;
-      }
+    long read = ParallelRangeReader.getInstance(conf).read(remotePath, readRequest.getBackendReadStart(),
+        readRequest.getBackendReadEnd(), new ParallelRangeReader.PartReader()
+        {
+          @Override
+          public int read(long start, long end) throws IOException
+          {
+            return copyPartIntoCache(fileSystem, path, fileChannel, start, end);
+          }
+        }, conf);
+    return (int) read;
+  }
 
-      int leftToWrite = length;
-      int writtenSoFar = 0;
-
-      while (leftToWrite > 0) {
-        int writeInThisCycle = Math.min(leftToWrite, directBuffer.capacity());
-        directBuffer.clear();
-        directBuffer.put(buffer, writtenSoFar, writeInThisCycle);
-        directBuffer.flip();
-        int nwrite = fileChannel.write(directBuffer, cacheReadStart + writtenSoFar);
-        directBuffer.compact();
-        writtenSoFar += nwrite;
-        leftToWrite -= nwrite;
+  private int copyPartIntoCache(FileSystem fileSystem, Path path, FileChannel fileChannel, long start, long end)
+      throws IOException
+  {
+    // Parts are block aligned, so the checksums of their blocks can be computed independently
+    BlockChecksumFile checksums = null;
+    ByteBuffer writeBuffer = bufferPool.getBuffer(directBuffer.capacity());
+    try (FSDataInputStream inputStream = fileSystem.open(path, blockSize)) {
+      if (CacheConfig.isCacheChecksumEnabled(conf)) {
+        checksums = new BlockChecksumFile(CacheUtil.getChecksumFilePath(remotePath, conf), blockSize, fileSize, true);
       }
-      warmupPenalty += System.nanoTime() - start;
-      log.info("Read " + nread + " for file " + remotePath + " from offset " + cacheReadStart);
+      inputStream.seek(start);
+      return copyIntoCache(inputStream, fileChannel, checksums, writeBuffer, getPartChunk(writeBuffer.capacity()),
+          (int) (end - start), start);
     }
     finally {
-      buffer = null;
+      bufferPool.returnBuffer(writeBuffer);
+      if (checksums != null) {
+        checksums.close();
+      }
+    }
+  }
+
+  private static byte[] getPartChunk(int size)
+  {
+    byte[] chunk = partChunks.get();
+    if (chunk == null || chunk.length != size) {
+      chunk = new byte[size];
+      partChunks.set(chunk);
+    }
+    return chunk;
+  }
+
+  /**
+   * Stream a range of the remote file into the cache file through the write buffer, one chunk of the size of the
+   * buffer at a time, and mark its blocks as cached as soon as they are written.
+   */
+  private int copyIntoCache(FSDataInputStream inputStream, FileChannel fileChannel, BlockChecksumFile checksums,
+                            ByteBuffer writeBuffer, byte[] chunk, int length, long cacheReadStart) throws IOException
+  {
+    long start = System.nanoTime();
+    log.info("Copying data of file " + remotePath + " of length " + length + " from offset " + cacheReadStart);
+
+    long nextBlock = toBlock(cacheReadStart);
+    long lastBlock = toBlock(cacheReadStart + length - 1);
+    int nread = 0;
+    while (nread < length) {
+      int nbytes = inputStream.read(chunk, 0, Math.min(chunk.length, length - nread));
+      if (nbytes < 0) {
+        break;
+      }
+      writeChunk(fileChannel, writeBuffer, chunk, nbytes, cacheReadStart + nread);
+      if (checksums != null) {
+        checksums.update(cacheReadStart + nread, chunk, 0, nbytes);
+      }
+      nread += nbytes;
+
+      // The last block of the range is complete once the whole range is written
+      long completedBlock = nread == length ? lastBlock + 1 : toBlock(cacheReadStart + nread);
+      if (completedBlock > nextBlock) {
+        setBlocksCached(nextBlock, completedBlock);
+        nextBlock = completedBlock;
+      }
     }
+    addWarmupPenalty(System.nanoTime() - start);
+    log.info("Read " + nread + " for file " + remotePath + " from offset " + cacheReadStart);
     return nread;
   }
 
-  @Override
-  public void updateCacheStatus(String remotePath, long fileSize, long lastModified, int blockSize, Configuration conf)
+  private void writeChunk(FileChannel fileChannel, ByteBuffer writeBuffer, byte[] chunk, int length, long position)
+      throws IOException
+  {
+    writeBuffer.clear();
+    writeBuffer.put(chunk, 0, length);
+    writeBuffer.flip();
+    while (writeBuffer.hasRemaining()) {
+      fileChannel.write(writeBuffer, position + writeBuffer.position());
+    }
+  }
+
+  private synchronized void addWarmupPenalty(long penalty)
+  {
+    warmupPenalty += penalty;
+  }
+
+  private void setBlocksCached(long startBlock, long endBlock)
   {
     try {
-      log.info("Updating cache for FileDownloadRequestChain . Num Requests : " + getReadRequests().size() + " for remotepath : " + remotePath);
-      for (ReadRequest readRequest : getReadRequests()) {
-        SetCachedRequest request = new SetCachedRequest(remotePath, fileSize, lastModified,
-            toBlock(readRequest.getBackendReadStart()), toBlock(readRequest.getBackendReadEnd() - 1) + 1);
-        bookKeeper.setAllCached(request);
-      }
+      bookKeeper.setAllCached(new SetCachedRequest(remotePath, fileSize, lastModified, startBlock, endBlock));
     }
-    catch (Exception e) {
+    catch (TException e) {
       log.info("Could not update BookKeeper about newly cached blocks: " + Throwables.getStackTraceAsString(e));
     }
   }
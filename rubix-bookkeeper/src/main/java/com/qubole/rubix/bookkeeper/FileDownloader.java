@@ -15,7 +15,10 @@ package com.qubole.rubix.bookkeeper;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.collect.Range;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.qubole.rubix.bookkeeper.utils.DiskUtils;
 import com.qubole.rubix.common.metrics.BookKeeperMetrics;
@@ -25,21 +28,21 @@ import com.qubole.rubix.spi.CacheUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.DirectBufferPool;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Abhishek on 3/9/18.
@@ -47,11 +50,14 @@ import java.util.concurrent.ThreadPoolExecutor;
 class FileDownloader
 {
   Configuration conf;
-  private ExecutorService processService;
+  private ListeningExecutorService processService;
   int diskReadBufferSize;
   private MetricRegistry metrics;
   private Counter totalMBDownloaded;
   private Counter totalTimeToDownload;
+  private Timer queueWaitTimer;
+  private Timer downloadTimer;
+  private final AtomicLong downloadedBytes = new AtomicLong();
   BookKeeper bookKeeper;
 
   private static final Log log = LogFactory.getLog(FileDownloader.class);
@@ -66,7 +72,7 @@ class FileDownloader
     this.diskReadBufferSize = CacheConfig.getDiskReadBufferSize(conf);
 
     ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(numThreads);
-    processService = MoreExecutors.getExitingExecutorService(executor);
+    processService = MoreExecutors.listeningDecorator(MoreExecutors.getExitingExecutorService(executor));
 
     initializeMetrics();
   }
@@ -75,44 +81,158 @@ class FileDownloader
   {
     totalMBDownloaded = metrics.counter(BookKeeperMetrics.CacheMetric.ASYNC_DOWNLOADED_MB_COUNT.getMetricName());
     totalTimeToDownload = metrics.counter(BookKeeperMetrics.CacheMetric.ASYNC_DOWNLOAD_TIME_COUNT.getMetricName());
+    queueWaitTimer = metrics.timer(BookKeeperMetrics.CacheMetric.ASYNC_QUEUE_WAIT_TIMER.getMetricName());
+    downloadTimer = metrics.timer(BookKeeperMetrics.CacheMetric.ASYNC_DOWNLOAD_TIMER.getMetricName());
   }
 
+  /**
+   * Create the chains downloading the requested ranges. The ranges of a file are split into chains of at most
+   * rubix.remotefetch.max.chain.size bytes, cut at block boundaries, and the chains of the files are interleaved,
+   * the most recently requested file first, so that a large file cannot hold the download threads on its own.
+   */
   protected List<FileDownloadRequestChain> getFileDownloadRequestChains(ConcurrentMap<String, DownloadRequestContext> contextMap)
       throws IOException
   {
+    List<DownloadRequestContext> contexts = new ArrayList<>(contextMap.values());
+    Collections.sort(contexts, new Comparator<DownloadRequestContext>()
+    {
+      @Override
+      public int compare(DownloadRequestContext first, DownloadRequestContext second)
+      {
+        return Long.compare(second.getLastRequestedTime(), first.getLastRequestedTime());
+      }
+    });
+
+    List<List<FileDownloadRequestChain>> fileChains = new ArrayList<>();
+    int maxChains = 0;
+    for (DownloadRequestContext context : contexts) {
+      List<FileDownloadRequestChain> chains = createRequestChains(context);
+      fileChains.add(chains);
+      maxChains = Math.max(maxChains, chains.size());
+    }
+
     List<FileDownloadRequestChain> readRequestChainList = new ArrayList<FileDownloadRequestChain>();
-    for (Map.Entry<String, DownloadRequestContext> entry : contextMap.entrySet()) {
-      Path path = new Path(entry.getKey());
-      DownloadRequestContext context = entry.getValue();
-
-      // Creating a new instance of the filesystem object by calling FileSystem.newInstance
-      // This one makes sure we will get a new instance even if fs.%.impl.disable.cache is set to false
-      FileSystem fs = FileSystem.newInstance(path.toUri(), conf);
-      fs.initialize(path.toUri(), conf);
-
-      String localPath = CacheUtil.getLocalPath(entry.getKey(), conf);
-      log.info("Processing Request for File : " + path.toString() + " LocalFile : " + localPath);
-      ByteBuffer directWriteBuffer = bufferPool.getBuffer(diskReadBufferSize);
-
-      FileDownloadRequestChain requestChain = new FileDownloadRequestChain(bookKeeper, fs, localPath,
-          directWriteBuffer, conf, context.getRemoteFilePath(), context.getFileSize(),
-          context.getLastModifiedTime());
-
-      for (Range<Long> range : context.getRanges().asRanges()) {
-        ReadRequest request = new ReadRequest(range.lowerEndpoint(), range.upperEndpoint(),
-            range.lowerEndpoint(), range.upperEndpoint(), null, 0, context.getFileSize());
+    for (int i = 0; i < maxChains; i++) {
+      for (List<FileDownloadRequestChain> chains : fileChains) {
+        if (i < chains.size()) {
+          readRequestChainList.add(chains.get(i));
+        }
+      }
+    }
+
+    return readRequestChainList;
+  }
+
+  private List<FileDownloadRequestChain> createRequestChains(DownloadRequestContext context)
+  {
+    final long maxChainSize = CacheConfig.getRemoteFetchMaxChainSize(conf);
+    final int blockSize = CacheConfig.getBlockSize(conf);
+    List<FileDownloadRequestChain> chains = new ArrayList<>();
+    FileDownloadRequestChain requestChain = null;
+    long chainSize = 0;
+
+    for (Range<Long> range : context.getRanges().asRanges()) {
+      long start = range.lowerEndpoint();
+      while (start < range.upperEndpoint()) {
+        if (requestChain == null || chainSize >= maxChainSize) {
+          requestChain = createRequestChain(context);
+          chains.add(requestChain);
+          chainSize = 0;
+        }
+
+        long end = range.upperEndpoint();
+        if (chainSize + end - start > maxChainSize) {
+          end = Math.max(((start + maxChainSize - chainSize) / blockSize) * blockSize, (start / blockSize + 1) * blockSize);
+          end = Math.min(end, range.upperEndpoint());
+        }
+        ReadRequest request = new ReadRequest(start, end, start, end, null, 0, context.getFileSize());
         requestChain.addReadRequest(request);
+        chainSize += end - start;
+        start = end;
+      }
+    }
+
+    if (requestChain != null) {
+      log.debug("Request added for file: " + requestChain.getRemotePath() + " Number of Chains : " + chains.size());
+    }
+    return chains;
+  }
+
+  private FileDownloadRequestChain createRequestChain(DownloadRequestContext context)
+  {
+    String localPath = CacheUtil.getLocalPath(context.getRemoteFilePath(), conf);
+    log.info("Processing Request for File : " + context.getRemoteFilePath() + " LocalFile : " + localPath);
+    ByteBuffer directWriteBuffer = bufferPool.getBuffer(diskReadBufferSize);
+
+    // The chain gets its remote file system from the pool of the BookKeeper when it executes
+    FileDownloadRequestChain requestChain = new FileDownloadRequestChain(bookKeeper,
+        bookKeeper.getRemoteFileSystemPool(), localPath,
+        bufferPool, directWriteBuffer, conf, context.getRemoteFilePath(), context.getFileSize(),
+        context.getLastModifiedTime());
+    requestChain.setRequestedTime(context.getFirstRequestedTime());
+    return requestChain;
+  }
+
+  /**
+   * Start a download without waiting for it. Metrics are updated and the buffer of the chain is released
+   * by the download thread before the returned future completes.
+   *
+   * @param requestChain The chain to execute.
+   * @return The number of bytes the chain will have downloaded.
+   */
+  protected ListenableFuture<Integer> submitDownloadRequest(final FileDownloadRequestChain requestChain)
+  {
+    requestChain.lock();
+    return processService.submit(new Callable<Integer>()
+    {
+      @Override
+      public Integer call() throws Exception
+      {
+        try {
+          int read = requestChain.call();
+          onDownloadCompleted(requestChain, read);
+          return read;
+        }
+        finally {
+          bufferPool.returnBuffer(requestChain.directBuffer);
+        }
       }
+    });
+  }
 
-      log.debug("Request added for file: " + requestChain.getRemotePath() + " Number of Requests : " +
-          requestChain.getReadRequests().size());
+  private void onDownloadCompleted(FileDownloadRequestChain requestChain, long read)
+  {
+    // The chain marks blocks as cached as they are written, so a partial download keeps its complete blocks
+    if (read != getRequestedBytes(requestChain)) {
+      log.error("ReadData didn't match with requested value. RequestedData: " + getRequestedBytes(requestChain) +
+          " ReadData: " + read);
+      return;
+    }
 
-      readRequestChainList.add(requestChain);
+    long totalRead = downloadedBytes.addAndGet(read);
+    totalMBDownloaded.inc(DiskUtils.bytesToMB(totalRead) - DiskUtils.bytesToMB(totalRead - read));
+    totalTimeToDownload.inc(requestChain.getTimeSpentOnDownload());
+    if (requestChain.getRequestedTime() <= requestChain.getStartTime()) {
+      queueWaitTimer.update(requestChain.getStartTime() - requestChain.getRequestedTime(), TimeUnit.MILLISECONDS);
     }
+    downloadTimer.update(requestChain.getEndTime() - requestChain.getStartTime(), TimeUnit.MILLISECONDS);
+  }
 
-    return readRequestChainList;
+  private static long getRequestedBytes(FileDownloadRequestChain requestChain)
+  {
+    long totalBytesToBeDownloaded = 0;
+    for (ReadRequest request : requestChain.getReadRequests()) {
+      totalBytesToBeDownloaded += request.getBackendReadLength();
+    }
+    return totalBytesToBeDownloaded;
   }
 
+  /**
+   * Execute download chains and wait for all of them.
+   *
+   * @param readRequestChainList The chains to execute.
+   * @return The number of bytes downloaded by the chains which downloaded all their data.
+   */
   protected long processDownloadRequests(List<FileDownloadRequestChain> readRequestChainList)
   {
     if (readRequestChainList.size() == 0) {
@@ -120,34 +240,18 @@ class FileDownloader
     }
 
     long sizeRead = 0;
-    List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+    List<ListenableFuture<Integer>> futures = new ArrayList<>();
 
     for (FileDownloadRequestChain requestChain : readRequestChainList) {
-      requestChain.lock();
-      Future<Integer> result = processService.submit(requestChain);
-      futures.add(result);
+      futures.add(submitDownloadRequest(requestChain));
     }
 
-    for (Future<Integer> future : futures) {
-      FileDownloadRequestChain requestChain = readRequestChainList.get(futures.indexOf(future));
-      long totalBytesToBeDownloaded = 0;
-      for (ReadRequest request : requestChain.getReadRequests()) {
-        totalBytesToBeDownloaded += request.getBackendReadLength();
-      }
+    for (int i = 0; i < futures.size(); i++) {
+      FileDownloadRequestChain requestChain = readRequestChainList.get(i);
       try {
-        long read = future.get();
-        // Updating the cache only when we have downloaded the same amount of data that we requested
-        // This takes care of the scenario where the data is download partially but the cache
-        // metadata gets updated for all the requested blocks.
-        if (read == totalBytesToBeDownloaded) {
-          requestChain.updateCacheStatus(requestChain.getRemotePath(), requestChain.getFileSize(),
-              requestChain.getLastModified(), CacheConfig.getBlockSize(conf), conf);
+        long read = futures.get(i).get();
+        if (read == getRequestedBytes(requestChain)) {
           sizeRead += read;
-          this.totalTimeToDownload.inc(requestChain.getTimeSpentOnDownload());
-        }
-        else {
-          log.error("ReadData didn't match with requested value. RequestedData: " + totalBytesToBeDownloaded +
-              " ReadData: " + read);
         }
       }
       catch (ExecutionException | InterruptedException ex) {
@@ -155,8 +259,6 @@ class FileDownloader
         requestChain.cancel();
       }
     }
-    long dataDownloadedInMB = DiskUtils.bytesToMB(sizeRead);
-    this.totalMBDownloaded.inc(dataDownloadedInMB);
     return sizeRead;
   }
 }
@@ -16,15 +16,25 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.RemovalCause;
 import com.google.common.util.concurrent.Striped;
+import com.qubole.rubix.bookkeeper.utils.DiskUtils;
+import com.qubole.rubix.core.FileChannelCache;
+import com.qubole.rubix.core.MappedFileCache;
+import com.qubole.rubix.core.VerifiedBlocks;
 import com.qubole.rubix.spi.CacheUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.file.Paths;
+import java.util.BitSet;
 import java.util.concurrent.locks.Lock;
 
 import static com.qubole.rubix.spi.CacheConfig.getBlockSize;
@@ -37,19 +47,41 @@ public class FileMetadata
   private String remotePath;
   private String localPath;
   private String mdFilePath;
+  private String checksumFilePath;
   private long size;
   private long lastModified;
   private long currentFileSize;
+  private int blockSize;
 
   private boolean needsRefresh = true;
 
   int bitmapFileSizeBytes;
   ByteBufferBitmap blockBitmap;
+  private BitmapStore bitmapStore;
+  private long bitmapSlotOffset;
+  private long bitmapSlotTag;
+
+  // The blocks requested or cached since the file was last trimmed, which survive the next trim.
+  // Shared by the FileMetadata replacing this one in the cache, hence guarded by its own monitor.
+  private BitSet accessedBlocks = new BitSet();
+  // The blocks uncached by a trim whose range was not punched yet, shared the same way
+  private PendingHoles pendingHoles = new PendingHoles();
 
   static Striped<Lock> stripes = Striped.lock(20000);
 
   private static Log log = LogFactory.getLog(FileMetadata.class.getName());
 
+  /*
+   * The block bitmap of a cached file lives in the BitmapStore of its disk. The mdfile references the slot of the
+   * bitmap and describes the cached file, so that the metadata can be recovered when the BookKeeper restarts:
+   *   | slotOffset (long) | slotTag (long) | fileLength (long) | lastModified (long) | blockSize (int) | remotePath (UTF) | trailerLength (int) | magic (int) |
+   * trailerLength covers the fields between the slot reference and itself.
+   * The mdfile stays empty until the first block of the file is cached.
+   */
+  private static final int MDFILE_TRAILER_MAGIC = 0x52425832; // "RBX2"
+  private static final int MDFILE_SLOT_REFERENCE_SIZE = 16;
+  private static final int MDFILE_TRAILER_FOOTER_SIZE = 8;
+
   public FileMetadata()
   {
   }
@@ -63,9 +95,10 @@ public class FileMetadata
     this.currentFileSize = currentFileSize;
     localPath = CacheUtil.getLocalPath(remotePath, conf);
     mdFilePath = CacheUtil.getMetadataFilePath(remotePath, conf);
+    checksumFilePath = CacheUtil.getChecksumFilePath(remotePath, conf);
 
-    int bitsRequired = (int) Math.ceil((double) size / getBlockSize(conf)); //numBlocks
-    bitmapFileSizeBytes = (int) Math.ceil((double) bitsRequired / 8);
+    blockSize = getBlockSize(conf);
+    bitmapFileSizeBytes = getBitmapSize(size, blockSize);
 
     /*
      * Caution: Do no call refreshBitmap in constructor as it breaks the assumptions in delete path and it could
@@ -73,6 +106,12 @@ public class FileMetadata
      */
   }
 
+  private static int getBitmapSize(long fileLength, int blockSize)
+  {
+    int bitsRequired = (int) Math.ceil((double) fileLength / blockSize); //numBlocks
+    return (int) Math.ceil((double) bitsRequired / 8);
+  }
+
   long incrementCurrentFileSize(long incrementBy)
   {
     this.currentFileSize += incrementBy;
@@ -87,85 +126,374 @@ public class FileMetadata
   void refreshBitmap()
       throws IOException
   {
-    byte[] bytes = new byte[bitmapFileSizeBytes];
-    RandomAccessFile mdFile;
     Lock lock = stripes.get(remotePath);
     try {
       lock.lock();
-      try {
-        mdFile = new RandomAccessFile(mdFilePath, "rw");
-        mdFile.readFully(bytes, 0, (int) mdFile.length());
+      MetadataFileContents contents = null;
+      try (RandomAccessFile mdFile = new RandomAccessFile(mdFilePath, "rw")) {
+        contents = readMetadataFile(mdFile);
       }
       catch (FileNotFoundException e) {
         File file = new File(mdFilePath);
         file.createNewFile();
         file.setWritable(true, false);
         file.setReadable(true, false);
-        mdFile = new RandomAccessFile(file, "rw");
-        mdFile.setLength(bitmapFileSizeBytes);
       }
-      mdFile.close();
+
+      BitmapStore store = BitmapStore.getInstance(localPath);
+      if (contents != null && contents.fileLength == size && store.isOwner(contents.slotOffset, contents.slotTag)) {
+        setBitmap(store, contents.slotOffset, contents.slotTag);
+      }
+      else {
+        // Nothing is cached yet, the bitmap is allocated along with the first cached block
+        blockBitmap = null;
+      }
     }
     finally {
       lock.unlock();
     }
-    blockBitmap = new ByteBufferBitmap(bytes);
     needsRefresh = false;
   }
 
+  private void setBitmap(BitmapStore store, long slotOffset, long slotTag)
+  {
+    this.bitmapStore = store;
+    this.bitmapSlotOffset = slotOffset;
+    this.bitmapSlotTag = slotTag;
+    this.blockBitmap = store.getBitmap(slotOffset, bitmapFileSizeBytes);
+  }
+
+  // The slot of the bitmap is released when the files are deleted through another FileMetadata of the same file
+  private boolean isBitmapStale()
+  {
+    return needsRefresh || (blockBitmap != null && !bitmapStore.isOwner(bitmapSlotOffset, bitmapSlotTag));
+  }
+
+  /**
+   * Use the bitmap already loaded by another FileMetadata of the same file, e.g. when replacing it in the cache.
+   */
+  void shareBitmap(FileMetadata other)
+  {
+    accessedBlocks = other.accessedBlocks;
+    pendingHoles = other.pendingHoles;
+    if (!other.needsRefresh && other.blockBitmap != null && other.bitmapFileSizeBytes == bitmapFileSizeBytes) {
+      setBitmap(other.bitmapStore, other.bitmapSlotOffset, other.bitmapSlotTag);
+      needsRefresh = false;
+    }
+  }
+
+  private void writeMetadataFile(RandomAccessFile mdFile, BitmapStore.Slot slot)
+      throws IOException
+  {
+    ByteArrayOutputStream contentBytes = new ByteArrayOutputStream();
+    DataOutputStream content = new DataOutputStream(contentBytes);
+    content.writeLong(slot.getOffset());
+    content.writeLong(slot.getTag());
+    content.writeLong(size);
+    content.writeLong(lastModified);
+    content.writeInt(blockSize);
+    content.writeUTF(remotePath);
+    content.writeInt(content.size() - MDFILE_SLOT_REFERENCE_SIZE);
+    content.writeInt(MDFILE_TRAILER_MAGIC);
+    content.flush();
+    mdFile.setLength(0);
+    mdFile.write(contentBytes.toByteArray());
+  }
+
+  private static MetadataFileContents readMetadataFile(RandomAccessFile mdFile)
+      throws IOException
+  {
+    long mdFileLength = mdFile.length();
+    if (mdFileLength < MDFILE_SLOT_REFERENCE_SIZE + MDFILE_TRAILER_FOOTER_SIZE) {
+      return null;
+    }
+
+    try {
+      mdFile.seek(mdFileLength - MDFILE_TRAILER_FOOTER_SIZE);
+      int trailerLength = mdFile.readInt();
+      if (mdFile.readInt() != MDFILE_TRAILER_MAGIC
+          || trailerLength != mdFileLength - MDFILE_TRAILER_FOOTER_SIZE - MDFILE_SLOT_REFERENCE_SIZE) {
+        return null;
+      }
+
+      mdFile.seek(0);
+      MetadataFileContents contents = new MetadataFileContents();
+      contents.slotOffset = mdFile.readLong();
+      contents.slotTag = mdFile.readLong();
+      contents.fileLength = mdFile.readLong();
+      contents.lastModified = mdFile.readLong();
+      contents.blockSize = mdFile.readInt();
+      contents.remotePath = mdFile.readUTF();
+      return contents;
+    }
+    catch (EOFException | UTFDataFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Rebuild the metadata of a cached file from its mdfile, as left behind by a previous BookKeeper session.
+   * The slot of its bitmap is claimed in the bitmap store when the file is recovered.
+   *
+   * @param mdFile  The mdfile to recover the metadata from.
+   * @param conf    The current Hadoop configuration.
+   * @return The recovered metadata, or null if the mdfile or its data file cannot be trusted.
+   * @throws IOException if an error occurs while reading the mdfile.
+   */
+  static FileMetadata recoverFromMetadataFile(File mdFile, Configuration conf)
+      throws IOException
+  {
+    MetadataFileContents contents;
+    try (RandomAccessFile raf = new RandomAccessFile(mdFile, "r")) {
+      contents = readMetadataFile(raf);
+    }
+    if (contents == null) {
+      log.debug("No recovery information found in " + mdFile);
+      return null;
+    }
+
+    int blockSize = getBlockSize(conf);
+    if (contents.blockSize != blockSize) {
+      log.info(String.format("Block size of %s changed from %d to %d", mdFile, contents.blockSize, blockSize));
+      return null;
+    }
+
+    FileMetadata md = new FileMetadata(contents.remotePath, contents.fileLength, contents.lastModified, 0, conf);
+    // Location of the cache files depends on the disk layout, which may have changed since they were written
+    if (!Paths.get(md.getMdFilePath()).normalize().equals(mdFile.toPath().normalize())) {
+      log.info("Cache layout changed for " + contents.remotePath);
+      return null;
+    }
+
+    BitmapStore store = BitmapStore.getInstance(md.localPath);
+    if (!store.claim(contents.slotOffset, contents.slotTag, md.bitmapFileSizeBytes)) {
+      log.info("Bitmap of " + contents.remotePath + " is not available in the bitmap store");
+      return null;
+    }
+    md.setBitmap(store, contents.slotOffset, contents.slotTag);
+
+    long cachedBytes = 0;
+    long lastCachedBlockEnd = 0;
+    long numBlocks = (md.size + blockSize - 1) / blockSize;
+    for (long blockNum = 0; blockNum < numBlocks; blockNum++) {
+      if (md.blockBitmap.isSet((int) blockNum)) {
+        long blockEnd = Math.min(md.size, (blockNum + 1) * blockSize);
+        cachedBytes += blockEnd - blockNum * blockSize;
+        lastCachedBlockEnd = blockEnd;
+      }
+    }
+
+    // Every block marked as cached must be backed by the data file
+    File localFile = new File(md.localPath);
+    if (!localFile.exists() || localFile.length() < lastCachedBlockEnd || localFile.length() > md.size) {
+      log.info("Cached data is inconsistent with metadata for " + contents.remotePath);
+      store.free(contents.slotOffset, contents.slotTag, md.bitmapFileSizeBytes);
+      return null;
+    }
+
+    md.currentFileSize = cachedBytes;
+    md.needsRefresh = false;
+    return md;
+  }
+
   public boolean isBlockCached(long blockNumber)
       throws IOException
   {
-    if (needsRefresh) {
+    if (isBitmapStale()) {
       refreshBitmap();
     }
-    return blockBitmap.isSet((int) blockNumber);
+    ByteBufferBitmap bitmap = blockBitmap;
+    return bitmap != null && bitmap.isSet((int) blockNumber);
   }
 
-  private void setBlockCached(long blockNumber)
+  // Returns the number of bytes of the blocks which were not cached yet, 0 if the blocks could not be marked as cached
+  public synchronized long setBlocksCached(long startBlock, long endBlock)
       throws IOException
   {
-    if (needsRefresh) {
-      refreshBitmap();
+    Lock lock = stripes.get(remotePath);
+    long cachedBytes = 0;
+    try {
+      lock.lock();
+      if (isBitmapStale()) {
+        refreshBitmap();
+      }
+
+      if (blockBitmap == null) {
+        BitmapStore store = BitmapStore.getInstance(localPath);
+        BitmapStore.Slot slot = store.allocate(bitmapFileSizeBytes);
+        try (RandomAccessFile mdFile = new RandomAccessFile(mdFilePath, "rw")) {
+          writeMetadataFile(mdFile, slot);
+        }
+        catch (IOException e) {
+          // it is possible that file is deleted by an old CacheEviction event after this FileMetadata entry was made. See 3.1.2 comment above
+          store.free(slot.getOffset(), slot.getTag(), bitmapFileSizeBytes);
+          log.error("Could not update mdfile for " + remotePath, e);
+          return 0;
+        }
+        setBitmap(store, slot.getOffset(), slot.getTag());
+      }
+
+      for (long blockNum = startBlock; blockNum < endBlock; blockNum++) {
+        if (!blockBitmap.isSet((int) blockNum)) {
+          blockBitmap.set((int) blockNum);
+          cachedBytes += getBlockLength(blockNum);
+        }
+      }
+      synchronized (accessedBlocks) {
+        accessedBlocks.set((int) startBlock, (int) endBlock);
+      }
+    }
+    finally {
+      lock.unlock();
     }
 
-    blockBitmap.set((int) blockNumber);
+    return cachedBytes;
   }
 
-  // Returns true if backing mdfile is updated
-  public synchronized boolean setBlocksCached(long startBlock, long endBlock)
+  public void setBlockAccessed(long blockNum)
+  {
+    synchronized (accessedBlocks) {
+      accessedBlocks.set((int) blockNum);
+    }
+  }
+
+  /**
+   * Uncache the blocks which were neither requested nor cached since the file was last trimmed, and start tracking
+   * the accessed blocks anew. The space of the blocks is only reclaimed by {@link #punchPendingHoles()}, once the
+   * readers which were told that they are cached are done with them.
+   *
+   * @return The number of blocks uncached, or -1 if no block was accessed or every block was accessed, in which
+   * case the whole file should be deleted instead.
+   * @throws IOException if the bitmap could not be loaded.
+   */
+  synchronized int trimColdBlocks()
       throws IOException
   {
-    for (long blockNum = startBlock; blockNum < endBlock; blockNum++) {
-      setBlockCached(blockNum);
+    BitSet keptBlocks;
+    synchronized (accessedBlocks) {
+      keptBlocks = (BitSet) accessedBlocks.clone();
+      accessedBlocks.clear();
+    }
+    if (keptBlocks.isEmpty()) {
+      return -1;
     }
 
-    // update mdfile
+    Lock lock = stripes.get(remotePath);
+    int trimmedBlocks = 0;
+    long trimmedBytes = 0;
     try {
-      RandomAccessFile mdFile = new RandomAccessFile(mdFilePath, "rw");
-      mdFile.write(blockBitmap.getBytes());
-      mdFile.close();
+      lock.lock();
+      if (isBitmapStale()) {
+        refreshBitmap();
+      }
+      if (blockBitmap == null) {
+        return -1;
+      }
+
+      long numBlocks = (size + blockSize - 1) / blockSize;
+      synchronized (pendingHoles) {
+        for (long blockNum = 0; blockNum < numBlocks; blockNum++) {
+          if (blockBitmap.isSet((int) blockNum) && !keptBlocks.get((int) blockNum)) {
+            blockBitmap.unset((int) blockNum);
+            pendingHoles.blocks.set((int) blockNum);
+            trimmedBlocks++;
+            trimmedBytes += getBlockLength(blockNum);
+          }
+        }
+      }
     }
-    catch (FileNotFoundException e) {
-      // it is possible that file is deleted by an old CacheEviction event after this FileMetadata entry was made. See 3.1.2 comment above
-      // refresh
-      log.error("Could not update mdfile for " + remotePath + ". Trying again", e);
+    finally {
+      lock.unlock();
+    }
+
+    currentFileSize -= trimmedBytes;
+    // Nothing to reclaim from a file whose blocks are all hot, so it has to make room as a whole
+    return trimmedBlocks == 0 ? -1 : trimmedBlocks;
+  }
+
+  /**
+   * Keep a block uncached by a trim from being punched, as it is about to be downloaded again.
+   */
+  void cancelHolePunch(long blockNum)
+  {
+    synchronized (pendingHoles) {
+      pendingHoles.blocks.clear((int) blockNum);
+    }
+  }
+
+  /**
+   * Reclaim the space of the blocks uncached by trims, unless they were handed out for download again since or the
+   * files were deleted. Blocks are zeroed in place, so this has to wait until no reader relies on their old status.
+   *
+   * @return The number of blocks whose range was punched.
+   * @throws IOException if holes could not be punched.
+   */
+  int punchPendingHoles()
+      throws IOException
+  {
+    // Only the monitor is held, so that punching does not hold up the requests for the file
+    synchronized (pendingHoles) {
+      BitSet blocks = pendingHoles.blocks;
+      if (pendingHoles.filesDeleted) {
+        blocks.clear();
+        return 0;
+      }
+
+      int punchedBlocks = 0;
       try {
+        for (int rangeStart = blocks.nextSetBit(0); rangeStart >= 0; rangeStart = blocks.nextSetBit(rangeStart)) {
+          int rangeEnd = blocks.nextClearBit(rangeStart);
+          long start = (long) rangeStart * blockSize;
+          long end = Math.min(size, (long) rangeEnd * blockSize);
+          if (!DiskUtils.punchHole(localPath, start, end - start)) {
+            throw new IOException("Could not punch holes in " + localPath);
+          }
+          punchedBlocks += rangeEnd - rangeStart;
+          rangeStart = rangeEnd;
+        }
+      }
+      finally {
+        // Blocks which could not be punched keep using space until the file is deleted
+        blocks.clear();
+      }
+      return punchedBlocks;
+    }
+  }
+
+  // The last block of a file is shorter than the block size
+  private long getBlockLength(long blockNum)
+  {
+    return Math.min(size, (blockNum + 1) * blockSize) - blockNum * blockSize;
+  }
+
+  // Returns the number of bytes of the blocks which were cached and are not anymore
+  public synchronized long setBlocksUncached(long startBlock, long endBlock)
+      throws IOException
+  {
+    Lock lock = stripes.get(remotePath);
+    long uncachedBytes = 0;
+    try {
+      lock.lock();
+      if (isBitmapStale()) {
         refreshBitmap();
       }
-      catch (IOException e1) {
-        // Inconsistent state, reset bitmap to prevent unknown issues
-        blockBitmap = new ByteBufferBitmap(new byte[bitmapFileSizeBytes]);
-        log.error("Could not refresh mdfile in second try for " + remotePath, e);
+
+      if (blockBitmap == null) {
+        return 0;
+      }
+
+      for (long blockNum = startBlock; blockNum < endBlock; blockNum++) {
+        if (blockBitmap.isSet((int) blockNum)) {
+          blockBitmap.unset((int) blockNum);
+          uncachedBytes += getBlockLength(blockNum);
+        }
       }
-      log.warn("Updated mdfile successfully for " + remotePath);
     }
-    catch (IOException e) {
-      log.error("Could not update mdfile for " + remotePath, e);
-      return false;
+    finally {
+      lock.unlock();
     }
 
-    return true;
+    return uncachedBytes;
   }
 
   public void closeAndCleanup(RemovalCause cause, Cache cache)
@@ -198,6 +526,11 @@ public class FileMetadata
     return this.size;
   }
 
+  long getCurrentFileSize()
+  {
+    return currentFileSize;
+  }
+
   // Assumption: this is called after the FileMetadata has been removed from cache
   // E.g. in RemovalListener
   void deleteFiles(Cache<String, FileMetadata> cache)
@@ -215,11 +548,22 @@ public class FileMetadata
     try {
       lock.lock();
 
+      releaseBitmap();
+      synchronized (pendingHoles) {
+        pendingHoles.filesDeleted = true;
+      }
+
       File mdFile = new File(mdFilePath);
       mdFile.delete();
 
+      MappedFileCache.invalidateIfCreated(localPath);
+      FileChannelCache.invalidateIfCreated(localPath);
+      VerifiedBlocks.invalidateIfCreated(localPath);
       File localFile = new File(localPath);
       localFile.delete();
+
+      File checksumFile = new File(checksumFilePath);
+      checksumFile.delete();
     }
     finally {
       lock.unlock();
@@ -231,9 +575,48 @@ public class FileMetadata
     }
   }
 
+  // The mdfile may reference a slot which this FileMetadata did not load yet
+  private void releaseBitmap()
+  {
+    try (RandomAccessFile mdFile = new RandomAccessFile(mdFilePath, "r")) {
+      MetadataFileContents contents = readMetadataFile(mdFile);
+      if (contents != null) {
+        BitmapStore.getInstance(localPath).free(contents.slotOffset, contents.slotTag,
+            getBitmapSize(contents.fileLength, contents.blockSize));
+      }
+    }
+    catch (FileNotFoundException e) {
+      // Nothing was cached
+    }
+    catch (IOException e) {
+      log.warn("Could not release bitmap of " + remotePath, e);
+    }
+
+    if (blockBitmap != null) {
+      bitmapStore.free(bitmapSlotOffset, bitmapSlotTag, bitmapFileSizeBytes);
+    }
+  }
+
   public int getWeight(Configuration conf)
   {
-    // this will return the current downloaded size of the file as weight.
-    return (int) (currentFileSize / 1024 / 1024);
+    // this will return the current downloaded size of the file in KB, rounded up, as weight.
+    // Only blocks newly marked as cached add to it, so caching blocks again does not inflate the weight.
+    return (int) ((currentFileSize + 1023) / 1024);
+  }
+
+  private static class MetadataFileContents
+  {
+    long slotOffset;
+    long slotTag;
+    long fileLength;
+    long lastModified;
+    int blockSize;
+    String remotePath;
+  }
+
+  private static class PendingHoles
+  {
+    final BitSet blocks = new BitSet();
+    boolean filesDeleted;
   }
 }
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+/**
+ * A count-min sketch estimating how often keys were seen recently, with 4-bit counters which are all halved once
+ * the number of recorded keys reaches ten times the width of the sketch, so that old popularity fades away.
+ */
+class FrequencySketch
+{
+  private static final int DEPTH = 4;
+  private static final int MAX_COUNT = 15;
+  private static final int[] SEEDS = {0x97cb3127, 0x0e3c8c4b, 0x7bda4b6d, 0x5a1f9a3d};
+
+  private final byte[][] counters;
+  private final int mask;
+  private final int sampleSize;
+  private int size;
+
+  FrequencySketch(int expectedKeys)
+  {
+    int width = Integer.highestOneBit(Math.max(expectedKeys - 1, 1)) << 1;
+    this.counters = new byte[DEPTH][width];
+    this.mask = width - 1;
+    this.sampleSize = 10 * width;
+  }
+
+  /**
+   * Record an occurrence of a key.
+   */
+  void increment(Object key)
+  {
+    int hash = spread(key.hashCode());
+    int min = frequency(hash);
+    if (min == MAX_COUNT) {
+      return;
+    }
+
+    // Conservative update: only the counters at the minimum are increased, limiting the overestimation
+    for (int i = 0; i < DEPTH; i++) {
+      int index = indexOf(hash, i);
+      if (counters[i][index] == min) {
+        counters[i][index]++;
+      }
+    }
+    if (++size >= sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * Estimate how often a key was seen recently.
+   */
+  int frequency(Object key)
+  {
+    return frequency(spread(key.hashCode()));
+  }
+
+  private int frequency(int hash)
+  {
+    int min = MAX_COUNT;
+    for (int i = 0; i < DEPTH; i++) {
+      min = Math.min(min, counters[i][indexOf(hash, i)]);
+    }
+    return min;
+  }
+
+  private void reset()
+  {
+    for (byte[] row : counters) {
+      for (int i = 0; i < row.length; i++) {
+        row[i] = (byte) (row[i] >>> 1);
+      }
+    }
+    size /= 2;
+  }
+
+  private int indexOf(int hash, int row)
+  {
+    int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  private static int spread(int hash)
+  {
+    hash ^= hash >>> 17;
+    hash *= 0xed5ad4bb;
+    hash ^= hash >>> 11;
+    return hash;
+  }
+}
@@ -19,6 +19,7 @@ import com.codahale.metrics.jvm.MemoryUsageGaugeSet;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.qubole.rubix.common.metrics.BookKeeperMetrics;
+import com.qubole.rubix.core.FileChannelCache;
 import com.qubole.rubix.spi.BookKeeperFactory;
 import com.qubole.rubix.spi.CacheConfig;
 import com.qubole.rubix.spi.CacheUtil;
@@ -37,18 +38,26 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.thrift.shaded.TException;
 
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -132,12 +141,26 @@ public class LocalDataTransferServer extends Configured implements Tool
     return false;
   }
 
+  /**
+   * Serves the cached data of this node to the other nodes of the cluster.
+   *
+   * A single selector thread accepts connections, reads request headers and streams the data of cached files
+   * straight from their file channels to the sockets. Only the check of the requested blocks with the
+   * BookKeeper, which is a blocking call, is handed to a bounded pool of worker threads. A connection serves
+   * one request at a time and can be reused by the client for any number of requests. When the workers fall
+   * behind by more than the queue size, new requests are refused by closing their connection, so that the
+   * callers read the data from the object store instead.
+   */
   public static class LocalServer
       implements Runnable
   {
     static ServerSocketChannel listener;
     Configuration conf;
 
+    private Selector selector;
+    private ExecutorService workerPool;
+    private final Queue<ClientConnection> readyConnections = new ConcurrentLinkedQueue<>();
+
     public LocalServer(Configuration conf)
     {
       this.conf = conf;
@@ -147,23 +170,49 @@ public class LocalDataTransferServer extends Configured implements Tool
     public void run()
     {
       int port = CacheConfig.getLocalServerPort(conf);
-      ExecutorService threadPool = Executors.newCachedThreadPool();
+      int workerThreads = CacheConfig.getLocalServerWorkerThreads(conf);
+      workerPool = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<Runnable>(CacheConfig.getLocalServerQueueSize(conf)));
       try {
+        selector = Selector.open();
         listener = ServerSocketChannel.open();
         listener.bind(new InetSocketAddress(port));
+        listener.configureBlocking(false);
+        listener.register(selector, SelectionKey.OP_ACCEPT);
         log.info("Listening on port " + port);
-        while (true) {
-          SocketChannel clientSocket = listener.accept();
-          ClientServiceThread cliThread = new ClientServiceThread(clientSocket, conf);
-          threadPool.execute(cliThread);
+
+        while (listener.isOpen()) {
+          selector.select();
+          registerReadyConnections();
+
+          Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+          while (selectedKeys.hasNext()) {
+            SelectionKey key = selectedKeys.next();
+            selectedKeys.remove();
+            if (!key.isValid()) {
+              continue;
+            }
+
+            if (key.isAcceptable()) {
+              accept();
+            }
+            else {
+              handle(key);
+            }
+          }
         }
+        log.info("Stopping Local Transfer server");
       }
-      catch (AsynchronousCloseException e) {
+      catch (ClosedSelectorException | ClosedChannelException e) {
         log.info("Stopping Local Transfer server");
       }
       catch (IOException e) {
         log.error(String.format("Error starting Local Transfer server %s", e));
       }
+      finally {
+        workerPool.shutdownNow();
+        closeConnections();
+      }
     }
 
     public boolean isAlive()
@@ -175,146 +224,407 @@ public class LocalDataTransferServer extends Configured implements Tool
     {
       try {
         listener.close();
+        if (selector != null) {
+          selector.wakeup();
+        }
       }
       catch (IOException e) {
         log.error(String.format("Error stopping Local Transfer server %s", e));
       }
     }
-  }
 
-  static class ClientServiceThread
-      extends Thread
-  {
-    SocketChannel localDataTransferClient;
-    RetryingBookkeeperClient bookKeeperClient;
-    Configuration conf;
+    private void accept() throws ClosedChannelException
+    {
+      SocketChannel clientSocket = null;
+      try {
+        clientSocket = listener.accept();
+        if (clientSocket == null) {
+          return;
+        }
+        log.debug("Connected to node - " + clientSocket.getRemoteAddress());
+        clientSocket.configureBlocking(false);
+        SelectionKey key = clientSocket.register(selector, SelectionKey.OP_READ);
+        key.attach(new ClientConnection(key, CacheConfig.getMaxHeaderSize(conf)));
+      }
+      catch (ClosedChannelException e) {
+        throw e;
+      }
+      catch (IOException e) {
+        log.warn("Could not accept connection from non-local node", e);
+        if (clientSocket != null) {
+          try {
+            clientSocket.close();
+          }
+          catch (IOException e1) {
+            log.info("Error in Local Data Transfer Server: ", e1);
+          }
+        }
+      }
+    }
 
-    ClientServiceThread(SocketChannel s, Configuration conf)
+    private void handle(SelectionKey key)
     {
-      localDataTransferClient = s;
-      this.conf = conf;
+      ClientConnection connection = (ClientConnection) key.attachment();
+      try {
+        if (key.isReadable()) {
+          readHeader(connection);
+        }
+        else if (key.isWritable()) {
+          transferData(connection);
+        }
+      }
+      catch (Exception e) {
+        log.warn("Error in Local Data Transfer Server for client: " + connection.getRemoteAddress(), e);
+        connection.close();
+      }
     }
 
-    public void run()
+    private void readHeader(ClientConnection connection) throws Exception
+    {
+      if (connection.channel.read(connection.headerBuffer) == -1) {
+        // The client is done with this connection
+        connection.close();
+        return;
+      }
+      processHeader(connection);
+    }
+
+    private void processHeader(ClientConnection connection) throws Exception
     {
+      DataTransferHeader header = connection.takeHeader();
+      if (header == null) {
+        return;
+      }
+
+      log.debug(String.format("Trying to read %d ranges from %s for client %s", header.getRanges().size(),
+          header.getFilePath(), connection.getRemoteAddress()));
+      connection.key.interestOps(0);
       try {
-        log.debug("Connected to node - " + localDataTransferClient.getLocalAddress());
-        BookKeeperFactory bookKeeperFactory = new BookKeeperFactory();
-        ByteBuffer dataInfo = ByteBuffer.allocate(CacheConfig.getMaxHeaderSize(conf));
+        workerPool.execute(new RequestValidator(connection, header, conf, this));
+      }
+      catch (RejectedExecutionException e) {
+        throw new Exception("Too many pending requests, refusing request from non-local node");
+      }
+    }
 
-        int read = localDataTransferClient.read(dataInfo);
-        if (read == -1) {
-          throw new Exception("Could not read data from Non-local node");
-        }
-        dataInfo.flip();
-
-        DataTransferHeader header = DataTransferClientHelper.readHeaders(dataInfo);
-        long offset = header.getOffset();
-        int readLength = header.getReadLength();
-        String remotePath = header.getFilePath();
-        log.debug(String.format("Trying to read from %s at offset %d and length %d for client %s", remotePath, offset, readLength, localDataTransferClient.getRemoteAddress()));
-        try {
-          this.bookKeeperClient = bookKeeperFactory.createBookKeeperClient(conf);
+    private void transferData(ClientConnection connection) throws Exception
+    {
+      // The ranges are sent back to back, in the order they were requested in
+      if (connection.remaining > 0 || connection.nextRange()) {
+        int maxCount = CacheConfig.getLocalTransferBufferSize(conf);
+        long count = Math.min(maxCount, connection.remaining);
+        FileChannel file = connection.file.getChannel();
+        long nread = file.transferTo(connection.position, count, connection.channel);
+        if (nread == 0 && connection.position >= file.size()) {
+          throw new IOException("Requested data is beyond the end of the cached file");
         }
-        catch (Exception e) {
-          throw new Exception("Could not create BookKeeper Client " + Throwables.getStackTraceAsString(e));
+        connection.position += nread;
+        connection.remaining -= nread;
+        connection.bytesSent += nread;
+      }
+
+      if (connection.remaining == 0 && !connection.ranges.hasNext()) {
+        log.debug(String.format("Done reading %d bytes for client %s", connection.bytesSent, connection.getRemoteAddress()));
+        if (connection.closeWhenDone) {
+          connection.close();
+          return;
         }
+        connection.closeFile();
+        connection.key.interestOps(SelectionKey.OP_READ);
+        processHeader(connection);
+      }
+    }
 
-        if (!CacheConfig.isParallelWarmupEnabled(conf)) {
-          ReadDataRequest readDataRequest = new ReadDataRequest(remotePath, offset, readLength, header.getFileSize(), header.getLastModified());
-          if (!bookKeeperClient.readData(readDataRequest)) {
-            throw new Exception("Could not cache data required by non-local node");
-          }
+    /**
+     * Hand a connection back to the selector thread once its request has been validated.
+     */
+    void onRequestValidated(ClientConnection connection)
+    {
+      readyConnections.add(connection);
+      selector.wakeup();
+    }
+
+    private void registerReadyConnections()
+    {
+      ClientConnection connection;
+      while ((connection = readyConnections.poll()) != null) {
+        if (connection.file == null) {
+          connection.close();
         }
-        else {
-          // Just make sure the requested blocks are present in the cache. If any the blocks is
-          // not presnt in the cache, throw an exception so that the caller NonLocalReadRequestChain
-          // can read the data from the object store
-          long blockSize = CacheConfig.getBlockSize(conf);
-          long startBlock = offset / blockSize;
-          long endBlock = ((offset + (readLength - 1)) / blockSize) + 1;
-
-          CacheStatusRequest request = new CacheStatusRequest(remotePath, header.getFileSize(), header.getLastModified(),
-              startBlock, endBlock);
-          List<BlockLocation> blockLocations = bookKeeperClient.getCacheStatus(request);
-
-          long blockNum = startBlock;
-          for (BlockLocation location : blockLocations) {
-            if (location.getLocation() != Location.CACHED) {
-              log.error(String.format("The requested data for block %d of file %s in not in cache. " +
-                  " The data will be read from object store", blockNum, remotePath));
-              throw new Exception("The requested data in not in cache. The data will be read from object store");
-            }
-            blockNum++;
+        else if (connection.key.isValid()) {
+          connection.key.interestOps(SelectionKey.OP_WRITE);
+        }
+      }
+    }
+
+    private void closeConnections()
+    {
+      try {
+        for (SelectionKey key : selector.keys()) {
+          if (key.attachment() instanceof ClientConnection) {
+            ((ClientConnection) key.attachment()).close();
           }
         }
+        selector.close();
+      }
+      catch (ClosedSelectorException | IOException e) {
+        log.debug("Error closing Local Transfer server selector", e);
+      }
+    }
+  }
 
-        int nread = readDataFromCachedFile(remotePath, offset, readLength);
+  /**
+   * The state of a connection from a non-local node.
+   */
+  static class ClientConnection
+  {
+    final SelectionKey key;
+    final SocketChannel channel;
+    final ByteBuffer headerBuffer;
 
-        if (bookKeeperClient != null) {
-          bookKeeperClient.close();
-        }
-        log.debug(String.format("Done reading %d from %s at offset %d and length %d for client %s", nread, remotePath, offset, readLength, localDataTransferClient.getRemoteAddress()));
+    // The cached file being sent, with the ranges still to send
+    FileChannelCache.Handle file;
+    Iterator<DataTransferHeader.ReadRange> ranges;
+    long bytesSent;
+    boolean closeWhenDone;
+
+    // The position and the number of bytes still to send in the current range
+    long position;
+    long remaining;
+
+    ClientConnection(SelectionKey key, int maxHeaderSize)
+    {
+      this.key = key;
+      this.channel = (SocketChannel) key.channel();
+      this.headerBuffer = ByteBuffer.allocate(maxHeaderSize);
+    }
+
+    /**
+     * Take the next request header from the bytes read so far.
+     *
+     * @return The header, or null if it has not been read completely yet.
+     * @throws IOException if the header is larger than allowed.
+     */
+    DataTransferHeader takeHeader() throws IOException
+    {
+      int headerSize;
+      try {
+        headerSize = DataTransferClientHelper.getHeaderSize(headerBuffer);
       }
-      catch (Exception e) {
-        try {
-          log.warn("Error in Local Data Transfer Server for client: " + localDataTransferClient.getRemoteAddress(), e);
+      catch (IllegalArgumentException e) {
+        throw new IOException("Invalid header", e);
+      }
+      if (headerSize > headerBuffer.capacity()) {
+        throw new IOException("Invalid header of size " + headerSize);
+      }
+      if (headerSize == -1 || headerBuffer.position() < headerSize) {
+        return null;
+      }
+
+      headerBuffer.flip();
+      DataTransferHeader header = DataTransferClientHelper.readHeaders(headerBuffer);
+      headerBuffer.compact();
+      return header;
+    }
+
+    void startTransfer(FileChannelCache.Handle file, List<DataTransferHeader.ReadRange> ranges, boolean closeWhenDone)
+    {
+      this.file = file;
+      this.ranges = ranges.iterator();
+      this.closeWhenDone = closeWhenDone;
+      this.bytesSent = 0;
+      this.remaining = 0;
+    }
+
+    /**
+     * Move on to the next range to send.
+     *
+     * @return false if all the ranges have been sent.
+     */
+    boolean nextRange()
+    {
+      if (!ranges.hasNext()) {
+        return false;
+      }
+      DataTransferHeader.ReadRange range = ranges.next();
+      position = range.getOffset();
+      remaining = range.getReadLength();
+      return true;
+    }
+
+    String getRemoteAddress()
+    {
+      try {
+        return String.valueOf(channel.getRemoteAddress());
+      }
+      catch (IOException e) {
+        return "unknown";
+      }
+    }
+
+    void closeFile()
+    {
+      if (file != null) {
+        file.close();
+        file = null;
+      }
+    }
+
+    void close()
+    {
+      closeFile();
+      key.cancel();
+      try {
+        channel.close();
+      }
+      catch (IOException e) {
+        log.info("Error in Local Data Transfer Server: ", e);
+      }
+    }
+  }
+
+  /**
+   * Makes sure that the data asked for by a non-local node is cached and opens the cached file for it.
+   */
+  static class RequestValidator
+      implements Runnable
+  {
+    private final ClientConnection connection;
+    private final DataTransferHeader header;
+    private final Configuration conf;
+    private final LocalServer server;
+
+    RequestValidator(ClientConnection connection, DataTransferHeader header, Configuration conf, LocalServer server)
+    {
+      this.connection = connection;
+      this.header = header;
+      this.conf = conf;
+      this.server = server;
+    }
+
+    @Override
+    public void run()
+    {
+      String remotePath = header.getFilePath();
+
+      // Pooled clients keep their connection to the BookKeeper open across requests
+      try (RetryingBookkeeperClient bookKeeperClient = createBookKeeperClient()) {
+        List<DataTransferHeader.ReadRange> ranges = header.getRanges();
+        int availableRanges = CacheConfig.isParallelWarmupEnabled(conf)
+            ? countCachedRanges(bookKeeperClient, remotePath)
+            : countReadRanges(bookKeeperClient, remotePath);
+        if (availableRanges == 0) {
+          throw new Exception("The requested data in not in cache. The data will be read from object store");
         }
-        catch (IOException e1) {
-          log.warn("Error in Local Data Transfer Server for client: ", e);
+
+        int maxReadLength = 0;
+        for (DataTransferHeader.ReadRange range : ranges.subList(0, availableRanges)) {
+          maxReadLength = Math.max(maxReadLength, range.getReadLength());
         }
-        return;
+        // When only the first ranges are available, the connection is closed after sending them
+        // so that the caller reads the rest from the object store
+        connection.startTransfer(openCachedFile(bookKeeperClient, remotePath, maxReadLength),
+            ranges.subList(0, availableRanges), availableRanges < ranges.size());
+      }
+      catch (Exception e) {
+        log.warn("Error in Local Data Transfer Server for client: " + connection.getRemoteAddress(), e);
       }
       finally {
-        try {
-          localDataTransferClient.close();
-        }
-        catch (IOException e) {
-          log.info("Error in Local Data Transfer Server: ", e);
-        }
+        server.onRequestValidated(connection);
       }
     }
 
-    private int readDataFromCachedFile(String remotePath, long offset, int readLength) throws IOException, TException
+    /**
+     * Cache the requested ranges, in order, through the BookKeeper.
+     *
+     * @return The number of leading ranges which could be cached.
+     */
+    private int countReadRanges(RetryingBookkeeperClient bookKeeperClient, String remotePath) throws TException
     {
-      FileChannel fc = null;
-      int nread = 0;
-      String filename = CacheUtil.getLocalPath(remotePath, conf);
-
-      try {
-        fc = new FileInputStream(filename).getChannel();
-        int maxCount = CacheConfig.getLocalTransferBufferSize(conf);
-        int lengthRemaining = readLength;
-        long position = offset;
-
-        // This situation should not arise as ActualReadLength cannot be greater than the file size.
-        // This seems to case of corrupted file. We should invalidate the file in this case.
-        if (fc.size() < readLength) {
-          log.error(String.format("File size is smaller than requested read. Invalidating corrupted cached file %s", remotePath));
-          bookKeeperClient.invalidateFileMetadata(remotePath);
-          throw new IOException("File size is smaller than requested read");
+      int readRanges = 0;
+      for (DataTransferHeader.ReadRange range : header.getRanges()) {
+        ReadDataRequest readDataRequest = new ReadDataRequest(remotePath, range.getOffset(), range.getReadLength(),
+            header.getFileSize(), header.getLastModified());
+        // The ranges of a transfer count as a single read of the file
+        readDataRequest.setCountAccess(readRanges == 0);
+        if (!bookKeeperClient.readData(readDataRequest)) {
+          log.error(String.format("Could not cache data of file %s at offset %d required by non-local node",
+              remotePath, range.getOffset()));
+          break;
         }
+        readRanges++;
+      }
+      return readRanges;
+    }
+
+    /**
+     * Just make sure the requested blocks are present in the cache, fetching the status of all the ranges
+     * with a single call to the BookKeeper. The ranges after the first one which is not fully cached are
+     * read by the caller NonLocalReadRequestChain from the object store.
+     *
+     * @return The number of leading ranges which are fully cached.
+     */
+    private int countCachedRanges(RetryingBookkeeperClient bookKeeperClient, String remotePath) throws TException
+    {
+      long blockSize = CacheConfig.getBlockSize(conf);
+      List<CacheStatusRequest> requests = new ArrayList<>(header.getRanges().size());
+      for (DataTransferHeader.ReadRange range : header.getRanges()) {
+        long startBlock = range.getOffset() / blockSize;
+        long endBlock = ((range.getOffset() + (range.getReadLength() - 1)) / blockSize) + 1;
+        CacheStatusRequest request = new CacheStatusRequest(remotePath, header.getFileSize(), header.getLastModified(),
+            startBlock, endBlock);
+        // The ranges of a transfer count as a single read of the file
+        request.setCountAccess(requests.isEmpty());
+        requests.add(request);
+      }
 
-        while (nread < readLength) {
-          if (maxCount > lengthRemaining) {
-            maxCount = lengthRemaining;
+      List<List<BlockLocation>> rangeBlockLocations = bookKeeperClient.getCacheStatusBatch(requests);
+      for (int i = 0; i < requests.size(); i++) {
+        long blockNum = requests.get(i).getStartBlock();
+        for (BlockLocation location : rangeBlockLocations.get(i)) {
+          if (location.getLocation() != Location.CACHED) {
+            log.error(String.format("The requested data for block %d of file %s in not in cache. " +
+                " The data will be read from object store", blockNum, remotePath));
+            return i;
           }
-          nread += fc.transferTo(position + nread, maxCount, localDataTransferClient);
-          lengthRemaining = readLength - nread;
+          blockNum++;
         }
       }
+      return requests.size();
+    }
+
+    private RetryingBookkeeperClient createBookKeeperClient() throws Exception
+    {
+      try {
+        return new BookKeeperFactory().createBookKeeperClient(conf);
+      }
+      catch (Exception e) {
+        throw new Exception("Could not create BookKeeper Client " + Throwables.getStackTraceAsString(e));
+      }
+    }
+
+    private FileChannelCache.Handle openCachedFile(RetryingBookkeeperClient bookKeeperClient, String remotePath, int readLength) throws IOException, TException
+    {
+      String filename = CacheUtil.getLocalPath(remotePath, conf);
+      FileChannelCache.Handle fc;
+      try {
+        fc = FileChannelCache.open(filename, false, conf);
+      }
       catch (FileNotFoundException ex) {
         log.error(String.format("Could not create file channel for %s. Invalidating missing remote file %s", filename, remotePath));
         bookKeeperClient.invalidateFileMetadata(remotePath);
         throw new IOException(String.format("File not found %s ", filename));
       }
-      finally {
-        if (fc != null) {
-          fc.close();
-        }
-      }
 
-      return nread;
+      // This situation should not arise as ActualReadLength cannot be greater than the file size.
+      // This seems to case of corrupted file. We should invalidate the file in this case.
+      if (fc.getChannel().size() < readLength) {
+        fc.close();
+        log.error(String.format("File size is smaller than requested read. Invalidating corrupted cached file %s", remotePath));
+        bookKeeperClient.invalidateFileMetadata(remotePath);
+        throw new IOException("File size is smaller than requested read");
+      }
+      return fc;
     }
   }
 }
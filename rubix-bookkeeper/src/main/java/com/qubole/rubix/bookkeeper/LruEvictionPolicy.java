@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+/**
+ * Caches every file, leaving eviction to the file metadata cache alone.
+ */
+class LruEvictionPolicy implements EvictionPolicy
+{
+  @Override
+  public void recordAccess(String remotePath)
+  {
+  }
+
+  @Override
+  public boolean admit(String remotePath, String victim)
+  {
+    return true;
+  }
+}
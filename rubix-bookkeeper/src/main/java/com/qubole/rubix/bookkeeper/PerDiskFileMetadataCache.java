@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.AbstractCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.CacheUtil;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The file metadata cache, split into one weighted LRU cache per disk so that a full disk evicts its own least
+ * recently used files instead of waiting for the cache as a whole to fill up.
+ * <p>
+ * The cache of every disk is a single segment, so that it evicts its files in a strict LRU order, which is mirrored
+ * here for the admission policy to weigh a new file against the file it would evict.
+ */
+class PerDiskFileMetadataCache extends AbstractCache<String, FileMetadata>
+{
+  private final Configuration conf;
+  private final List<Cache<String, FileMetadata>> diskCaches;
+  // The files of every disk, least recently used first
+  private final List<LinkedHashMap<String, Boolean>> accessOrders;
+
+  /**
+   * @param conf            The current Hadoop configuration.
+   * @param capacities      The number of bytes every disk may use for the cache.
+   * @param ticker          The ticker used to expire entries.
+   * @param removalListener The listener notified of the files removed from the cache of any disk.
+   */
+  PerDiskFileMetadataCache(final Configuration conf, long[] capacities, Ticker ticker,
+                           final RemovalListener<String, FileMetadata> removalListener)
+  {
+    this.conf = conf;
+    this.diskCaches = new ArrayList<>(capacities.length);
+    this.accessOrders = new ArrayList<>(capacities.length);
+
+    Weigher<String, FileMetadata> weigher = new Weigher<String, FileMetadata>()
+    {
+      @Override
+      public int weigh(String key, FileMetadata md)
+      {
+        return md.getWeight(conf);
+      }
+    };
+    for (long capacity : capacities) {
+      final LinkedHashMap<String, Boolean> accessOrder = new LinkedHashMap<>(16, 0.75f, true);
+      // Files are weighed in KB, so that small files count as well while the weight of a file still fits in an int
+      Cache<String, FileMetadata> diskCache = CacheBuilder.newBuilder()
+          .ticker(ticker)
+          .concurrencyLevel(1)
+          .weigher(weigher)
+          .maximumWeight(capacity / 1024)
+          .expireAfterWrite(CacheConfig.getCacheDataExpirationAfterWrite(conf), TimeUnit.MILLISECONDS)
+          .removalListener(new RemovalListener<String, FileMetadata>()
+          {
+            @Override
+            public void onRemoval(RemovalNotification<String, FileMetadata> notification)
+            {
+              // Before the listener, which may put the file back into the cache
+              if (notification.getCause() != RemovalCause.REPLACED) {
+                synchronized (accessOrder) {
+                  accessOrder.remove(notification.getKey());
+                }
+              }
+              removalListener.onRemoval(notification);
+            }
+          })
+          .build();
+      diskCaches.add(diskCache);
+      accessOrders.add(accessOrder);
+    }
+  }
+
+  private Cache<String, FileMetadata> getDiskCache(String remotePath)
+  {
+    return diskCaches.get(CacheUtil.getCacheDiskIndex(remotePath, conf));
+  }
+
+  private void recordAccess(String remotePath)
+  {
+    LinkedHashMap<String, Boolean> accessOrder = accessOrders.get(CacheUtil.getCacheDiskIndex(remotePath, conf));
+    synchronized (accessOrder) {
+      accessOrder.put(remotePath, Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Get the file the disk of a file evicts next to make room for it.
+   *
+   * @param remotePath  The file to cache on a full disk.
+   * @return the least recently used other file of the disk, or null if the disk has no other file.
+   */
+  String getEvictionCandidate(String remotePath)
+  {
+    int disk = CacheUtil.getCacheDiskIndex(remotePath, conf);
+    LinkedHashMap<String, Boolean> accessOrder = accessOrders.get(disk);
+    synchronized (accessOrder) {
+      Iterator<String> files = accessOrder.keySet().iterator();
+      while (files.hasNext()) {
+        String file = files.next();
+        if (file.equals(remotePath)) {
+          continue;
+        }
+        // A file read concurrently with its removal may be left behind
+        if (diskCaches.get(disk).asMap().containsKey(file)) {
+          return file;
+        }
+        files.remove();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public FileMetadata getIfPresent(Object key)
+  {
+    if (!(key instanceof String)) {
+      return null;
+    }
+    FileMetadata md = getDiskCache((String) key).getIfPresent(key);
+    if (md != null) {
+      recordAccess((String) key);
+    }
+    return md;
+  }
+
+  @Override
+  public FileMetadata get(String key, Callable<? extends FileMetadata> valueLoader) throws ExecutionException
+  {
+    FileMetadata md = getDiskCache(key).get(key, valueLoader);
+    recordAccess(key);
+    return md;
+  }
+
+  @Override
+  public void put(String key, FileMetadata value)
+  {
+    getDiskCache(key).put(key, value);
+    recordAccess(key);
+  }
+
+  /**
+   * Add a file to the cache unless it already holds an entry for it.
+   *
+   * @return the entry already in the cache, or null if the given one was added.
+   */
+  FileMetadata putIfAbsent(String key, FileMetadata value)
+  {
+    FileMetadata md = getDiskCache(key).asMap().putIfAbsent(key, value);
+    recordAccess(key);
+    return md;
+  }
+
+  @Override
+  public void invalidate(Object key)
+  {
+    if (key instanceof String) {
+      getDiskCache((String) key).invalidate(key);
+    }
+  }
+
+  @Override
+  public void invalidateAll()
+  {
+    for (Cache<String, FileMetadata> diskCache : diskCaches) {
+      diskCache.invalidateAll();
+    }
+  }
+
+  @Override
+  public long size()
+  {
+    long size = 0;
+    for (Cache<String, FileMetadata> diskCache : diskCaches) {
+      size += diskCache.size();
+    }
+    return size;
+  }
+
+  @Override
+  public void cleanUp()
+  {
+    for (Cache<String, FileMetadata> diskCache : diskCaches) {
+      diskCache.cleanUp();
+    }
+  }
+}
@@ -15,16 +15,26 @@ package com.qubole.rubix.bookkeeper;
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Range;
 import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.qubole.rubix.common.metrics.BookKeeperMetrics;
+import com.qubole.rubix.core.ReadRequest;
 import com.qubole.rubix.spi.CacheConfig;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
@@ -39,8 +49,12 @@ public class RemoteFetchProcessor extends AbstractScheduledService
   private MetricRegistry metrics;
   private Counter totalDownloadRequests;
   private Counter processedRequests;
+  private Counter skippedBlocks;
   private BookKeeper bookKeeper;
 
+  // Blocks of the chains submitted to the downloader which did not complete yet, per remote file
+  private final Map<String, Set<Long>> inFlightBlocks = new HashMap<>();
+
   int processThreadInitalDelay;
   int processThreadInterval;
   long requestProcessDelay;
@@ -71,6 +85,7 @@ public class RemoteFetchProcessor extends AbstractScheduledService
   {
     totalDownloadRequests = metrics.counter(BookKeeperMetrics.CacheMetric.TOTAL_ASYNC_REQUEST_COUNT.getMetricName());
     processedRequests = metrics.counter(BookKeeperMetrics.CacheMetric.PROCESSED_ASYNC_REQUEST_COUNT.getMetricName());
+    skippedBlocks = metrics.counter(BookKeeperMetrics.CacheMetric.ASYNC_SKIPPED_BLOCK_COUNT.getMetricName());
     metrics.register(BookKeeperMetrics.CacheMetric.ASYNC_QUEUE_SIZE_GAUGE.getMetricName(), new Gauge<Integer>()
     {
       @Override
@@ -94,18 +109,61 @@ public class RemoteFetchProcessor extends AbstractScheduledService
   {
     long currentTime = System.currentTimeMillis();
 
+    // Downloads are not waited for, so that new requests are scheduled while large files are still downloading
     if (!processQueue.isEmpty()) {
-      processRequest(currentTime);
+      scheduleRequests(currentTime);
     }
   }
 
   protected void processRequest(long currentTime) throws IOException, InterruptedException, ExecutionException
   {
-    ConcurrentMap<String, DownloadRequestContext> contextMap = mergeRequests(currentTime);
-    processRemoteFetchRequest(contextMap);
+    Futures.successfulAsList(scheduleRequests(currentTime)).get();
+  }
+
+  /**
+   * Merge the pending requests and submit the downloads of the blocks which are neither cached nor being downloaded.
+   *
+   * @param currentTime The time used to select the requests old enough to be processed.
+   * @return The futures of the submitted downloads.
+   * @throws IOException if the downloads could not be created.
+   */
+  protected List<ListenableFuture<Integer>> scheduleRequests(long currentTime) throws IOException
+  {
+    ConcurrentMap<String, DownloadRequestContext> contextMap = removeCachedAndInFlightBlocks(mergeRequests(currentTime));
+    List<FileDownloadRequestChain> readRequestChainList;
+    try {
+      readRequestChainList = downloader.getFileDownloadRequestChains(contextMap);
+    }
+    catch (IOException e) {
+      for (DownloadRequestContext context : contextMap.values()) {
+        for (Range<Long> range : context.getRanges().asRanges()) {
+          releaseBlocks(context.getRemoteFilePath(), range.lowerEndpoint(), range.upperEndpoint(),
+              context.getFileSize());
+        }
+      }
+      throw e;
+    }
+
+    List<ListenableFuture<Integer>> futures = new ArrayList<>(readRequestChainList.size());
+    for (final FileDownloadRequestChain requestChain : readRequestChainList) {
+      ListenableFuture<Integer> future = downloader.submitDownloadRequest(requestChain);
+      Futures.addCallback(future, new FutureCallback<Integer>()
+      {
+        @Override
+        public void onSuccess(Integer read)
+        {
+          releaseBlocks(requestChain);
+        }
 
-    // After every iteration we are clearing the map
-    contextMap.clear();
+        @Override
+        public void onFailure(Throwable t)
+        {
+          releaseBlocks(requestChain);
+        }
+      });
+      futures.add(future);
+    }
+    return futures;
   }
 
   protected ConcurrentMap<String, DownloadRequestContext> mergeRequests(long currentTime)
@@ -141,6 +199,7 @@ public class RemoteFetchProcessor extends AbstractScheduledService
       }
       contextMap.get(request.getRemotePath()).addDownloadRange(request.getOffset(),
           request.getOffset() + request.getLength());
+      contextMap.get(request.getRemotePath()).addRequestedTime(request.getRequestedTime());
       processQueue.remove();
       processedRequests.inc();
     }
@@ -154,10 +213,104 @@ public class RemoteFetchProcessor extends AbstractScheduledService
     return Scheduler.newFixedDelaySchedule(processThreadInitalDelay, processThreadInterval, TimeUnit.MILLISECONDS);
   }
 
-  private void processRemoteFetchRequest(ConcurrentMap<String, DownloadRequestContext> contextMap)
-                                        throws IOException, InterruptedException, ExecutionException
+  /**
+   * Drop the blocks which are already cached or are being downloaded by an earlier request from the ranges to
+   * download, and record the remaining blocks as being downloaded. Only blocks downloaded in full are recorded,
+   * as a request for another part of a partially downloaded block still has to be served.
+   */
+  ConcurrentMap<String, DownloadRequestContext> removeCachedAndInFlightBlocks(ConcurrentMap<String, DownloadRequestContext> contextMap)
+      throws IOException
+  {
+    final int blockSize = CacheConfig.getBlockSize(conf);
+    ConcurrentMap<String, DownloadRequestContext> trimmedContextMap = new ConcurrentHashMap<String, DownloadRequestContext>();
+
+    for (DownloadRequestContext context : contextMap.values()) {
+      DownloadRequestContext trimmedContext = new DownloadRequestContext(context.getRemoteFilePath(),
+          context.getFileSize(), context.getLastModifiedTime());
+      trimmedContext.addRequestedTime(context.getFirstRequestedTime());
+      trimmedContext.addRequestedTime(context.getLastRequestedTime());
+      Set<Long> newBlocks = new HashSet<>();
+
+      for (Range<Long> range : context.getRanges().asRanges()) {
+        long runStart = -1;
+        long blockNum = range.lowerEndpoint() / blockSize;
+        for (; blockNum <= (range.upperEndpoint() - 1) / blockSize; blockNum++) {
+          if (bookKeeper.isBlockCached(context.getRemoteFilePath(), context.getLastModifiedTime(), blockNum)
+              || isInFlight(context.getRemoteFilePath(), blockNum)) {
+            skippedBlocks.inc();
+            if (runStart >= 0) {
+              trimmedContext.addDownloadRange(runStart, blockNum * blockSize);
+              runStart = -1;
+            }
+          }
+          else {
+            if (isBlockCovered(blockNum, range.lowerEndpoint(), range.upperEndpoint(), context.getFileSize())) {
+              newBlocks.add(blockNum);
+            }
+            if (runStart < 0) {
+              runStart = Math.max(range.lowerEndpoint(), blockNum * blockSize);
+            }
+          }
+        }
+        if (runStart >= 0) {
+          trimmedContext.addDownloadRange(runStart, range.upperEndpoint());
+        }
+      }
+
+      if (!newBlocks.isEmpty()) {
+        synchronized (inFlightBlocks) {
+          Set<Long> blocks = inFlightBlocks.get(context.getRemoteFilePath());
+          if (blocks == null) {
+            blocks = new HashSet<>();
+            inFlightBlocks.put(context.getRemoteFilePath(), blocks);
+          }
+          blocks.addAll(newBlocks);
+        }
+        trimmedContextMap.put(context.getRemoteFilePath(), trimmedContext);
+      }
+    }
+
+    return trimmedContextMap;
+  }
+
+  private boolean isInFlight(String remotePath, long blockNum)
   {
-    List<FileDownloadRequestChain> readRequestChainList = downloader.getFileDownloadRequestChains(contextMap);
-    downloader.processDownloadRequests(readRequestChainList);
+    synchronized (inFlightBlocks) {
+      Set<Long> blocks = inFlightBlocks.get(remotePath);
+      return blocks != null && blocks.contains(blockNum);
+    }
+  }
+
+  private void releaseBlocks(FileDownloadRequestChain requestChain)
+  {
+    for (ReadRequest request : requestChain.getReadRequests()) {
+      releaseBlocks(requestChain.getRemotePath(), request.getBackendReadStart(), request.getBackendReadEnd(),
+          requestChain.getFileSize());
+    }
+  }
+
+  private boolean isBlockCovered(long blockNum, long start, long end, long fileSize)
+  {
+    final int blockSize = CacheConfig.getBlockSize(conf);
+    return start <= blockNum * blockSize && end >= Math.min((blockNum + 1) * blockSize, fileSize);
+  }
+
+  private void releaseBlocks(String remotePath, long start, long end, long fileSize)
+  {
+    final int blockSize = CacheConfig.getBlockSize(conf);
+    synchronized (inFlightBlocks) {
+      Set<Long> blocks = inFlightBlocks.get(remotePath);
+      if (blocks == null) {
+        return;
+      }
+      for (long blockNum = start / blockSize; blockNum <= (end - 1) / blockSize; blockNum++) {
+        if (isBlockCovered(blockNum, start, end, fileSize)) {
+          blocks.remove(blockNum);
+        }
+      }
+      if (blocks.isEmpty()) {
+        inFlightBlocks.remove(remotePath);
+      }
+    }
   }
 }
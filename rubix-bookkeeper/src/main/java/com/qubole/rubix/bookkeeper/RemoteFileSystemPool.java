@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.qubole.rubix.spi.CacheConfig;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The initialized instances of the remote file systems, shared by all the downloads of the BookKeeper so that the
+ * client of a file system, with its connections, credentials and threads, is not created again for every file.
+ * <p>
+ * Instances are created with FileSystem.newInstance, so that closing the Hadoop cache of file systems does not affect
+ * them, and are keyed by scheme, authority and user like that cache. They are reference counted: an instance dropped
+ * from the pool is only closed once the last handle to it is released.
+ */
+class RemoteFileSystemPool implements Closeable
+{
+  private static final Log log = LogFactory.getLog(RemoteFileSystemPool.class);
+
+  private final Configuration conf;
+  private final boolean enabled;
+  private final Map<String, Entry> entries = new HashMap<>();
+  private boolean closed;
+  private long hitCount;
+  private long missCount;
+
+  RemoteFileSystemPool(Configuration conf)
+  {
+    this.conf = conf;
+    this.enabled = CacheConfig.isRemoteFileSystemPoolEnabled(conf);
+  }
+
+  /**
+   * Get a handle to the file system of a remote path, creating it if the pool has no instance for it yet.
+   *
+   * @param path  The remote path.
+   * @return A handle to the file system, which must be closed once done with it.
+   * @throws IOException if the file system could not be created.
+   */
+  Handle acquire(Path path) throws IOException
+  {
+    URI uri = path.toUri();
+    if (!enabled) {
+      return new Handle(null, new Entry(FileSystem.newInstance(uri, conf)));
+    }
+
+    String key = getKey(uri);
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        hitCount++;
+        entry.refCount++;
+        return new Handle(this, entry);
+      }
+    }
+
+    FileSystem fileSystem = FileSystem.newInstance(uri, conf);
+    log.info("Created FileSystem " + fileSystem.getUri() + " for Path " + path);
+    FileSystem unusedFileSystem = null;
+    Handle handle;
+    synchronized (this) {
+      missCount++;
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        // Another thread created the file system in the meantime
+        unusedFileSystem = fileSystem;
+      }
+      else {
+        entry = new Entry(fileSystem);
+        if (closed) {
+          entry.removed = true;
+        }
+        else {
+          entries.put(key, entry);
+        }
+      }
+      entry.refCount++;
+      handle = new Handle(this, entry);
+    }
+
+    if (unusedFileSystem != null) {
+      closeFileSystem(unusedFileSystem);
+    }
+    return handle;
+  }
+
+  /**
+   * Drop all the file systems, closing each of them once it is not used anymore.
+   */
+  @Override
+  public synchronized void close()
+  {
+    closed = true;
+    for (Entry entry : entries.values()) {
+      entry.removed = true;
+      if (entry.refCount == 0) {
+        closeFileSystem(entry.fileSystem);
+      }
+    }
+    entries.clear();
+  }
+
+  @VisibleForTesting
+  synchronized long getHitCount()
+  {
+    return hitCount;
+  }
+
+  @VisibleForTesting
+  synchronized long getMissCount()
+  {
+    return missCount;
+  }
+
+  private String getKey(URI uri) throws IOException
+  {
+    if (uri.getScheme() == null) {
+      uri = FileSystem.getDefaultUri(conf);
+    }
+    String authority = uri.getAuthority() == null ? "" : uri.getAuthority().toLowerCase();
+    return uri.getScheme().toLowerCase() + "://" + authority + " " + UserGroupInformation.getCurrentUser().getUserName();
+  }
+
+  private synchronized void release(Entry entry)
+  {
+    entry.refCount--;
+    if (entry.removed && entry.refCount == 0) {
+      closeFileSystem(entry.fileSystem);
+    }
+  }
+
+  private static void closeFileSystem(FileSystem fileSystem)
+  {
+    try {
+      fileSystem.close();
+    }
+    catch (IOException e) {
+      log.warn("Could not close FileSystem " + fileSystem.getUri(), e);
+    }
+  }
+
+  private static class Entry
+  {
+    final FileSystem fileSystem;
+    int refCount;
+    boolean removed;
+
+    Entry(FileSystem fileSystem)
+    {
+      this.fileSystem = fileSystem;
+    }
+  }
+
+  /**
+   * A reference to a remote file system. Closing it releases the reference; the file system itself is closed
+   * when it is not pooled.
+   */
+  static class Handle implements Closeable
+  {
+    private final RemoteFileSystemPool owner;
+    private final Entry entry;
+    private boolean closed;
+
+    private Handle(RemoteFileSystemPool owner, Entry entry)
+    {
+      this.owner = owner;
+      this.entry = entry;
+    }
+
+    FileSystem getFileSystem()
+    {
+      return entry.fileSystem;
+    }
+
+    @Override
+    public void close()
+    {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (owner != null) {
+        owner.release(entry);
+      }
+      else {
+        closeFileSystem(entry.fileSystem);
+      }
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.qubole.rubix.bookkeeper.utils.ConsistentHashUtil;
+import com.qubole.rubix.spi.thrift.ClusterNode;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Remembers which node owns each split of the recently requested files, so that the owner of a split is hashed
+ * once per cluster membership instead of on every cache status request.
+ * <p>
+ * Owners are identified by their index in the list of cluster nodes, and only the splits actually looked up are
+ * hashed. All the owners are forgotten as soon as the cluster nodes or the name of the local node change.
+ */
+class SplitOwnerCache
+{
+  private static final Log log = LogFactory.getLog(SplitOwnerCache.class);
+
+  private static final int UNKNOWN_OWNER = -1;
+
+  private final long splitSize;
+  private final int maxFiles;
+
+  private volatile Membership membership;
+
+  SplitOwnerCache(long splitSize, int maxFiles)
+  {
+    this.splitSize = splitSize;
+    this.maxFiles = maxFiles;
+  }
+
+  /**
+   * Get the split owners of a file.
+   *
+   * @param nodes         The current cluster nodes.
+   * @param localNodeName The name of the local node.
+   * @param remotePath    The path of the file.
+   * @param fileLength    The length of the file.
+   * @return The split owners of the file, or null if there are no cluster nodes.
+   */
+  FileSplitOwners getFileSplitOwners(List<ClusterNode> nodes, String localNodeName, String remotePath, long fileLength)
+  {
+    if (nodes == null || nodes.isEmpty()) {
+      return null;
+    }
+
+    Membership current = membership;
+    if (current == null || !current.matches(nodes, localNodeName)) {
+      log.debug("Cluster membership changed, forgetting the owners of all splits");
+      current = new Membership(nodes, localNodeName);
+      membership = current;
+    }
+    return current.getFileSplitOwners(remotePath, fileLength);
+  }
+
+  private class Membership
+  {
+    private final List<ClusterNode> nodes;
+    private final String localNodeName;
+    private final boolean[] localNodes;
+    private final Cache<String, FileSplitOwners> files;
+
+    Membership(List<ClusterNode> nodes, String localNodeName)
+    {
+      this.nodes = nodes;
+      this.localNodeName = localNodeName;
+      this.localNodes = new boolean[nodes.size()];
+      for (int i = 0; i < nodes.size(); i++) {
+        localNodes[i] = nodes.get(i).getNodeUrl().equalsIgnoreCase(localNodeName);
+      }
+      this.files = CacheBuilder.newBuilder().maximumSize(maxFiles).build();
+    }
+
+    boolean matches(List<ClusterNode> nodes, String localNodeName)
+    {
+      return (this.nodes == nodes || this.nodes.equals(nodes)) && Objects.equals(this.localNodeName, localNodeName);
+    }
+
+    FileSplitOwners getFileSplitOwners(String remotePath, long fileLength)
+    {
+      FileSplitOwners owners = files.getIfPresent(remotePath);
+      if (owners == null || owners.fileLength != fileLength) {
+        owners = new FileSplitOwners(this, remotePath, fileLength);
+        files.put(remotePath, owners);
+      }
+      return owners;
+    }
+  }
+
+  /**
+   * The owners of the splits of a file for a given cluster membership.
+   */
+  class FileSplitOwners
+  {
+    private final Membership membership;
+    private final String remotePath;
+    private final long fileLength;
+    // Racing lookups compute the same owner, so the array needs no synchronization
+    private final int[] owners;
+
+    private FileSplitOwners(Membership membership, String remotePath, long fileLength)
+    {
+      this.membership = membership;
+      this.remotePath = remotePath;
+      this.fileLength = fileLength;
+      this.owners = new int[(int) ((fileLength + splitSize - 1) / splitSize)];
+      Arrays.fill(owners, UNKNOWN_OWNER);
+    }
+
+    int getSplitCount()
+    {
+      return owners.length;
+    }
+
+    /**
+     * Get the index of the node owning a split, hashing it on first use.
+     *
+     * @param split The split, between 0 and the split count of the file.
+     * @return The index of the owner node.
+     */
+    int getOwner(int split)
+    {
+      int owner = owners[split];
+      if (owner == UNKNOWN_OWNER) {
+        long start = split * splitSize;
+        long end = Math.min(start + splitSize, fileLength);
+        owner = ConsistentHashUtil.getNodeIndex(membership.nodes, remotePath + start + end);
+        owners[split] = owner;
+      }
+      return owner;
+    }
+
+    boolean isLocal(int owner)
+    {
+      return membership.localNodes[owner];
+    }
+
+    String getNodeUrl(int owner)
+    {
+      return membership.nodes.get(owner).getNodeUrl();
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+import com.codahale.metrics.Timer;
+import org.apache.thrift.shaded.TException;
+import org.apache.thrift.shaded.TProcessor;
+import org.apache.thrift.shaded.protocol.TProtocol;
+
+/**
+ * Records the time taken by the BookKeeper to handle every request, from the moment a worker thread picks it up.
+ * The wrapped processor must be given requests which have already been read, as done by the non-blocking servers.
+ */
+class TimedProcessor implements TProcessor
+{
+  private final TProcessor processor;
+  private final Timer handlerLatency;
+
+  TimedProcessor(TProcessor processor, Timer handlerLatency)
+  {
+    this.processor = processor;
+    this.handlerLatency = handlerLatency;
+  }
+
+  @Override
+  public boolean process(TProtocol in, TProtocol out) throws TException
+  {
+    final Timer.Context context = handlerLatency.time();
+    try {
+      return processor.process(in, out);
+    }
+    finally {
+      context.stop();
+    }
+  }
+}
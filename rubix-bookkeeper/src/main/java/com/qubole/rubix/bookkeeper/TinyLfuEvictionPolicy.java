@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+/**
+ * A TinyLFU admission filter in front of the LRU eviction of the file metadata cache.
+ * <p>
+ * The reads of every file are counted in a {@link FrequencySketch}. As long as a new file fits in the room left on
+ * its disk it is admitted right away; once the disk is full it is only admitted if it was read more often recently
+ * than the file the disk evicts next. Files rejected this way are read from the remote file system without being
+ * cached, so that a scan of many files read once each cannot flush the files which are read over and over.
+ */
+class TinyLfuEvictionPolicy implements EvictionPolicy
+{
+  private final FrequencySketch sketch;
+
+  TinyLfuEvictionPolicy(int expectedFiles)
+  {
+    this.sketch = new FrequencySketch(expectedFiles);
+  }
+
+  @Override
+  public synchronized void recordAccess(String remotePath)
+  {
+    sketch.increment(remotePath);
+  }
+
+  @Override
+  public synchronized boolean admit(String remotePath, String victim)
+  {
+    return victim == null || sketch.frequency(remotePath) > sketch.frequency(victim);
+  }
+}
@@ -12,7 +12,6 @@
  */
 package com.qubole.rubix.bookkeeper.utils;
 
-import com.qubole.rubix.spi.CacheConfig;
 import com.qubole.rubix.spi.CacheUtil;
 import org.apache.commons.lang.math.NumberUtils;
 import org.apache.commons.logging.Log;
@@ -23,7 +22,6 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.Map;
 
 /**
  * Created by stagra on 29/1/16.
@@ -48,17 +46,45 @@ public class DiskUtils
     return (bytes / 1024 / 1024);
   }
 
-  // Return actual size of a sparse file in bytes
-  public static long getActualSize(String path)
+  /**
+   * Deallocate a range of a sparse file, which reads as zeros afterwards, keeping the length of the file.
+   *
+   * @param path    The file.
+   * @param offset  The start of the range.
+   * @param length  The length of the range.
+   * @return false if the range could not be deallocated, e.g. because the file system does not support it.
+   * @throws IOException if the command could not be run.
+   */
+  public static boolean punchHole(String path, long offset, long length)
       throws IOException
   {
-    File file = new File(path);
-    String cmd = "ls -s " + path + " | cut -d ' ' -f 1";
-    ShellExec se = new ShellExec(cmd);
-    log.debug("Running: " + cmd);
-    ShellExec.CommandResult cr = se.runCmd();
-    long size = Long.parseLong(cr.getOut().trim());
-    return size * 1024;
+    // Arguments are passed as they are, without a shell, as the path derives from the remote path
+    ProcessBuilder processBuilder = new ProcessBuilder("fallocate", "--punch-hole", "--keep-size",
+        "--offset", Long.toString(offset), "--length", Long.toString(length), path);
+    processBuilder.redirectErrorStream(true);
+    log.debug("Running: " + processBuilder.command());
+    Process process = processBuilder.start();
+
+    StringBuilder output = new StringBuilder();
+    int exitValue;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        output.append(line).append("\n");
+      }
+      exitValue = process.waitFor();
+    }
+    catch (InterruptedException e) {
+      process.destroy();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while punching hole in " + path, e);
+    }
+
+    if (exitValue != 0) {
+      log.warn(String.format("Could not punch hole of %d bytes at offset %d in %s: %s", length, offset, path, output));
+      return false;
+    }
+    return true;
   }
 
   public static void clearDirectory(String path) throws IOException
@@ -68,24 +94,6 @@ public class DiskUtils
     ShellExec.CommandResult cr = se.runCmd();
   }
 
-  /**
-   * Get the current size of the data cached to this system.
-   *
-   * @return The size of the cache in MB.
-   */
-  public static int getCacheSizeMB(Configuration conf)
-  {
-    final Map<Integer, String> diskMap = CacheUtil.getCacheDiskPathsMap(conf);
-    final String cacheDirSuffix = CacheConfig.getCacheDataDirSuffix(conf);
-
-    long cacheSize = 0;
-    for (int disk = 0; disk < diskMap.size(); disk++) {
-      long cacheDirSize = getDirectorySizeInMB(new File(diskMap.get(disk) + cacheDirSuffix));
-      cacheSize += cacheDirSize;
-    }
-    return (int) cacheSize;
-  }
-
   /**
    * Gets the actual size occupied on the disk, for the given directory using du command.
    *
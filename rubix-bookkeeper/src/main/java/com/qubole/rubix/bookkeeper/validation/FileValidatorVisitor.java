@@ -48,7 +48,7 @@ public class FileValidatorVisitor extends SimpleFileVisitor<Path>
   @Override
   public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
   {
-    if (!CacheUtil.isMetadataFile(file.toString(), conf)) {
+    if (!CacheUtil.isMetadataFile(file.toString(), conf) && !CacheUtil.isChecksumFile(file.toString(), conf)) {
       totalCacheFiles++;
 
       Path mdFile = file.resolveSibling(file.getFileName() + metadataFileSuffix);
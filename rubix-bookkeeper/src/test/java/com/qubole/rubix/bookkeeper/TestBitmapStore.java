@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+import com.qubole.rubix.common.utils.TestUtil;
+import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.CacheUtil;
+import org.apache.hadoop.conf.Configuration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestBitmapStore
+{
+  private static final String TEST_CACHE_DIR_PREFIX = TestUtil.getTestCacheDirPrefix("TestBitmapStore");
+  private static final int TEST_MAX_DISKS = 1;
+
+  private final Configuration conf = new Configuration();
+
+  private BitmapStore store;
+
+  @BeforeMethod
+  public void setUp() throws IOException
+  {
+    CacheConfig.setCacheDataDirPrefix(conf, TEST_CACHE_DIR_PREFIX);
+    CacheConfig.setMaxDisks(conf, TEST_MAX_DISKS);
+    TestUtil.createCacheParentDirectories(conf, TEST_MAX_DISKS);
+    CacheUtil.createCacheDirectories(conf);
+
+    BitmapStore.initialize(conf, false);
+    store = getStore();
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException
+  {
+    store.close();
+    TestUtil.removeCacheParentDirectories(conf, TEST_MAX_DISKS);
+    conf.clear();
+  }
+
+  /**
+   * Verify that a freed slot is reused and no longer owned by its previous tag.
+   */
+  @Test
+  public void testFreedSlotIsReused() throws IOException
+  {
+    BitmapStore.Slot first = store.allocate(100);
+    store.getBitmap(first.getOffset(), 100).set(5);
+    store.free(first.getOffset(), first.getTag(), 100);
+    assertFalse(store.isOwner(first.getOffset(), first.getTag()), "Freed slot is still owned");
+
+    BitmapStore.Slot second = store.allocate(100);
+    assertEquals(second.getOffset(), first.getOffset(), "Freed slot was not reused");
+    assertTrue(store.isOwner(second.getOffset(), second.getTag()));
+    assertFalse(store.isOwner(second.getOffset(), first.getTag()), "Stale tag owns the reused slot");
+    assertFalse(store.getBitmap(second.getOffset(), 100).isSet(5), "Reused slot was not cleared");
+  }
+
+  /**
+   * Verify that freed slots are merged with their buddies and split again, so that the store does not grow.
+   */
+  @Test
+  public void testFreedSlotsAreMerged() throws IOException
+  {
+    BitmapStore.Slot first = store.allocate(8);
+    BitmapStore.Slot second = store.allocate(8);
+    store.free(first.getOffset(), first.getTag(), 8);
+    store.free(second.getOffset(), second.getTag(), 8);
+    long end = store.getEnd();
+
+    BitmapStore.Slot merged = store.allocate(16);
+    assertEquals(merged.getOffset(), 0, "Free buddies were not merged");
+    store.free(merged.getOffset(), merged.getTag(), 16);
+
+    BitmapStore.Slot split = store.allocate(8);
+    assertEquals(split.getOffset(), 0, "Merged slot was not split");
+    BitmapStore.Slot buddy = store.allocate(8);
+    assertEquals(buddy.getOffset(), 8, "Second half of the split slot was not reused");
+    assertEquals(store.getEnd(), end, "Store grew while free slots were available");
+  }
+
+  /**
+   * Verify that slots of different sizes are aligned and do not overlap.
+   */
+  @Test
+  public void testSlotsAreAligned() throws IOException
+  {
+    BitmapStore.Slot small = store.allocate(3);
+    BitmapStore.Slot large = store.allocate(100);
+
+    assertEquals(small.getOffset(), 0);
+    assertEquals(large.getOffset() % BitmapStore.getSlotSize(100), 0);
+    assertTrue(large.getOffset() >= small.getOffset() + BitmapStore.getSlotSize(3));
+  }
+
+  /**
+   * Verify that recovered bitmaps are kept and that the gaps between them are reused after recovery.
+   */
+  @Test
+  public void testRecoverBitmaps() throws IOException
+  {
+    BitmapStore.Slot first = store.allocate(8);
+    BitmapStore.Slot second = store.allocate(8);
+    BitmapStore.Slot third = store.allocate(8);
+    store.getBitmap(third.getOffset(), 8).set(3);
+
+    BitmapStore.initialize(conf, true);
+    store = getStore();
+
+    assertTrue(store.claim(first.getOffset(), first.getTag(), 8));
+    assertFalse(store.claim(first.getOffset(), first.getTag() + 10, 8), "Overlapping slot was claimed");
+    assertTrue(store.claim(third.getOffset(), third.getTag(), 8));
+    assertTrue(store.getBitmap(third.getOffset(), 8).isSet(3), "Bitmap was not persisted");
+    BitmapStore.finishRecovery();
+    assertEquals(store.getEnd(), third.getOffset() + 8);
+
+    BitmapStore.Slot reused = store.allocate(8);
+    assertEquals(reused.getOffset(), second.getOffset(), "Unclaimed slot was not reused");
+    assertTrue(reused.getTag() > third.getTag(), "Tag of a recovered slot was handed out again");
+  }
+
+  private BitmapStore getStore() throws IOException
+  {
+    return BitmapStore.getInstance(CacheUtil.getDirPath(0, conf) + "/fcache/file");
+  }
+}
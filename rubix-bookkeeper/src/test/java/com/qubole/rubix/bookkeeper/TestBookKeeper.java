@@ -20,13 +20,18 @@ import com.qubole.rubix.bookkeeper.utils.DiskUtils;
 import com.qubole.rubix.common.metrics.BookKeeperMetrics;
 import com.qubole.rubix.common.utils.DataGen;
 import com.qubole.rubix.common.utils.TestUtil;
+import com.qubole.rubix.core.SetCachedRequestCoalescer;
+import com.qubole.rubix.spi.BookKeeperFactory;
 import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.CacheEvictionPolicy;
 import com.qubole.rubix.spi.CacheUtil;
 import com.qubole.rubix.spi.ClusterManager;
 import com.qubole.rubix.spi.ClusterType;
+import com.qubole.rubix.spi.thrift.BlockLocation;
 import com.qubole.rubix.spi.thrift.CacheStatusRequest;
 import com.qubole.rubix.spi.thrift.ClusterNode;
 import com.qubole.rubix.spi.thrift.FileInfo;
+import com.qubole.rubix.spi.thrift.Location;
 import com.qubole.rubix.spi.thrift.NodeState;
 import com.qubole.rubix.spi.thrift.ReadDataRequest;
 import com.qubole.rubix.spi.thrift.SetCachedRequest;
@@ -44,9 +49,12 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -441,6 +449,224 @@ public class TestBookKeeper
     assertEquals(metrics.getGauges().get(BookKeeperMetrics.CacheMetric.CACHE_SIZE_GAUGE.getMetricName()).getValue(), totalCacheSize);
   }
 
+  /**
+   * Verify that the cache size metrics follow the blocks being cached, uncached and invalidated.
+   *
+   * @throws TException when file metadata cannot be fetched or refreshed.
+   */
+  @Test
+  public void verifyCacheSizeMetricTracksCachedBlocks() throws TException
+  {
+    CacheConfig.setBlockSize(conf, 1024 * 1024);
+    final long fileLength = 10 * 1024 * 1024;
+    final String diskCacheSizeMetric = BookKeeperMetrics.CacheMetric.CACHE_SIZE_GAUGE.getMetricName() + ".disk"
+        + CacheUtil.getCacheDiskIndex(TEST_REMOTE_PATH, conf);
+
+    bookKeeper.getCacheStatus(new CacheStatusRequest(TEST_REMOTE_PATH, fileLength, TEST_LAST_MODIFIED, 0, 10));
+    bookKeeper.setAllCached(new SetCachedRequest(TEST_REMOTE_PATH, fileLength, TEST_LAST_MODIFIED, 0, 5));
+    assertEquals(metrics.getGauges().get(BookKeeperMetrics.CacheMetric.CACHE_SIZE_GAUGE.getMetricName()).getValue(), 5);
+    assertEquals(metrics.getGauges().get(diskCacheSizeMetric).getValue(), 5);
+
+    bookKeeper.setUncached(new SetCachedRequest(TEST_REMOTE_PATH, fileLength, TEST_LAST_MODIFIED, 1, 2));
+    assertEquals(metrics.getGauges().get(BookKeeperMetrics.CacheMetric.CACHE_SIZE_GAUGE.getMetricName()).getValue(), 4);
+
+    bookKeeper.invalidateFileMetadata(TEST_REMOTE_PATH);
+    assertEquals(metrics.getGauges().get(BookKeeperMetrics.CacheMetric.CACHE_SIZE_GAUGE.getMetricName()).getValue(), 0);
+    assertEquals(metrics.getGauges().get(diskCacheSizeMetric).getValue(), 0);
+  }
+
+  /**
+   * Verify that blocks cached again and the short last block of a file are accounted for with their real size.
+   *
+   * @throws TException when file metadata cannot be fetched or refreshed.
+   */
+  @Test
+  public void verifyCacheSizeMetricCountsNewlyCachedBytes() throws TException
+  {
+    CacheConfig.setBlockSize(conf, 1024 * 1024);
+    final long fileLength = 5 * 1024 * 1024 / 2;
+    final String cacheSizeMetric = BookKeeperMetrics.CacheMetric.CACHE_SIZE_GAUGE.getMetricName();
+    final String writtenBytesMetric = BookKeeperMetrics.CacheMetric.CACHE_WRITTEN_BYTES_COUNT.getMetricName();
+
+    bookKeeper.getCacheStatus(new CacheStatusRequest(TEST_REMOTE_PATH, fileLength, TEST_LAST_MODIFIED, 0, 3));
+    bookKeeper.setAllCached(new SetCachedRequest(TEST_REMOTE_PATH, fileLength, TEST_LAST_MODIFIED, 0, 3));
+    bookKeeper.setAllCached(new SetCachedRequest(TEST_REMOTE_PATH, fileLength, TEST_LAST_MODIFIED, 0, 3));
+
+    assertEquals(metrics.getGauges().get(cacheSizeMetric).getValue(), 2);
+    assertEquals(metrics.getCounters().get(writtenBytesMetric).getCount(), fileLength);
+  }
+
+  /**
+   * Verify that caching the same blocks again does not add to the weight of the file.
+   *
+   * @throws TException when file metadata cannot be fetched or refreshed.
+   */
+  @Test
+  public void testFileWeightUnchangedWhenBlocksCachedAgain() throws TException
+  {
+    CacheConfig.setBlockSize(conf, 1024 * 1024);
+    final long fileLength = 10 * 1024 * 1024;
+
+    bookKeeper.getCacheStatus(new CacheStatusRequest(TEST_REMOTE_PATH, fileLength, TEST_LAST_MODIFIED, 0, 10));
+    bookKeeper.setAllCached(new SetCachedRequest(TEST_REMOTE_PATH, fileLength, TEST_LAST_MODIFIED, 0, 5));
+    int weight = BookKeeper.fileMetadataCache.getIfPresent(TEST_REMOTE_PATH).getWeight(conf);
+    assertEquals(weight, 5 * 1024);
+
+    bookKeeper.setAllCached(new SetCachedRequest(TEST_REMOTE_PATH, fileLength, TEST_LAST_MODIFIED, 0, 5));
+    assertEquals(BookKeeper.fileMetadataCache.getIfPresent(TEST_REMOTE_PATH).getWeight(conf), weight);
+  }
+
+  /**
+   * Verify that a full disk evicts its own least recently used files to keep admitting new files, while the files
+   * of a disk with free space stay cached.
+   */
+  @Test
+  public void testFullDiskEvictsItsOwnFiles() throws Exception
+  {
+    final int numDisks = 2;
+    TestUtil.createCacheParentDirectories(conf, numDisks);
+    try {
+      CacheConfig.setBlockSize(conf, 1024 * 1024);
+      // Every disk may cache 100MB
+      CacheConfig.setCacheDataFullnessMaxSize(conf, 200);
+      bookKeeperMetrics.close();
+      metrics = new MetricRegistry();
+      bookKeeperMetrics = new BookKeeperMetrics(conf, metrics);
+      bookKeeper = new CoordinatorBookKeeper(conf, bookKeeperMetrics);
+      assertEquals(CacheUtil.getCacheDiskCount(conf), numDisks);
+
+      final long fileLength = 10 * 1024 * 1024;
+      final int numBlocks = 10;
+      final String otherDiskPath = getRemotePathOnDisk(1, 0);
+      bookKeeper.getCacheStatus(new CacheStatusRequest(otherDiskPath, fileLength, TEST_LAST_MODIFIED, 0, numBlocks));
+      bookKeeper.setAllCached(new SetCachedRequest(otherDiskPath, fileLength, TEST_LAST_MODIFIED, 0, numBlocks));
+
+      // Ten times the data the first disk may cache
+      for (int i = 0; i < 100; i++) {
+        String remotePath = getRemotePathOnDisk(0, i);
+        List<BlockLocation> locations = bookKeeper.getCacheStatus(
+            new CacheStatusRequest(remotePath, fileLength, TEST_LAST_MODIFIED, 0, numBlocks));
+        assertEquals(locations.get(0).getLocation(), Location.LOCAL, "File on the full disk was not admitted");
+        bookKeeper.setAllCached(new SetCachedRequest(remotePath, fileLength, TEST_LAST_MODIFIED, 0, numBlocks));
+      }
+
+      final String cacheSizeMetric = BookKeeperMetrics.CacheMetric.CACHE_SIZE_GAUGE.getMetricName();
+      assertTrue((Integer) metrics.getGauges().get(cacheSizeMetric + ".disk0").getValue() <= 100, "Full disk did not evict its files");
+      assertEquals(metrics.getGauges().get(cacheSizeMetric + ".disk1").getValue(), 10);
+      assertEquals(BookKeeper.fileMetadataCache.getIfPresent(getRemotePathOnDisk(0, 0)), null);
+      assertTrue(BookKeeper.fileMetadataCache.getIfPresent(otherDiskPath) != null, "File on the other disk was evicted");
+    }
+    finally {
+      FileUtils.deleteDirectory(new File(CacheConfig.getCacheDirPrefixList(conf) + 1));
+    }
+  }
+
+  /**
+   * Verify that, with the TinyLFU policy, a file is only cached on a full disk once it was read by more streams
+   * than the file the disk evicts next, and that lookups which do not count as reads leave it rejected.
+   */
+  @Test
+  public void testTinyLfuWeighsNewFileAgainstLeastRecentlyUsedFile() throws TException
+  {
+    CacheConfig.setBlockSize(conf, 1024 * 1024);
+    CacheConfig.setCacheDataFullnessMaxSize(conf, 20);
+    CacheConfig.setCacheEvictionPolicy(conf, CacheEvictionPolicy.TINY_LFU);
+    bookKeeperMetrics.close();
+    metrics = new MetricRegistry();
+    bookKeeperMetrics = new BookKeeperMetrics(conf, metrics);
+    bookKeeper = new CoordinatorBookKeeper(conf, bookKeeperMetrics);
+
+    final long fileLength = 10 * 1024 * 1024;
+    final int numBlocks = 10;
+    final String hotPath = TEST_REMOTE_PATH + "_hot";
+    final String recentPath = TEST_REMOTE_PATH + "_recent";
+    final String newPath = TEST_REMOTE_PATH + "_new";
+
+    // The hot file is read by two streams, and the disk is full once the recent file is cached too
+    bookKeeper.getCacheStatus(new CacheStatusRequest(hotPath, fileLength, TEST_LAST_MODIFIED, 0, numBlocks));
+    bookKeeper.getCacheStatus(new CacheStatusRequest(hotPath, fileLength, TEST_LAST_MODIFIED, 0, numBlocks));
+    bookKeeper.setAllCached(new SetCachedRequest(hotPath, fileLength, TEST_LAST_MODIFIED, 0, numBlocks));
+    bookKeeper.getCacheStatus(new CacheStatusRequest(recentPath, fileLength, TEST_LAST_MODIFIED, 0, numBlocks));
+    bookKeeper.setAllCached(new SetCachedRequest(recentPath, fileLength, TEST_LAST_MODIFIED, 0, numBlocks));
+
+    CacheStatusRequest request = new CacheStatusRequest(newPath, fileLength, TEST_LAST_MODIFIED, 0, numBlocks);
+    for (int i = 0; i < 2; i++) {
+      assertEquals(bookKeeper.getCacheStatus(request).get(0).getLocation(), Location.UNKNOWN,
+          "File read less often than the least recently used file admitted");
+    }
+    request.setCountAccess(false);
+    assertEquals(bookKeeper.getCacheStatus(request).get(0).getLocation(), Location.UNKNOWN,
+        "Lookup of a stream which already counted its read made the file more popular");
+
+    request.setCountAccess(true);
+    assertEquals(bookKeeper.getCacheStatus(request).get(0).getLocation(), Location.LOCAL,
+        "File read more often than the least recently used file not admitted");
+  }
+
+  private String getRemotePathOnDisk(int disk, int index)
+  {
+    int found = 0;
+    for (int i = 0; ; i++) {
+      String remotePath = TEST_REMOTE_PATH + "_" + i;
+      if (CacheUtil.getCacheDiskIndex(remotePath, conf) == disk && found++ == index) {
+        return remotePath;
+      }
+    }
+  }
+
+  /**
+   * Verify that trimmed blocks keep their data for the readers told that they are cached until the holes are
+   * punched, and that blocks handed out for download again in the meantime are not punched.
+   */
+  @Test
+  public void testTrimmedBlocksReadableUntilHolesArePunched() throws Exception
+  {
+    CacheConfig.setBlockEvictionEnabled(conf, true);
+    bookKeeperMetrics.close();
+    metrics = new MetricRegistry();
+    bookKeeperMetrics = new BookKeeperMetrics(conf, metrics);
+    bookKeeper = new CoordinatorBookKeeper(conf, bookKeeperMetrics);
+
+    final int numBlocks = (int) (TEST_FILE_LENGTH / TEST_BLOCK_SIZE);
+    File localFile = new File(CacheUtil.getLocalPath(TEST_REMOTE_PATH, conf));
+    localFile.getParentFile().mkdirs();
+    byte[] data = new byte[(int) TEST_FILE_LENGTH];
+    Arrays.fill(data, (byte) 'a');
+    Files.write(localFile.toPath(), data);
+
+    bookKeeper.getCacheStatus(new CacheStatusRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 0, numBlocks));
+    bookKeeper.setAllCached(new SetCachedRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 0, numBlocks));
+    FileMetadata md = BookKeeper.fileMetadataCache.getIfPresent(TEST_REMOTE_PATH);
+
+    // A reader learns that block 1 is cached before the trim
+    List<BlockLocation> locations = bookKeeper.getCacheStatus(
+        new CacheStatusRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 1, 2));
+    assertEquals(locations.get(0).getLocation(), Location.CACHED);
+
+    // Every block was accessed since caching, so only the second trim evicts the blocks other than block 0
+    assertEquals(md.trimColdBlocks(), -1);
+    md.setBlockAccessed(0);
+    assertEquals(md.trimColdBlocks(), numBlocks - 1);
+    assertEquals(readLocalByte(localFile, TEST_BLOCK_SIZE), 'a', "Trimmed block was zeroed before the holes were punched");
+
+    // Block 2 is downloaded again before the holes are punched
+    locations = bookKeeper.getCacheStatus(new CacheStatusRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 2, 3));
+    assertEquals(locations.get(0).getLocation(), Location.LOCAL);
+
+    assertEquals(md.punchPendingHoles(), numBlocks - 2);
+    assertEquals(readLocalByte(localFile, 0), 'a', "Kept block was punched");
+    assertEquals(readLocalByte(localFile, TEST_BLOCK_SIZE), 0, "Trimmed block was not punched");
+    assertEquals(readLocalByte(localFile, 2 * TEST_BLOCK_SIZE), 'a', "Block downloaded again was punched");
+  }
+
+  private static int readLocalByte(File file, long position) throws IOException
+  {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      raf.seek(position);
+      return raf.read();
+    }
+  }
+
   /**
    * Verify that the metric representing total cache evictions is correctly registered & incremented.
    *
@@ -498,4 +724,163 @@ public class TestBookKeeper
     assertEquals(metrics.getGauges().get(BookKeeperMetrics.CacheMetric.CACHE_HIT_RATE_GAUGE.getMetricName()).getValue(), 0.5);
     assertEquals(metrics.getGauges().get(BookKeeperMetrics.CacheMetric.CACHE_MISS_RATE_GAUGE.getMetricName()).getValue(), 0.5);
   }
+
+  /**
+   * Verify that the statuses looked up without metrics and reported once used are counted like regular lookups.
+   *
+   * @throws TException when file metadata cannot be fetched or refreshed.
+   */
+  @Test
+  public void verifyUsedCacheStatusMetricsAreReported() throws TException
+  {
+    CacheStatusRequest request = new CacheStatusRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED,
+        TEST_START_BLOCK, TEST_END_BLOCK);
+    request.setIncrMetrics(false);
+    List<BlockLocation> blockLocations = bookKeeper.getCacheStatus(request);
+
+    assertEquals(metrics.getCounters().get(BookKeeperMetrics.CacheMetric.TOTAL_REQUEST_COUNT.getMetricName()).getCount(), 0);
+
+    List<Long> blockNums = new ArrayList<>();
+    for (long blockNum = TEST_START_BLOCK; blockNum < TEST_END_BLOCK; blockNum++) {
+      blockNums.add(blockNum);
+    }
+    bookKeeper.incrCacheStatusMetrics(TEST_REMOTE_PATH, blockLocations, blockNums);
+
+    long totalRequests = TEST_END_BLOCK - TEST_START_BLOCK;
+    assertEquals(metrics.getCounters().get(BookKeeperMetrics.CacheMetric.TOTAL_REQUEST_COUNT.getMetricName()).getCount(), totalRequests);
+    assertEquals(metrics.getCounters().get(BookKeeperMetrics.CacheMetric.REMOTE_REQUEST_COUNT.getMetricName()).getCount(), totalRequests);
+    assertEquals(metrics.getCounters().get(BookKeeperMetrics.CacheMetric.CACHE_REQUEST_COUNT.getMetricName()).getCount(), 0);
+  }
+
+  /**
+   * Verify that the blocks whose status was looked up without metrics only count as accessed once the status is used.
+   *
+   * @throws TException when file metadata cannot be fetched or refreshed.
+   */
+  @Test
+  public void testUsedCacheStatusMarksBlocksAccessed() throws Exception
+  {
+    CacheConfig.setBlockEvictionEnabled(conf, true);
+    bookKeeperMetrics.close();
+    metrics = new MetricRegistry();
+    bookKeeperMetrics = new BookKeeperMetrics(conf, metrics);
+    bookKeeper = new CoordinatorBookKeeper(conf, bookKeeperMetrics);
+
+    final int numBlocks = (int) (TEST_FILE_LENGTH / TEST_BLOCK_SIZE);
+    bookKeeper.getCacheStatus(new CacheStatusRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 0, numBlocks));
+    bookKeeper.setAllCached(new SetCachedRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 0, numBlocks));
+    FileMetadata md = BookKeeper.fileMetadataCache.getIfPresent(TEST_REMOTE_PATH);
+    assertEquals(md.trimColdBlocks(), -1);
+
+    CacheStatusRequest request = new CacheStatusRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 0, 3);
+    request.setIncrMetrics(false);
+    List<BlockLocation> blockLocations = bookKeeper.getCacheStatus(request);
+    bookKeeper.incrCacheStatusMetrics(TEST_REMOTE_PATH, blockLocations.subList(1, 2), Arrays.asList(1L));
+
+    // Only the block whose status was used is kept
+    assertEquals(md.trimColdBlocks(), numBlocks - 1);
+    assertTrue(md.isBlockCached(1), "Block whose status was used was evicted");
+    assertTrue(!md.isBlockCached(0) && !md.isBlockCached(2), "Blocks whose status was not used were kept");
+  }
+
+  /**
+   * Verify that batched requests report and update the cache status of every file and range in the batch.
+   *
+   * @throws TException when file metadata cannot be fetched or refreshed.
+   */
+  @Test
+  public void testCacheStatusBatch() throws TException
+  {
+    final String otherRemotePath = TEST_REMOTE_PATH + "_other";
+    List<CacheStatusRequest> requests = new ArrayList<>();
+    requests.add(new CacheStatusRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 0, 2));
+    requests.add(new CacheStatusRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 10, 12));
+    requests.add(new CacheStatusRequest(otherRemotePath, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 0, 2));
+    bookKeeper.getCacheStatusBatch(requests);
+
+    List<SetCachedRequest> setCachedRequests = new ArrayList<>();
+    setCachedRequests.add(new SetCachedRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 10, 12));
+    setCachedRequests.add(new SetCachedRequest(otherRemotePath, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 0, 1));
+    bookKeeper.setAllCachedBatch(setCachedRequests);
+
+    List<List<BlockLocation>> locations = bookKeeper.getCacheStatusBatch(requests);
+    assertEquals(locations.size(), requests.size());
+    assertEquals(locations.get(0).get(0).getLocation(), Location.LOCAL);
+    assertEquals(locations.get(0).get(1).getLocation(), Location.LOCAL);
+    assertEquals(locations.get(1).get(0).getLocation(), Location.CACHED);
+    assertEquals(locations.get(1).get(1).getLocation(), Location.CACHED);
+    assertEquals(locations.get(2).get(0).getLocation(), Location.CACHED);
+    assertEquals(locations.get(2).get(1).getLocation(), Location.LOCAL);
+  }
+
+  /**
+   * Verify that updates sent through the coalescer mark the blocks as cached.
+   *
+   * @throws TException when file metadata cannot be fetched or refreshed.
+   */
+  @Test
+  public void testCoalescedSetAllCached() throws TException
+  {
+    CacheStatusRequest request = new CacheStatusRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED,
+        TEST_START_BLOCK, TEST_END_BLOCK);
+    bookKeeper.getCacheStatus(request);
+
+    SetCachedRequestCoalescer coalescer = new SetCachedRequestCoalescer(new BookKeeperFactory(bookKeeper), conf);
+    List<SetCachedRequest> setCachedRequests = new ArrayList<>();
+    for (long block = TEST_START_BLOCK; block < TEST_END_BLOCK; block++) {
+      setCachedRequests.add(new SetCachedRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, block, block + 1));
+    }
+    coalescer.setAllCached(setCachedRequests);
+
+    for (BlockLocation location : bookKeeper.getCacheStatus(request)) {
+      assertEquals(location.getLocation(), Location.CACHED);
+    }
+  }
+
+  /**
+   * Verify that updates beyond the batch sent by the caller are sent in the background.
+   *
+   * @throws Exception when file metadata cannot be fetched or refreshed.
+   */
+  @Test
+  public void testCoalescedSetAllCached_sendsLeftoverUpdatesInBackground() throws Exception
+  {
+    CacheStatusRequest request = new CacheStatusRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 0, 2);
+    bookKeeper.getCacheStatus(request);
+
+    SetCachedRequestCoalescer coalescer = new SetCachedRequestCoalescer(new BookKeeperFactory(bookKeeper), conf);
+    List<SetCachedRequest> setCachedRequests = new ArrayList<>();
+    for (int i = 0; i < 1500; i++) {
+      setCachedRequests.add(new SetCachedRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 0, 1));
+    }
+    setCachedRequests.add(new SetCachedRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 1, 2));
+    coalescer.setAllCached(setCachedRequests);
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (bookKeeper.getCacheStatus(request).get(1).getLocation() != Location.CACHED
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(bookKeeper.getCacheStatus(request).get(1).getLocation(), Location.CACHED);
+  }
+
+  /**
+   * Verify that uncaching a corrupted block only affects that block.
+   *
+   * @throws TException when file metadata cannot be fetched or refreshed.
+   */
+  @Test
+  public void testSetUncached() throws TException
+  {
+    CacheStatusRequest request = new CacheStatusRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 0, 3);
+    bookKeeper.getCacheStatus(request);
+    bookKeeper.setAllCached(new SetCachedRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 0, 3));
+
+    bookKeeper.setUncached(new SetCachedRequest(TEST_REMOTE_PATH, TEST_FILE_LENGTH, TEST_LAST_MODIFIED, 1, 2));
+
+    List<BlockLocation> locations = bookKeeper.getCacheStatus(request);
+    assertEquals(locations.get(0).getLocation(), Location.CACHED);
+    assertEquals(locations.get(1).getLocation(), Location.LOCAL);
+    assertEquals(locations.get(2).getLocation(), Location.CACHED);
+  }
 }
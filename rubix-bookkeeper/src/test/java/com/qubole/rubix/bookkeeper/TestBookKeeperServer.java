@@ -14,9 +14,13 @@ package com.qubole.rubix.bookkeeper;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.testing.FakeTicker;
+import com.qubole.rubix.common.metrics.BookKeeperMetrics;
 import com.qubole.rubix.common.metrics.MetricsReporter;
 import com.qubole.rubix.common.utils.TestUtil;
+import com.qubole.rubix.spi.BookKeeperFactory;
 import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.RetryingBookkeeperClient;
+import com.qubole.rubix.spi.ServerMode;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -161,6 +165,28 @@ public class TestBookKeeperServer extends BaseServerTest
     stopBookKeeperServer();
   }
 
+  /**
+   * Verify that clients can talk to the BookKeeper server in each of the non-blocking server modes.
+   */
+  @Test
+  public void testNonBlockingServerModes() throws Exception
+  {
+    for (ServerMode serverMode : new ServerMode[] {ServerMode.THREADED_SELECTOR, ServerMode.HSHA}) {
+      CacheConfig.setServerMode(conf, serverMode);
+      metrics = new MetricRegistry();
+
+      startCoordinatorBookKeeperServer(conf, metrics);
+      try (RetryingBookkeeperClient client = new BookKeeperFactory().createBookKeeperClient(conf)) {
+        assertTrue(client.isBookKeeperAlive(), "BookKeeper is not alive in " + serverMode + " mode");
+        assertTrue(metrics.getNames().contains(BookKeeperMetrics.ServerMetric.SERVER_QUEUE_SIZE_GAUGE.getMetricName()));
+        assertTrue(metrics.getNames().contains(BookKeeperMetrics.ServerMetric.SERVER_HANDLER_LATENCY_TIMER.getMetricName()));
+      }
+      finally {
+        stopBookKeeperServer();
+      }
+    }
+  }
+
   /**
    * Verify that all registered metrics are removed once the BookKeeper server has stopped.
    */
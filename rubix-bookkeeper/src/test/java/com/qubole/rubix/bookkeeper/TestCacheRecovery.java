@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+import com.codahale.metrics.MetricRegistry;
+import com.qubole.rubix.bookkeeper.exception.BookKeeperInitializationException;
+import com.qubole.rubix.common.metrics.BookKeeperMetrics;
+import com.qubole.rubix.common.utils.DataGen;
+import com.qubole.rubix.common.utils.TestUtil;
+import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.CacheUtil;
+import com.qubole.rubix.spi.thrift.BlockLocation;
+import com.qubole.rubix.spi.thrift.CacheStatusRequest;
+import com.qubole.rubix.spi.thrift.Location;
+import com.qubole.rubix.spi.thrift.ReadDataRequest;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.thrift.shaded.TException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestCacheRecovery
+{
+  private static final String TEST_CACHE_DIR_PREFIX = TestUtil.getTestCacheDirPrefix("TestCacheRecovery");
+  private static final int TEST_MAX_DISKS = 1;
+  private static final String BACKEND_FILE_NAME = "backendFile";
+  private static final int TEST_BLOCK_SIZE = 100;
+  private static final long TEST_LAST_MODIFIED = 1514764800; // 2018-01-01T00:00:00
+  private static final int TEST_READ_LENGTH = 250;
+
+  private final Configuration conf = new Configuration();
+
+  private String remotePath;
+  private long fileLength;
+  private BookKeeperMetrics bookKeeperMetrics;
+  private BookKeeper bookKeeper;
+
+  @BeforeMethod
+  public void setUp() throws IOException, BookKeeperInitializationException
+  {
+    CacheConfig.setCacheDataDirPrefix(conf, TEST_CACHE_DIR_PREFIX);
+    CacheConfig.setBlockSize(conf, TEST_BLOCK_SIZE);
+    CacheConfig.setMaxDisks(conf, TEST_MAX_DISKS);
+
+    TestUtil.createCacheParentDirectories(conf, TEST_MAX_DISKS);
+
+    Path backendFilePath = new Path(TestUtil.getDefaultTestDirectoryPath(conf), BACKEND_FILE_NAME);
+    DataGen.populateFile(backendFilePath.toString());
+    remotePath = "file://" + backendFilePath.toString();
+    fileLength = new File(backendFilePath.toString()).length();
+
+    bookKeeperMetrics = new BookKeeperMetrics(conf, new MetricRegistry());
+    bookKeeper = new CoordinatorBookKeeper(conf, bookKeeperMetrics);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception
+  {
+    TestUtil.removeCacheParentDirectories(conf, TEST_MAX_DISKS);
+
+    bookKeeperMetrics.close();
+    conf.clear();
+  }
+
+  /**
+   * Verify that cached blocks are still reported as cached after the BookKeeper restarts.
+   */
+  @Test
+  public void testRecoverCachedFilesDuringStart() throws TException, IOException, BookKeeperInitializationException
+  {
+    assertTrue(bookKeeper.readData(new ReadDataRequest(remotePath, 0, TEST_READ_LENGTH, fileLength, TEST_LAST_MODIFIED)));
+
+    restartBookKeeper(true);
+
+    List<BlockLocation> locations = getCacheStatus(0, 4);
+    assertEquals(locations.get(0).getLocation(), Location.CACHED);
+    assertEquals(locations.get(1).getLocation(), Location.CACHED);
+    assertEquals(locations.get(2).getLocation(), Location.CACHED);
+    assertEquals(locations.get(3).getLocation(), Location.LOCAL);
+
+    FileMetadata md = BookKeeper.fileMetadataCache.getIfPresent(remotePath);
+    assertNotNull(md, "Metadata was not recovered");
+    assertEquals(md.getCurrentFileSize(), 3 * TEST_BLOCK_SIZE);
+    assertEquals(md.getLastModified(), TEST_LAST_MODIFIED);
+  }
+
+  /**
+   * Verify that a cached file which does not hold all the blocks marked in its metadata is discarded.
+   */
+  @Test
+  public void testDiscardTruncatedFileDuringStart() throws TException, IOException, BookKeeperInitializationException
+  {
+    assertTrue(bookKeeper.readData(new ReadDataRequest(remotePath, 0, TEST_READ_LENGTH, fileLength, TEST_LAST_MODIFIED)));
+    String localPath = CacheUtil.getLocalPath(remotePath, conf);
+    DataGen.truncateFile(localPath, TEST_BLOCK_SIZE);
+
+    restartBookKeeper(true);
+
+    assertNull(BookKeeper.fileMetadataCache.getIfPresent(remotePath));
+    assertFalse(new File(localPath).exists(), "Inconsistent cached file was not removed");
+    assertEquals(getCacheStatus(0, 1).get(0).getLocation(), Location.LOCAL);
+  }
+
+  /**
+   * Verify that metadata files without recovery information are discarded along with their data files.
+   */
+  @Test
+  public void testDiscardMetadataWithoutTrailerDuringStart() throws TException, IOException, BookKeeperInitializationException
+  {
+    assertTrue(bookKeeper.readData(new ReadDataRequest(remotePath, 0, TEST_READ_LENGTH, fileLength, TEST_LAST_MODIFIED)));
+    String localPath = CacheUtil.getLocalPath(remotePath, conf);
+    String mdFilePath = CacheUtil.getMetadataFilePath(remotePath, conf);
+    try (RandomAccessFile mdFile = new RandomAccessFile(mdFilePath, "rw")) {
+      mdFile.setLength((fileLength / TEST_BLOCK_SIZE + 8) / 8);
+    }
+
+    restartBookKeeper(true);
+
+    assertNull(BookKeeper.fileMetadataCache.getIfPresent(remotePath));
+    assertFalse(new File(localPath).exists(), "Unrecoverable cached file was not removed");
+    assertFalse(new File(mdFilePath).exists(), "Unrecoverable metadata file was not removed");
+  }
+
+  /**
+   * Verify that cached files are removed when the BookKeeper restarts with recovery disabled.
+   */
+  @Test
+  public void testCleanupCachedFilesWithoutRecovery() throws TException, IOException, BookKeeperInitializationException
+  {
+    assertTrue(bookKeeper.readData(new ReadDataRequest(remotePath, 0, TEST_READ_LENGTH, fileLength, TEST_LAST_MODIFIED)));
+
+    restartBookKeeper(false);
+
+    assertNull(BookKeeper.fileMetadataCache.getIfPresent(remotePath));
+    assertFalse(new File(CacheUtil.getLocalPath(remotePath, conf)).exists(), "Cached file was not removed");
+  }
+
+  private void restartBookKeeper(boolean recoveryEnabled) throws BookKeeperInitializationException, IOException
+  {
+    CacheConfig.setRecoverFilesDuringStart(conf, recoveryEnabled);
+    bookKeeperMetrics.close();
+    bookKeeperMetrics = new BookKeeperMetrics(conf, new MetricRegistry());
+    bookKeeper = new CoordinatorBookKeeper(conf, bookKeeperMetrics);
+  }
+
+  private List<BlockLocation> getCacheStatus(long startBlock, long endBlock) throws TException
+  {
+    return bookKeeper.getCacheStatus(new CacheStatusRequest(remotePath, fileLength, TEST_LAST_MODIFIED, startBlock, endBlock));
+  }
+}
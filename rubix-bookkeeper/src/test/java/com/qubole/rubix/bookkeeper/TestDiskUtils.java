@@ -82,4 +82,35 @@ public class TestDiskUtils
     assertTrue(dsize == 2, "DiskSize is reported :" + dsize + " but expected : 2");
     file.deleteOnExit();
   }
+
+  @Test
+  public void testPunchHole_releasesSpace() throws IOException
+  {
+    String fileName = testDirectory + "/testfile";
+    File dirName = new File(testDirectory);
+    RandomAccessFile rafile = new RandomAccessFile(fileName, "rw");
+    rafile.write(new byte[4 * 1024 * 1024]);
+    rafile.close();
+
+    assertTrue(DiskUtils.punchHole(fileName, 0, 2 * 1024 * 1024), "Hole could not be punched");
+
+    File file = new File(fileName);
+    long dsize = DiskUtils.getDirectorySizeInMB(dirName);
+    assertTrue(dsize == 2, "DiskSize is reported :" + dsize + " but expected : 2");
+    assertTrue(file.length() == 4 * 1024 * 1024, "File length changed to " + file.length());
+    file.deleteOnExit();
+  }
+
+  @Test
+  public void testPunchHole_pathWithShellCharacters() throws IOException
+  {
+    String fileName = testDirectory + "/test file;touch injected";
+    RandomAccessFile rafile = new RandomAccessFile(fileName, "rw");
+    rafile.write(new byte[4 * 1024 * 1024]);
+    rafile.close();
+
+    assertTrue(DiskUtils.punchHole(fileName, 0, 2 * 1024 * 1024), "Hole could not be punched");
+    assertTrue(!new File("injected").exists() && !new File(testDirectory + "/injected").exists(), "Path was run by a shell");
+    new File(fileName).deleteOnExit();
+  }
 }
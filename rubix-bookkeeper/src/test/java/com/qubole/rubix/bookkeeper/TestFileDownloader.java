@@ -161,4 +161,33 @@ public class TestFileDownloader
     }
     assertTrue(cacheStatus.get(i).getLocation() == Location.LOCAL, "Data is cached");
   }
+
+  @Test
+  public void testProcessDownloadRequests_keepsCompletedBlocksOfPartialDownload() throws Exception
+  {
+    DataGen.populateFile(TEST_BACKEND_FILE_NAME);
+    final File file = new File(TEST_BACKEND_FILE_NAME);
+    final Path backendPath = new Path("file:///" + TEST_BACKEND_FILE_NAME);
+    final ConcurrentMap<String, DownloadRequestContext> contextMap = new ConcurrentHashMap<>();
+
+    // The download stops at the end of the backend file, short of the requested range
+    final long expectedFileLength = file.length() + 1000;
+    final int completedBlocks = (int) (file.length() / 200);
+    CacheStatusRequest request = new CacheStatusRequest(backendPath.toString(), expectedFileLength, 1000, 0,
+        completedBlocks + 1);
+    bookKeeper.getCacheStatus(request);
+
+    DownloadRequestContext context = new DownloadRequestContext(backendPath.toString(), expectedFileLength, 1000);
+    contextMap.put(backendPath.toString(), context);
+    context.addDownloadRange(0, expectedFileLength);
+
+    final List<FileDownloadRequestChain> requestChains = downloader.getFileDownloadRequestChains(contextMap);
+    assertTrue(downloader.processDownloadRequests(requestChains) == 0, "Partial download was counted");
+
+    List<BlockLocation> cacheStatus = bookKeeper.getCacheStatus(request);
+    for (int i = 0; i < completedBlocks; i++) {
+      assertTrue(cacheStatus.get(i).getLocation() == Location.CACHED, "Completed block " + i + " is not cached");
+    }
+    assertTrue(cacheStatus.get(completedBlocks).getLocation() == Location.LOCAL, "Incomplete block is cached");
+  }
 }
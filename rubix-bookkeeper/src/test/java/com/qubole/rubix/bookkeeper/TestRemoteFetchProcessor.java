@@ -19,6 +19,7 @@ import com.qubole.rubix.common.utils.DataGen;
 import com.qubole.rubix.common.utils.TestUtil;
 import com.qubole.rubix.spi.CacheConfig;
 import com.qubole.rubix.spi.CacheUtil;
+import com.qubole.rubix.spi.thrift.CacheStatusRequest;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -262,4 +263,29 @@ public class TestRemoteFetchProcessor
           "Downloaded data didn't match Expected : " + expected + " Got : " + resultString);
     }
   }
+
+  @Test
+  public void testProcessRequest_skipsCachedBlocks() throws Exception
+  {
+    DataGen.populateFile(TEST_BACKEND_FILE_NAME);
+    final File file = new File(TEST_BACKEND_FILE_NAME);
+    final Path backendPath = new Path("file:///" + TEST_BACKEND_FILE_NAME);
+    final long lastModified = 10000;
+
+    bookKeeper.getCacheStatus(new CacheStatusRequest(backendPath.toString(), file.length(), lastModified, 0, 1));
+    processor.addToProcessQueue(backendPath.toString(), 0, (int) file.length(), file.length(), lastModified);
+    processor.processRequest(System.currentTimeMillis() + TEST_REMOTE_FETCH_PROCESS_INTERVAL);
+
+    assertTrue(bookKeeper.isBlockCached(backendPath.toString(), lastModified, 0), "Block should have been cached");
+    assertEquals(metrics.getCounters().get(BookKeeperMetrics.CacheMetric.ASYNC_SKIPPED_BLOCK_COUNT.getMetricName())
+        .getCount(), 0, "No block should have been skipped");
+
+    processor.addToProcessQueue(backendPath.toString(), 0, (int) file.length(), file.length(), lastModified);
+    processor.processRequest(System.currentTimeMillis() + TEST_REMOTE_FETCH_PROCESS_INTERVAL);
+
+    assertEquals(metrics.getCounters().get(BookKeeperMetrics.CacheMetric.ASYNC_SKIPPED_BLOCK_COUNT.getMetricName())
+        .getCount(), 1, "The cached block should have been skipped");
+    assertEquals(metrics.getTimers().get(BookKeeperMetrics.CacheMetric.ASYNC_DOWNLOAD_TIMER.getMetricName())
+        .getCount(), 1, "The cached block should not have been downloaded again");
+  }
 }
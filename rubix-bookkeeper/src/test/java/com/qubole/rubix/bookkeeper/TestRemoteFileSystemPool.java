@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+import com.qubole.rubix.spi.CacheConfig;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+public class TestRemoteFileSystemPool
+{
+  private static final Path REMOTE_PATH = new Path("file:///tmp/testRemoteFileSystemPool");
+  private static final Path OTHER_REMOTE_PATH = new Path("file:///tmp/testRemoteFileSystemPool_other");
+
+  @Test
+  public void testAcquire_reusesFileSystem() throws IOException
+  {
+    RemoteFileSystemPool fileSystems = new RemoteFileSystemPool(new Configuration());
+    RemoteFileSystemPool.Handle first = fileSystems.acquire(REMOTE_PATH);
+    first.close();
+    RemoteFileSystemPool.Handle second = fileSystems.acquire(OTHER_REMOTE_PATH);
+    assertSame(second.getFileSystem(), first.getFileSystem());
+    second.close();
+
+    assertEquals(fileSystems.getMissCount(), 1);
+    assertEquals(fileSystems.getHitCount(), 1);
+    fileSystems.close();
+  }
+
+  @Test
+  public void testAcquire_doesNotShareCachedFileSystem() throws IOException
+  {
+    Configuration conf = new Configuration();
+    RemoteFileSystemPool fileSystems = new RemoteFileSystemPool(conf);
+    RemoteFileSystemPool.Handle handle = fileSystems.acquire(REMOTE_PATH);
+    assertNotSame(handle.getFileSystem(), FileSystem.get(REMOTE_PATH.toUri(), conf));
+    handle.close();
+    fileSystems.close();
+  }
+
+  @Test
+  public void testAcquire_poolDisabled() throws IOException
+  {
+    Configuration conf = new Configuration();
+    CacheConfig.setRemoteFileSystemPoolEnabled(conf, false);
+    RemoteFileSystemPool fileSystems = new RemoteFileSystemPool(conf);
+    RemoteFileSystemPool.Handle first = fileSystems.acquire(REMOTE_PATH);
+    RemoteFileSystemPool.Handle second = fileSystems.acquire(REMOTE_PATH);
+    assertNotSame(second.getFileSystem(), first.getFileSystem());
+    first.close();
+    second.close();
+
+    assertEquals(fileSystems.getMissCount(), 0);
+  }
+}
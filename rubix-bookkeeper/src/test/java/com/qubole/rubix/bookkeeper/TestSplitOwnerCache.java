@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+import com.qubole.rubix.bookkeeper.utils.ConsistentHashUtil;
+import com.qubole.rubix.spi.thrift.ClusterNode;
+import com.qubole.rubix.spi.thrift.NodeState;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestSplitOwnerCache
+{
+  private static final String REMOTE_PATH = "file:///tmp/testSplitOwnerCache";
+  private static final long SPLIT_SIZE = 100;
+  private static final long FILE_LENGTH = 250;
+
+  @Test
+  public void testOwnersMatchConsistentHashing()
+  {
+    List<ClusterNode> nodes = getNodes(5);
+    SplitOwnerCache.FileSplitOwners owners = new SplitOwnerCache(SPLIT_SIZE, 10)
+        .getFileSplitOwners(nodes, "node2", REMOTE_PATH, FILE_LENGTH);
+
+    assertEquals(owners.getSplitCount(), 3);
+    String[] keys = {REMOTE_PATH + 0 + 100, REMOTE_PATH + 100 + 200, REMOTE_PATH + 200 + 250};
+    for (int split = 0; split < keys.length; split++) {
+      String expectedOwner = ConsistentHashUtil.getHashedNodeForKey(nodes, keys[split]);
+      int owner = owners.getOwner(split);
+      assertEquals(owners.getNodeUrl(owner), expectedOwner, "Wrong owner for split " + split);
+      assertEquals(owners.isLocal(owner), expectedOwner.equals("node2"), "Wrong locality for split " + split);
+    }
+  }
+
+  @Test
+  public void testOwnersReusedUntilMembershipChanges()
+  {
+    SplitOwnerCache splitOwnerCache = new SplitOwnerCache(SPLIT_SIZE, 10);
+    SplitOwnerCache.FileSplitOwners owners = splitOwnerCache.getFileSplitOwners(getNodes(5), "node0", REMOTE_PATH, FILE_LENGTH);
+
+    assertSame(splitOwnerCache.getFileSplitOwners(getNodes(5), "node0", REMOTE_PATH, FILE_LENGTH), owners,
+        "Owners should be reused for an equal list of nodes");
+    assertNotSame(splitOwnerCache.getFileSplitOwners(getNodes(5), "node0", REMOTE_PATH, FILE_LENGTH + 1), owners,
+        "Owners should be recomputed for a different file length");
+
+    List<ClusterNode> nodes = getNodes(5);
+    nodes.get(4).setNodeState(NodeState.INACTIVE);
+    SplitOwnerCache.FileSplitOwners newOwners = splitOwnerCache.getFileSplitOwners(nodes, "node0", REMOTE_PATH, FILE_LENGTH);
+    assertNotSame(newOwners, owners, "Owners should be recomputed once membership changes");
+    for (int split = 0; split < newOwners.getSplitCount(); split++) {
+      assertFalse(newOwners.getNodeUrl(newOwners.getOwner(split)).equals("node4"), "Split owned by an inactive node");
+    }
+  }
+
+  @Test
+  public void testNoClusterNodes()
+  {
+    SplitOwnerCache splitOwnerCache = new SplitOwnerCache(SPLIT_SIZE, 10);
+
+    assertNull(splitOwnerCache.getFileSplitOwners(null, "node0", REMOTE_PATH, FILE_LENGTH));
+    assertNull(splitOwnerCache.getFileSplitOwners(new ArrayList<ClusterNode>(), "node0", REMOTE_PATH, FILE_LENGTH));
+    assertTrue(splitOwnerCache.getFileSplitOwners(getNodes(1), "node0", REMOTE_PATH, 0).getSplitCount() == 0);
+  }
+
+  private static List<ClusterNode> getNodes(int count)
+  {
+    List<ClusterNode> nodes = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      nodes.add(new ClusterNode("node" + i, NodeState.ACTIVE));
+    }
+    return nodes;
+  }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.bookkeeper;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestTinyLfuEvictionPolicy
+{
+  private static final String HOT_FILE = "file:///tmp/testTinyLfu/hot";
+  private static final String SCANNED_FILE = "file:///tmp/testTinyLfu/scanned";
+
+  @Test
+  public void testAdmit_withoutVictim()
+  {
+    TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(16);
+
+    assertTrue(policy.admit(SCANNED_FILE, null), "File not admitted on a disk without other files");
+  }
+
+  @Test
+  public void testAdmit_rejectsFileRequestedLessThanVictim()
+  {
+    TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(16);
+    policy.recordAccess(HOT_FILE);
+    policy.recordAccess(HOT_FILE);
+
+    policy.recordAccess(SCANNED_FILE);
+    assertFalse(policy.admit(SCANNED_FILE, HOT_FILE), "File read once admitted over a more popular file");
+    policy.recordAccess(SCANNED_FILE);
+    assertFalse(policy.admit(SCANNED_FILE, HOT_FILE), "File read as often as the victim admitted");
+    policy.recordAccess(SCANNED_FILE);
+    assertTrue(policy.admit(SCANNED_FILE, HOT_FILE), "File read more often than the victim not admitted");
+  }
+
+  @Test
+  public void testAdmit_doesNotRecordAccess()
+  {
+    TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(16);
+    policy.recordAccess(HOT_FILE);
+
+    for (int i = 0; i < 3; i++) {
+      assertFalse(policy.admit(SCANNED_FILE, HOT_FILE), "Lookups without access made the file more popular");
+    }
+  }
+}
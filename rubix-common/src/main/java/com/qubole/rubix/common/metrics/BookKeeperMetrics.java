@@ -201,12 +201,15 @@ public class BookKeeperMetrics implements AutoCloseable
   public enum CacheMetric
   {
     CACHE_EVICTION_COUNT("rubix.bookkeeper.count.cache_eviction"),
+    CACHE_BLOCK_EVICTION_COUNT("rubix.bookkeeper.count.cache_block_eviction"),
     CACHE_INVALIDATION_COUNT("rubix.bookkeeper.count.cache_invalidation"),
     CACHE_EXPIRY_COUNT("rubix.bookkeeper.count.cache_expiry"),
+    CACHE_ADMISSION_REJECTION_COUNT("rubix.bookkeeper.count.admission_rejection"),
     CACHE_HIT_RATE_GAUGE("rubix.bookkeeper.gauge.cache_hit_rate"),
     CACHE_MISS_RATE_GAUGE("rubix.bookkeeper.gauge.cache_miss_rate"),
     CACHE_SIZE_GAUGE("rubix.bookkeeper.gauge.cache_size_mb"),
     CACHE_AVAILABLE_SIZE_GAUGE("rubix.bookkeeper.gauge.available_cache_size_mb"),
+    CACHE_WRITTEN_BYTES_COUNT("rubix.bookkeeper.count.cache_written_bytes"),
     TOTAL_REQUEST_COUNT("rubix.bookkeeper.count.total_request"),
     CACHE_REQUEST_COUNT("rubix.bookkeeper.count.cache_request"),
     NONLOCAL_REQUEST_COUNT("rubix.bookkeeper.count.nonlocal_request"),
@@ -215,7 +218,10 @@ public class BookKeeperMetrics implements AutoCloseable
     PROCESSED_ASYNC_REQUEST_COUNT("rubix.bookkeeper.count.processed_async_request"),
     ASYNC_QUEUE_SIZE_GAUGE("rubix.bookkeeper.gauge.async_queue_size"),
     ASYNC_DOWNLOADED_MB_COUNT("rubix.bookkeeper.count.async_downloaded_mb"),
-    ASYNC_DOWNLOAD_TIME_COUNT("rubix.bookkeeper.count.async_download_time");
+    ASYNC_DOWNLOAD_TIME_COUNT("rubix.bookkeeper.count.async_download_time"),
+    ASYNC_SKIPPED_BLOCK_COUNT("rubix.bookkeeper.count.async_skipped_block"),
+    ASYNC_QUEUE_WAIT_TIMER("rubix.bookkeeper.timer.async_queue_wait"),
+    ASYNC_DOWNLOAD_TIMER("rubix.bookkeeper.timer.async_download");
 
     private final String metricName;
 
@@ -244,6 +250,78 @@ public class BookKeeperMetrics implements AutoCloseable
     }
   }
 
+  /**
+   * Enum for metrics relating to the pool of BookKeeper client connections.
+   */
+  public enum ClientPoolMetric
+  {
+    CLIENT_POOL_HIT_COUNT_GAUGE("rubix.bookkeeper.gauge.client_pool_hit_count"),
+    CLIENT_POOL_MISS_COUNT_GAUGE("rubix.bookkeeper.gauge.client_pool_miss_count"),
+    CLIENT_POOL_WAIT_COUNT_GAUGE("rubix.bookkeeper.gauge.client_pool_wait_count"),
+    CLIENT_POOL_IDLE_CONNECTIONS_GAUGE("rubix.bookkeeper.gauge.client_pool_idle_connections");
+
+    private final String metricName;
+
+    ClientPoolMetric(String metricName)
+    {
+      this.metricName = metricName;
+    }
+
+    public String getMetricName()
+    {
+      return metricName;
+    }
+
+    /**
+     * Get the names for each client pool metric.
+     *
+     * @return a set of metrics names.
+     */
+    public static Set<String> getAllNames()
+    {
+      Set<String> names = new HashSet<>();
+      for (ClientPoolMetric metric : values()) {
+        names.add(metric.getMetricName());
+      }
+      return names;
+    }
+  }
+
+  /**
+   * Enum for metrics relating to the Thrift server of the BookKeeper.
+   */
+  public enum ServerMetric
+  {
+    SERVER_QUEUE_SIZE_GAUGE("rubix.bookkeeper.gauge.server_queue_size"),
+    SERVER_HANDLER_LATENCY_TIMER("rubix.bookkeeper.timer.server_handler_latency");
+
+    private final String metricName;
+
+    ServerMetric(String metricName)
+    {
+      this.metricName = metricName;
+    }
+
+    public String getMetricName()
+    {
+      return metricName;
+    }
+
+    /**
+     * Get the names for each server metric.
+     *
+     * @return a set of metrics names.
+     */
+    public static Set<String> getAllNames()
+    {
+      Set<String> names = new HashSet<>();
+      for (ServerMetric metric : values()) {
+        names.add(metric.getMetricName());
+      }
+      return names;
+    }
+  }
+
   /**
    * Enum for metrics relating to daemon & service health.
    */
@@ -34,9 +34,11 @@ public class BookKeeperMetricsFilter implements MetricFilter
     List<String> whitelist = new ArrayList<>();
     if (CacheConfig.areHealthMetricsEnabled(conf)) {
       whitelist.addAll(BookKeeperMetrics.HealthMetric.getAllNames());
+      whitelist.addAll(BookKeeperMetrics.ServerMetric.getAllNames());
     }
     if (CacheConfig.areCacheMetricsEnabled(conf)) {
       whitelist.addAll(BookKeeperMetrics.CacheMetric.getAllNames());
+      whitelist.addAll(BookKeeperMetrics.ClientPoolMetric.getAllNames());
     }
     if (CacheConfig.areJvmMetricsEnabled(conf)) {
       whitelist.addAll(BookKeeperMetrics.BookKeeperJvmMetric.getAllNames());
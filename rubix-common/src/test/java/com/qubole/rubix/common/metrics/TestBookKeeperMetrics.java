@@ -180,12 +180,15 @@ public class TestBookKeeperMetrics
   {
     Set<String> cacheMetricsNames = Sets.newHashSet(
         BookKeeperMetrics.CacheMetric.CACHE_EVICTION_COUNT.getMetricName(),
+        BookKeeperMetrics.CacheMetric.CACHE_BLOCK_EVICTION_COUNT.getMetricName(),
         BookKeeperMetrics.CacheMetric.CACHE_INVALIDATION_COUNT.getMetricName(),
         BookKeeperMetrics.CacheMetric.CACHE_EXPIRY_COUNT.getMetricName(),
+        BookKeeperMetrics.CacheMetric.CACHE_ADMISSION_REJECTION_COUNT.getMetricName(),
         BookKeeperMetrics.CacheMetric.CACHE_HIT_RATE_GAUGE.getMetricName(),
         BookKeeperMetrics.CacheMetric.CACHE_MISS_RATE_GAUGE.getMetricName(),
         BookKeeperMetrics.CacheMetric.CACHE_SIZE_GAUGE.getMetricName(),
         BookKeeperMetrics.CacheMetric.CACHE_AVAILABLE_SIZE_GAUGE.getMetricName(),
+        BookKeeperMetrics.CacheMetric.CACHE_WRITTEN_BYTES_COUNT.getMetricName(),
         BookKeeperMetrics.CacheMetric.TOTAL_REQUEST_COUNT.getMetricName(),
         BookKeeperMetrics.CacheMetric.CACHE_REQUEST_COUNT.getMetricName(),
         BookKeeperMetrics.CacheMetric.NONLOCAL_REQUEST_COUNT.getMetricName(),
@@ -194,7 +197,10 @@ public class TestBookKeeperMetrics
         BookKeeperMetrics.CacheMetric.PROCESSED_ASYNC_REQUEST_COUNT.getMetricName(),
         BookKeeperMetrics.CacheMetric.ASYNC_QUEUE_SIZE_GAUGE.getMetricName(),
         BookKeeperMetrics.CacheMetric.ASYNC_DOWNLOADED_MB_COUNT.getMetricName(),
-        BookKeeperMetrics.CacheMetric.ASYNC_DOWNLOAD_TIME_COUNT.getMetricName());
+        BookKeeperMetrics.CacheMetric.ASYNC_DOWNLOAD_TIME_COUNT.getMetricName(),
+        BookKeeperMetrics.CacheMetric.ASYNC_SKIPPED_BLOCK_COUNT.getMetricName(),
+        BookKeeperMetrics.CacheMetric.ASYNC_QUEUE_WAIT_TIMER.getMetricName(),
+        BookKeeperMetrics.CacheMetric.ASYNC_DOWNLOAD_TIMER.getMetricName());
 
     assertEquals(cacheMetricsNames, BookKeeperMetrics.CacheMetric.getAllNames());
   }
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import org.apache.hadoop.util.PureJavaCrc32C;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
+
+/**
+ * The CRC32C checksums of the blocks of a cached file, stored in a file next to it.
+ * <p>
+ * Every block owns an entry at offset blockNum * ENTRY_SIZE holding its checksum and the number of bytes it covers.
+ * A length of zero means that no checksum was recorded for the block, e.g. because it was cached before checksums
+ * were enabled, and such a block is trusted as is.
+ */
+public class BlockChecksumFile implements Closeable
+{
+  static final int ENTRY_SIZE = 8;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final int blockSize;
+  private final long fileSize;
+
+  private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+  private final Checksum checksum = new PureJavaCrc32C();
+
+  // State of the block being written
+  private long nextPosition = -1;
+  private boolean blockComplete;
+
+  /**
+   * Open the checksum file of a cached file.
+   *
+   * @param path      The path of the checksum file.
+   * @param blockSize The block size of the cached file.
+   * @param fileSize  The size of the remote file.
+   * @param writable  Whether checksums will be recorded, in which case the file is created if needed.
+   * @throws IOException if the file could not be opened, or does not exist and is not writable.
+   */
+  public BlockChecksumFile(String path, int blockSize, long fileSize, boolean writable) throws IOException
+  {
+    File checksumFile = new File(path);
+    if (writable && !checksumFile.exists()) {
+      checksumFile.createNewFile();
+      checksumFile.setWritable(true, false);
+      checksumFile.setReadable(true, false);
+    }
+
+    this.file = new RandomAccessFile(checksumFile, writable ? "rw" : "r");
+    this.channel = file.getChannel();
+    this.blockSize = blockSize;
+    this.fileSize = fileSize;
+  }
+
+  /**
+   * Account for data written into the cached file. Data has to be passed in the order it is written;
+   * the checksum of a block is recorded once all of its bytes went through here.
+   *
+   * @param position  The offset in the cached file the data was written at.
+   * @param data      The buffer holding the data.
+   * @param offset    The offset of the data in the buffer.
+   * @param length    The length of the data.
+   * @throws IOException if the checksum could not be recorded.
+   */
+  public void update(long position, byte[] data, int offset, int length) throws IOException
+  {
+    if (position != nextPosition) {
+      // A block whose beginning was not seen cannot be checksummed
+      checksum.reset();
+      blockComplete = position % blockSize == 0;
+      nextPosition = position;
+    }
+
+    while (length > 0) {
+      int lengthInBlock = (int) Math.min(length, blockSize - nextPosition % blockSize);
+      if (blockComplete) {
+        checksum.update(data, offset, lengthInBlock);
+      }
+      offset += lengthInBlock;
+      length -= lengthInBlock;
+      nextPosition += lengthInBlock;
+
+      if (nextPosition % blockSize == 0 || nextPosition == fileSize) {
+        if (blockComplete) {
+          long blockNum = (nextPosition - 1) / blockSize;
+          writeEntry(blockNum, (int) checksum.getValue(), (int) (nextPosition - blockNum * blockSize));
+        }
+        checksum.reset();
+        blockComplete = true;
+      }
+    }
+  }
+
+  /**
+   * Check a block of the cached file against its recorded checksum.
+   *
+   * @param dataChannel The channel of the cached file.
+   * @param blockNum    The block to check.
+   * @param buffer      A buffer to read the block through.
+   * @return false if the block does not match its checksum, true otherwise.
+   * @throws IOException if the checksum or the block could not be read.
+   */
+  public boolean verify(FileChannel dataChannel, long blockNum, byte[] buffer) throws IOException
+  {
+    entry.clear();
+    long entryPosition = blockNum * ENTRY_SIZE;
+    while (entry.hasRemaining()) {
+      if (channel.read(entry, entryPosition + entry.position()) < 0) {
+        return true;
+      }
+    }
+    entry.flip();
+    int expectedChecksum = entry.getInt();
+    int length = entry.getInt();
+    if (length == 0) {
+      return true;
+    }
+
+    Checksum blockChecksum = new PureJavaCrc32C();
+    long position = blockNum * blockSize;
+    int nread = 0;
+    while (nread < length) {
+      ByteBuffer readBuffer = ByteBuffer.wrap(buffer, 0, Math.min(buffer.length, length - nread));
+      int nbytes = dataChannel.read(readBuffer, position + nread);
+      if (nbytes <= 0) {
+        return false;
+      }
+      blockChecksum.update(buffer, 0, nbytes);
+      nread += nbytes;
+    }
+
+    return (int) blockChecksum.getValue() == expectedChecksum;
+  }
+
+  private void writeEntry(long blockNum, int blockChecksum, int length) throws IOException
+  {
+    entry.clear();
+    entry.putInt(blockChecksum);
+    entry.putInt(length);
+    entry.flip();
+    long entryPosition = blockNum * ENTRY_SIZE;
+    while (entry.hasRemaining()) {
+      channel.write(entry, entryPosition + entry.position());
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    file.close();
+  }
+}
@@ -0,0 +1,381 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.qubole.rubix.spi.CacheConfig;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A bounded in-memory tier in front of the disk cache, shared by all the streams of the JVM, which serves the
+ * cached blocks read again and again with a copy from off-heap memory instead of a read from disk.
+ * <p>
+ * Blocks are kept in slots of block size carved from direct buffers allocated as the tier fills up. A block is
+ * only admitted once it was missed ADMISSION_THRESHOLD times, so that blocks read once do not push hot blocks
+ * out, and slots are reclaimed with the CLOCK algorithm. Blocks are identified by their cache file and the
+ * modification time of the remote file, so that a new version of a file never hits the blocks of an older one.
+ */
+public class BlockMemoryCache
+{
+  private static final Log log = LogFactory.getLog(BlockMemoryCache.class);
+
+  static final int ADMISSION_THRESHOLD = 2;
+  private static final int SLOTS_PER_SLAB = 16;
+
+  private static final int UNREFERENCED = 0;
+  private static final int REFERENCED = 1;
+  private static final int LOADING = 2;
+
+  private static BlockMemoryCache instance;
+
+  private final int blockSize;
+  private final int slotCount;
+  private final ByteBuffer[] slabs;
+  private final BlockKey[] slotKeys;
+  private final int[] slotLengths;
+  private final AtomicIntegerArray slotStates;
+  private final ConcurrentMap<BlockKey, Integer> index = new ConcurrentHashMap<>();
+  private final Cache<BlockKey, AtomicInteger> missCounts;
+
+  // Readers copy out of slots under the read lock, slots are only reassigned under the write lock
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private int usedSlots;
+  private int clockHand;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong bytesRead = new AtomicLong();
+
+  @VisibleForTesting
+  BlockMemoryCache(int blockSize, long maxMemory)
+  {
+    this.blockSize = blockSize;
+    this.slotCount = (int) Math.min(maxMemory / blockSize, Integer.MAX_VALUE - SLOTS_PER_SLAB);
+    this.slabs = new ByteBuffer[(slotCount + SLOTS_PER_SLAB - 1) / SLOTS_PER_SLAB];
+    this.slotKeys = new BlockKey[slotCount];
+    this.slotLengths = new int[slotCount];
+    this.slotStates = new AtomicIntegerArray(slotCount);
+    this.missCounts = CacheBuilder.newBuilder().maximumSize(4L * slotCount).build();
+  }
+
+  /**
+   * Get the memory tier of this JVM, created with the given configuration on first use.
+   *
+   * @param conf  The current Hadoop configuration.
+   * @return The shared memory tier.
+   */
+  public static synchronized BlockMemoryCache getInstance(Configuration conf)
+  {
+    if (instance == null) {
+      instance = new BlockMemoryCache(CacheConfig.getBlockSize(conf), CacheConfig.getMemoryTierMaxMemory(conf));
+    }
+    return instance;
+  }
+
+  /**
+   * Get the memory tier of this JVM if it was created.
+   *
+   * @return The shared memory tier, or null if no stream used it yet.
+   */
+  public static synchronized BlockMemoryCache getInstanceIfCreated()
+  {
+    return instance;
+  }
+
+  public int getBlockSize()
+  {
+    return blockSize;
+  }
+
+  /**
+   * Copy part of a block held in memory.
+   *
+   * @param localPath     The cache file of the block.
+   * @param lastModified  The last modification time of the remote file.
+   * @param blockNum      The block to read.
+   * @param offsetInBlock The offset of the data in the block.
+   * @param dest          The buffer to copy the data to.
+   * @param destOffset    The offset in the buffer to copy the data at.
+   * @param length        The length of the data.
+   * @return true if the data was copied, false if the block is not in memory.
+   */
+  public boolean read(String localPath, long lastModified, long blockNum, int offsetInBlock,
+                      byte[] dest, int destOffset, int length)
+  {
+    BlockKey key = new BlockKey(localPath, lastModified, blockNum);
+    lock.readLock().lock();
+    try {
+      Integer slot = index.get(key);
+      if (slot == null || slotLengths[slot] < offsetInBlock + length) {
+        return false;
+      }
+
+      ByteBuffer data = slabs[slot / SLOTS_PER_SLAB].duplicate();
+      data.position((slot % SLOTS_PER_SLAB) * blockSize + offsetInBlock);
+      data.get(dest, destOffset, length);
+      slotStates.compareAndSet(slot, UNREFERENCED, REFERENCED);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+
+    hitCount.incrementAndGet();
+    bytesRead.addAndGet(length);
+    return true;
+  }
+
+  public boolean contains(String localPath, long lastModified, long blockNum)
+  {
+    return index.containsKey(new BlockKey(localPath, lastModified, blockNum));
+  }
+
+  /**
+   * Record that a block had to be read from disk or from the remote file system.
+   *
+   * @param localPath     The cache file of the block.
+   * @param lastModified  The last modification time of the remote file.
+   * @param blockNum      The missed block.
+   * @return true if the block was missed often enough to be kept in memory, false otherwise.
+   */
+  public boolean admit(String localPath, long lastModified, long blockNum)
+  {
+    missCount.incrementAndGet();
+    try {
+      AtomicInteger misses = missCounts.get(new BlockKey(localPath, lastModified, blockNum), new Callable<AtomicInteger>()
+      {
+        @Override
+        public AtomicInteger call()
+        {
+          return new AtomicInteger();
+        }
+      });
+      return misses.incrementAndGet() >= ADMISSION_THRESHOLD;
+    }
+    catch (ExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Load a block from its cache file into memory.
+   *
+   * @param localPath     The cache file of the block.
+   * @param lastModified  The last modification time of the remote file.
+   * @param blockNum      The block to load.
+   * @param fileChannel   The channel of the cache file.
+   * @param length        The length of the block.
+   * @return true if the block is in memory, false if no slot could be reclaimed or the block could not be read.
+   */
+  public boolean put(String localPath, long lastModified, long blockNum, FileChannel fileChannel, int length)
+  {
+    BlockKey key = new BlockKey(localPath, lastModified, blockNum);
+    int slot = reserveSlot(key);
+    if (slot < 0) {
+      return index.containsKey(key);
+    }
+
+    ByteBuffer data = slotBuffer(slot, length);
+    long position = blockNum * blockSize - data.position();
+    try {
+      while (data.hasRemaining()) {
+        if (fileChannel.read(data, position + data.position()) < 0) {
+          break;
+        }
+      }
+    }
+    catch (IOException e) {
+      log.warn(String.format("Could not load block %d of %s in memory", blockNum, localPath), e);
+      releaseSlot(slot);
+      return false;
+    }
+
+    if (data.hasRemaining()) {
+      releaseSlot(slot);
+      return false;
+    }
+    publishSlot(key, slot, length);
+    return true;
+  }
+
+  /**
+   * Keep a block just downloaded in memory.
+   *
+   * @param localPath     The cache file of the block.
+   * @param lastModified  The last modification time of the remote file.
+   * @param blockNum      The block downloaded.
+   * @param source        The buffer holding the block.
+   * @param offset        The offset of the block in the buffer.
+   * @param length        The length of the block.
+   */
+  public void put(String localPath, long lastModified, long blockNum, byte[] source, int offset, int length)
+  {
+    BlockKey key = new BlockKey(localPath, lastModified, blockNum);
+    int slot = reserveSlot(key);
+    if (slot < 0) {
+      return;
+    }
+
+    slotBuffer(slot, length).put(source, offset, length);
+    publishSlot(key, slot, length);
+  }
+
+  public long getHitCount()
+  {
+    return hitCount.get();
+  }
+
+  public long getMissCount()
+  {
+    return missCount.get();
+  }
+
+  public long getBytesRead()
+  {
+    return bytesRead.get();
+  }
+
+  public long getSize()
+  {
+    lock.readLock().lock();
+    try {
+      return (long) usedSlots * blockSize;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Find a slot for a block, evicting the first block not referenced since the clock hand last went past it.
+   *
+   * @return The slot, marked as loading, or -1 if the block is already in memory or no slot could be reclaimed.
+   */
+  private int reserveSlot(BlockKey key)
+  {
+    lock.writeLock().lock();
+    try {
+      if (slotCount == 0 || index.containsKey(key)) {
+        return -1;
+      }
+
+      int slot = -1;
+      if (usedSlots < slotCount) {
+        slot = usedSlots++;
+        if (slabs[slot / SLOTS_PER_SLAB] == null) {
+          int slabSlots = Math.min(SLOTS_PER_SLAB, slotCount - slot);
+          slabs[slot / SLOTS_PER_SLAB] = ByteBuffer.allocateDirect(slabSlots * blockSize);
+        }
+      }
+      else {
+        for (int i = 0; i < 2 * slotCount && slot < 0; i++) {
+          int candidate = clockHand;
+          clockHand = (clockHand + 1) % slotCount;
+          if (slotStates.get(candidate) == UNREFERENCED) {
+            slot = candidate;
+          }
+          else if (slotStates.get(candidate) == REFERENCED) {
+            slotStates.set(candidate, UNREFERENCED);
+          }
+        }
+        if (slot < 0) {
+          return -1;
+        }
+        if (slotKeys[slot] != null) {
+          index.remove(slotKeys[slot], slot);
+        }
+      }
+
+      slotKeys[slot] = key;
+      slotStates.set(slot, LOADING);
+      return slot;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private ByteBuffer slotBuffer(int slot, int length)
+  {
+    ByteBuffer data = slabs[slot / SLOTS_PER_SLAB].duplicate();
+    int start = (slot % SLOTS_PER_SLAB) * blockSize;
+    data.limit(start + length);
+    data.position(start);
+    return data;
+  }
+
+  private void publishSlot(BlockKey key, int slot, int length)
+  {
+    // A new block is only kept past the clock hand if it gets read before the hand comes back
+    slotLengths[slot] = length;
+    slotStates.set(slot, UNREFERENCED);
+    index.put(key, slot);
+  }
+
+  private void releaseSlot(int slot)
+  {
+    lock.writeLock().lock();
+    try {
+      slotKeys[slot] = null;
+      slotStates.set(slot, UNREFERENCED);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static class BlockKey
+  {
+    private final String localPath;
+    private final long lastModified;
+    private final long blockNum;
+
+    BlockKey(String localPath, long lastModified, long blockNum)
+    {
+      this.localPath = localPath;
+      this.lastModified = lastModified;
+      this.blockNum = blockNum;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof BlockKey)) {
+        return false;
+      }
+      BlockKey other = (BlockKey) o;
+      return blockNum == other.blockNum && lastModified == other.lastModified && localPath.equals(other.localPath);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * (31 * localPath.hashCode() + (int) (lastModified ^ (lastModified >>> 32))) + (int) (blockNum ^ (blockNum >>> 32));
+    }
+  }
+}
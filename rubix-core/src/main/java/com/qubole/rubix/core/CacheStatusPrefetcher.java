@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.qubole.rubix.spi.BookKeeperFactory;
+import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.RetryingBookkeeperClient;
+import com.qubole.rubix.spi.thrift.BlockLocation;
+import com.qubole.rubix.spi.thrift.CacheStatusRequest;
+import com.qubole.rubix.spi.thrift.Location;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.thrift.shaded.TException;
+import org.apache.thrift.shaded.transport.TTransportException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Looks up the cache status of the blocks a stream is predicted to read next while its current read executes,
+ * so that sequential reads find the status of their blocks already fetched instead of waiting on BookKeeper.
+ * <p>
+ * At most one lookup is in flight at a time, through a BookKeeper client of its own since a Thrift client cannot
+ * be shared with the reading thread. Statuses are forgotten once their blocks are read, and all of them are
+ * dropped as soon as a read asks for a block that is not known, e.g. after a seek.
+ * <p>
+ * Lookups do not count towards the cache metrics of BookKeeper, since the stream may never read the blocks looked
+ * up. The prefetched statuses a read uses are reported instead, along with the next lookup or when closing.
+ * <p>
+ * Not thread-safe, like the stream it belongs to.
+ */
+class CacheStatusPrefetcher
+{
+  private static final Log log = LogFactory.getLog(CacheStatusPrefetcher.class);
+
+  private final ListeningExecutorService executor;
+  private final BookKeeperFactory bookKeeperFactory;
+  private final Configuration conf;
+  private final String remotePath;
+  private final long fileSize;
+  private final long lastModified;
+  private final long blockCount;
+  private final int prefetchBlocks;
+
+  private final Map<Long, BlockLocation> statuses = new HashMap<>();
+  // Blocks whose status was prefetched and not used by a read yet
+  private final Set<Long> prefetchedBlocks = new HashSet<>();
+  // Prefetched statuses used by reads and their blocks, not reported to BookKeeper yet
+  private List<BlockLocation> usedStatuses = new ArrayList<>();
+  private List<Long> usedBlocks = new ArrayList<>();
+  // Block whose local status was dropped after a read, to be looked up again
+  private long staleBlock = -1;
+
+  private ListenableFuture<List<BlockLocation>> pendingStatuses;
+  private long pendingStartBlock;
+  private long pendingEndBlock;
+
+  // Only used by the lookup in flight
+  private RetryingBookkeeperClient client;
+
+  CacheStatusPrefetcher(ListeningExecutorService executor, BookKeeperFactory bookKeeperFactory, Configuration conf,
+                        String remotePath, long fileSize, long lastModified)
+  {
+    this.executor = executor;
+    this.bookKeeperFactory = bookKeeperFactory;
+    this.conf = conf;
+    this.remotePath = remotePath;
+    this.fileSize = fileSize;
+    this.lastModified = lastModified;
+    int blockSize = CacheConfig.getBlockSize(conf);
+    this.blockCount = (fileSize + blockSize - 1) / blockSize;
+    this.prefetchBlocks = CacheConfig.getCacheStatusPrefetchBlocks(conf);
+  }
+
+  /**
+   * Get the known cache status of a range of blocks, waiting for the lookup in flight if it covers them.
+   *
+   * @param startBlock  The first block of the range.
+   * @param endBlock    The block after the last block of the range.
+   * @return The status of the blocks of the range up to the end of the file, or null if some of them are not known.
+   */
+  List<BlockLocation> getCacheStatus(long startBlock, long endBlock)
+  {
+    endBlock = Math.min(endBlock, blockCount);
+    if (pendingStatuses != null && pendingStartBlock < endBlock && pendingEndBlock > startBlock
+        && !containsAll(startBlock, endBlock)) {
+      collectPendingStatuses();
+    }
+
+    List<BlockLocation> blockLocations = new ArrayList<>((int) Math.max(endBlock - startBlock, 0));
+    for (long blockNum = startBlock; blockNum < endBlock; blockNum++) {
+      BlockLocation location = statuses.get(blockNum);
+      if (location == null) {
+        // A read going on from the block read last only needs that block looked up again
+        if (blockNum != staleBlock) {
+          statuses.clear();
+          prefetchedBlocks.clear();
+        }
+        staleBlock = -1;
+        return null;
+      }
+      blockLocations.add(location);
+    }
+
+    for (long blockNum = startBlock; blockNum < endBlock; blockNum++) {
+      if (prefetchedBlocks.remove(blockNum)) {
+        usedStatuses.add(statuses.get(blockNum));
+        usedBlocks.add(blockNum);
+      }
+    }
+    return blockLocations;
+  }
+
+  /**
+   * Remember the cache status of a range of blocks looked up by the stream itself.
+   *
+   * @param startBlock      The first block of the range.
+   * @param blockLocations  The status of the blocks of the range.
+   */
+  void addCacheStatus(long startBlock, List<BlockLocation> blockLocations)
+  {
+    addCacheStatus(startBlock, blockLocations, false);
+  }
+
+  /**
+   * Start looking up the status of the blocks following a read, unless a lookup is already in flight.
+   *
+   * @param startBlock  The first block after the read.
+   * @param readBlocks  The number of blocks read, the range looked up being at least as long.
+   */
+  void prefetch(long startBlock, long readBlocks)
+  {
+    if (pendingStatuses != null) {
+      if (!pendingStatuses.isDone()) {
+        return;
+      }
+      collectPendingStatuses();
+    }
+
+    long endBlock = Math.min(startBlock + Math.max(prefetchBlocks, readBlocks), blockCount);
+    while (startBlock < endBlock && statuses.containsKey(startBlock)) {
+      startBlock++;
+    }
+    if (startBlock >= endBlock) {
+      return;
+    }
+
+    final CacheStatusRequest request = new CacheStatusRequest(remotePath, fileSize, lastModified, startBlock, endBlock);
+    request.setIncrMetrics(false);
+    request.setCountAccess(false);
+    final List<BlockLocation> reportedStatuses = usedStatuses;
+    final List<Long> reportedBlocks = usedBlocks;
+    clearUsedStatuses();
+    pendingStartBlock = startBlock;
+    pendingEndBlock = endBlock;
+    pendingStatuses = executor.submit(new Callable<List<BlockLocation>>()
+    {
+      @Override
+      public List<BlockLocation> call() throws Exception
+      {
+        reportUsedStatuses(reportedStatuses, reportedBlocks);
+        return getClient().getCacheStatus(request);
+      }
+    });
+  }
+
+  /**
+   * Forget the status of the blocks a successful read went through. The last block is likely to be read again,
+   * so its status is kept, unless it was local: the read may have cached it, which only BookKeeper can tell.
+   *
+   * @param startBlock  The first block of the read.
+   * @param endBlock    The block after the last block of the read.
+   */
+  void blocksRead(long startBlock, long endBlock)
+  {
+    long lastBlock = Math.min(endBlock, blockCount) - 1;
+    Iterator<Map.Entry<Long, BlockLocation>> entries = statuses.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<Long, BlockLocation> entry = entries.next();
+      if (entry.getKey() >= startBlock && entry.getKey() < lastBlock) {
+        entries.remove();
+      }
+    }
+
+    BlockLocation lastLocation = statuses.get(lastBlock);
+    if (lastLocation != null && lastLocation.getLocation() == Location.LOCAL) {
+      statuses.remove(lastBlock);
+      staleBlock = lastBlock;
+    }
+  }
+
+  void close()
+  {
+    final List<BlockLocation> reportedStatuses = usedStatuses;
+    final List<Long> reportedBlocks = usedBlocks;
+    clearUsedStatuses();
+    Runnable closeTask = new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        reportUsedStatuses(reportedStatuses, reportedBlocks);
+        closeClient();
+      }
+    };
+
+    if (pendingStatuses == null || pendingStatuses.isDone()) {
+      closeTask.run();
+      return;
+    }
+
+    // The client is still in use by the lookup in flight
+    pendingStatuses.addListener(closeTask, MoreExecutors.directExecutor());
+  }
+
+  private void addCacheStatus(long startBlock, List<BlockLocation> blockLocations, boolean prefetched)
+  {
+    for (int i = 0; i < blockLocations.size(); i++) {
+      long blockNum = startBlock + i;
+      statuses.put(blockNum, blockLocations.get(i));
+      if (prefetched) {
+        prefetchedBlocks.add(blockNum);
+      }
+      else {
+        prefetchedBlocks.remove(blockNum);
+      }
+    }
+  }
+
+  private boolean containsAll(long startBlock, long endBlock)
+  {
+    for (long blockNum = startBlock; blockNum < endBlock; blockNum++) {
+      if (!statuses.containsKey(blockNum)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void collectPendingStatuses()
+  {
+    try {
+      addCacheStatus(pendingStartBlock, pendingStatuses.get(), true);
+    }
+    catch (ExecutionException e) {
+      log.info("Could not prefetch cache status for " + remotePath, e.getCause());
+    }
+    catch (InterruptedException e) {
+      // Keep the lookup in flight so that no other one uses the client concurrently
+      Thread.currentThread().interrupt();
+      return;
+    }
+    pendingStatuses = null;
+  }
+
+  private void clearUsedStatuses()
+  {
+    usedStatuses = new ArrayList<>();
+    usedBlocks = new ArrayList<>();
+  }
+
+  private void reportUsedStatuses(List<BlockLocation> reportedStatuses, List<Long> reportedBlocks)
+  {
+    if (reportedStatuses.isEmpty()) {
+      return;
+    }
+
+    try {
+      getClient().incrCacheStatusMetrics(remotePath, reportedStatuses, reportedBlocks);
+    }
+    catch (TException e) {
+      log.info("Could not report prefetched cache status used for " + remotePath, e);
+    }
+  }
+
+  private RetryingBookkeeperClient getClient() throws TTransportException
+  {
+    if (client == null) {
+      client = bookKeeperFactory.createBookKeeperClient(conf);
+    }
+    return client;
+  }
+
+  private void closeClient()
+  {
+    if (client == null) {
+      return;
+    }
+
+    try {
+      client.close();
+    }
+    catch (IOException e) {
+      log.warn("Could not close BookKeeper client used to prefetch cache status", e);
+    }
+    client = null;
+  }
+}
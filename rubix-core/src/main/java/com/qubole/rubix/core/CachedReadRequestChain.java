@@ -15,8 +15,10 @@ package com.qubole.rubix.core;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.qubole.rubix.spi.BookKeeperFactory;
+import com.qubole.rubix.spi.CacheConfig;
 import com.qubole.rubix.spi.CacheUtil;
 import com.qubole.rubix.spi.RetryingBookkeeperClient;
+import com.qubole.rubix.spi.thrift.SetCachedRequest;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -24,11 +26,12 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -48,6 +51,11 @@ public class CachedReadRequestChain extends ReadRequestChain
 
   private ByteBuffer directBuffer;
   private int corruptedFileCount;
+  private List<Long> corruptedBlocks = new ArrayList<>();
+  private byte[] checksumBuffer;
+  private BlockMemoryCache memoryCache;
+  private long lastModified;
+  private MappedFileCache mappedFiles;
 
   private static final Log log = LogFactory.getLog(CachedReadRequestChain.class);
 
@@ -74,6 +82,28 @@ public class CachedReadRequestChain extends ReadRequestChain
     //Dummy constructor for testing #testConsequtiveRequest method.
   }
 
+  /**
+   * Serve the blocks of this chain from memory when possible, and keep the blocks read often in memory.
+   *
+   * @param memoryCache   The memory tier, whose block size must match the block size of the cache.
+   * @param lastModified  The last modification time of the remote file.
+   */
+  public void setMemoryCache(BlockMemoryCache memoryCache, long lastModified)
+  {
+    this.memoryCache = memoryCache;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * Copy cached data straight from memory-mapped regions of the cache file instead of reading it.
+   *
+   * @param mappedFiles  The mapped regions of cache files.
+   */
+  public void setMappedFileCache(MappedFileCache mappedFiles)
+  {
+    this.mappedFiles = mappedFiles;
+  }
+
   public Integer call() throws IOException
   {
     // TODO: any exception here should not cause workload to fail
@@ -87,36 +117,46 @@ public class CachedReadRequestChain extends ReadRequestChain
 
     checkState(isLocked, "Trying to execute Chain without locking");
 
-    RandomAccessFile raf = null;
-    FileInputStream fis = null;
+    FileChannelCache.Handle fileHandle = null;
     FileChannel fileChannel = null;
+    BlockChecksumFile checksums = null;
+    VerifiedBlocks.FileBlocks verifiedBlocks = null;
     boolean needsInvalidation = false;
     String localCachedFile = CacheUtil.getLocalPath(remotePath, conf);
 
     try {
-      raf = new RandomAccessFile(localCachedFile, "r");
-      fis = new FileInputStream(raf.getFD());
-      fileChannel = fis.getChannel();
+      if (mappedFiles != null) {
+        mappedFiles.validate(localCachedFile);
+      }
+      // Mapped reads need no open file, unless blocks have to be verified or loaded into memory
+      if (mappedFiles == null || CacheConfig.isCacheChecksumEnabled(conf) || memoryCache != null) {
+        fileHandle = FileChannelCache.open(localCachedFile, false, conf);
+        fileChannel = fileHandle.getChannel();
+      }
+      if (CacheConfig.isCacheChecksumEnabled(conf)) {
+        checksums = openChecksumFile();
+        verifiedBlocks = VerifiedBlocks.getInstance().get(localCachedFile);
+      }
 
       for (ReadRequest readRequest : readRequests) {
         if (cancelled) {
           propagateCancel(this.getClass().getName());
         }
-        int nread = 0;
-        int leftToRead = readRequest.getActualReadLength();
-        log.debug(String.format("Processing readrequest %d-%d, length %d", readRequest.actualReadStart, readRequest.actualReadEnd, leftToRead));
-        while (nread < readRequest.getActualReadLength()) {
-          int readInThisCycle = Math.min(leftToRead, directBuffer.capacity());
-          directBuffer.clear();
-          int nbytes = fileChannel.read(directBuffer, readRequest.getActualReadStart() + nread);
-          if (nbytes <= 0) {
-            break;
-          }
-          directBuffer.flip();
-          int transferBytes = Math.min(readInThisCycle, nbytes);
-          directBuffer.get(readRequest.getDestBuffer(), readRequest.getDestBufferOffset() + nread, transferBytes);
-          leftToRead -= transferBytes;
-          nread += transferBytes;
+        if (checksums != null && !verifyBlocks(fileChannel, checksums, verifiedBlocks, readRequest)) {
+          // Only the corrupted blocks get uncached, the rest of the file is still good
+          log.error(String.format("Cached blocks %s of file %s do not match their checksums. " +
+                  " Falling back reading from object store.", corruptedBlocks, localCachedFile));
+          directDataRead = readFromRemoteFileSystem();
+          return directDataRead;
+        }
+        log.debug(String.format("Processing readrequest %d-%d, length %d", readRequest.actualReadStart, readRequest.actualReadEnd, readRequest.getActualReadLength()));
+        int nread;
+        if (memoryCache != null) {
+          nread = readThroughMemoryCache(fileChannel, localCachedFile, readRequest);
+        }
+        else {
+          nread = readFromFile(fileChannel, localCachedFile, readRequest.getActualReadStart(), readRequest.getDestBuffer(),
+              readRequest.getDestBufferOffset(), readRequest.getActualReadLength());
         }
         log.debug(String.format("CachedFileRead copied data [%d - %d] at buffer offset %d",
                 readRequest.getActualReadStart(),
@@ -143,18 +183,19 @@ public class CachedReadRequestChain extends ReadRequestChain
       return directDataRead;
     }
     finally {
-      if (fis != null) {
-        fis.close();
+      if (checksums != null) {
+        checksums.close();
       }
-      if (fileChannel != null) {
-        fileChannel.close();
-      }
-      if (raf != null) {
-        raf.close();
+      if (fileHandle != null) {
+        fileHandle.close();
       }
 
       // We are calling invalidateMetadata from finally block to make sure fileChannel is closed before we delete the file
       if (needsInvalidation) {
+        FileChannelCache.invalidateIfCreated(localCachedFile);
+        if (mappedFiles != null) {
+          mappedFiles.invalidate(localCachedFile);
+        }
         corruptedFileCount++;
         invalidateMetadata();
       }
@@ -166,6 +207,66 @@ public class CachedReadRequestChain extends ReadRequestChain
     return read;
   }
 
+  private int readFromFile(FileChannel fileChannel, String localCachedFile, long position, byte[] dest, int destOffset, int length)
+      throws IOException
+  {
+    if (mappedFiles != null) {
+      return mappedFiles.read(localCachedFile, position, dest, destOffset, length);
+    }
+
+    int nread = 0;
+    int leftToRead = length;
+    while (nread < length) {
+      int readInThisCycle = Math.min(leftToRead, directBuffer.capacity());
+      directBuffer.clear();
+      int nbytes = fileChannel.read(directBuffer, position + nread);
+      if (nbytes <= 0) {
+        break;
+      }
+      directBuffer.flip();
+      int transferBytes = Math.min(readInThisCycle, nbytes);
+      directBuffer.get(dest, destOffset + nread, transferBytes);
+      leftToRead -= transferBytes;
+      nread += transferBytes;
+    }
+    return nread;
+  }
+
+  /**
+   * Read a request block by block, copying the blocks held in memory and reading the others from the file,
+   * loading those missed often enough into memory on the way.
+   */
+  private int readThroughMemoryCache(FileChannel fileChannel, String localCachedFile, ReadRequest readRequest)
+      throws IOException
+  {
+    int blockSize = memoryCache.getBlockSize();
+    int nread = 0;
+    while (nread < readRequest.getActualReadLength()) {
+      long position = readRequest.getActualReadStart() + nread;
+      long blockNum = position / blockSize;
+      long blockStart = blockNum * blockSize;
+      int offsetInBlock = (int) (position - blockStart);
+      int length = (int) Math.min(readRequest.getActualReadLength() - nread, blockSize - offsetInBlock);
+      int destOffset = readRequest.getDestBufferOffset() + nread;
+
+      boolean served = memoryCache.read(localCachedFile, lastModified, blockNum, offsetInBlock,
+          readRequest.getDestBuffer(), destOffset, length);
+      if (!served && memoryCache.admit(localCachedFile, lastModified, blockNum)) {
+        int blockLength = (int) Math.min(blockSize, readRequest.getBackendFileSize() - blockStart);
+        served = memoryCache.put(localCachedFile, lastModified, blockNum, fileChannel, blockLength)
+            && memoryCache.read(localCachedFile, lastModified, blockNum, offsetInBlock, readRequest.getDestBuffer(), destOffset, length);
+      }
+      if (!served) {
+        int nbytes = readFromFile(fileChannel, localCachedFile, position, readRequest.getDestBuffer(), destOffset, length);
+        if (nbytes < length) {
+          return nread + nbytes;
+        }
+      }
+      nread += length;
+    }
+    return nread;
+  }
+
   @Override
   public void cancel()
   {
@@ -175,6 +276,82 @@ public class CachedReadRequestChain extends ReadRequestChain
     }
   }
 
+  private BlockChecksumFile openChecksumFile() throws IOException
+  {
+    try {
+      return new BlockChecksumFile(CacheUtil.getChecksumFilePath(remotePath, conf), CacheConfig.getBlockSize(conf),
+          readRequests.get(0).getBackendFileSize(), false);
+    }
+    catch (FileNotFoundException e) {
+      // No checksum was recorded for this file
+      return null;
+    }
+  }
+
+  /**
+   * Check the cached blocks covered by the request against their checksums, recording the corrupted ones.
+   * A block is read whole to be checked, so blocks already found intact are not checked again.
+   *
+   * @return true if all the blocks are intact, false otherwise.
+   */
+  private boolean verifyBlocks(FileChannel fileChannel, BlockChecksumFile checksums,
+                               VerifiedBlocks.FileBlocks verifiedBlocks, ReadRequest readRequest)
+      throws IOException
+  {
+    int blockSize = CacheConfig.getBlockSize(conf);
+    if (checksumBuffer == null) {
+      checksumBuffer = new byte[Math.min(blockSize, directBuffer.capacity())];
+    }
+    long endBlock = (readRequest.getActualReadEnd() - 1) / blockSize + 1;
+    for (long blockNum = readRequest.getActualReadStart() / blockSize; blockNum < endBlock; blockNum++) {
+      // Blocks in memory were verified when they were loaded
+      if (memoryCache != null && memoryCache.contains(CacheUtil.getLocalPath(remotePath, conf), lastModified, blockNum)) {
+        continue;
+      }
+      if (verifiedBlocks.isVerified(blockNum)) {
+        continue;
+      }
+      if (checksums.verify(fileChannel, blockNum, checksumBuffer)) {
+        verifiedBlocks.setVerified(blockNum);
+      }
+      else {
+        corruptedBlocks.add(blockNum);
+      }
+    }
+    return corruptedBlocks.isEmpty();
+  }
+
+  @Override
+  public void updateCacheStatus(String remotePath, long fileSize, long lastModified, int blockSize, Configuration conf)
+  {
+    if (corruptedBlocks.isEmpty()) {
+      return;
+    }
+
+    RetryingBookkeeperClient client = null;
+    try {
+      List<SetCachedRequest> requests = new ArrayList<>(corruptedBlocks.size());
+      for (long blockNum : corruptedBlocks) {
+        requests.add(new SetCachedRequest(remotePath, fileSize, lastModified, blockNum, blockNum + 1));
+      }
+      client = factory.createBookKeeperClient(conf);
+      client.setUncachedBatch(requests);
+    }
+    catch (Exception e) {
+      log.error("Could not uncache corrupted blocks of " + remotePath + " Error : " + Throwables.getStackTraceAsString(e));
+    }
+    finally {
+      try {
+        if (client != null) {
+          client.close();
+        }
+      }
+      catch (IOException ex) {
+        log.error("Could not close bookkeeper client. Exception: " + ex.toString());
+      }
+    }
+  }
+
   private void invalidateMetadata()
   {
     RetryingBookkeeperClient client = null;
@@ -222,6 +399,7 @@ public class CachedReadRequestChain extends ReadRequestChain
         .setDirectDataRead(directDataRead)
         .setCachedDataRead(read)
         .setCachedReads(requests)
-        .setCorruptedFileCount(corruptedFileCount);
+        .setCorruptedFileCount(corruptedFileCount)
+        .setCorruptedBlockCount(corruptedBlocks.size());
   }
 }
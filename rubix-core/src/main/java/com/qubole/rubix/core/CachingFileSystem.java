@@ -264,12 +264,10 @@ public abstract class CachingFileSystem<T extends FileSystem> extends FileSystem
       else {
         // Using similar logic of returning all Blocks as FileSystem.getFileBlockLocations does instead of only returning blocks from start till len
 
-        try {
+        try (RetryingBookkeeperClient client = new BookKeeperFactory().createBookKeeperClient(conf)) {
           BlockLocation[] blockLocations = new BlockLocation[(int) Math.ceil((double) file.getLen() / splitSize)];
           int blockNumber = 0;
 
-          RetryingBookkeeperClient client = new BookKeeperFactory().createBookKeeperClient(conf);
-
           for (long i = 0; i < file.getLen(); i = i + splitSize) {
             long end = i + splitSize;
             if (end > file.getLen()) {
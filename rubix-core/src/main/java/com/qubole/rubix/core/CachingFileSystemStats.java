@@ -12,6 +12,7 @@
  */
 package com.qubole.rubix.core;
 
+import com.qubole.rubix.spi.BookKeeperFactory;
 import org.weakref.jmx.Managed;
 
 /**
@@ -87,6 +88,133 @@ public class CachingFileSystemStats
     return stats.getCorruptedFileCount();
   }
 
+  @Managed(description = "Gets the total number of corrupted cached blocks that have been uncached")
+  public int getCorruptedBlockCount()
+  {
+    return stats.getCorruptedBlockCount();
+  }
+
+  @Managed(description = "Gets the total number of blocks cached ahead of sequential reads")
+  public long getReadAheadBlocks()
+  {
+    return stats.getReadAheadBlocks();
+  }
+
+  @Managed(description = "Gets the total number of blocks cached ahead of sequential reads that were then read from cache")
+  public long getReadAheadHits()
+  {
+    return stats.getReadAheadHits();
+  }
+
+  @Managed(description = "Gets the number of reads served from the in-memory cache of file tails")
+  public long getFileTailCacheHits()
+  {
+    FileTailCache fileTailCache = FileTailCache.getInstanceIfCreated();
+    return fileTailCache == null ? 0 : fileTailCache.getHitCount();
+  }
+
+  @Managed(description = "Gets the number of reads for which the tail of the file had to be loaded into memory")
+  public long getFileTailCacheMisses()
+  {
+    FileTailCache fileTailCache = FileTailCache.getInstanceIfCreated();
+    return fileTailCache == null ? 0 : fileTailCache.getMissCount();
+  }
+
+  @Managed(description = "Gets the number of block reads served from the memory tier")
+  public long getMemoryTierHits()
+  {
+    BlockMemoryCache memoryCache = BlockMemoryCache.getInstanceIfCreated();
+    return memoryCache == null ? 0 : memoryCache.getHitCount();
+  }
+
+  @Managed(description = "Gets the number of block reads which missed the memory tier")
+  public long getMemoryTierMisses()
+  {
+    BlockMemoryCache memoryCache = BlockMemoryCache.getInstanceIfCreated();
+    return memoryCache == null ? 0 : memoryCache.getMissCount();
+  }
+
+  @Managed(description = "Gets the MB read from the memory tier")
+  public double getReadFromMemoryTier()
+  {
+    BlockMemoryCache memoryCache = BlockMemoryCache.getInstanceIfCreated();
+    return memoryCache == null ? 0 : (double) memoryCache.getBytesRead() / bytesInMb;
+  }
+
+  @Managed(description = "Gets the MB of memory used by the memory tier")
+  public double getMemoryTierSize()
+  {
+    BlockMemoryCache memoryCache = BlockMemoryCache.getInstanceIfCreated();
+    return memoryCache == null ? 0 : (double) memoryCache.getSize() / bytesInMb;
+  }
+
+  @Managed(description = "Gets the number of BookKeeper clients which reused a pooled connection")
+  public long getClientPoolHits()
+  {
+    return BookKeeperFactory.getClientPool().getHitCount();
+  }
+
+  @Managed(description = "Gets the number of BookKeeper clients which had to open a new connection")
+  public long getClientPoolMisses()
+  {
+    return BookKeeperFactory.getClientPool().getMissCount();
+  }
+
+  @Managed(description = "Gets the number of BookKeeper clients which had to wait for a pooled connection to be released")
+  public long getClientPoolWaits()
+  {
+    return BookKeeperFactory.getClientPool().getWaitCount();
+  }
+
+  @Managed(description = "Gets the number of threads running reads streams wait for")
+  public int getReadForegroundActiveThreads()
+  {
+    ReadExecutors readExecutors = ReadExecutors.getInstanceIfCreated();
+    return readExecutors == null ? 0 : readExecutors.getForegroundActiveThreads();
+  }
+
+  @Managed(description = "Gets the number of reads waiting for a foreground thread")
+  public int getReadForegroundQueuedTasks()
+  {
+    ReadExecutors readExecutors = ReadExecutors.getInstanceIfCreated();
+    return readExecutors == null ? 0 : readExecutors.getForegroundQueuedTasks();
+  }
+
+  @Managed(description = "Gets the average time in ms from the submission to the completion of the reads streams wait for")
+  public double getReadForegroundTaskLatency()
+  {
+    ReadExecutors readExecutors = ReadExecutors.getInstanceIfCreated();
+    return readExecutors == null ? 0 : readExecutors.getForegroundTaskLatency();
+  }
+
+  @Managed(description = "Gets the number of threads running cache status updates, prefetches and read-ahead")
+  public int getReadBackgroundActiveThreads()
+  {
+    ReadExecutors readExecutors = ReadExecutors.getInstanceIfCreated();
+    return readExecutors == null ? 0 : readExecutors.getBackgroundActiveThreads();
+  }
+
+  @Managed(description = "Gets the number of background tasks waiting for a thread")
+  public int getReadBackgroundQueuedTasks()
+  {
+    ReadExecutors readExecutors = ReadExecutors.getInstanceIfCreated();
+    return readExecutors == null ? 0 : readExecutors.getBackgroundQueuedTasks();
+  }
+
+  @Managed(description = "Gets the average time in ms from the submission to the completion of the background tasks")
+  public double getReadBackgroundTaskLatency()
+  {
+    ReadExecutors readExecutors = ReadExecutors.getInstanceIfCreated();
+    return readExecutors == null ? 0 : readExecutors.getBackgroundTaskLatency();
+  }
+
+  @Managed(description = "Gets the number of tasks run by the submitting stream because their queue was full")
+  public long getReadTasksRunByCaller()
+  {
+    ReadExecutors readExecutors = ReadExecutors.getInstanceIfCreated();
+    return readExecutors == null ? 0 : readExecutors.getCallerRunCount();
+  }
+
   @Managed
   public double getHitRate()
   {
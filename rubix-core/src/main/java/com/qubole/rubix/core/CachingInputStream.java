@@ -16,8 +16,6 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
 import com.qubole.rubix.spi.BookKeeperFactory;
 import com.qubole.rubix.spi.CacheConfig;
 import com.qubole.rubix.spi.CacheUtil;
@@ -37,14 +35,13 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.DirectBufferPool;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -60,16 +57,8 @@ public class CachingInputStream extends FSInputStream
   int blockSize;
   private CachingFileSystemStats statsMbean;
 
-  static ListeningExecutorService readService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(CacheConfig.READ_SERVICE_THREAD_POOL_SIZE, new ThreadFactory()
-  {
-    public Thread newThread(Runnable r)
-    {
-      Thread t = Executors.defaultThreadFactory().newThread(r);
-      t.setName("rubix-readRequest-thread");
-      t.setDaemon(true);
-      return t;
-    }
-  }));
+  ReadExecutors readExecutors;
+  private String queryId;
   private static final Log log = LogFactory.getLog(CachingInputStream.class);
 
   private String remotePath;
@@ -91,6 +80,13 @@ public class CachingInputStream extends FSInputStream
   private int diskReadBufferSize;
   private int bufferSize;
   BookKeeperFactory bookKeeperFactory;
+  private CacheStatusPrefetcher cacheStatusPrefetcher;
+  // The eviction policy of BookKeeper counts a single read of the file per stream
+  private boolean accessCounted;
+  private SequentialReadAhead sequentialReadAhead;
+  private FileTailCache fileTailCache;
+  private BlockMemoryCache memoryCache;
+  private MappedFileCache mappedFiles;
 
   public CachingInputStream(FileSystem parentFs, Path backendPath, Configuration conf,
                             CachingFileSystemStats statsMbean,
@@ -117,6 +113,7 @@ public class CachingInputStream extends FSInputStream
     this.statsMbean = statsMbean;
     this.bufferSize = bufferSize;
     this.statistics = statistics;
+    initializeReadFeatures(bookKeeperFactory);
   }
 
   @VisibleForTesting
@@ -136,6 +133,7 @@ public class CachingInputStream extends FSInputStream
     this.remoteFileSystem = remoteFileSystem;
     this.bufferSize = bufferSize;
     this.statistics = statistics;
+    initializeReadFeatures(bookKeeperFactory);
   }
 
   private void initialize(String backendPath, Configuration conf, BookKeeperFactory bookKeeperFactory)
@@ -155,6 +153,32 @@ public class CachingInputStream extends FSInputStream
     }
     this.blockSize = CacheConfig.getBlockSize(conf);
     this.diskReadBufferSize = CacheConfig.getDiskReadBufferSize(conf);
+    this.readExecutors = ReadExecutors.getInstance(conf);
+    this.queryId = ReadExecutors.getQueryId(conf);
+  }
+
+  private void initializeReadFeatures(BookKeeperFactory bookKeeperFactory)
+  {
+    if (bookKeeperClient != null && CacheConfig.isCacheStatusPrefetchEnabled(conf)) {
+      cacheStatusPrefetcher = new CacheStatusPrefetcher(readExecutors.getBackgroundService(), bookKeeperFactory, conf, remotePath, fileSize, lastModified);
+    }
+    if (CacheConfig.isMemoryTierEnabled(conf)) {
+      memoryCache = BlockMemoryCache.getInstance(conf);
+      if (memoryCache.getBlockSize() != blockSize) {
+        log.warn(String.format("Not using the memory tier for %s, its block size %d differs from %d", remotePath, memoryCache.getBlockSize(), blockSize));
+        memoryCache = null;
+      }
+    }
+    if (CacheConfig.isMmapEnabled(conf)) {
+      mappedFiles = MappedFileCache.getInstance(conf);
+    }
+    if (CacheConfig.isFileTailCacheEnabled(conf)) {
+      fileTailCache = FileTailCache.getInstance(conf);
+    }
+    if (bookKeeperClient != null && CacheConfig.isReadAheadEnabled(conf) && !CacheConfig.isParallelWarmupEnabled(conf)) {
+      sequentialReadAhead = new SequentialReadAhead(readExecutors.getBackgroundService(), bufferPool, bookKeeperFactory, remoteFileSystem,
+          statsMbean, conf, remotePath, localPath, fileSize, lastModified);
+    }
   }
 
   FSDataInputStream getParentDataInputStream() throws IOException
@@ -245,9 +269,56 @@ public class CachingInputStream extends FSInputStream
       return -1;
     }
 
+    if (fileTailCache != null && nextReadPosition >= fileTailCache.getTailStart(fileSize)) {
+      return readFromTail(buffer, offset, length);
+    }
+
+    return readFromChains(buffer, offset, length);
+  }
+
+  private int readFromTail(byte[] buffer, int offset, int length)
+      throws IOException, InterruptedException, ExecutionException
+  {
+    long tailStart = fileTailCache.getTailStart(fileSize);
+    byte[] tail = fileTailCache.getTail(remotePath, fileSize, lastModified);
+    if (tail == null) {
+      log.debug(String.format("Caching tail [%d, %d) of file %s", tailStart, fileSize, remotePath));
+      tail = new byte[(int) (fileSize - tailStart)];
+      long readPosition = nextReadPosition;
+      seek(tailStart);
+      try {
+        int nread = 0;
+        while (nread < tail.length) {
+          int nbytes = readFromChains(tail, nread, tail.length - nread);
+          if (nbytes <= 0) {
+            throw new EOFException(String.format("Could not read the tail of file %s, got %d bytes out of %d", remotePath, nread, tail.length));
+          }
+          nread += nbytes;
+        }
+      }
+      finally {
+        seek(readPosition);
+      }
+      fileTailCache.putTail(remotePath, fileSize, lastModified, tail);
+    }
+
+    int nread = (int) Math.min(length, fileSize - nextReadPosition);
+    System.arraycopy(tail, (int) (nextReadPosition - tailStart), buffer, offset, nread);
+    nextReadPosition += nread;
+    setNextReadBlock();
+    return nread;
+  }
+
+  private int readFromChains(byte[] buffer, int offset, int length)
+      throws IOException, InterruptedException, ExecutionException
+  {
     // Get the last block
     final long endBlock = ((nextReadPosition + (length - 1)) / blockSize) + 1; // this block will not be read
 
+    if (sequentialReadAhead != null) {
+      sequentialReadAhead.readStarted(nextReadPosition, nextReadBlock, endBlock);
+    }
+
     // Create read requests
     final List<ReadRequestChain> readRequestChains = setupReadRequestChains(buffer,
         offset,
@@ -265,7 +336,14 @@ public class CachingInputStream extends FSInputStream
 
     for (ReadRequestChain readRequestChain : readRequestChains) {
       readRequestChain.lock();
-      builder.add(readService.submit(readRequestChain));
+      builder.add(readExecutors.submitForeground(queryId, readRequestChain));
+    }
+
+    if (cacheStatusPrefetcher != null) {
+      cacheStatusPrefetcher.prefetch(endBlock, endBlock - nextReadBlock);
+    }
+    if (sequentialReadAhead != null) {
+      sequentialReadAhead.readSubmitted(endBlock);
     }
 
     List<ListenableFuture<Integer>> futures = builder.build();
@@ -284,7 +362,7 @@ public class CachingInputStream extends FSInputStream
 
     // mark all read blocks cached
     // We can let this is happen in background
-    readService.execute(new Runnable() {
+    readExecutors.getBackgroundService().execute(new Runnable() {
       @Override
       public void run()
       {
@@ -294,8 +372,14 @@ public class CachingInputStream extends FSInputStream
 
     log.info(String.format("Read %d bytes", sizeRead));
     if (sizeRead > 0) {
+      if (cacheStatusPrefetcher != null) {
+        cacheStatusPrefetcher.blocksRead(nextReadBlock, endBlock);
+      }
       nextReadPosition += sizeRead;
       setNextReadBlock();
+      if (sequentialReadAhead != null) {
+        sequentialReadAhead.readCompleted(nextReadPosition);
+      }
       log.debug(String.format("New nextReadPosition: %d nextReadBlock: %d", nextReadPosition, nextReadBlock));
     }
     return sizeRead;
@@ -332,9 +416,19 @@ public class CachingInputStream extends FSInputStream
 
     try {
       if (bookKeeperClient != null) {
-        CacheStatusRequest request = new CacheStatusRequest(remotePath, fileSize, lastModified, nextReadBlock, endBlock);
-        request.setIncrMetrics(true);
-        isCached = bookKeeperClient.getCacheStatus(request);
+        if (cacheStatusPrefetcher != null) {
+          isCached = cacheStatusPrefetcher.getCacheStatus(nextReadBlock, endBlock);
+        }
+        if (isCached == null) {
+          CacheStatusRequest request = new CacheStatusRequest(remotePath, fileSize, lastModified, nextReadBlock, endBlock);
+          request.setIncrMetrics(true);
+          request.setCountAccess(!accessCounted);
+          isCached = bookKeeperClient.getCacheStatus(request);
+          accessCounted = true;
+          if (cacheStatusPrefetcher != null) {
+            cacheStatusPrefetcher.addCacheStatus(nextReadBlock, isCached);
+          }
+        }
       }
     }
     catch (Exception e) {
@@ -381,7 +475,8 @@ public class CachingInputStream extends FSInputStream
         }
         directReadRequestChain.addReadRequest(readRequest);
       }
-      else if (isCached.get(idx).getLocation() == Location.CACHED) {
+      else if (isCached.get(idx).getLocation() == Location.CACHED
+          || (isCached.get(idx).getLocation() == Location.LOCAL && sequentialReadAhead != null && sequentialReadAhead.isCached(blockNum))) {
         log.debug(String.format("Sending cached block %d to cachedReadRequestChain", blockNum));
         if (directReadBuffer == null) {
           directReadBuffer = bufferPool.getBuffer(diskReadBufferSize);
@@ -389,6 +484,12 @@ public class CachingInputStream extends FSInputStream
         if (cachedReadRequestChain == null) {
           cachedReadRequestChain = new CachedReadRequestChain(remoteFileSystem, remotePath, directReadBuffer,
                   statistics, conf, bookKeeperFactory);
+          if (memoryCache != null) {
+            cachedReadRequestChain.setMemoryCache(memoryCache, lastModified);
+          }
+          if (mappedFiles != null) {
+            cachedReadRequestChain.setMappedFileCache(mappedFiles);
+          }
         }
         cachedReadRequestChain.addReadRequest(readRequest);
       }
@@ -448,7 +549,11 @@ public class CachingInputStream extends FSInputStream
               affixBuffer = new byte[blockSize];
             }
             if (remoteReadRequestChain == null) {
-              remoteReadRequestChain = new RemoteReadRequestChain(getParentDataInputStream(), localPath, directWriteBuffer, affixBuffer);
+              remoteReadRequestChain = new RemoteReadRequestChain(getParentDataInputStream(), localPath, directWriteBuffer, affixBuffer, conf);
+              remoteReadRequestChain.setRemoteFileSystem(remoteFileSystem, remotePath);
+              if (memoryCache != null) {
+                remoteReadRequestChain.setMemoryCache(memoryCache, lastModified);
+              }
             }
             remoteReadRequestChain.addReadRequest(readRequest);
           }
@@ -525,6 +630,12 @@ public class CachingInputStream extends FSInputStream
   public void close()
   {
     returnBuffers();
+    if (cacheStatusPrefetcher != null) {
+      cacheStatusPrefetcher.close();
+    }
+    if (sequentialReadAhead != null) {
+      sequentialReadAhead.close();
+    }
     try {
       if (inputStream != null) {
         inputStream.close();
@@ -67,7 +67,7 @@ public class DummyModeCachingInputStream extends CachingInputStream
     final long initNextReadBlock = initPos / blockSize;
     final int read = readFullyDirect(buffer, offset, length);
 
-    readService.execute(new Runnable()
+    readExecutors.getBackgroundService().execute(new Runnable()
     {
       @Override
       public void run()
@@ -0,0 +1,401 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.qubole.rubix.spi.CacheConfig;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The open channels of cache files, shared by all the readers and writers of the JVM so that a cache file is not
+ * opened and closed again for every chain executed on it.
+ * <p>
+ * Channels are reference counted: a channel dropped from the cache, because the cache is full or because its file
+ * is being deleted, is only closed once the last handle to it is released. As a cache file may be deleted and created
+ * again by a BookKeeper running in another process, the file key of a cache file is checked before its channel is
+ * handed out again and a channel to a file which was replaced is dropped.
+ * <p>
+ * A deleted file keeps its disk space for as long as it is open, so the channels nobody uses are checked regularly:
+ * channels to files which were deleted or replaced, and channels unused for longer than the maximum idle time, are
+ * closed. A channel in use keeps its file until it is released.
+ */
+public class FileChannelCache
+{
+  private static final Log log = LogFactory.getLog(FileChannelCache.class);
+
+  private static FileChannelCache instance;
+
+  private final int maxOpenFiles;
+  private final long maxIdleNanos;
+  private final Ticker ticker;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long hitCount;
+  private long missCount;
+
+  @VisibleForTesting
+  FileChannelCache(int maxOpenFiles)
+  {
+    this(maxOpenFiles, Long.MAX_VALUE, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  FileChannelCache(int maxOpenFiles, long maxIdleNanos, Ticker ticker)
+  {
+    this.maxOpenFiles = maxOpenFiles;
+    this.maxIdleNanos = maxIdleNanos;
+    this.ticker = ticker;
+  }
+
+  /**
+   * Get the open channels of this JVM, created with the given configuration on first use.
+   *
+   * @param conf  The current Hadoop configuration.
+   * @return The shared open channels.
+   */
+  public static synchronized FileChannelCache getInstance(Configuration conf)
+  {
+    if (instance == null) {
+      final long maxIdle = CacheConfig.getFileChannelCacheMaxIdle(conf);
+      final FileChannelCache channels = new FileChannelCache(CacheConfig.getFileChannelCacheMaxFiles(conf),
+          TimeUnit.MILLISECONDS.toNanos(maxIdle), Ticker.systemTicker());
+      ScheduledExecutorService cleanupService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+      {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+          Thread t = Executors.defaultThreadFactory().newThread(r);
+          t.setName("rubix-file-channel-cleanup-thread");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      long period = Math.max(maxIdle / 2, 1);
+      cleanupService.scheduleWithFixedDelay(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          channels.closeUnusedChannels();
+        }
+      }, period, period, TimeUnit.MILLISECONDS);
+      instance = channels;
+    }
+    return instance;
+  }
+
+  /**
+   * Open a cache file, through the shared channels if they are enabled.
+   *
+   * @param localPath  The cache file, which must exist.
+   * @param writable   Whether data will be written into the file.
+   * @param conf       The current Hadoop configuration.
+   * @return A handle to the channel of the file, which must be closed once done with it.
+   * @throws IOException if the file could not be opened.
+   */
+  public static Handle open(String localPath, boolean writable, Configuration conf) throws IOException
+  {
+    if (CacheConfig.isFileChannelCacheEnabled(conf)) {
+      return getInstance(conf).acquire(localPath, writable);
+    }
+    return new Handle(null, new Entry(openChannel(localPath, writable), writable, null));
+  }
+
+  /**
+   * Drop the channel of a cache file about to be deleted, if any reader or writer of this JVM opened it.
+   *
+   * @param localPath  The cache file.
+   */
+  public static void invalidateIfCreated(String localPath)
+  {
+    FileChannelCache channels;
+    synchronized (FileChannelCache.class) {
+      channels = instance;
+    }
+    if (channels != null) {
+      channels.invalidate(localPath);
+    }
+  }
+
+  /**
+   * Get a handle to the channel of a cache file, opening the file if it has no usable channel yet.
+   *
+   * @param localPath  The cache file, which must exist.
+   * @param writable   Whether data will be written into the file.
+   * @return A handle to the channel of the file, which must be closed once done with it.
+   * @throws IOException if the file could not be opened.
+   */
+  public Handle acquire(String localPath, boolean writable) throws IOException
+  {
+    // The key is read before opening the file, so that a file replaced in between is reopened on the next acquire
+    Object fileKey = getFileKey(localPath);
+    synchronized (this) {
+      Entry entry = getUsableEntry(localPath, fileKey, writable);
+      if (entry != null) {
+        hitCount++;
+        entry.refCount++;
+        return new Handle(this, entry);
+      }
+    }
+
+    FileChannel channel = openChannel(localPath, writable);
+    FileChannel unusedChannel = null;
+    Handle handle;
+    synchronized (this) {
+      missCount++;
+      Entry entry = getUsableEntry(localPath, fileKey, writable);
+      if (entry != null) {
+        // Another thread opened the file in the meantime
+        unusedChannel = channel;
+      }
+      else {
+        entry = new Entry(channel, writable, fileKey);
+        entries.put(localPath, entry);
+        evictEntries();
+      }
+      entry.refCount++;
+      handle = new Handle(this, entry);
+    }
+
+    if (unusedChannel != null) {
+      closeChannel(unusedChannel);
+    }
+    return handle;
+  }
+
+  /**
+   * Drop the channel of a cache file, closing it once it is not used anymore.
+   *
+   * @param localPath  The cache file.
+   */
+  public synchronized void invalidate(String localPath)
+  {
+    Entry entry = entries.remove(localPath);
+    if (entry != null) {
+      remove(entry);
+    }
+  }
+
+  /**
+   * Close the unused channels which were idle for too long or whose file was deleted or replaced.
+   */
+  @VisibleForTesting
+  void closeUnusedChannels()
+  {
+    List<String> unusedPaths = new ArrayList<>();
+    List<Entry> unusedEntries = new ArrayList<>();
+    synchronized (this) {
+      long now = ticker.read();
+      Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<String, Entry> cached = iterator.next();
+        Entry entry = cached.getValue();
+        if (entry.refCount > 0) {
+          continue;
+        }
+        if (now - entry.releaseTime >= maxIdleNanos) {
+          iterator.remove();
+          remove(entry);
+        }
+        else {
+          unusedPaths.add(cached.getKey());
+          unusedEntries.add(entry);
+        }
+      }
+    }
+
+    // The files are checked without holding the lock, which readers and writers wait for
+    for (int i = 0; i < unusedPaths.size(); i++) {
+      String localPath = unusedPaths.get(i);
+      Entry entry = unusedEntries.get(i);
+      Object fileKey;
+      try {
+        fileKey = getFileKey(localPath);
+      }
+      catch (IOException e) {
+        fileKey = null;
+      }
+      if (!entry.fileKey.equals(fileKey)) {
+        synchronized (this) {
+          if (entries.get(localPath) == entry && entry.refCount == 0) {
+            entries.remove(localPath);
+            remove(entry);
+          }
+        }
+      }
+    }
+  }
+
+  @VisibleForTesting
+  synchronized long getHitCount()
+  {
+    return hitCount;
+  }
+
+  @VisibleForTesting
+  synchronized long getMissCount()
+  {
+    return missCount;
+  }
+
+  @VisibleForTesting
+  synchronized int getOpenFileCount()
+  {
+    return entries.size();
+  }
+
+  private Entry getUsableEntry(String localPath, Object fileKey, boolean writable)
+  {
+    Entry entry = entries.get(localPath);
+    if (entry == null) {
+      return null;
+    }
+    if (!entry.fileKey.equals(fileKey) || (writable && !entry.writable)) {
+      entries.remove(localPath);
+      remove(entry);
+      return null;
+    }
+    return entry;
+  }
+
+  private void evictEntries()
+  {
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (entries.size() > maxOpenFiles && iterator.hasNext()) {
+      Entry entry = iterator.next().getValue();
+      iterator.remove();
+      remove(entry);
+    }
+  }
+
+  private void remove(Entry entry)
+  {
+    entry.removed = true;
+    if (entry.refCount == 0) {
+      closeChannel(entry.channel);
+    }
+  }
+
+  private synchronized void release(Entry entry)
+  {
+    entry.refCount--;
+    if (entry.refCount == 0) {
+      if (entry.removed) {
+        closeChannel(entry.channel);
+      }
+      entry.releaseTime = ticker.read();
+    }
+  }
+
+  private static Object getFileKey(String localPath) throws IOException
+  {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(Paths.get(localPath), BasicFileAttributes.class);
+      return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+    }
+    catch (NoSuchFileException e) {
+      throw new FileNotFoundException(localPath);
+    }
+  }
+
+  private static FileChannel openChannel(String localPath, boolean writable) throws IOException
+  {
+    // Closing the channel closes the file as well
+    return new RandomAccessFile(localPath, writable ? "rw" : "r").getChannel();
+  }
+
+  private static void closeChannel(FileChannel channel)
+  {
+    try {
+      channel.close();
+    }
+    catch (IOException e) {
+      log.warn("Could not close cache file channel", e);
+    }
+  }
+
+  private static class Entry
+  {
+    final FileChannel channel;
+    final boolean writable;
+    final Object fileKey;
+    int refCount;
+    long releaseTime;
+    boolean removed;
+
+    Entry(FileChannel channel, boolean writable, Object fileKey)
+    {
+      this.channel = channel;
+      this.writable = writable;
+      this.fileKey = fileKey;
+    }
+  }
+
+  /**
+   * A reference to the channel of a cache file. Closing it releases the reference; the channel itself is closed
+   * when it is not shared.
+   */
+  public static class Handle implements Closeable
+  {
+    private final FileChannelCache owner;
+    private final Entry entry;
+    private boolean closed;
+
+    private Handle(FileChannelCache owner, Entry entry)
+    {
+      this.owner = owner;
+      this.entry = entry;
+    }
+
+    public FileChannel getChannel()
+    {
+      return entry.channel;
+    }
+
+    @Override
+    public void close()
+    {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (owner != null) {
+        owner.release(entry);
+      }
+      else {
+        closeChannel(entry.channel);
+      }
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.qubole.rubix.spi.CacheConfig;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * An in-memory LRU cache of the tails of files, shared by all the streams of the JVM.
+ * <p>
+ * Columnar formats like ORC and Parquet keep their footer and metadata at the end of the file, and every split
+ * of such a file starts with a few small reads of that region. Keeping the tail in memory serves these reads
+ * without going through BookKeeper or the local disk at all.
+ */
+public class FileTailCache
+{
+  private static FileTailCache instance;
+
+  private final Cache<String, FileTail> tails;
+  private final int tailSize;
+
+  @VisibleForTesting
+  FileTailCache(int tailSize, long maxMemory)
+  {
+    this.tailSize = tailSize;
+    this.tails = CacheBuilder.newBuilder()
+        .maximumWeight(maxMemory)
+        .weigher(new Weigher<String, FileTail>()
+        {
+          @Override
+          public int weigh(String remotePath, FileTail tail)
+          {
+            return tail.data.length;
+          }
+        })
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Get the tail cache of this JVM, created with the given configuration on first use.
+   *
+   * @param conf  The current Hadoop configuration.
+   * @return The shared tail cache.
+   */
+  public static synchronized FileTailCache getInstance(Configuration conf)
+  {
+    if (instance == null) {
+      instance = new FileTailCache(CacheConfig.getFileTailSize(conf), CacheConfig.getFileTailCacheMaxMemory(conf));
+    }
+    return instance;
+  }
+
+  /**
+   * Get the tail cache of this JVM if it was created.
+   *
+   * @return The shared tail cache, or null if no stream used it yet.
+   */
+  public static synchronized FileTailCache getInstanceIfCreated()
+  {
+    return instance;
+  }
+
+  /**
+   * Get the position at which the tail of a file starts.
+   *
+   * @param fileSize  The size of the file.
+   * @return The first position of the tail.
+   */
+  public long getTailStart(long fileSize)
+  {
+    return Math.max(fileSize - tailSize, 0);
+  }
+
+  /**
+   * Get the tail of a version of a file.
+   *
+   * @param remotePath    The path of the file.
+   * @param fileSize      The size of the file.
+   * @param lastModified  The last modification time of the file.
+   * @return The tail of the file, or null if it is not cached.
+   */
+  public byte[] getTail(String remotePath, long fileSize, long lastModified)
+  {
+    FileTail tail = tails.getIfPresent(remotePath);
+    if (tail == null || tail.fileSize != fileSize || tail.lastModified != lastModified) {
+      return null;
+    }
+    return tail.data;
+  }
+
+  /**
+   * Cache the tail of a version of a file, replacing the tail of any other version.
+   *
+   * @param remotePath    The path of the file.
+   * @param fileSize      The size of the file.
+   * @param lastModified  The last modification time of the file.
+   * @param data          The bytes from the start of the tail to the end of the file.
+   */
+  public void putTail(String remotePath, long fileSize, long lastModified, byte[] data)
+  {
+    tails.put(remotePath, new FileTail(fileSize, lastModified, data));
+  }
+
+  public long getHitCount()
+  {
+    return tails.stats().hitCount();
+  }
+
+  public long getMissCount()
+  {
+    return tails.stats().missCount();
+  }
+
+  private static class FileTail
+  {
+    private final long fileSize;
+    private final long lastModified;
+    private final byte[] data;
+
+    FileTail(long fileSize, long lastModified, byte[] data)
+    {
+      this.fileSize = fileSize;
+      this.lastModified = lastModified;
+      this.data = data;
+    }
+  }
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.qubole.rubix.spi.CacheConfig;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded LRU of memory-mapped regions of cache files, shared by all the streams of the JVM, through which
+ * cached data is copied straight into the destination buffers without opening the cache files on every read.
+ * <p>
+ * Cache files are sparse and grow as blocks get cached, so a region only maps the part of the file which existed
+ * when it was mapped and is mapped again once reads go past it. Since a cache file may be deleted and created again
+ * by BookKeeper, the identity of the file is checked before each chain of reads and all its regions are dropped
+ * when it changed; a BookKeeper running in the same JVM drops them directly when it deletes the file.
+ * <p>
+ * A mapping keeps its file and the disk space of the file alive, even once deleted, until the mapping is garbage
+ * collected. Regions are thus dropped when they were not read for longer than the maximum idle time, and the files
+ * are checked regularly so that the regions of files which were deleted or replaced are dropped without waiting for
+ * the next chain of reads on them.
+ */
+public class MappedFileCache
+{
+  private static MappedFileCache instance;
+
+  private final long regionSize;
+  private final Cache<RegionKey, MappedByteBuffer> regions;
+  private final Cache<String, Object> fileKeys;
+
+  @VisibleForTesting
+  MappedFileCache(long regionSize, int maxRegions)
+  {
+    this(regionSize, maxRegions, Long.MAX_VALUE, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  MappedFileCache(long regionSize, int maxRegions, long maxIdleNanos, Ticker ticker)
+  {
+    this.regionSize = regionSize;
+    this.regions = CacheBuilder.newBuilder()
+        .ticker(ticker)
+        .maximumSize(maxRegions)
+        .expireAfterAccess(maxIdleNanos, TimeUnit.NANOSECONDS)
+        .build();
+    this.fileKeys = CacheBuilder.newBuilder()
+        .ticker(ticker)
+        .maximumSize(maxRegions)
+        .expireAfterAccess(maxIdleNanos, TimeUnit.NANOSECONDS)
+        .build();
+  }
+
+  /**
+   * Get the mapped regions of this JVM, created with the given configuration on first use.
+   *
+   * @param conf  The current Hadoop configuration.
+   * @return The shared mapped regions.
+   */
+  public static synchronized MappedFileCache getInstance(Configuration conf)
+  {
+    if (instance == null) {
+      final long maxIdle = CacheConfig.getMmapMaxIdle(conf);
+      final MappedFileCache mappedFiles = new MappedFileCache(CacheConfig.getMmapRegionSize(conf),
+          CacheConfig.getMmapMaxRegions(conf), TimeUnit.MILLISECONDS.toNanos(maxIdle), Ticker.systemTicker());
+      ScheduledExecutorService revalidationService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+      {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+          Thread t = Executors.defaultThreadFactory().newThread(r);
+          t.setName("rubix-mmap-revalidation-thread");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      long period = Math.max(maxIdle / 2, 1);
+      revalidationService.scheduleWithFixedDelay(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          mappedFiles.revalidate();
+        }
+      }, period, period, TimeUnit.MILLISECONDS);
+      instance = mappedFiles;
+    }
+    return instance;
+  }
+
+  /**
+   * Drop the mapped regions of a cache file about to be deleted, if any stream of this JVM mapped it.
+   *
+   * @param localPath  The cache file.
+   */
+  public static void invalidateIfCreated(String localPath)
+  {
+    MappedFileCache mappedFiles;
+    synchronized (MappedFileCache.class) {
+      mappedFiles = instance;
+    }
+    if (mappedFiles != null) {
+      mappedFiles.invalidate(localPath);
+    }
+  }
+
+  /**
+   * Check that a cache file is still the one its regions were mapped from, dropping them otherwise.
+   *
+   * @param localPath  The cache file.
+   * @throws IOException if the file does not exist or its attributes could not be read.
+   */
+  public void validate(String localPath) throws IOException
+  {
+    Object fileKey = getFileKey(localPath);
+    // Regions left over from a file whose identity was forgotten cannot be trusted either
+    Object previousKey = fileKeys.getIfPresent(localPath);
+    if (!fileKey.equals(previousKey)) {
+      dropRegions(localPath);
+      fileKeys.put(localPath, fileKey);
+    }
+  }
+
+  /**
+   * Drop the regions which were idle for too long, and the regions of the files which were deleted or replaced.
+   * Streams reading a region keep their own view of it, which stays valid once the region is dropped.
+   */
+  @VisibleForTesting
+  void revalidate()
+  {
+    regions.cleanUp();
+    fileKeys.cleanUp();
+    for (Map.Entry<String, Object> file : new ArrayList<>(fileKeys.asMap().entrySet())) {
+      Object fileKey;
+      try {
+        fileKey = getFileKey(file.getKey());
+      }
+      catch (IOException e) {
+        fileKey = null;
+      }
+      if (!file.getValue().equals(fileKey) && fileKeys.asMap().remove(file.getKey(), file.getValue())) {
+        dropRegions(file.getKey());
+      }
+    }
+  }
+
+  /**
+   * Drop all the mapped regions of a cache file.
+   *
+   * @param localPath  The cache file.
+   */
+  public void invalidate(String localPath)
+  {
+    fileKeys.invalidate(localPath);
+    dropRegions(localPath);
+  }
+
+  /**
+   * Copy data of a cache file into a buffer.
+   *
+   * @param localPath   The cache file.
+   * @param position    The position of the data in the file.
+   * @param dest        The buffer to copy the data to.
+   * @param destOffset  The offset in the buffer to copy the data at.
+   * @param length      The length of the data.
+   * @return The number of bytes copied, less than the length if the file ends before.
+   * @throws IOException if a region could not be mapped.
+   */
+  public int read(String localPath, long position, byte[] dest, int destOffset, int length) throws IOException
+  {
+    int nread = 0;
+    while (nread < length) {
+      long regionIndex = (position + nread) / regionSize;
+      int offsetInRegion = (int) (position + nread - regionIndex * regionSize);
+      int lengthInRegion = (int) Math.min(length - nread, regionSize - offsetInRegion);
+
+      ByteBuffer region = getRegion(localPath, regionIndex, offsetInRegion + lengthInRegion);
+      if (region == null || region.capacity() <= offsetInRegion) {
+        break;
+      }
+      lengthInRegion = Math.min(lengthInRegion, region.capacity() - offsetInRegion);
+      region.position(offsetInRegion);
+      region.get(dest, destOffset + nread, lengthInRegion);
+      nread += lengthInRegion;
+    }
+    return nread;
+  }
+
+  /**
+   * Get a region of a cache file, mapping it again if the existing mapping ends before the required length.
+   *
+   * @return A private view of the region, or null if the file ends before the region.
+   */
+  private ByteBuffer getRegion(String localPath, long regionIndex, int requiredLength) throws IOException
+  {
+    RegionKey key = new RegionKey(localPath, regionIndex);
+    MappedByteBuffer region = regions.getIfPresent(key);
+    if (region == null || region.capacity() < requiredLength) {
+      try (FileChannel channel = FileChannel.open(Paths.get(localPath), StandardOpenOption.READ)) {
+        long regionStart = regionIndex * regionSize;
+        long mappedLength = Math.min(regionSize, channel.size() - regionStart);
+        if (mappedLength <= 0) {
+          return null;
+        }
+        // The mapping stays valid once the channel is closed
+        region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, mappedLength);
+      }
+      regions.put(key, region);
+    }
+    return region.duplicate();
+  }
+
+  @VisibleForTesting
+  long getRegionCount()
+  {
+    regions.cleanUp();
+    return regions.size();
+  }
+
+  private static Object getFileKey(String localPath) throws IOException
+  {
+    BasicFileAttributes attributes = Files.readAttributes(Paths.get(localPath), BasicFileAttributes.class);
+    // Inode numbers get reused, so the creation time (the last modification time where it is not kept) goes along
+    return Arrays.asList(attributes.fileKey(), attributes.creationTime());
+  }
+
+  private void dropRegions(String localPath)
+  {
+    Iterator<RegionKey> keys = regions.asMap().keySet().iterator();
+    while (keys.hasNext()) {
+      if (keys.next().localPath.equals(localPath)) {
+        keys.remove();
+      }
+    }
+  }
+
+  private static class RegionKey
+  {
+    private final String localPath;
+    private final long regionIndex;
+
+    RegionKey(String localPath, long regionIndex)
+    {
+      this.localPath = localPath;
+      this.regionIndex = regionIndex;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof RegionKey)) {
+        return false;
+      }
+      RegionKey other = (RegionKey) o;
+      return regionIndex == other.regionIndex && localPath.equals(other.localPath);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * localPath.hashCode() + (int) (regionIndex ^ (regionIndex >>> 32));
+    }
+  }
+}
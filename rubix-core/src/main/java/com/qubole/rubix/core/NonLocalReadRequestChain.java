@@ -34,6 +34,8 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -90,90 +92,113 @@ public class NonLocalReadRequestChain extends ReadRequestChain
     }
     checkState(isLocked, "Trying to execute Chain without locking");
 
-    for (ReadRequest readRequest : readRequests) {
-      if (cancelled) {
-        propagateCancel(this.getClass().getName());
-      }
-      SocketChannel dataTransferClient;
-      try {
-        dataTransferClient = DataTransferClientHelper.createDataTransferClient(remoteNodeName, conf);
-      }
-      catch (Exception e) {
-        log.warn("Could not create Data Transfer Client ", e);
-        if (strictMode) {
-          throw Throwables.propagate(e);
-        }
-        else {
-          return directReadRequest(readRequests.indexOf(readRequest));
+    // A single connection is used for all the requests of this chain. Their ranges are asked for in as few
+    // headers as possible and the server sends the data of all the ranges of a header back to back.
+    final int maxRangesPerHeader = DataTransferClientHelper.getMaxRangesPerHeader(conf, filePath);
+    SocketChannel dataTransferClient = null;
+    try {
+      for (int index = 0; index < readRequests.size(); index++) {
+        ReadRequest readRequest = readRequests.get(index);
+        if (cancelled) {
+          propagateCancel(this.getClass().getName());
         }
-      }
-      try {
-        int nread = 0;
-
-        /*
-        SocketChannels does not support timeouts when used directly, because timeout is used only by streams.
-        We get this working by wrapping it in ReadableByteChannel.
-        Ref - https://technfun.wordpress.com/2009/01/29/networking-in-java-non-blocking-nio-blocking-nio-and-io/
-        */
-        InputStream inStream = dataTransferClient.socket().getInputStream();
-        ReadableByteChannel wrappedChannel = Channels.newChannel(inStream);
-
-        ByteBuffer buf = DataTransferClientHelper.writeHeaders(conf, new DataTransferHeader(readRequest.getActualReadStart(),
-            readRequest.getActualReadLength(), fileSize, lastModified, filePath));
-
-        dataTransferClient.write(buf);
-        int bytesread = 0;
-        ByteBuffer dst = ByteBuffer.wrap(readRequest.destBuffer, readRequest.getDestBufferOffset(), readRequest.destBuffer.length - readRequest.getDestBufferOffset());
-        while (bytesread != readRequest.getActualReadLength()) {
-          nread = wrappedChannel.read(dst);
-          bytesread += nread;
-          totalRead += nread;
-          if (nread == -1) {
-            totalRead -= bytesread;
-            throw new Exception("Error reading from Local Transfer Server");
+        if (dataTransferClient == null) {
+          try {
+            dataTransferClient = DataTransferClientHelper.createDataTransferClient(remoteNodeName, conf);
+          }
+          catch (Exception e) {
+            log.warn("Could not create Data Transfer Client ", e);
+            if (strictMode) {
+              throw Throwables.propagate(e);
+            }
+            else {
+              return directReadRequest(index);
+            }
           }
-          dst.position(bytesread + readRequest.getDestBufferOffset());
-        }
-      }
-      catch (SocketTimeoutException e) {
-        if (strictMode) {
-          log.error(remoteNodeName + ": socket read timed out.");
-          throw Throwables.propagate(e);
-        }
-        else {
-          log.info(remoteNodeName + ": socket read timed out. Using direct reads");
-          return directReadRequest(readRequests.indexOf(readRequest));
         }
-      }
-      catch (Exception e) {
-        log.info("Error reading data from node : " + remoteNodeName, e);
-        if (strictMode) {
-          throw Throwables.propagate(e);
+        int readBefore = totalRead;
+        try {
+          int nread = 0;
+
+          /*
+          SocketChannels does not support timeouts when used directly, because timeout is used only by streams.
+          We get this working by wrapping it in ReadableByteChannel.
+          Ref - https://technfun.wordpress.com/2009/01/29/networking-in-java-non-blocking-nio-blocking-nio-and-io/
+          */
+          InputStream inStream = dataTransferClient.socket().getInputStream();
+          ReadableByteChannel wrappedChannel = Channels.newChannel(inStream);
+
+          if (index % maxRangesPerHeader == 0) {
+            List<ReadRequest> batch = readRequests.subList(index, Math.min(index + maxRangesPerHeader, readRequests.size()));
+            ByteBuffer buf = DataTransferClientHelper.writeHeaders(conf, new DataTransferHeader(getReadRanges(batch),
+                fileSize, lastModified, filePath));
+            while (buf.hasRemaining()) {
+              dataTransferClient.write(buf);
+            }
+          }
+          int bytesread = 0;
+          // The data of the next range follows on the same connection, so never read past the end of this one
+          ByteBuffer dst = ByteBuffer.wrap(readRequest.destBuffer, readRequest.getDestBufferOffset(), readRequest.getActualReadLength());
+          while (bytesread < readRequest.getActualReadLength()) {
+            nread = wrappedChannel.read(dst);
+            if (nread == -1) {
+              totalRead -= bytesread;
+              throw new Exception("Error reading from Local Transfer Server");
+            }
+            bytesread += nread;
+            totalRead += nread;
+          }
         }
-        else {
-          return directReadRequest(readRequests.indexOf(readRequest));
+        catch (SocketTimeoutException e) {
+          if (strictMode) {
+            log.error(remoteNodeName + ": socket read timed out.");
+            throw Throwables.propagate(e);
+          }
+          else {
+            log.info(remoteNodeName + ": socket read timed out. Using direct reads");
+            return directReadRequest(index);
+          }
         }
-      }
-      finally {
-        log.info(String.format("Read %d bytes internally from node %s", totalRead, remoteNodeName));
-        if (statistics != null) {
-          statistics.incrementBytesRead(totalRead);
+        catch (Exception e) {
+          log.info("Error reading data from node : " + remoteNodeName, e);
+          if (strictMode) {
+            throw Throwables.propagate(e);
+          }
+          else {
+            return directReadRequest(index);
+          }
         }
-        try {
-          if (dataTransferClient != null) {
-            dataTransferClient.close();
-            dataTransferClient = null;
+        finally {
+          log.info(String.format("Read %d bytes internally from node %s", totalRead - readBefore, remoteNodeName));
+          if (statistics != null) {
+            statistics.incrementBytesRead(totalRead - readBefore);
           }
         }
-        catch (IOException e) {
-          log.info("Error closing Data Transfer client : " + remoteNodeName, e);
+      }
+    }
+    finally {
+      try {
+        if (dataTransferClient != null) {
+          dataTransferClient.close();
         }
       }
+      catch (IOException e) {
+        log.info("Error closing Data Transfer client : " + remoteNodeName, e);
+      }
     }
 
     return totalRead;
   }
 
+  private static List<DataTransferHeader.ReadRange> getReadRanges(List<ReadRequest> readRequests)
+  {
+    List<DataTransferHeader.ReadRange> ranges = new ArrayList<>(readRequests.size());
+    for (ReadRequest readRequest : readRequests) {
+      ranges.add(new DataTransferHeader.ReadRange(readRequest.getActualReadStart(), readRequest.getActualReadLength()));
+    }
+    return ranges;
+  }
+
   @Override
   public void cancel()
   {
@@ -205,14 +230,19 @@ public class NonLocalReadRequestChain extends ReadRequestChain
       RetryingBookkeeperClient bookKeeperClient = null;
       try {
         bookKeeperClient = new BookKeeperFactory().createBookKeeperClient(remoteNodeName, conf);
+        List<CacheStatusRequest> cacheStatusRequests = new ArrayList<>(readRequests.size());
+        List<SetCachedRequest> setCachedRequests = new ArrayList<>(readRequests.size());
         for (ReadRequest readRequest : readRequests) {
           long startBlock = toBlock(readRequest.getBackendReadStart());
           long endBlock = toBlock(readRequest.getBackendReadEnd() - 1) + 1;
-          // getCacheStatus() call required to create mdfiles before blocks are set as cached
-          CacheStatusRequest request = new CacheStatusRequest(remotePath, fileSize, lastModified, startBlock, endBlock);
-          bookKeeperClient.getCacheStatus(request);
-          bookKeeperClient.setAllCached(new SetCachedRequest(remotePath, fileSize, lastModified, startBlock, endBlock));
+          CacheStatusRequest cacheStatusRequest = new CacheStatusRequest(remotePath, fileSize, lastModified, startBlock, endBlock);
+          cacheStatusRequest.setCountAccess(false);
+          cacheStatusRequests.add(cacheStatusRequest);
+          setCachedRequests.add(new SetCachedRequest(remotePath, fileSize, lastModified, startBlock, endBlock));
         }
+        // getCacheStatus() call required to create mdfiles before blocks are set as cached
+        bookKeeperClient.getCacheStatusBatch(cacheStatusRequests);
+        bookKeeperClient.setAllCachedBatch(setCachedRequests);
       }
       catch (Exception e) {
         if (strictMode) {
@@ -78,6 +78,8 @@ public class NonLocalRequestChain extends ReadRequestChain
               + " StartBlock : " + startBlock + " EndBlock : " + endBlock);
 
       CacheStatusRequest request = new CacheStatusRequest(remoteFilePath, fileSize, lastModified, startBlock, endBlock);
+      // Counted by the node when the data is transferred or fetched
+      request.setCountAccess(false);
       isCached = bookKeeperClient.getCacheStatus(request);
       log.info("Cache Status : " + isCached);
     }
@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.qubole.rubix.spi.CacheConfig;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Download engine reading a large range of a remote file as several block aligned parts at once, each part being
+ * read by its own stream, so that the download of a cold region is not limited to the throughput of one connection.
+ * <p>
+ * The parts of all the ranges of the JVM are read by a shared pool of rubix.remote.read.parallel.max.parts threads,
+ * and at most rubix.remote.read.parallel.file.parts parts of a file are read at the same time. Parts complete
+ * in any order, so readers write each part to the cache file at its own position.
+ */
+public class ParallelRangeReader
+{
+  private static final Log log = LogFactory.getLog(ParallelRangeReader.class);
+
+  private static ParallelRangeReader instance;
+
+  private final ExecutorService partService;
+  private final int partsPerFile;
+  private final Map<String, FileParts> files = new HashMap<>();
+
+  @VisibleForTesting
+  ParallelRangeReader(int maxParts, int partsPerFile)
+  {
+    this.partService = Executors.newFixedThreadPool(maxParts, new ThreadFactory()
+    {
+      public Thread newThread(Runnable r)
+      {
+        Thread t = Executors.defaultThreadFactory().newThread(r);
+        t.setName("rubix-part-reader-thread");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    this.partsPerFile = partsPerFile;
+  }
+
+  /**
+   * Get the download engine of this JVM, created with the given configuration on first use.
+   *
+   * @param conf  The current Hadoop configuration.
+   * @return The shared download engine.
+   */
+  public static synchronized ParallelRangeReader getInstance(Configuration conf)
+  {
+    if (instance == null) {
+      instance = new ParallelRangeReader(CacheConfig.getRemoteReadParallelMaxParts(conf),
+          CacheConfig.getRemoteReadParallelPartsPerFile(conf));
+    }
+    return instance;
+  }
+
+  /**
+   * Check whether a range is large enough to be read in parts.
+   *
+   * @param start The start of the range.
+   * @param end   The end of the range.
+   * @param conf  The current Hadoop configuration.
+   * @return true if the range spans more than one part and reading several parts of a file at once is allowed.
+   */
+  public static boolean isReadInParts(long start, long end, Configuration conf)
+  {
+    return CacheConfig.getRemoteReadParallelPartsPerFile(conf) > 1 && end - start > getPartSize(conf);
+  }
+
+  /**
+   * Split a range into parts ending at multiples of the part size, itself a multiple of the block size.
+   */
+  @VisibleForTesting
+  static List<long[]> getParts(long start, long end, Configuration conf)
+  {
+    long partSize = getPartSize(conf);
+    List<long[]> parts = new ArrayList<>();
+    while (start < end) {
+      long partEnd = Math.min((start / partSize + 1) * partSize, end);
+      parts.add(new long[] {start, partEnd});
+      start = partEnd;
+    }
+    return parts;
+  }
+
+  private static long getPartSize(Configuration conf)
+  {
+    long blockSize = CacheConfig.getBlockSize(conf);
+    return Math.max(CacheConfig.getRemoteReadParallelPartSize(conf) / blockSize, 1) * blockSize;
+  }
+
+  /**
+   * Read a range in parts and wait for all of them. No part is read anymore once one fails, and the parts already
+   * started are waited for even then, so that no part uses the buffers of the caller after this returns.
+   *
+   * @param remotePath  The remote file, used to limit the parts of the file read at the same time.
+   * @param start       The start of the range.
+   * @param end         The end of the range.
+   * @param reader      Reads a part and stores it.
+   * @param conf        The current Hadoop configuration.
+   * @return The number of bytes read by all the parts.
+   * @throws IOException if a part could not be read.
+   */
+  public long read(String remotePath, long start, long end, final PartReader reader, Configuration conf)
+      throws IOException
+  {
+    final FileParts file = acquireFile(remotePath);
+    final AtomicBoolean failed = new AtomicBoolean();
+    List<Future<Integer>> futures = new ArrayList<>();
+    try {
+      for (final long[] part : getParts(start, end, conf)) {
+        file.permits.acquireUninterruptibly();
+        if (failed.get()) {
+          file.permits.release();
+          break;
+        }
+        futures.add(partService.submit(new Callable<Integer>()
+        {
+          @Override
+          public Integer call() throws IOException
+          {
+            try {
+              return reader.read(part[0], part[1]);
+            }
+            catch (IOException | RuntimeException e) {
+              failed.set(true);
+              throw e;
+            }
+            finally {
+              file.permits.release();
+            }
+          }
+        }));
+      }
+
+      long totalRead = 0;
+      Throwable failure = null;
+      for (Future<Integer> future : futures) {
+        try {
+          totalRead += Uninterruptibles.getUninterruptibly(future);
+        }
+        catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+      }
+
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      }
+      else if (failure != null) {
+        throw new IOException("Could not read part of " + remotePath, failure);
+      }
+      log.debug(String.format("Read %d bytes of %s in %d parts", totalRead, remotePath, futures.size()));
+      return totalRead;
+    }
+    finally {
+      releaseFile(remotePath);
+    }
+  }
+
+  private synchronized FileParts acquireFile(String remotePath)
+  {
+    FileParts file = files.get(remotePath);
+    if (file == null) {
+      file = new FileParts(partsPerFile);
+      files.put(remotePath, file);
+    }
+    file.users++;
+    return file;
+  }
+
+  private synchronized void releaseFile(String remotePath)
+  {
+    FileParts file = files.get(remotePath);
+    if (--file.users == 0) {
+      files.remove(remotePath);
+    }
+  }
+
+  /**
+   * Reads a part of a range from the remote file and stores it.
+   */
+  public interface PartReader
+  {
+    /**
+     * Read a part of the range.
+     *
+     * @param start The start of the part.
+     * @param end   The end of the part.
+     * @return The number of bytes read, less than the length of the part only at the end of the file.
+     * @throws IOException if the part could not be read or stored.
+     */
+    int read(long start, long end) throws IOException;
+  }
+
+  private static class FileParts
+  {
+    final Semaphore permits;
+    int users;
+
+    FileParts(int partsPerFile)
+    {
+      this.permits = new Semaphore(partsPerFile);
+    }
+  }
+}
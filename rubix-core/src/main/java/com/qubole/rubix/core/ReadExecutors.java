@@ -0,0 +1,329 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.qubole.rubix.spi.CacheConfig;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The thread pools running the reads of all the streams of the JVM.
+ * <p>
+ * Read request chains the caller waits for run in the foreground pool, where a query has at most
+ * rubix.read.query.max.threads chains running and rubix.read.query.max.queued chains waiting, so that a heavy query
+ * cannot hold all the threads while the others wait. Queries are only told apart once rubix.read.query.id.property
+ * names the property holding their id; reads without a query id share the whole foreground pool. Work nobody waits for, such as cache status updates, cache status
+ * prefetches and read-ahead, runs in a separate background pool with a bounded queue. Once a queue is full, the
+ * submitting thread runs the task itself, which slows down the query producing the work instead of failing its read.
+ */
+public class ReadExecutors
+{
+  private static ReadExecutors instance;
+
+  private final ThreadPoolExecutor foregroundPool;
+  private final ThreadPoolExecutor backgroundPool;
+  private final ListeningExecutorService backgroundService;
+  private final int queryMaxThreads;
+  private final int queryMaxQueued;
+
+  private final Map<String, QueryTasks> queries = new HashMap<>();
+  private int queuedForegroundTasks;
+
+  private final TaskStats foregroundStats = new TaskStats();
+  private final TaskStats backgroundStats = new TaskStats();
+  private final AtomicLong callerRunCount = new AtomicLong();
+
+  @VisibleForTesting
+  ReadExecutors(int foregroundThreads, int backgroundThreads, int backgroundQueueSize,
+                int queryMaxThreads, int queryMaxQueued)
+  {
+    this.foregroundPool = createPool("rubix-readRequest-thread", foregroundThreads, null,
+        new LinkedBlockingQueue<Runnable>(), new ThreadPoolExecutor.AbortPolicy());
+    this.backgroundPool = createPool("rubix-readBackground-thread", backgroundThreads, backgroundStats,
+        new ArrayBlockingQueue<Runnable>(backgroundQueueSize), new RejectedExecutionHandler()
+        {
+          @Override
+          public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
+          {
+            callerRunCount.incrementAndGet();
+            task.run();
+          }
+        });
+    this.backgroundService = MoreExecutors.listeningDecorator(backgroundPool);
+    this.queryMaxThreads = Math.max(queryMaxThreads, 1);
+    this.queryMaxQueued = queryMaxQueued;
+  }
+
+  private static ThreadPoolExecutor createPool(final String threadName, int threads, final TaskStats stats,
+                                               BlockingQueue<Runnable> queue,
+                                               RejectedExecutionHandler rejectedExecutionHandler)
+  {
+    ThreadFactory threadFactory = new ThreadFactory()
+    {
+      public Thread newThread(Runnable r)
+      {
+        Thread t = Executors.defaultThreadFactory().newThread(r);
+        t.setName(threadName);
+        t.setDaemon(true);
+        return t;
+      }
+    };
+
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, threadFactory,
+        rejectedExecutionHandler)
+    {
+      @Override
+      public void execute(Runnable task)
+      {
+        // Foreground tasks are timed when submitted, as they may wait in the queue of their query first
+        super.execute(stats == null ? task : stats.timed(task));
+      }
+    };
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Get the read executors of this JVM, created with the given configuration on first use.
+   *
+   * @param conf  The current Hadoop configuration.
+   * @return The shared read executors.
+   */
+  public static synchronized ReadExecutors getInstance(Configuration conf)
+  {
+    if (instance == null) {
+      instance = new ReadExecutors(CacheConfig.getReadForegroundThreads(conf),
+          CacheConfig.getReadBackgroundThreads(conf),
+          CacheConfig.getReadBackgroundQueueSize(conf),
+          CacheConfig.getReadQueryMaxThreads(conf),
+          CacheConfig.getReadQueryMaxQueued(conf));
+    }
+    return instance;
+  }
+
+  /**
+   * Get the read executors of this JVM if they were created.
+   *
+   * @return The shared read executors, or null if no stream used them yet.
+   */
+  public static synchronized ReadExecutors getInstanceIfCreated()
+  {
+    return instance;
+  }
+
+  /**
+   * Get the query the reads made with the given configuration belong to, i.e. the value of the property named by
+   * rubix.read.query.id.property.
+   * <p>
+   * There is no fallback such as the current user: engines like Presto run all their queries as one user, whose
+   * reads would then be limited as a single query.
+   *
+   * @param conf  The current Hadoop configuration.
+   * @return The identifier of the query, or null if no query id is configured.
+   */
+  public static String getQueryId(Configuration conf)
+  {
+    String queryIdProperty = CacheConfig.getReadQueryIdProperty(conf);
+    return queryIdProperty.isEmpty() ? null : conf.get(queryIdProperty);
+  }
+
+  /**
+   * Run a task the caller waits for in the foreground pool, within the limits of its query.
+   *
+   * @param queryId The query the task belongs to, or null to run it without query limits.
+   * @param task    The task to run.
+   * @return The future result of the task.
+   */
+  public <T> ListenableFuture<T> submitForeground(String queryId, Callable<T> task)
+  {
+    ListenableFutureTask<T> future = ListenableFutureTask.create(task);
+    Runnable timedTask = foregroundStats.timed(future);
+    if (queryId == null) {
+      foregroundPool.execute(timedTask);
+      return future;
+    }
+
+    QueryTasks query;
+    boolean runInCaller = false;
+    synchronized (this) {
+      query = queries.get(queryId);
+      if (query == null) {
+        query = new QueryTasks();
+        queries.put(queryId, query);
+      }
+
+      if (query.running >= queryMaxThreads) {
+        if (query.pending.size() < queryMaxQueued) {
+          query.pending.add(timedTask);
+          queuedForegroundTasks++;
+          return future;
+        }
+        runInCaller = true;
+      }
+      else {
+        query.running++;
+      }
+    }
+
+    if (runInCaller) {
+      callerRunCount.incrementAndGet();
+      timedTask.run();
+    }
+    else {
+      dispatch(queryId, query, timedTask);
+    }
+    return future;
+  }
+
+  private void dispatch(final String queryId, final QueryTasks query, final Runnable task)
+  {
+    foregroundPool.execute(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        try {
+          task.run();
+        }
+        finally {
+          Runnable next = nextTask(queryId, query);
+          if (next != null) {
+            dispatch(queryId, query, next);
+          }
+        }
+      }
+    });
+  }
+
+  private synchronized Runnable nextTask(String queryId, QueryTasks query)
+  {
+    Runnable next = query.pending.poll();
+    if (next != null) {
+      queuedForegroundTasks--;
+      return next;
+    }
+
+    query.running--;
+    if (query.running == 0) {
+      queries.remove(queryId);
+    }
+    return null;
+  }
+
+  /**
+   * Get the pool running the work nobody waits for.
+   *
+   * @return The background pool.
+   */
+  public ListeningExecutorService getBackgroundService()
+  {
+    return backgroundService;
+  }
+
+  public int getForegroundActiveThreads()
+  {
+    return foregroundPool.getActiveCount();
+  }
+
+  public synchronized int getForegroundQueuedTasks()
+  {
+    return queuedForegroundTasks + foregroundPool.getQueue().size();
+  }
+
+  /**
+   * @return The average time in ms from the submission to the completion of the foreground tasks.
+   */
+  public double getForegroundTaskLatency()
+  {
+    return foregroundStats.getAverageLatency();
+  }
+
+  public int getBackgroundActiveThreads()
+  {
+    return backgroundPool.getActiveCount();
+  }
+
+  public int getBackgroundQueuedTasks()
+  {
+    return backgroundPool.getQueue().size();
+  }
+
+  /**
+   * @return The average time in ms from the submission to the completion of the background tasks.
+   */
+  public double getBackgroundTaskLatency()
+  {
+    return backgroundStats.getAverageLatency();
+  }
+
+  public long getCallerRunCount()
+  {
+    return callerRunCount.get();
+  }
+
+  private static class QueryTasks
+  {
+    final Queue<Runnable> pending = new ArrayDeque<>();
+    int running;
+  }
+
+  private static class TaskStats
+  {
+    private final AtomicLong taskCount = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    Runnable timed(final Runnable task)
+    {
+      final long submitTime = System.nanoTime();
+      return new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          try {
+            task.run();
+          }
+          finally {
+            totalLatency.addAndGet(System.nanoTime() - submitTime);
+            taskCount.incrementAndGet();
+          }
+        }
+      };
+    }
+
+    double getAverageLatency()
+    {
+      long count = taskCount.get();
+      return count == 0 ? 0 : (double) totalLatency.get() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+  }
+}
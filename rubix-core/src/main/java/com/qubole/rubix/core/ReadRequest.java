@@ -60,6 +60,11 @@ public class ReadRequest
     this.backendReadStart = backendReadStart;
   }
 
+  public long getBackendFileSize()
+  {
+    return backendFileSize;
+  }
+
   public long getBackendReadEnd()
   {
     return backendReadEnd;
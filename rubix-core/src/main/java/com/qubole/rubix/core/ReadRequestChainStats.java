@@ -35,6 +35,9 @@ public class ReadRequestChainStats
   private long directDataRead;
 
   private int corruptedFileCount;
+  private int corruptedBlockCount;
+  private long readAheadBlocks;
+  private long readAheadHits;
 
   public long getPrefixRead()
   {
@@ -167,6 +170,39 @@ public class ReadRequestChainStats
     return this;
   }
 
+  public int getCorruptedBlockCount()
+  {
+    return this.corruptedBlockCount;
+  }
+
+  public ReadRequestChainStats setCorruptedBlockCount(int corruptedBlockCount)
+  {
+    this.corruptedBlockCount = corruptedBlockCount;
+    return this;
+  }
+
+  public long getReadAheadBlocks()
+  {
+    return readAheadBlocks;
+  }
+
+  public ReadRequestChainStats setReadAheadBlocks(long readAheadBlocks)
+  {
+    this.readAheadBlocks = readAheadBlocks;
+    return this;
+  }
+
+  public long getReadAheadHits()
+  {
+    return readAheadHits;
+  }
+
+  public ReadRequestChainStats setReadAheadHits(long readAheadHits)
+  {
+    this.readAheadHits = readAheadHits;
+    return this;
+  }
+
   public ReadRequestChainStats add(ReadRequestChainStats other)
   {
     return new ReadRequestChainStats()
@@ -180,6 +216,9 @@ public class ReadRequestChainStats
         .setNonLocalReads(nonLocalReads + other.getNonLocalReads())
         .setNonLocalDataRead(nonLocalDataRead + other.getNonLocalDataRead())
         .setDirectDataRead(directDataRead + other.getDirectDataRead())
-        .setCorruptedFileCount(corruptedFileCount + other.getCorruptedFileCount());
+        .setCorruptedFileCount(corruptedFileCount + other.getCorruptedFileCount())
+        .setCorruptedBlockCount(corruptedBlockCount + other.getCorruptedBlockCount())
+        .setReadAheadBlocks(readAheadBlocks + other.getReadAheadBlocks())
+        .setReadAheadHits(readAheadHits + other.getReadAheadHits());
   }
 }
@@ -25,6 +25,8 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class RemoteFetchRequestChain extends ReadRequestChain
 {
@@ -61,11 +63,16 @@ public class RemoteFetchRequestChain extends ReadRequestChain
     RetryingBookkeeperClient client = null;
     try {
       client = bookKeeperFactory.createBookKeeperClient(remoteNodeLocation, conf);
+      boolean countAccess = true;
       for (ReadRequest request : readRequests) {
         log.info("RemoteFetchRequest from : " + remoteNodeLocation + " Start : " + request.backendReadStart +
                 " of length " + request.getBackendReadLength());
-        client.readData(new ReadDataRequest(remotePath, request.backendReadStart, request.getBackendReadLength(),
-            fileSize, lastModified));
+        ReadDataRequest readDataRequest = new ReadDataRequest(remotePath, request.backendReadStart,
+            request.getBackendReadLength(), fileSize, lastModified);
+        // The requests of a chain count as a single read of the file
+        readDataRequest.setCountAccess(countAccess);
+        client.readData(readDataRequest);
+        countAccess = false;
       }
     }
     finally {
@@ -96,14 +103,19 @@ public class RemoteFetchRequestChain extends ReadRequestChain
       RetryingBookkeeperClient bookKeeperClient = null;
       try {
         bookKeeperClient = new BookKeeperFactory().createBookKeeperClient(remoteNodeLocation, conf);
+        List<CacheStatusRequest> cacheStatusRequests = new ArrayList<>(readRequests.size());
+        List<SetCachedRequest> setCachedRequests = new ArrayList<>(readRequests.size());
         for (ReadRequest readRequest : readRequests) {
           long startBlock = toBlock(readRequest.getBackendReadStart());
           long endBlock = toBlock(readRequest.getBackendReadEnd() - 1) + 1;
-          // getCacheStatus() call required to create mdfiles before blocks are set as cached
-          CacheStatusRequest request = new CacheStatusRequest(remotePath, fileSize, lastModified, startBlock, endBlock);
-          bookKeeperClient.getCacheStatus(request);
-          bookKeeperClient.setAllCached(new SetCachedRequest(remotePath, fileSize, lastModified, startBlock, endBlock));
+          CacheStatusRequest cacheStatusRequest = new CacheStatusRequest(remotePath, fileSize, lastModified, startBlock, endBlock);
+          cacheStatusRequest.setCountAccess(false);
+          cacheStatusRequests.add(cacheStatusRequest);
+          setCachedRequests.add(new SetCachedRequest(remotePath, fileSize, lastModified, startBlock, endBlock));
         }
+        // getCacheStatus() call required to create mdfiles before blocks are set as cached
+        bookKeeperClient.getCacheStatusBatch(cacheStatusRequests);
+        bookKeeperClient.setAllCachedBatch(setCachedRequests);
       }
       catch (Exception e) {
         log.error("Dummy Mode: Could not update Cache Status for Remote Fetch Request " + Throwables.getStackTraceAsString(e));
@@ -13,21 +13,22 @@
 package com.qubole.rubix.core;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Throwables;
 import com.qubole.rubix.spi.BookKeeperFactory;
-import com.qubole.rubix.spi.RetryingBookkeeperClient;
+import com.qubole.rubix.spi.CacheConfig;
 import com.qubole.rubix.spi.thrift.SetCachedRequest;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -48,35 +49,81 @@ public class RemoteReadRequestChain extends ReadRequestChain
   private long warmupPenalty;
   private int blockSize;
 
-  private BookKeeperFactory bookKeeperFactory;
+  private SetCachedRequestCoalescer setCachedRequestCoalescer;
+  private String checksumFile;
+  private BlockChecksumFile checksums;
+  private BlockMemoryCache memoryCache;
+  private long lastModified;
+  private FileSystem remoteFileSystem;
+  private String remotePath;
 
   private static final Log log = LogFactory.getLog(RemoteReadRequestChain.class);
 
   private String localFile;
+  private Configuration conf;
 
-  public RemoteReadRequestChain(FSDataInputStream inputStream, String localfile, ByteBuffer directBuffer, byte[] affixBuffer)
+  public RemoteReadRequestChain(FSDataInputStream inputStream, String localfile, ByteBuffer directBuffer, byte[] affixBuffer, Configuration conf)
   {
     this(inputStream,
         localfile,
         directBuffer,
         affixBuffer,
-        new BookKeeperFactory());
+        conf,
+        SetCachedRequestCoalescer.getDefault(conf));
   }
 
-  public RemoteReadRequestChain(FSDataInputStream inputStream, String localfile, ByteBuffer directBuffer, byte[] affixBuffer, BookKeeperFactory bookKeeperFactory)
+  public RemoteReadRequestChain(FSDataInputStream inputStream, String localfile, ByteBuffer directBuffer, byte[] affixBuffer, Configuration conf, BookKeeperFactory bookKeeperFactory)
+  {
+    this(inputStream,
+        localfile,
+        directBuffer,
+        affixBuffer,
+        conf,
+        new SetCachedRequestCoalescer(bookKeeperFactory, conf));
+  }
+
+  private RemoteReadRequestChain(FSDataInputStream inputStream, String localfile, ByteBuffer directBuffer, byte[] affixBuffer, Configuration conf, SetCachedRequestCoalescer setCachedRequestCoalescer)
   {
     this.inputStream = inputStream;
     this.directBuffer = directBuffer;
     this.affixBuffer = affixBuffer;
     this.blockSize = affixBuffer.length;
     this.localFile = localfile;
-    this.bookKeeperFactory = bookKeeperFactory;
+    this.conf = conf;
+    this.setCachedRequestCoalescer = setCachedRequestCoalescer;
+    if (CacheConfig.isCacheChecksumEnabled(conf)) {
+      this.checksumFile = localfile + CacheConfig.getCacheChecksumFileSuffix(conf);
+    }
   }
 
   @VisibleForTesting
-  public RemoteReadRequestChain(FSDataInputStream inputStream, String fileName)
+  public RemoteReadRequestChain(FSDataInputStream inputStream, String fileName, Configuration conf)
   {
-    this(inputStream, fileName, ByteBuffer.allocate(100), new byte[100]);
+    this(inputStream, fileName, ByteBuffer.allocate(100), new byte[100], conf);
+  }
+
+  /**
+   * Keep the downloaded blocks missed often enough in memory as well.
+   *
+   * @param memoryCache   The memory tier, whose block size must match the block size of the cache.
+   * @param lastModified  The last modification time of the remote file.
+   */
+  public void setMemoryCache(BlockMemoryCache memoryCache, long lastModified)
+  {
+    this.memoryCache = memoryCache;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * Read ranges larger than a part as several parts at once, each through its own stream of the remote file.
+   *
+   * @param remoteFileSystem  The file system of the remote file.
+   * @param remotePath        The remote file.
+   */
+  public void setRemoteFileSystem(FileSystem remoteFileSystem, String remotePath)
+  {
+    this.remoteFileSystem = remoteFileSystem;
+    this.remotePath = remotePath;
   }
 
   public Integer call()
@@ -98,7 +145,11 @@ public class RemoteReadRequestChain extends ReadRequestChain
       file.setReadable(true, false);
     }
 
-    FileChannel fileChannel = new FileOutputStream(new RandomAccessFile(file, "rw").getFD()).getChannel();
+    FileChannelCache.Handle fileHandle = FileChannelCache.open(localFile, true, conf);
+    FileChannel fileChannel = fileHandle.getChannel();
+    if (checksumFile != null) {
+      openChecksumFile(readRequests.get(0).getBackendFileSize());
+    }
     try {
       for (ReadRequest readRequest : readRequests) {
         if (cancelled) {
@@ -120,10 +171,23 @@ public class RemoteReadRequestChain extends ReadRequestChain
         }
 
         log.debug(String.format("Trying to Read %d bytes into destination buffer", readRequest.getActualReadLength()));
-        int readBytes = readIntoBuffer(readRequest.getDestBuffer(), readRequest.destBufferOffset, readRequest.getActualReadLength());
-        log.debug(String.format("Read %d bytes into destination buffer", readBytes));
-        copyIntoCache(fileChannel, readRequest.destBuffer, readRequest.destBufferOffset, readBytes, readRequest.actualReadStart);
+        int readBytes;
+        if (remoteFileSystem != null
+            && ParallelRangeReader.isReadInParts(readRequest.getActualReadStart(), readRequest.getActualReadEnd(), conf)) {
+          readBytes = readPartsIntoCache(fileChannel, readRequest);
+          updateChecksums(readRequest.actualReadStart, readRequest.destBuffer, readRequest.destBufferOffset, readBytes);
+          inputStream.seek(readRequest.getActualReadEnd());
+        }
+        else {
+          readBytes = readIntoBuffer(readRequest.getDestBuffer(), readRequest.destBufferOffset, readRequest.getActualReadLength());
+          log.debug(String.format("Read %d bytes into destination buffer", readBytes));
+          copyIntoCache(fileChannel, readRequest.destBuffer, readRequest.destBufferOffset, readBytes, readRequest.actualReadStart);
+        }
         log.debug(String.format("Copied %d requested bytes into cache", readBytes));
+        if (memoryCache != null) {
+          copyIntoMemoryCache(readRequest.destBuffer, readRequest.destBufferOffset, readBytes, readRequest.actualReadStart,
+              readRequest.getBackendFileSize());
+        }
         totalRequestedRead += readBytes;
 
         if (suffixBufferLength > 0) {
@@ -140,12 +204,87 @@ public class RemoteReadRequestChain extends ReadRequestChain
       return totalRequestedRead;
     }
     finally {
-      fileChannel.close();
+      fileHandle.close();
+      closeChecksumFile();
     }
   }
 
+  private void openChecksumFile(long fileSize)
+  {
+    try {
+      checksums = new BlockChecksumFile(checksumFile, blockSize, fileSize, true);
+    }
+    catch (IOException e) {
+      log.warn("Could not open checksum file " + checksumFile + ", caching blocks without checksums", e);
+    }
+  }
+
+  private void closeChecksumFile()
+  {
+    if (checksums == null) {
+      return;
+    }
+
+    try {
+      checksums.close();
+    }
+    catch (IOException e) {
+      log.warn("Could not close checksum file " + checksumFile, e);
+    }
+    checksums = null;
+  }
+
+  /**
+   * Read the requested data of a large range as parts read at the same time, each part being written to the cache
+   * file as soon as it is read.
+   */
+  private int readPartsIntoCache(final FileChannel fileChannel, final ReadRequest readRequest)
+      throws IOException
+  {
+    final Path path = new Path(remotePath);
+    long read = ParallelRangeReader.getInstance(conf).read(remotePath, readRequest.getActualReadStart(),
+        readRequest.getActualReadEnd(), new ParallelRangeReader.PartReader()
+        {
+          @Override
+          public int read(long start, long end) throws IOException
+          {
+            int offset = readRequest.getDestBufferOffset() + (int) (start - readRequest.getActualReadStart());
+            int nread;
+            try (FSDataInputStream partStream = remoteFileSystem.open(path, blockSize)) {
+              partStream.seek(start);
+              nread = readIntoBuffer(partStream, readRequest.getDestBuffer(), offset, (int) (end - start));
+            }
+            writeIntoCache(fileChannel, readRequest.getDestBuffer(), offset, nread, start);
+            return nread;
+          }
+        }, conf);
+    return (int) read;
+  }
+
+  private void writeIntoCache(FileChannel fileChannel, byte[] buffer, int offset, int length, long position)
+      throws IOException
+  {
+    long start = System.nanoTime();
+    ByteBuffer writeBuffer = ByteBuffer.wrap(buffer, offset, length);
+    while (writeBuffer.hasRemaining()) {
+      fileChannel.write(writeBuffer, position + writeBuffer.position() - offset);
+    }
+    addWarmupPenalty(System.nanoTime() - start);
+  }
+
+  private synchronized void addWarmupPenalty(long penalty)
+  {
+    warmupPenalty += penalty;
+  }
+
   private int readIntoBuffer(byte[] destBuffer, int destBufferOffset, int length)
       throws IOException
+  {
+    return readIntoBuffer(inputStream, destBuffer, destBufferOffset, length);
+  }
+
+  private static int readIntoBuffer(FSDataInputStream inputStream, byte[] destBuffer, int destBufferOffset, int length)
+      throws IOException
   {
     int nread = 0;
     while (nread < length) {
@@ -174,10 +313,41 @@ public class RemoteReadRequestChain extends ReadRequestChain
       writtenSoFar += nwrite;
       leftToWrite -= nwrite;
     }
-    warmupPenalty += System.nanoTime() - start;
+    updateChecksums(cacheReadStart, destBuffer, destBufferOffset, writtenSoFar);
+    addWarmupPenalty(System.nanoTime() - start);
     return writtenSoFar;
   }
 
+  private void updateChecksums(long position, byte[] buffer, int offset, int length)
+  {
+    if (checksums != null) {
+      try {
+        checksums.update(position, buffer, offset, length);
+      }
+      catch (IOException e) {
+        log.warn("Could not record checksums in " + checksumFile + ", caching remaining blocks without checksums", e);
+        closeChecksumFile();
+      }
+    }
+  }
+
+  /**
+   * Offer the blocks entirely covered by downloaded data to the memory tier.
+   */
+  private void copyIntoMemoryCache(byte[] buffer, int offset, int length, long position, long fileSize)
+  {
+    for (long blockNum = (position + blockSize - 1) / blockSize; ; blockNum++) {
+      long blockStart = blockNum * blockSize;
+      long blockEnd = Math.min(blockStart + blockSize, fileSize);
+      if (blockStart >= blockEnd || blockEnd > position + length) {
+        break;
+      }
+      if (memoryCache.admit(localFile, lastModified, blockNum)) {
+        memoryCache.put(localFile, lastModified, blockNum, buffer, offset + (int) (blockStart - position), (int) (blockEnd - blockStart));
+      }
+    }
+  }
+
   public ReadRequestChainStats getStats()
   {
     return new ReadRequestChainStats()
@@ -191,29 +361,12 @@ public class RemoteReadRequestChain extends ReadRequestChain
   @Override
   public void updateCacheStatus(String remotePath, long fileSize, long lastModified, int blockSize, Configuration conf)
   {
-    RetryingBookkeeperClient client = null;
-    try {
-      client = bookKeeperFactory.createBookKeeperClient(conf);
-      for (ReadRequest readRequest : readRequests) {
-        SetCachedRequest request = new SetCachedRequest(remotePath, fileSize, lastModified,
-            toBlock(readRequest.getBackendReadStart()), toBlock(readRequest.getBackendReadEnd() - 1) + 1);
-        client.setAllCached(request);
-      }
-    }
-    catch (Exception e) {
-      log.info("Could not update BookKeeper about newly cached blocks: " + Throwables.getStackTraceAsString(e));
-    }
-    finally {
-      try {
-        if (client != null) {
-          client.close();
-          client = null;
-        }
-      }
-      catch (IOException ex) {
-        log.error("Could not close bookkeeper client. Exception: " + ex.toString());
-      }
+    List<SetCachedRequest> requests = new ArrayList<>(readRequests.size());
+    for (ReadRequest readRequest : readRequests) {
+      requests.add(new SetCachedRequest(remotePath, fileSize, lastModified,
+          toBlock(readRequest.getBackendReadStart()), toBlock(readRequest.getBackendReadEnd() - 1) + 1));
     }
+    setCachedRequestCoalescer.setAllCached(requests);
   }
 
   private long toBlock(long pos)
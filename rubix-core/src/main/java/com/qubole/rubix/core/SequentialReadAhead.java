@@ -0,0 +1,293 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.qubole.rubix.spi.BookKeeperFactory;
+import com.qubole.rubix.spi.CacheConfig;
+import com.qubole.rubix.spi.RetryingBookkeeperClient;
+import com.qubole.rubix.spi.thrift.BlockLocation;
+import com.qubole.rubix.spi.thrift.CacheStatusRequest;
+import com.qubole.rubix.spi.thrift.Location;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.DirectBufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the blocks following a sequential read of a stream before they are requested, so that sequential scans
+ * do not wait on the remote file system at every block boundary.
+ * <p>
+ * A stream is considered sequential once enough consecutive reads started where the previous one ended. The
+ * number of blocks read ahead starts at one and doubles every time a read catches up with blocks still being
+ * cached, i.e. the remote file system is too slow for the current distance, up to a configured maximum. It is
+ * halved whenever a seek leaves blocks that were read ahead unused.
+ * <p>
+ * At most one read-ahead is in flight at a time, and it only caches the blocks BookKeeper reports as local and not
+ * cached yet. Not thread-safe, like the stream it belongs to.
+ */
+class SequentialReadAhead
+{
+  private static final Log log = LogFactory.getLog(SequentialReadAhead.class);
+
+  static final int SEQUENTIAL_READS_THRESHOLD = 2;
+
+  private final ListeningExecutorService executor;
+  private final DirectBufferPool bufferPool;
+  private final BookKeeperFactory bookKeeperFactory;
+  private final FileSystem remoteFileSystem;
+  private final CachingFileSystemStats statsMbean;
+  private final Configuration conf;
+  private final String remotePath;
+  private final String localPath;
+  private final long fileSize;
+  private final long lastModified;
+  private final int blockSize;
+  private final long blockCount;
+  private final int maxBlocks;
+
+  // Written by the read-ahead in flight, read by the stream
+  private final Set<Long> cachedBlocks = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+  private long lastReadEnd = -1;
+  private int sequentialReads;
+  private int readAheadBlocks = 1;
+  private long readAheadStartBlock;
+  private long readAheadEndBlock;
+  private long hits;
+  private ListenableFuture<Void> readAhead;
+  private volatile boolean closed;
+
+  // Only used by the read-ahead in flight
+  private FSDataInputStream inputStream;
+  private ByteBuffer directBuffer;
+  private byte[] blockBuffer;
+
+  SequentialReadAhead(ListeningExecutorService executor, DirectBufferPool bufferPool,
+                      BookKeeperFactory bookKeeperFactory, FileSystem remoteFileSystem,
+                      CachingFileSystemStats statsMbean, Configuration conf,
+                      String remotePath, String localPath, long fileSize, long lastModified)
+  {
+    this.executor = executor;
+    this.bufferPool = bufferPool;
+    this.bookKeeperFactory = bookKeeperFactory;
+    this.remoteFileSystem = remoteFileSystem;
+    this.statsMbean = statsMbean;
+    this.conf = conf;
+    this.remotePath = remotePath;
+    this.localPath = localPath;
+    this.fileSize = fileSize;
+    this.lastModified = lastModified;
+    this.blockSize = CacheConfig.getBlockSize(conf);
+    this.blockCount = (fileSize + blockSize - 1) / blockSize;
+    this.maxBlocks = CacheConfig.getReadAheadMaxBlocks(conf);
+  }
+
+  /**
+   * Account for a read about to start, adapting the read-ahead distance to how the previous one was used.
+   *
+   * @param position    The position the read starts at.
+   * @param startBlock  The first block of the read.
+   * @param endBlock    The block after the last block of the read.
+   */
+  void readStarted(long position, long startBlock, long endBlock)
+  {
+    if (position != lastReadEnd) {
+      sequentialReads = 0;
+      if (!cachedBlocks.isEmpty()) {
+        readAheadBlocks = Math.max(readAheadBlocks / 2, 1);
+        cachedBlocks.clear();
+      }
+      readAheadEndBlock = 0;
+      return;
+    }
+
+    sequentialReads++;
+    if (readAhead != null && !readAhead.isDone() && startBlock < readAheadEndBlock && endBlock > readAheadStartBlock) {
+      readAheadBlocks = Math.min(readAheadBlocks * 2, maxBlocks);
+    }
+  }
+
+  /**
+   * Check whether a block was cached by a read-ahead, in which case it can be read from the cache even though
+   * BookKeeper may not have processed its update yet.
+   *
+   * @param blockNum  The block to check.
+   * @return true if the block was cached ahead, false otherwise.
+   */
+  boolean isCached(long blockNum)
+  {
+    if (cachedBlocks.contains(blockNum)) {
+      hits++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Start caching the blocks following a read once the stream is sequential, unless a read-ahead is in flight.
+   *
+   * @param endBlock  The block after the last block of the read.
+   */
+  void readSubmitted(long endBlock)
+  {
+    if (sequentialReads < SEQUENTIAL_READS_THRESHOLD || (readAhead != null && !readAhead.isDone())) {
+      return;
+    }
+
+    final long startBlock = Math.max(endBlock, readAheadEndBlock);
+    final long lastBlock = Math.min(endBlock + readAheadBlocks, blockCount);
+    if (startBlock >= lastBlock) {
+      return;
+    }
+
+    readAheadStartBlock = startBlock;
+    readAheadEndBlock = lastBlock;
+    readAhead = executor.submit(new Callable<Void>()
+    {
+      @Override
+      public Void call() throws Exception
+      {
+        cacheBlocks(startBlock, lastBlock);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Account for a completed read, forgetting the blocks it went through.
+   *
+   * @param endPosition  The position the read ended at.
+   */
+  void readCompleted(long endPosition)
+  {
+    lastReadEnd = endPosition;
+
+    long nextBlock = endPosition / blockSize;
+    Iterator<Long> blocks = cachedBlocks.iterator();
+    while (blocks.hasNext()) {
+      if (blocks.next() < nextBlock) {
+        blocks.remove();
+      }
+    }
+
+    if (hits > 0) {
+      statsMbean.addReadRequestChainStats(new ReadRequestChainStats().setReadAheadHits(hits));
+      hits = 0;
+    }
+  }
+
+  void close()
+  {
+    closed = true;
+    if (readAhead == null || readAhead.isDone()) {
+      releaseResources();
+      return;
+    }
+
+    // The resources are still in use by the read-ahead in flight
+    readAhead.addListener(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        releaseResources();
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  private void cacheBlocks(long startBlock, long endBlock)
+  {
+    List<BlockLocation> statuses;
+    try (RetryingBookkeeperClient client = bookKeeperFactory.createBookKeeperClient(conf)) {
+      CacheStatusRequest request = new CacheStatusRequest(remotePath, fileSize, lastModified, startBlock, endBlock);
+      request.setIncrMetrics(false);
+      request.setCountAccess(false);
+      statuses = client.getCacheStatus(request);
+    }
+    catch (Exception e) {
+      log.info("Could not get cache status to read ahead " + remotePath, e);
+      return;
+    }
+
+    int blocksCached = 0;
+    try {
+      for (int i = 0; i < statuses.size() && !closed; i++) {
+        if (statuses.get(i).getLocation() == Location.LOCAL) {
+          cacheBlock(startBlock + i);
+          blocksCached++;
+        }
+      }
+    }
+    catch (IOException e) {
+      log.info(String.format("Could not read ahead blocks [%d, %d) of %s", startBlock, endBlock, remotePath), e);
+    }
+    finally {
+      statsMbean.addReadRequestChainStats(new ReadRequestChainStats().setReadAheadBlocks(blocksCached));
+    }
+  }
+
+  private void cacheBlock(long blockNum) throws IOException
+  {
+    if (inputStream == null) {
+      inputStream = remoteFileSystem.open(new Path(remotePath), blockSize);
+      directBuffer = bufferPool.getBuffer(CacheConfig.getDiskReadBufferSize(conf));
+      blockBuffer = new byte[blockSize];
+    }
+
+    long backendReadStart = blockNum * blockSize;
+    long backendReadEnd = Math.min(backendReadStart + blockSize, fileSize);
+    ReadRequest readRequest = new ReadRequest(backendReadStart, backendReadEnd, backendReadStart, backendReadEnd,
+        blockBuffer, 0, fileSize);
+
+    // One chain per block, as contiguous requests would be merged into one overflowing the block buffer
+    RemoteReadRequestChain chain = new RemoteReadRequestChain(inputStream, localPath, directBuffer, blockBuffer, conf);
+    chain.addReadRequest(readRequest);
+    chain.lock();
+    chain.call();
+    chain.updateCacheStatus(remotePath, fileSize, lastModified, blockSize, conf);
+    cachedBlocks.add(blockNum);
+  }
+
+  private void releaseResources()
+  {
+    if (directBuffer != null) {
+      bufferPool.returnBuffer(directBuffer);
+      directBuffer = null;
+    }
+
+    if (inputStream != null) {
+      try {
+        inputStream.close();
+      }
+      catch (IOException e) {
+        log.warn("Could not close stream used to read ahead " + remotePath, e);
+      }
+      inputStream = null;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.base.Throwables;
+import com.qubole.rubix.spi.BookKeeperFactory;
+import com.qubole.rubix.spi.RetryingBookkeeperClient;
+import com.qubole.rubix.spi.thrift.SetCachedRequest;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces the updates about newly cached blocks into batched setAllCachedBatch calls to the BookKeeper.
+ *
+ * Updates are not delayed: the first thread to find no flush in progress sends a batch of what is pending. A caller
+ * sends at most one batch, so that no read waits for the updates of other streams; the updates left over or added
+ * in the meantime are sent by a flush thread shared by all the coalescers.
+ */
+public class SetCachedRequestCoalescer
+{
+  private static final Log log = LogFactory.getLog(SetCachedRequestCoalescer.class);
+
+  static final int MAX_BATCH_SIZE = 1000;
+
+  private static final ExecutorService flushService = Executors.newSingleThreadExecutor(new ThreadFactory()
+  {
+    public Thread newThread(Runnable r)
+    {
+      Thread t = Executors.defaultThreadFactory().newThread(r);
+      t.setName("rubix-setCached-flush-thread");
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
+  // Shared by all chains talking to the BookKeeper daemon on this node
+  private static SetCachedRequestCoalescer defaultInstance;
+
+  private final BookKeeperFactory bookKeeperFactory;
+  private final Configuration conf;
+  private final Queue<SetCachedRequest> pendingRequests = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean flushInProgress = new AtomicBoolean();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+  /**
+   * @param bookKeeperFactory The factory of the clients the updates are sent with.
+   * @param conf              The configuration of the clients, whatever the configuration of the callers.
+   */
+  public SetCachedRequestCoalescer(BookKeeperFactory bookKeeperFactory, Configuration conf)
+  {
+    this.bookKeeperFactory = bookKeeperFactory;
+    this.conf = conf;
+  }
+
+  /**
+   * Get the coalescer shared by all the chains of this JVM, created with the given configuration on first use.
+   *
+   * @param conf  The current Hadoop configuration.
+   * @return The shared coalescer.
+   */
+  public static synchronized SetCachedRequestCoalescer getDefault(Configuration conf)
+  {
+    if (defaultInstance == null) {
+      defaultInstance = new SetCachedRequestCoalescer(new BookKeeperFactory(), conf);
+    }
+    return defaultInstance;
+  }
+
+  /**
+   * Mark the blocks of the given requests as cached, along with other pending requests.
+   *
+   * @param requests  The requests to send.
+   */
+  public void setAllCached(List<SetCachedRequest> requests)
+  {
+    pendingRequests.addAll(requests);
+    if (flushInProgress.compareAndSet(false, true)) {
+      try {
+        flush();
+      }
+      finally {
+        flushInProgress.set(false);
+      }
+
+      // Requests added while the flush was held were left to this thread by their callers
+      if (!pendingRequests.isEmpty()) {
+        scheduleFlush();
+      }
+    }
+  }
+
+  private void scheduleFlush()
+  {
+    if (!flushScheduled.compareAndSet(false, true)) {
+      return;
+    }
+
+    flushService.execute(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        flushScheduled.set(false);
+        // Whoever holds the flush instead schedules another one if requests are left once it is done
+        while (!pendingRequests.isEmpty() && flushInProgress.compareAndSet(false, true)) {
+          try {
+            flush();
+          }
+          finally {
+            flushInProgress.set(false);
+          }
+        }
+      }
+    });
+  }
+
+  private void flush()
+  {
+    List<SetCachedRequest> batch = new ArrayList<>();
+    SetCachedRequest request;
+    while (batch.size() < MAX_BATCH_SIZE && (request = pendingRequests.poll()) != null) {
+      batch.add(request);
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    try (RetryingBookkeeperClient client = bookKeeperFactory.createBookKeeperClient(conf)) {
+      log.debug(String.format("Sending %d coalesced cache updates", batch.size()));
+      client.setAllCachedBatch(batch);
+    }
+    catch (Exception e) {
+      log.info("Could not update BookKeeper about newly cached blocks: " + Throwables.getStackTraceAsString(e));
+    }
+  }
+}
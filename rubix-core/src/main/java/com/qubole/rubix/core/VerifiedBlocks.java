@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The blocks of cache files which matched their checksums, shared by all the streams of the JVM, so that a block is
+ * checked once instead of on every read going through it.
+ * <p>
+ * The blocks of a cache file are only trusted as long as the file keeps its identity and is not written to: a block
+ * cached again after being evicted or found corrupted has to be checked again, and so has every block of a file
+ * deleted and created again by BookKeeper.
+ */
+public class VerifiedBlocks
+{
+  private static final int MAX_FILES = 10000;
+
+  private static VerifiedBlocks instance;
+
+  private final Cache<String, FileBlocks> files;
+
+  @VisibleForTesting
+  VerifiedBlocks(int maxFiles)
+  {
+    this.files = CacheBuilder.newBuilder().maximumSize(maxFiles).build();
+  }
+
+  /**
+   * Get the verified blocks of this JVM.
+   *
+   * @return The shared verified blocks.
+   */
+  public static synchronized VerifiedBlocks getInstance()
+  {
+    if (instance == null) {
+      instance = new VerifiedBlocks(MAX_FILES);
+    }
+    return instance;
+  }
+
+  /**
+   * Forget the verified blocks of a cache file about to be deleted, if any stream verified blocks in this JVM.
+   *
+   * @param localPath  The cache file.
+   */
+  public static void invalidateIfCreated(String localPath)
+  {
+    VerifiedBlocks verifiedBlocks;
+    synchronized (VerifiedBlocks.class) {
+      verifiedBlocks = instance;
+    }
+    if (verifiedBlocks != null) {
+      verifiedBlocks.files.invalidate(localPath);
+    }
+  }
+
+  /**
+   * Get the verified blocks of the current contents of a cache file.
+   *
+   * @param localPath  The cache file.
+   * @return The verified blocks, none if the file changed since blocks were last verified.
+   * @throws IOException if the file does not exist or its attributes could not be read.
+   */
+  public FileBlocks get(String localPath) throws IOException
+  {
+    BasicFileAttributes attributes = Files.readAttributes(Paths.get(localPath), BasicFileAttributes.class);
+    Object fileKey = Arrays.asList(attributes.fileKey(), attributes.creationTime(), attributes.lastModifiedTime());
+    FileBlocks blocks = files.getIfPresent(localPath);
+    if (blocks == null || !blocks.fileKey.equals(fileKey)) {
+      blocks = new FileBlocks(fileKey);
+      files.put(localPath, blocks);
+    }
+    return blocks;
+  }
+
+  public static class FileBlocks
+  {
+    private final Object fileKey;
+    private final BitSet blocks = new BitSet();
+
+    private FileBlocks(Object fileKey)
+    {
+      this.fileKey = fileKey;
+    }
+
+    public synchronized boolean isVerified(long blockNum)
+    {
+      return blocks.get((int) blockNum);
+    }
+
+    public synchronized void setVerified(long blockNum)
+    {
+      blocks.set((int) blockNum);
+    }
+  }
+}
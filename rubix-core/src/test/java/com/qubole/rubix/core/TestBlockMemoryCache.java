@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestBlockMemoryCache
+{
+  private static final String LOCAL_PATH = "/tmp/testBlockMemoryCache";
+  private static final int BLOCK_SIZE = 10;
+
+  @Test
+  public void testAdmission()
+  {
+    BlockMemoryCache memoryCache = new BlockMemoryCache(BLOCK_SIZE, 2 * BLOCK_SIZE);
+
+    for (int i = 1; i < BlockMemoryCache.ADMISSION_THRESHOLD; i++) {
+      assertFalse(memoryCache.admit(LOCAL_PATH, 1, 0), "Block admitted after " + i + " misses");
+    }
+    assertTrue(memoryCache.admit(LOCAL_PATH, 1, 0), "Block not admitted after reaching the admission threshold");
+  }
+
+  @Test
+  public void testReadAfterPut()
+  {
+    BlockMemoryCache memoryCache = new BlockMemoryCache(BLOCK_SIZE, 2 * BLOCK_SIZE);
+    byte[] block = "0123456789".getBytes();
+    memoryCache.put(LOCAL_PATH, 1, 3, block, 0, BLOCK_SIZE);
+
+    byte[] buffer = new byte[4];
+    assertTrue(memoryCache.read(LOCAL_PATH, 1, 3, 2, buffer, 0, 4), "Block should be in memory");
+    assertEquals(new String(buffer), "2345");
+    assertFalse(memoryCache.read(LOCAL_PATH, 2, 3, 2, buffer, 0, 4), "Block of another version of the file served");
+    assertFalse(memoryCache.read(LOCAL_PATH, 1, 4, 2, buffer, 0, 4), "Block never put in memory served");
+    assertEquals(memoryCache.getHitCount(), 1);
+    assertEquals(memoryCache.getBytesRead(), 4);
+  }
+
+  @Test
+  public void testEviction_keepsReferencedBlocks()
+  {
+    BlockMemoryCache memoryCache = new BlockMemoryCache(BLOCK_SIZE, 2 * BLOCK_SIZE);
+    byte[] block = new byte[BLOCK_SIZE];
+    byte[] buffer = new byte[BLOCK_SIZE];
+    memoryCache.put(LOCAL_PATH, 1, 0, block, 0, BLOCK_SIZE);
+    memoryCache.put(LOCAL_PATH, 1, 1, block, 0, BLOCK_SIZE);
+
+    // Blocks never read since they were put are evicted first
+    memoryCache.put(LOCAL_PATH, 1, 2, block, 0, BLOCK_SIZE);
+    assertFalse(memoryCache.contains(LOCAL_PATH, 1, 0));
+
+    // Block 1 referenced again survives the next eviction
+    assertTrue(memoryCache.read(LOCAL_PATH, 1, 1, 0, buffer, 0, BLOCK_SIZE));
+    memoryCache.put(LOCAL_PATH, 1, 3, block, 0, BLOCK_SIZE);
+    assertTrue(memoryCache.contains(LOCAL_PATH, 1, 1));
+    assertFalse(memoryCache.contains(LOCAL_PATH, 1, 2));
+    assertEquals(memoryCache.getSize(), 2 * BLOCK_SIZE);
+  }
+}
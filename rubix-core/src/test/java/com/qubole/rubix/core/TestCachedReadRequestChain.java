@@ -29,7 +29,9 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 
 import static org.testng.Assert.assertTrue;
 
@@ -86,6 +88,7 @@ public class TestCachedReadRequestChain
   {
     File localFile = new File(CacheUtil.getLocalPath(backendFilePath.toString(), conf));
     localFile.delete();
+    new File(CacheUtil.getChecksumFilePath(backendFilePath.toString(), conf)).delete();
 
     backendFile.delete();
 
@@ -181,6 +184,42 @@ public class TestCachedReadRequestChain
     assertTrue(stats.getDirectDataRead() == 1000, "Data read from object store didn't match");
   }
 
+  @Test
+  public void testCachedRead_WithCorruptedBlock() throws IOException
+  {
+    CacheConfig.setBlockSize(conf, 100);
+    CacheConfig.setCacheChecksumEnabled(conf, true);
+
+    byte[] buffer = new byte[1000];
+    String localCachedFile = CacheUtil.getLocalPath(backendFilePath.toString(), conf);
+
+    byte[] cachedData = Files.readAllBytes(new File(localCachedFile).toPath());
+    try (BlockChecksumFile checksums = new BlockChecksumFile(CacheUtil.getChecksumFilePath(backendFilePath.toString(), conf),
+        100, cachedData.length, true)) {
+      checksums.update(0, cachedData, 0, cachedData.length);
+    }
+
+    try (RandomAccessFile localFile = new RandomAccessFile(localCachedFile, "rw")) {
+      localFile.seek(405);
+      localFile.write('#');
+    }
+
+    CachedReadRequestChain cachedReadRequestChain = getCachedReadRequestChain(buffer);
+    cachedReadRequestChain.lock();
+    int readSize = cachedReadRequestChain.call();
+
+    ReadRequestChainStats stats = cachedReadRequestChain.getStats();
+
+    assertTrue(readSize == 1000, "Wrong amount of data read " + readSize);
+    String output = new String(buffer, Charset.defaultCharset());
+    String expectedOutput = DataGen.getExpectedOutput(readSize);
+    assertTrue(expectedOutput.equals(output), "Wrong data read, expected\n" + expectedOutput + "\nBut got\n" + output);
+    assertTrue(stats.getDirectDataRead() == 1000, "Data read from object store didn't match");
+    assertTrue(stats.getCorruptedBlockCount() == 1, "Only the corrupted block should be reported");
+    assertTrue(stats.getCorruptedFileCount() == 0, "File should not be invalidated for a corrupted block");
+    assertTrue(new File(localCachedFile).exists(), "Cached file should be kept");
+  }
+
   private CachedReadRequestChain getCachedReadRequestChain(byte[] buffer) throws IOException
   {
     MockCachingFileSystem fs = new MockCachingFileSystem();
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.base.Ticker;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestFileChannelCache
+{
+  private static final String LOCAL_PATH = "/tmp/testFileChannelCache";
+  private static final String OTHER_LOCAL_PATH = "/tmp/testFileChannelCache_other";
+
+  @BeforeMethod
+  public void setUp() throws IOException
+  {
+    new File(LOCAL_PATH).createNewFile();
+    new File(OTHER_LOCAL_PATH).createNewFile();
+  }
+
+  @AfterMethod
+  public void tearDown()
+  {
+    new File(LOCAL_PATH).delete();
+    new File(OTHER_LOCAL_PATH).delete();
+  }
+
+  @Test
+  public void testAcquire_reusesOpenChannel() throws IOException
+  {
+    FileChannelCache channels = new FileChannelCache(2);
+    FileChannelCache.Handle first = channels.acquire(LOCAL_PATH, false);
+    FileChannelCache.Handle second = channels.acquire(LOCAL_PATH, false);
+    assertSame(second.getChannel(), first.getChannel());
+    first.close();
+    second.close();
+
+    FileChannelCache.Handle third = channels.acquire(LOCAL_PATH, false);
+    assertSame(third.getChannel(), first.getChannel());
+    assertTrue(third.getChannel().isOpen(), "Released channel was closed while still cached");
+    third.close();
+
+    assertEquals(channels.getMissCount(), 1);
+    assertEquals(channels.getHitCount(), 2);
+  }
+
+  @Test
+  public void testAcquire_reopensReadOnlyChannelForWriting() throws IOException
+  {
+    FileChannelCache channels = new FileChannelCache(2);
+    FileChannelCache.Handle reader = channels.acquire(LOCAL_PATH, false);
+    FileChannelCache.Handle writer = channels.acquire(LOCAL_PATH, true);
+    assertNotSame(writer.getChannel(), reader.getChannel());
+    assertTrue(reader.getChannel().isOpen(), "Channel closed while in use");
+
+    reader.close();
+    assertFalse(reader.getChannel().isOpen(), "Replaced channel not closed once released");
+    FileChannelCache.Handle otherReader = channels.acquire(LOCAL_PATH, false);
+    assertSame(otherReader.getChannel(), writer.getChannel());
+    otherReader.close();
+    writer.close();
+  }
+
+  @Test
+  public void testEviction_closesChannelOnceReleased() throws IOException
+  {
+    FileChannelCache channels = new FileChannelCache(1);
+    FileChannelCache.Handle first = channels.acquire(LOCAL_PATH, false);
+    FileChannelCache.Handle second = channels.acquire(OTHER_LOCAL_PATH, false);
+    assertEquals(channels.getOpenFileCount(), 1);
+    assertTrue(first.getChannel().isOpen(), "Evicted channel closed while in use");
+
+    first.close();
+    assertFalse(first.getChannel().isOpen(), "Evicted channel not closed once released");
+    second.close();
+    assertTrue(second.getChannel().isOpen());
+  }
+
+  @Test
+  public void testInvalidate_closesUnusedChannel() throws IOException
+  {
+    FileChannelCache channels = new FileChannelCache(2);
+    FileChannelCache.Handle handle = channels.acquire(LOCAL_PATH, false);
+    handle.close();
+
+    channels.invalidate(LOCAL_PATH);
+    assertFalse(handle.getChannel().isOpen(), "Invalidated channel not closed");
+    assertEquals(channels.getOpenFileCount(), 0);
+  }
+
+  @Test
+  public void testCloseUnusedChannels_closesIdleChannel() throws IOException
+  {
+    final long[] now = new long[1];
+    FileChannelCache channels = new FileChannelCache(2, TimeUnit.SECONDS.toNanos(60), new Ticker()
+    {
+      @Override
+      public long read()
+      {
+        return now[0];
+      }
+    });
+    FileChannelCache.Handle idle = channels.acquire(LOCAL_PATH, false);
+    FileChannelCache.Handle busy = channels.acquire(OTHER_LOCAL_PATH, false);
+    idle.close();
+
+    now[0] += TimeUnit.SECONDS.toNanos(30);
+    channels.closeUnusedChannels();
+    assertTrue(idle.getChannel().isOpen(), "Channel closed before being idle for long enough");
+
+    now[0] += TimeUnit.SECONDS.toNanos(30);
+    channels.closeUnusedChannels();
+    assertFalse(idle.getChannel().isOpen(), "Idle channel not closed");
+    assertTrue(busy.getChannel().isOpen(), "Channel closed while in use");
+    assertEquals(channels.getOpenFileCount(), 1);
+    busy.close();
+  }
+
+  @Test
+  public void testCloseUnusedChannels_closesChannelOfDeletedFile() throws IOException
+  {
+    FileChannelCache channels = new FileChannelCache(2);
+    FileChannelCache.Handle deleted = channels.acquire(LOCAL_PATH, false);
+    FileChannelCache.Handle kept = channels.acquire(OTHER_LOCAL_PATH, false);
+    deleted.close();
+    kept.close();
+
+    // Deleted by the BookKeeper of another process, which cannot invalidate the channels of this one
+    new File(LOCAL_PATH).delete();
+    channels.closeUnusedChannels();
+    assertFalse(deleted.getChannel().isOpen(), "Channel of deleted file not closed");
+    assertTrue(kept.getChannel().isOpen(), "Channel of existing file closed");
+    assertEquals(channels.getOpenFileCount(), 1);
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.base.Ticker;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestMappedFileCache
+{
+  private static final String LOCAL_PATH = "/tmp/testMappedFileCache";
+  private static final int REGION_SIZE = 10;
+
+  @AfterMethod
+  public void tearDown()
+  {
+    new File(LOCAL_PATH).delete();
+  }
+
+  @Test
+  public void testRead_acrossRegions() throws IOException
+  {
+    writeFile("0123456789abcdefghij", false);
+    MappedFileCache mappedFiles = new MappedFileCache(REGION_SIZE, 4);
+    mappedFiles.validate(LOCAL_PATH);
+
+    byte[] buffer = new byte[6];
+    assertEquals(mappedFiles.read(LOCAL_PATH, 7, buffer, 0, 6), 6);
+    assertEquals(new String(buffer), "789abc");
+    assertEquals(mappedFiles.getRegionCount(), 2);
+  }
+
+  @Test
+  public void testRead_afterFileGrew() throws IOException
+  {
+    writeFile("01234", false);
+    MappedFileCache mappedFiles = new MappedFileCache(REGION_SIZE, 4);
+    mappedFiles.validate(LOCAL_PATH);
+
+    byte[] buffer = new byte[8];
+    assertEquals(mappedFiles.read(LOCAL_PATH, 0, buffer, 0, 8), 5, "Read should stop at the end of the file");
+
+    writeFile("56789abc", true);
+    mappedFiles.validate(LOCAL_PATH);
+    assertEquals(mappedFiles.read(LOCAL_PATH, 3, buffer, 0, 8), 8);
+    assertEquals(new String(buffer), "3456789a");
+  }
+
+  @Test
+  public void testInvalidate_dropsRegionsOfDeletedFile() throws IOException
+  {
+    writeFile("0123456789", false);
+    MappedFileCache mappedFiles = new MappedFileCache(REGION_SIZE, 4);
+    mappedFiles.validate(LOCAL_PATH);
+    byte[] buffer = new byte[4];
+    mappedFiles.read(LOCAL_PATH, 0, buffer, 0, 4);
+
+    mappedFiles.invalidate(LOCAL_PATH);
+    assertEquals(mappedFiles.getRegionCount(), 0);
+    new File(LOCAL_PATH).delete();
+    writeFile("abcdefghij", false);
+    mappedFiles.validate(LOCAL_PATH);
+    assertEquals(mappedFiles.read(LOCAL_PATH, 0, buffer, 0, 4), 4);
+    assertEquals(new String(buffer), "abcd", "Data of the deleted file served");
+  }
+
+  @Test
+  public void testRevalidate_dropsIdleRegions() throws IOException
+  {
+    final long[] now = new long[1];
+    writeFile("0123456789abcdefghij", false);
+    MappedFileCache mappedFiles = new MappedFileCache(REGION_SIZE, 4, TimeUnit.SECONDS.toNanos(60), new Ticker()
+    {
+      @Override
+      public long read()
+      {
+        return now[0];
+      }
+    });
+    mappedFiles.validate(LOCAL_PATH);
+    byte[] buffer = new byte[4];
+    mappedFiles.read(LOCAL_PATH, 0, buffer, 0, 4);
+
+    now[0] += TimeUnit.SECONDS.toNanos(30);
+    mappedFiles.read(LOCAL_PATH, 10, buffer, 0, 4);
+    now[0] += TimeUnit.SECONDS.toNanos(30);
+    mappedFiles.revalidate();
+    assertEquals(mappedFiles.getRegionCount(), 1, "Only the region idle for too long should be dropped");
+  }
+
+  @Test
+  public void testRevalidate_dropsRegionsOfDeletedFile() throws IOException
+  {
+    writeFile("0123456789", false);
+    MappedFileCache mappedFiles = new MappedFileCache(REGION_SIZE, 4);
+    mappedFiles.validate(LOCAL_PATH);
+    byte[] buffer = new byte[4];
+    mappedFiles.read(LOCAL_PATH, 0, buffer, 0, 4);
+
+    // Deleted by the BookKeeper of another process, which cannot invalidate the regions of this one
+    new File(LOCAL_PATH).delete();
+    mappedFiles.revalidate();
+    assertEquals(mappedFiles.getRegionCount(), 0);
+  }
+
+  private void writeFile(String content, boolean append) throws IOException
+  {
+    try (FileOutputStream out = new FileOutputStream(LOCAL_PATH, append)) {
+      out.write(content.getBytes());
+    }
+  }
+}
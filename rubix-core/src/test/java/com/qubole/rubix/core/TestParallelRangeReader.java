@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.qubole.rubix.spi.CacheConfig;
+import org.apache.hadoop.conf.Configuration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestParallelRangeReader
+{
+  private static final int TEST_BLOCK_SIZE = 100;
+
+  private final Configuration conf = new Configuration();
+
+  @BeforeMethod
+  public void setUp()
+  {
+    conf.clear();
+    CacheConfig.setBlockSize(conf, TEST_BLOCK_SIZE);
+    CacheConfig.setRemoteReadParallelPartSize(conf, 250);
+  }
+
+  @Test
+  public void testGetParts_blockAligned()
+  {
+    List<long[]> parts = ParallelRangeReader.getParts(50, 1010, conf);
+
+    assertEquals(parts.size(), 6);
+    // The part size is rounded down to a multiple of the block size
+    assertEquals(parts.get(0)[0], 50);
+    assertEquals(parts.get(0)[1], 200);
+    assertEquals(parts.get(1)[0], 200);
+    assertEquals(parts.get(1)[1], 400);
+    assertEquals(parts.get(5)[0], 1000);
+    assertEquals(parts.get(5)[1], 1010);
+  }
+
+  @Test
+  public void testIsReadInParts()
+  {
+    assertFalse(ParallelRangeReader.isReadInParts(0, 200, conf), "Range of one part read in parts");
+    assertTrue(ParallelRangeReader.isReadInParts(0, 201, conf), "Range of several parts not read in parts");
+
+    CacheConfig.setRemoteReadParallelPartsPerFile(conf, 1);
+    assertFalse(ParallelRangeReader.isReadInParts(0, 1000, conf), "Range read in parts while disabled");
+  }
+
+  @Test
+  public void testRead_limitsPartsOfFile() throws IOException
+  {
+    final AtomicInteger partsInFlight = new AtomicInteger();
+    final AtomicInteger maxPartsInFlight = new AtomicInteger();
+    ParallelRangeReader reader = new ParallelRangeReader(4, 2);
+
+    long read = reader.read("file", 0, 1000, new ParallelRangeReader.PartReader()
+    {
+      @Override
+      public int read(long start, long end)
+      {
+        int parts = partsInFlight.incrementAndGet();
+        synchronized (maxPartsInFlight) {
+          maxPartsInFlight.set(Math.max(maxPartsInFlight.get(), parts));
+        }
+        try {
+          Thread.sleep(20);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        partsInFlight.decrementAndGet();
+        return (int) (end - start);
+      }
+    }, conf);
+
+    assertEquals(read, 1000);
+    assertTrue(maxPartsInFlight.get() <= 2, "Read " + maxPartsInFlight.get() + " parts of the file at once");
+  }
+
+  @Test
+  public void testRead_failsIfPartFails()
+  {
+    ParallelRangeReader reader = new ParallelRangeReader(4, 2);
+    try {
+      reader.read("file", 0, 1000, new ParallelRangeReader.PartReader()
+      {
+        @Override
+        public int read(long start, long end) throws IOException
+        {
+          if (start == 200) {
+            throw new IOException("Could not read part");
+          }
+          return (int) (end - start);
+        }
+      }, conf);
+      fail("Failure of a part not propagated");
+    }
+    catch (IOException e) {
+      assertEquals(e.getMessage(), "Could not read part");
+    }
+  }
+}
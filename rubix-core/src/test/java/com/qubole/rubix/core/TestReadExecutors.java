@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.qubole.rubix.spi.CacheConfig;
+import org.apache.hadoop.conf.Configuration;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestReadExecutors
+{
+  @Test
+  public void testSubmitForeground_limitsThreadsOfQuery() throws Exception
+  {
+    ReadExecutors readExecutors = new ReadExecutors(4, 1, 1, 1, 10);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+
+    List<ListenableFuture<Integer>> futures = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      futures.add(readExecutors.submitForeground("heavy", new Callable<Integer>()
+      {
+        @Override
+        public Integer call() throws Exception
+        {
+          int nowRunning = running.incrementAndGet();
+          maxRunning.set(Math.max(maxRunning.get(), nowRunning));
+          release.await();
+          running.decrementAndGet();
+          return 1;
+        }
+      }));
+    }
+
+    // Another query is not held up by the queued tasks of the first one
+    ListenableFuture<Integer> other = readExecutors.submitForeground("light", new Callable<Integer>()
+    {
+      @Override
+      public Integer call()
+      {
+        return 2;
+      }
+    });
+    assertEquals(other.get(10, TimeUnit.SECONDS).intValue(), 2);
+    assertEquals(readExecutors.getForegroundQueuedTasks(), 2);
+    assertFalse(futures.get(0).isDone());
+
+    release.countDown();
+    int total = 0;
+    for (ListenableFuture<Integer> future : futures) {
+      total += future.get(10, TimeUnit.SECONDS);
+    }
+    assertEquals(total, 3);
+    assertEquals(maxRunning.get(), 1);
+    assertEquals(readExecutors.getForegroundQueuedTasks(), 0);
+    assertTrue(readExecutors.getForegroundTaskLatency() > 0);
+  }
+
+  @Test
+  public void testGetQueryId()
+  {
+    Configuration conf = new Configuration();
+    assertNull(ReadExecutors.getQueryId(conf));
+
+    CacheConfig.setReadQueryIdProperty(conf, "test.query.id");
+    assertNull(ReadExecutors.getQueryId(conf));
+
+    conf.set("test.query.id", "query1");
+    assertEquals(ReadExecutors.getQueryId(conf), "query1");
+  }
+
+  @Test
+  public void testSubmitForeground_withoutQueryIdUsesWholePool() throws Exception
+  {
+    ReadExecutors readExecutors = new ReadExecutors(3, 1, 1, 1, 0);
+    final CountDownLatch allRunning = new CountDownLatch(3);
+    final Thread caller = Thread.currentThread();
+
+    List<ListenableFuture<Boolean>> futures = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      futures.add(readExecutors.submitForeground(null, new Callable<Boolean>()
+      {
+        @Override
+        public Boolean call() throws Exception
+        {
+          allRunning.countDown();
+          return allRunning.await(10, TimeUnit.SECONDS) && Thread.currentThread() != caller;
+        }
+      }));
+    }
+
+    // Limits of queries do not apply, so the tasks neither wait for each other nor run in the caller
+    for (ListenableFuture<Boolean> future : futures) {
+      assertTrue(future.get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(readExecutors.getCallerRunCount(), 0);
+  }
+
+  @Test
+  public void testSubmitForeground_runsInCallerWhenQueueFull() throws Exception
+  {
+    ReadExecutors readExecutors = new ReadExecutors(4, 1, 1, 1, 0);
+    final CountDownLatch release = new CountDownLatch(1);
+    ListenableFuture<Integer> blocked = readExecutors.submitForeground("query", new Callable<Integer>()
+    {
+      @Override
+      public Integer call() throws Exception
+      {
+        release.await();
+        return 1;
+      }
+    });
+
+    final Thread caller = Thread.currentThread();
+    ListenableFuture<Boolean> inCaller = readExecutors.submitForeground("query", new Callable<Boolean>()
+    {
+      @Override
+      public Boolean call()
+      {
+        return Thread.currentThread() == caller;
+      }
+    });
+
+    assertTrue(inCaller.isDone());
+    assertTrue(inCaller.get());
+    assertEquals(readExecutors.getCallerRunCount(), 1);
+
+    release.countDown();
+    assertEquals(blocked.get(10, TimeUnit.SECONDS).intValue(), 1);
+  }
+
+  @Test
+  public void testBackgroundService_runsInCallerWhenQueueFull() throws Exception
+  {
+    ReadExecutors readExecutors = new ReadExecutors(1, 1, 1, 1, 1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    readExecutors.getBackgroundService().execute(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        started.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    started.await();
+
+    final AtomicInteger callerRuns = new AtomicInteger();
+    final Thread caller = Thread.currentThread();
+    for (int i = 0; i < 2; i++) {
+      readExecutors.getBackgroundService().execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          if (Thread.currentThread() == caller) {
+            callerRuns.incrementAndGet();
+          }
+        }
+      });
+    }
+
+    // The first task waits in the queue, the second one finds it full
+    assertEquals(readExecutors.getBackgroundQueuedTasks(), 1);
+    assertEquals(callerRuns.get(), 1);
+    assertEquals(readExecutors.getCallerRunCount(), 1);
+    release.countDown();
+  }
+}
@@ -13,8 +13,10 @@
 package com.qubole.rubix.core;
 
 import com.qubole.rubix.common.utils.DataGen;
+import com.qubole.rubix.spi.CacheConfig;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
@@ -23,8 +25,11 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
 /**
@@ -38,6 +43,9 @@ public class TestRemoteReadRequestChain
   File backendFile = new File(backendFileName);
 
   String localFileName = "/tmp/testRemoteReadRequestChainLocalFile";
+  String checksumFileName = localFileName + "_crcfile";
+
+  final Configuration conf = new Configuration();
 
   RemoteReadRequestChain remoteReadRequestChain;
 
@@ -53,7 +61,7 @@ public class TestRemoteReadRequestChain
     LocalFSInputStream localFSInputStream = new LocalFSInputStream(backendFileName);
     fsDataInputStream = new FSDataInputStream(localFSInputStream);
 
-    remoteReadRequestChain = new RemoteReadRequestChain(fsDataInputStream, localFileName);
+    remoteReadRequestChain = new RemoteReadRequestChain(fsDataInputStream, localFileName, conf);
   }
 
   @Test
@@ -108,6 +116,34 @@ public class TestRemoteReadRequestChain
         generatedTestData);
   }
 
+  @Test
+  public void testBlockUnalignedRead_recordsChecksums()
+      throws IOException
+  {
+    CacheConfig.setCacheChecksumEnabled(conf, true);
+    remoteReadRequestChain = new RemoteReadRequestChain(fsDataInputStream, localFileName, conf);
+
+    byte[] buffer = new byte[150];
+    remoteReadRequestChain.addReadRequest(new ReadRequest(0, 100, 50, 100, buffer, 0, backendFile.length()));
+    remoteReadRequestChain.addReadRequest(new ReadRequest(200, 300, 200, 300, buffer, 50, backendFile.length()));
+    remoteReadRequestChain.lock();
+    remoteReadRequestChain.call();
+
+    byte[] readBuffer = new byte[64];
+    try (RandomAccessFile localFile = new RandomAccessFile(localFileName, "rw");
+        BlockChecksumFile checksums = new BlockChecksumFile(checksumFileName, 100, backendFile.length(), false)) {
+      FileChannel dataChannel = localFile.getChannel();
+      assertTrue(checksums.verify(dataChannel, 0, readBuffer), "Block with prefix should match its checksum");
+      assertTrue(checksums.verify(dataChannel, 1, readBuffer), "Block without checksum should be trusted");
+      assertTrue(checksums.verify(dataChannel, 2, readBuffer), "Cached block should match its checksum");
+
+      localFile.seek(205);
+      localFile.write('#');
+      assertFalse(checksums.verify(dataChannel, 2, readBuffer), "Corrupted block should not match its checksum");
+      assertTrue(checksums.verify(dataChannel, 0, readBuffer), "Other blocks should not be affected by corruption");
+    }
+  }
+
   private void testRead(ReadRequest[] readRequests,
                         byte[] buffer,
                         String expectedBufferOutput,
@@ -164,5 +200,7 @@ public class TestRemoteReadRequestChain
     backendFile.delete();
     File localFile = new File(localFileName);
     localFile.delete();
+    new File(checksumFileName).delete();
+    conf.clear();
   }
 }
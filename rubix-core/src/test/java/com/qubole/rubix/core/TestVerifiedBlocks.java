@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.core;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestVerifiedBlocks
+{
+  private static final String LOCAL_PATH = "/tmp/testVerifiedBlocks";
+
+  @BeforeMethod
+  public void setUp() throws IOException
+  {
+    new File(LOCAL_PATH).createNewFile();
+  }
+
+  @AfterMethod
+  public void tearDown()
+  {
+    new File(LOCAL_PATH).delete();
+  }
+
+  @Test
+  public void testGet_keepsVerifiedBlocksOfUnchangedFile() throws IOException
+  {
+    VerifiedBlocks verifiedBlocks = new VerifiedBlocks(2);
+    verifiedBlocks.get(LOCAL_PATH).setVerified(3);
+
+    VerifiedBlocks.FileBlocks blocks = verifiedBlocks.get(LOCAL_PATH);
+    assertTrue(blocks.isVerified(3));
+    assertFalse(blocks.isVerified(2));
+  }
+
+  @Test
+  public void testGet_forgetsVerifiedBlocksOfWrittenFile() throws IOException
+  {
+    VerifiedBlocks verifiedBlocks = new VerifiedBlocks(2);
+    File localFile = new File(LOCAL_PATH);
+    long lastModified = localFile.lastModified();
+    verifiedBlocks.get(LOCAL_PATH).setVerified(0);
+
+    try (RandomAccessFile file = new RandomAccessFile(localFile, "rw")) {
+      file.write('#');
+    }
+    localFile.setLastModified(lastModified + 1000);
+
+    assertFalse(verifiedBlocks.get(LOCAL_PATH).isVerified(0), "Blocks of a written file should be verified again");
+  }
+
+  @Test
+  public void testGet_forgetsVerifiedBlocksOfRecreatedFile() throws IOException
+  {
+    VerifiedBlocks verifiedBlocks = new VerifiedBlocks(2);
+    File localFile = new File(LOCAL_PATH);
+    long lastModified = localFile.lastModified();
+    verifiedBlocks.get(LOCAL_PATH).setVerified(0);
+
+    localFile.delete();
+    localFile.createNewFile();
+    localFile.setLastModified(lastModified + 1000);
+
+    assertFalse(verifiedBlocks.get(LOCAL_PATH).isVerified(0), "Blocks of a new file should be verified again");
+  }
+}
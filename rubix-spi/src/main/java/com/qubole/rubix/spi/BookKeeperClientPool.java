@@ -0,0 +1,368 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.spi;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.qubole.rubix.spi.thrift.BookKeeperService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of persistent connections to BookKeeper servers, kept separately for every host.
+ *
+ * Clients borrowed from the pool hand their connection back when they are closed. Connections which failed
+ * are dropped instead of being reused, connections which were idle for a while are validated before being
+ * handed out again, and connections idle for longer than the idle timeout are closed in the background.
+ *
+ * When all the connections to a host are in use, a caller waits for one to be released for a short while,
+ * after which it gets a connection outside of the pool so that long-lived clients can never starve others.
+ */
+public class BookKeeperClientPool
+{
+  private static final Log log = LogFactory.getLog(BookKeeperClientPool.class);
+
+  private static final long EVICTION_INTERVAL = 10000; // ms
+
+  private final ConcurrentMap<String, HostPool> hostPools = new ConcurrentHashMap<>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong waitCount = new AtomicLong();
+
+  public BookKeeperClientPool()
+  {
+    ScheduledExecutorService evictionService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+      @Override
+      public Thread newThread(Runnable r)
+      {
+        Thread t = Executors.defaultThreadFactory().newThread(r);
+        t.setName("rubix-bookkeeper-client-pool-eviction");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    evictionService.scheduleWithFixedDelay(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        evictIdleConnections();
+      }
+    }, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Get a client connected to the BookKeeper server on the given host, reusing a pooled connection if possible.
+   *
+   * @param host  The host of the BookKeeper server.
+   * @param conf  The current Hadoop configuration.
+   * @return A client which releases its connection back to the pool when closed.
+   * @throws TTransportException if a new connection could not be opened.
+   */
+  public RetryingBookkeeperClient borrowClient(String host, Configuration conf) throws TTransportException
+  {
+    final int port = CacheConfig.getServerPort(conf);
+    final int maxRetries = CacheConfig.getMaxRetries(conf);
+    HostPool hostPool = getHostPool(host, port, conf);
+
+    if (!acquirePermit(hostPool, conf)) {
+      missCount.incrementAndGet();
+      log.debug(String.format("All %d pooled connections to %s are in use, opening one outside of the pool", hostPool.maxSize, hostPool.address));
+      return new RetryingBookkeeperClient(BookKeeperFactory.openTransport(host, port, conf), maxRetries);
+    }
+
+    try {
+      PooledConnection connection;
+      while ((connection = hostPool.idleConnections.pollFirst()) != null) {
+        if (isHealthy(connection, hostPool)) {
+          hitCount.incrementAndGet();
+          return new PooledBookkeeperClient(connection, hostPool, maxRetries);
+        }
+        connection.transport.close();
+      }
+
+      missCount.incrementAndGet();
+      connection = new PooledConnection(new TrackingTransport(BookKeeperFactory.openTransport(host, port, conf)));
+      return new PooledBookkeeperClient(connection, hostPool, maxRetries);
+    }
+    catch (TTransportException | RuntimeException e) {
+      hostPool.permits.release();
+      throw e;
+    }
+  }
+
+  public long getHitCount()
+  {
+    return hitCount.get();
+  }
+
+  public long getMissCount()
+  {
+    return missCount.get();
+  }
+
+  public long getWaitCount()
+  {
+    return waitCount.get();
+  }
+
+  public int getIdleConnectionCount()
+  {
+    int idleConnections = 0;
+    for (HostPool hostPool : hostPools.values()) {
+      idleConnections += hostPool.idleConnections.size();
+    }
+    return idleConnections;
+  }
+
+  @VisibleForTesting
+  void evictIdleConnections()
+  {
+    long now = System.nanoTime();
+    for (HostPool hostPool : hostPools.values()) {
+      // Connections are reused from the head, so the least recently used ones are at the tail
+      Iterator<PooledConnection> connections = hostPool.idleConnections.descendingIterator();
+      while (connections.hasNext()) {
+        PooledConnection connection = connections.next();
+        if (now - connection.lastUsed > hostPool.idleTimeoutNanos
+            && hostPool.idleConnections.removeLastOccurrence(connection)) {
+          log.debug("Closing idle connection to " + hostPool.address);
+          connection.transport.close();
+        }
+      }
+    }
+  }
+
+  private HostPool getHostPool(String host, int port, Configuration conf)
+  {
+    String address = host + ":" + port;
+    // Framed and unframed connections cannot be used in place of each other
+    String poolKey = CacheConfig.getServerMode(conf).isFramedTransport() ? address + "/framed" : address;
+    HostPool hostPool = hostPools.get(poolKey);
+    if (hostPool == null) {
+      HostPool newHostPool = new HostPool(address, conf);
+      hostPool = hostPools.putIfAbsent(poolKey, newHostPool);
+      if (hostPool == null) {
+        hostPool = newHostPool;
+      }
+    }
+    return hostPool;
+  }
+
+  private boolean acquirePermit(HostPool hostPool, Configuration conf)
+  {
+    if (hostPool.permits.tryAcquire()) {
+      return true;
+    }
+
+    waitCount.incrementAndGet();
+    try {
+      return hostPool.permits.tryAcquire(CacheConfig.getClientPoolWaitTimeout(conf), TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private boolean isHealthy(PooledConnection connection, HostPool hostPool)
+  {
+    if (connection.transport.isBroken() || !connection.transport.isOpen()) {
+      return false;
+    }
+
+    long idleTime = System.nanoTime() - connection.lastUsed;
+    if (idleTime > hostPool.idleTimeoutNanos) {
+      return false;
+    }
+    if (idleTime > hostPool.validationIntervalNanos) {
+      try {
+        return new BookKeeperService.Client(new TBinaryProtocol(connection.transport)).isBookKeeperAlive();
+      }
+      catch (TException e) {
+        log.debug("Discarding pooled connection to " + hostPool.address + " which failed validation", e);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void release(PooledConnection connection, HostPool hostPool)
+  {
+    try {
+      if (!connection.transport.isBroken() && connection.transport.isOpen()) {
+        connection.lastUsed = System.nanoTime();
+        hostPool.idleConnections.offerFirst(connection);
+      }
+      else {
+        connection.transport.close();
+      }
+    }
+    finally {
+      hostPool.permits.release();
+    }
+  }
+
+  private static class HostPool
+  {
+    private final String address;
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+    private final long validationIntervalNanos;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+
+    HostPool(String address, Configuration conf)
+    {
+      this.address = address;
+      this.maxSize = CacheConfig.getClientPoolMaxSize(conf);
+      this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(CacheConfig.getClientPoolIdleTimeout(conf));
+      this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(CacheConfig.getClientPoolValidationInterval(conf));
+      this.permits = new Semaphore(maxSize);
+    }
+  }
+
+  private static class PooledConnection
+  {
+    private final TrackingTransport transport;
+    private volatile long lastUsed = System.nanoTime();
+
+    PooledConnection(TrackingTransport transport)
+    {
+      this.transport = transport;
+    }
+  }
+
+  /**
+   * A client which returns its connection to the pool when closed, instead of closing it.
+   */
+  private class PooledBookkeeperClient extends RetryingBookkeeperClient
+  {
+    private final PooledConnection connection;
+    private final HostPool hostPool;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    PooledBookkeeperClient(PooledConnection connection, HostPool hostPool, int maxRetries)
+    {
+      super(connection.transport, maxRetries);
+      this.connection = connection;
+      this.hostPool = hostPool;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      if (released.compareAndSet(false, true)) {
+        release(connection, hostPool);
+      }
+    }
+  }
+
+  /**
+   * Remembers whether the underlying socket ever failed, as a failed Thrift connection can be left with
+   * partially read or written messages and must not be reused.
+   */
+  private static class TrackingTransport extends TTransport
+  {
+    private final TTransport transport;
+    private volatile boolean broken;
+
+    TrackingTransport(TTransport transport)
+    {
+      this.transport = transport;
+    }
+
+    boolean isBroken()
+    {
+      return broken;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+      return transport.isOpen();
+    }
+
+    @Override
+    public void open() throws TTransportException
+    {
+      try {
+        transport.open();
+      }
+      catch (TTransportException e) {
+        broken = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public void close()
+    {
+      transport.close();
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws TTransportException
+    {
+      try {
+        return transport.read(buf, off, len);
+      }
+      catch (TTransportException e) {
+        broken = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws TTransportException
+    {
+      try {
+        transport.write(buf, off, len);
+      }
+      catch (TTransportException e) {
+        broken = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public void flush() throws TTransportException
+    {
+      try {
+        transport.flush();
+      }
+      catch (TTransportException e) {
+        broken = true;
+        throw e;
+      }
+    }
+  }
+}
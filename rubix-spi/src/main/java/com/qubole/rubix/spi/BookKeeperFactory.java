@@ -16,6 +16,7 @@ import com.qubole.rubix.spi.thrift.BookKeeperService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
@@ -27,6 +28,7 @@ public class BookKeeperFactory
 {
   BookKeeperService.Iface bookKeeper;
   private static Log log = LogFactory.getLog(BookKeeperFactory.class.getName());
+  private static final BookKeeperClientPool clientPool = new BookKeeperClientPool();
 
   public BookKeeperFactory()
   {
@@ -37,15 +39,47 @@ public class BookKeeperFactory
     this.bookKeeper = bookKeeper;
   }
 
+  /**
+   * Get the pool of connections shared by all the BookKeeper clients of this process.
+   *
+   * @return The BookKeeper client pool.
+   */
+  public static BookKeeperClientPool getClientPool()
+  {
+    return clientPool;
+  }
+
   public RetryingBookkeeperClient createBookKeeperClient(String host, Configuration conf) throws TTransportException
+  {
+    if (CacheConfig.isClientPoolEnabled(conf)) {
+      return clientPool.borrowClient(host, conf);
+    }
+
+    TTransport transport = openTransport(host, CacheConfig.getServerPort(conf), conf);
+    RetryingBookkeeperClient retryingBookkeeperClient = new RetryingBookkeeperClient(transport, CacheConfig.getMaxRetries(conf));
+    return retryingBookkeeperClient;
+  }
+
+  /**
+   * Open a transport to the BookKeeper server on the given host, framed if the server runs in a non-blocking mode.
+   *
+   * @param host  The host of the BookKeeper server.
+   * @param port  The port of the BookKeeper server.
+   * @param conf  The current Hadoop configuration.
+   * @return The opened transport.
+   * @throws TTransportException if the connection could not be opened.
+   */
+  static TTransport openTransport(String host, int port, Configuration conf) throws TTransportException
   {
     final int socketTimeout = CacheConfig.getServerSocketTimeout(conf);
     final int connectTimeout = CacheConfig.getServerConnectTimeout(conf);
 
-    TTransport transport = new TSocket(host, CacheConfig.getServerPort(conf), socketTimeout, connectTimeout);
+    TTransport transport = new TSocket(host, port, socketTimeout, connectTimeout);
+    if (CacheConfig.getServerMode(conf).isFramedTransport()) {
+      transport = new TFramedTransport(transport);
+    }
     transport.open();
-    RetryingBookkeeperClient retryingBookkeeperClient = new RetryingBookkeeperClient(transport, CacheConfig.getMaxRetries(conf));
-    return retryingBookkeeperClient;
+    return transport;
   }
 
   public RetryingBookkeeperClient createBookKeeperClient(String host, Configuration conf, int maxRetries,
@@ -29,11 +29,12 @@ import org.apache.hadoop.conf.Configuration;
 public class CacheConfig
 {
   public static final String RUBIX_SCHEME = "rubix";
-  public static final int READ_SERVICE_THREAD_POOL_SIZE = 100;
 
   private static final String KEY_BLOCK_SIZE = "rubix.cache.block.size";
   private static final String KEY_CACHE_ENABLED = "rubix.cache.enabled";
   private static final String KEY_CACHE_METADATA_FILE_SUFFIX = "rubix.cache.metadata.file.suffix";
+  private static final String KEY_CACHE_CHECKSUM_ENABLED = "rubix.cache.checksum.enabled";
+  private static final String KEY_CACHE_CHECKSUM_FILE_SUFFIX = "rubix.cache.checksum.file.suffix";
   private static final String KEY_SERVER_CONNECT_TIMEOUT = "rubix.network.server.connect.timeout";
   private static final String KEY_SERVER_SOCKET_TIMEOUT = "rubix.network.server.socket.timeout";
   private static final String KEY_DATA_CACHE_EXPIRY_AFTER_WRITE = "rubix.cache.expiration.after-write";
@@ -54,7 +55,14 @@ public class CacheConfig
   private static final String KEY_HEARTBEAT_INTERVAL = "rubix.monitor.heartbeat.interval";
   private static final String KEY_LOCAL_TRANSFER_BUFFER_SIZE = "rubix.cache.local.transfer.buffer.size";
   private static final String KEY_LOCAL_SERVER_PORT = "rubix.network.local.transfer.server.port";
+  private static final String KEY_LOCAL_SERVER_WORKER_THREADS = "rubix.network.local.transfer.server.worker-threads";
+  private static final String KEY_LOCAL_SERVER_QUEUE_SIZE = "rubix.network.local.transfer.server.queue-size";
   private static final String KEY_MAX_RETRIES = "rubix.network.client.num-retries";
+  private static final String KEY_CLIENT_POOL_ENABLED = "rubix.network.client.pool.enabled";
+  private static final String KEY_CLIENT_POOL_MAX_SIZE = "rubix.network.client.pool.max-size";
+  private static final String KEY_CLIENT_POOL_WAIT_TIMEOUT = "rubix.network.client.pool.wait.timeout";
+  private static final String KEY_CLIENT_POOL_IDLE_TIMEOUT = "rubix.network.client.pool.idle.timeout";
+  private static final String KEY_CLIENT_POOL_VALIDATION_INTERVAL = "rubix.network.client.pool.validation.interval";
   private static final String KEY_METRICS_CACHE_ENABLED = "rubix.metrics.cache.enabled";
   private static final String KEY_METRICS_HEALTH_ENABLED = "rubix.metrics.health.enabled";
   private static final String KEY_METRICS_JVM_ENABLED = "rubix.metrics.jvm.enabled";
@@ -65,13 +73,49 @@ public class CacheConfig
   private static final String KEY_METRICS_GANGLIA_PORT = "rubix.metrics.ganglia.port";
   private static final String KEY_METRICS_REPORTERS = "rubix.metrics.reporters";
   private static final String KEY_PARALLEL_WARMUP = "rubix.cache.parallel.warmup";
+  private static final String KEY_CACHE_STATUS_PREFETCH_ENABLED = "rubix.cache.status.prefetch.enabled";
+  private static final String KEY_CACHE_STATUS_PREFETCH_BLOCKS = "rubix.cache.status.prefetch.blocks";
+  private static final String KEY_READ_AHEAD_ENABLED = "rubix.cache.readahead.enabled";
+  private static final String KEY_READ_AHEAD_MAX_BLOCKS = "rubix.cache.readahead.max.blocks";
+  private static final String KEY_FILE_TAIL_CACHE_ENABLED = "rubix.cache.file.tail.enabled";
+  private static final String KEY_FILE_TAIL_SIZE = "rubix.cache.file.tail.size";
+  private static final String KEY_FILE_TAIL_CACHE_MAX_MEMORY = "rubix.cache.file.tail.max.memory";
+  private static final String KEY_MEMORY_TIER_ENABLED = "rubix.cache.memory.tier.enabled";
+  private static final String KEY_MEMORY_TIER_MAX_MEMORY = "rubix.cache.memory.tier.max.memory";
+  private static final String KEY_MMAP_ENABLED = "rubix.cache.mmap.enabled";
+  private static final String KEY_MMAP_REGION_SIZE = "rubix.cache.mmap.region.size";
+  private static final String KEY_MMAP_MAX_REGIONS = "rubix.cache.mmap.max.regions";
+  private static final String KEY_MMAP_MAX_IDLE = "rubix.cache.mmap.max.idle";
+  private static final String KEY_FILE_CHANNEL_CACHE_ENABLED = "rubix.cache.file.channel.cache.enabled";
+  private static final String KEY_FILE_CHANNEL_CACHE_MAX_FILES = "rubix.cache.file.channel.cache.max.files";
+  private static final String KEY_FILE_CHANNEL_CACHE_MAX_IDLE = "rubix.cache.file.channel.cache.max.idle";
   private static final String KEY_PROCESS_THREAD_INITIAL_DELAY = "rubix.request.process.initial.delay";
   private static final String KEY_PROCESS_THREAD_INTERVAL = "rubix.request.process.interval";
   private static final String KEY_REMOTE_FETCH_PROCESS_INTERVAL = "rubix.remotefetch.interval";
   private static final String KEY_REMOTE_FETCH_THREADS = "rubix.remotefetch.threads";
+  private static final String KEY_REMOTE_FETCH_MAX_CHAIN_SIZE = "rubix.remotefetch.max.chain.size";
+  private static final String KEY_REMOTE_FILESYSTEM_POOL_ENABLED = "rubix.remote.filesystem.pool.enabled";
+  private static final String KEY_REMOTE_READ_PARALLEL_PART_SIZE = "rubix.remote.read.parallel.part.size";
+  private static final String KEY_REMOTE_READ_PARALLEL_PARTS_PER_FILE = "rubix.remote.read.parallel.file.parts";
+  private static final String KEY_REMOTE_READ_PARALLEL_MAX_PARTS = "rubix.remote.read.parallel.max.parts";
+  private static final String KEY_READ_FOREGROUND_THREADS = "rubix.read.foreground.threads";
+  private static final String KEY_READ_BACKGROUND_THREADS = "rubix.read.background.threads";
+  private static final String KEY_READ_BACKGROUND_QUEUE_SIZE = "rubix.read.background.queue.size";
+  private static final String KEY_READ_QUERY_MAX_THREADS = "rubix.read.query.max.threads";
+  private static final String KEY_READ_QUERY_MAX_QUEUED = "rubix.read.query.max.queued";
+  private static final String KEY_READ_QUERY_ID_PROPERTY = "rubix.read.query.id.property";
   private static final String KEY_RUBIX_ON_MASTER = "rubix.cluster.is-master";
   private static final String KEY_SERVER_PORT = "rubix.network.bookkeeper.server.port";
   private static final String KEY_SERVER_MAX_THREADS = "rubix.cache.bookkeeper.max-threads";
+  private static final String KEY_SERVER_MODE = "rubix.cache.bookkeeper.server.mode";
+  private static final String KEY_CACHE_EVICTION_POLICY = "rubix.cache.eviction.policy";
+  private static final String KEY_CACHE_EVICTION_SKETCH_SIZE = "rubix.cache.eviction.sketch.size";
+  private static final String KEY_BLOCK_EVICTION_ENABLED = "rubix.cache.block.eviction.enabled";
+  private static final String KEY_BLOCK_EVICTION_HOLE_DELAY = "rubix.cache.block.eviction.hole.delay";
+  private static final String KEY_CACHE_DISK_PLACEMENT_WEIGHTED = "rubix.cache.disk.placement.weighted";
+  private static final String KEY_CACHE_DISK_WEIGHTS = "rubix.cache.disk.weights";
+  private static final String KEY_SERVER_SELECTOR_THREADS = "rubix.cache.bookkeeper.selector-threads";
+  private static final String KEY_SERVER_WORKER_THREADS = "rubix.cache.bookkeeper.worker-threads";
   private static final String KEY_SERVICE_RETRY_INTERVAL = "rubix.network.service.retry-interval";
   private static final String KEY_SERVICE_MAX_RETRIES = "rubix.network.service.max-retries";
   private static final String KEY_CLIENT_READ_TIMEOUT = "rubix.network.client.read.timeout";
@@ -85,8 +129,10 @@ public class CacheConfig
   private static final String KEY_ENABLE_FILE_STALESSNESS_CHECK = "rubix.cache.file.staleness-check.enable";
   private static final String KEY_STALE_FILEINFO_EXPIRY_PERIOD = "rubix.cache.stale.fileinfo.expiry.period";
   private static final String KEY_CLEANUP_FILES_DURING_START = "rubix.cache.cleanup.files.during.start";
+  private static final String KEY_RECOVER_FILES_DURING_START = "rubix.cache.recover.files.during.start";
   private static final String KEY_MAX_CACHE_SIZE = "rubix.cache.max.size";
   private static final String KEY_CACHE_FILE_SPLIT_SIZE = "rubix.cache.filesplit.size";
+  private static final String KEY_SPLIT_OWNER_CACHE_MAX_FILES = "rubix.cache.split.owner.cache.max.files";
   private static final String KEY_CLUSTER_NODE_REFRESH_TIME = "rubix.cluster.node.refresh.time";
   private static final String KEY_WORKER_NODEINFO_EXPIRY_PERIOD = "rubix.cluster.workerinfo.expiry.period";
   private static final String KEY_RUBIX_CLUSTER_TYPE = "rubix.cluster.type";
@@ -99,6 +145,8 @@ public class CacheConfig
   private static final int DEFAULT_SERVER_CONNECT_TIMEOUT = 1000; // ms
   private static final int DEFAULT_SERVER_SOCKET_TIMEOUT = 6000; // ms
   private static final String DEFAULT_CACHE_METADATA_FILE_SUFFIX = "_mdfile";
+  private static final boolean DEFAULT_CACHE_CHECKSUM_ENABLED = false;
+  private static final String DEFAULT_CACHE_CHECKSUM_FILE_SUFFIX = "_crcfile";
   private static final String DEFAULT_DATA_CACHE_DIR_PREFIX = "/media/ephemeral";
   private static final String DEFAULT_DATA_CACHE_DIR_SUFFIX = "/fcache/";
   private static final boolean DEFAULT_DATA_CACHE_ENABLED = true;
@@ -118,8 +166,15 @@ public class CacheConfig
   private static final int DEFAULT_HEARTBEAT_INTERVAL = 30000; // ms
   private static final int DEFAULT_LOCAL_TRANSFER_BUFFER_SIZE = 10 * 1024 * 1024; // 10MB
   private static final int DEFAULT_LOCAL_SERVER_PORT = 8898;
+  private static final int DEFAULT_LOCAL_SERVER_WORKER_THREADS = 32;
+  private static final int DEFAULT_LOCAL_SERVER_QUEUE_SIZE = 1024;
   private static final int DEFAULT_MAX_BUFFER_SIZE = 1024;
   private static final int DEFAULT_MAX_RETRIES = 3;
+  private static final boolean DEFAULT_CLIENT_POOL_ENABLED = true;
+  private static final int DEFAULT_CLIENT_POOL_MAX_SIZE = 64; // per host
+  private static final int DEFAULT_CLIENT_POOL_WAIT_TIMEOUT = 100; // ms
+  private static final int DEFAULT_CLIENT_POOL_IDLE_TIMEOUT = 60000; // ms
+  private static final int DEFAULT_CLIENT_POOL_VALIDATION_INTERVAL = 10000; // ms
   private static final boolean DEFAULT_METRICS_CACHE_ENABLED = true;
   private static final boolean DEFAULT_METRICS_HEALTH_ENABLED = true;
   private static final boolean DEFAULT_METRICS_JVM_ENABLED = false;
@@ -130,12 +185,48 @@ public class CacheConfig
   private static final int DEFAULT_METRICS_GANGLIA_PORT = 8649; // default Ganglia port
   private static final String DEFAULT_METRICS_REPORTERS = "JMX, GANGLIA";
   private static final boolean DEFAULT_PARALLEL_WARMUP = false;
+  private static final boolean DEFAULT_CACHE_STATUS_PREFETCH_ENABLED = false;
+  private static final int DEFAULT_CACHE_STATUS_PREFETCH_BLOCKS = 16;
+  private static final boolean DEFAULT_READ_AHEAD_ENABLED = false;
+  private static final int DEFAULT_READ_AHEAD_MAX_BLOCKS = 8;
+  private static final boolean DEFAULT_FILE_TAIL_CACHE_ENABLED = false;
+  private static final int DEFAULT_FILE_TAIL_SIZE = 256 * 1024; // bytes
+  private static final long DEFAULT_FILE_TAIL_CACHE_MAX_MEMORY = 64 * 1024 * 1024; // bytes
+  private static final boolean DEFAULT_MEMORY_TIER_ENABLED = false;
+  private static final long DEFAULT_MEMORY_TIER_MAX_MEMORY = 256 * 1024 * 1024; // bytes
+  private static final boolean DEFAULT_MMAP_ENABLED = false;
+  private static final long DEFAULT_MMAP_REGION_SIZE = 64 * 1024 * 1024; // bytes
+  private static final int DEFAULT_MMAP_MAX_REGIONS = 1024;
+  private static final int DEFAULT_MMAP_MAX_IDLE = 60000; // ms
+  private static final boolean DEFAULT_FILE_CHANNEL_CACHE_ENABLED = false;
+  private static final int DEFAULT_FILE_CHANNEL_CACHE_MAX_FILES = 1024;
+  private static final int DEFAULT_FILE_CHANNEL_CACHE_MAX_IDLE = 60000; // ms
   private static final int DEFAULT_PROCESS_THREAD_INITIAL_DELAY = 1000; // ms
   private static final int DEFAULT_PROCESS_THREAD_INTERVAL = 1000; // ms
   private static final int DEFAULT_REMOTE_FETCH_PROCESS_INTERVAL = 10000; // ms
   private static final int DEFAULT_REMOTE_FETCH_THREADS = 10;
+  private static final long DEFAULT_REMOTE_FETCH_MAX_CHAIN_SIZE = 64 * 1024 * 1024; // 64MB
+  private static final boolean DEFAULT_REMOTE_FILESYSTEM_POOL_ENABLED = true;
+  private static final long DEFAULT_REMOTE_READ_PARALLEL_PART_SIZE = 16 * 1024 * 1024; // 16MB
+  private static final int DEFAULT_REMOTE_READ_PARALLEL_PARTS_PER_FILE = 4;
+  private static final int DEFAULT_REMOTE_READ_PARALLEL_MAX_PARTS = 16;
+  private static final int DEFAULT_READ_FOREGROUND_THREADS = 100;
+  private static final int DEFAULT_READ_BACKGROUND_THREADS = 20;
+  private static final int DEFAULT_READ_BACKGROUND_QUEUE_SIZE = 1000;
+  private static final int DEFAULT_READ_QUERY_MAX_THREADS = 50;
+  private static final int DEFAULT_READ_QUERY_MAX_QUEUED = 256;
+  private static final String DEFAULT_READ_QUERY_ID_PROPERTY = "";
   private static final boolean DEFAULT_RUBIX_ON_MASTER = false;
   private static final int DEFAULT_SERVER_MAX_THREADS = Integer.MAX_VALUE;
+  private static final String DEFAULT_SERVER_MODE = ServerMode.THREAD_POOL.name();
+  private static final String DEFAULT_CACHE_EVICTION_POLICY = CacheEvictionPolicy.LRU.name();
+  private static final int DEFAULT_CACHE_EVICTION_SKETCH_SIZE = 100000;
+  private static final boolean DEFAULT_BLOCK_EVICTION_ENABLED = false;
+  private static final int DEFAULT_BLOCK_EVICTION_HOLE_DELAY = 60000; // ms
+  private static final boolean DEFAULT_CACHE_DISK_PLACEMENT_WEIGHTED = false;
+  private static final String DEFAULT_CACHE_DISK_WEIGHTS = "";
+  private static final int DEFAULT_SERVER_SELECTOR_THREADS = 2;
+  private static final int DEFAULT_SERVER_WORKER_THREADS = 64;
   private static final int DEFAULT_SERVER_PORT = 8899;
   private static final int DEFAULT_SERVICE_RETRY_INTERVAL = 30000; // ms
   private static final int DEFAULT_SERVICE_MAX_RETRIES = 100;
@@ -150,8 +241,10 @@ public class CacheConfig
   private static final boolean DEFAULT_ENABLE_FILE_STALESSNESS_CHECK = true;
   private static final int DEFAULT_STALE_FILEINFO_EXPIRY_PERIOD = 36000; // seconds
   private static final long DEFAULT_CACHE_FILE_SPLIT_SIZE = 256 * 1024 * 1024;
+  private static final int DEFAULT_SPLIT_OWNER_CACHE_MAX_FILES = 10000;
   private static final int DEFAULT_WORKER_NODEINFO_EXPIRY_PERIOD = 300; // seconds
   private static final boolean DEFAULT_CLEANUP_FILES_DURING_START = true;
+  private static final boolean DEFAULT_RECOVER_FILES_DURING_START = false;
   private static final int DEFAULT_CLUSTER_NODE_REFRESH_TIME = 300; //seconds
   private static final boolean DEFAULT_DUMMY_MODE = false;
   private static final long DEFAULT_MAX_CACHE_SIZE = 0;
@@ -233,6 +326,16 @@ public class CacheConfig
     return conf.get(KEY_CACHE_METADATA_FILE_SUFFIX, DEFAULT_CACHE_METADATA_FILE_SUFFIX);
   }
 
+  public static boolean isCacheChecksumEnabled(Configuration conf)
+  {
+    return conf.getBoolean(KEY_CACHE_CHECKSUM_ENABLED, DEFAULT_CACHE_CHECKSUM_ENABLED);
+  }
+
+  public static String getCacheChecksumFileSuffix(Configuration conf)
+  {
+    return conf.get(KEY_CACHE_CHECKSUM_FILE_SUFFIX, DEFAULT_CACHE_CHECKSUM_FILE_SUFFIX);
+  }
+
   public static int getCachingValidationInterval(Configuration conf)
   {
     return conf.getInt(KEY_CACHING_VALIDATION_INTERVAL, DEFAULT_CACHING_VALIDATION_INTERVAL);
@@ -273,6 +376,16 @@ public class CacheConfig
     return conf.getInt(KEY_LOCAL_SERVER_PORT, DEFAULT_LOCAL_SERVER_PORT);
   }
 
+  public static int getLocalServerWorkerThreads(Configuration conf)
+  {
+    return conf.getInt(KEY_LOCAL_SERVER_WORKER_THREADS, DEFAULT_LOCAL_SERVER_WORKER_THREADS);
+  }
+
+  public static int getLocalServerQueueSize(Configuration conf)
+  {
+    return conf.getInt(KEY_LOCAL_SERVER_QUEUE_SIZE, DEFAULT_LOCAL_SERVER_QUEUE_SIZE);
+  }
+
   public static int getLocalTransferBufferSize(Configuration conf)
   {
     return conf.getInt(KEY_LOCAL_TRANSFER_BUFFER_SIZE, DEFAULT_LOCAL_TRANSFER_BUFFER_SIZE);
@@ -288,6 +401,31 @@ public class CacheConfig
     return conf.getInt(KEY_MAX_RETRIES, DEFAULT_MAX_RETRIES);
   }
 
+  public static boolean isClientPoolEnabled(Configuration conf)
+  {
+    return conf.getBoolean(KEY_CLIENT_POOL_ENABLED, DEFAULT_CLIENT_POOL_ENABLED);
+  }
+
+  public static int getClientPoolMaxSize(Configuration conf)
+  {
+    return conf.getInt(KEY_CLIENT_POOL_MAX_SIZE, DEFAULT_CLIENT_POOL_MAX_SIZE);
+  }
+
+  public static int getClientPoolWaitTimeout(Configuration conf)
+  {
+    return conf.getInt(KEY_CLIENT_POOL_WAIT_TIMEOUT, DEFAULT_CLIENT_POOL_WAIT_TIMEOUT);
+  }
+
+  public static int getClientPoolIdleTimeout(Configuration conf)
+  {
+    return conf.getInt(KEY_CLIENT_POOL_IDLE_TIMEOUT, DEFAULT_CLIENT_POOL_IDLE_TIMEOUT);
+  }
+
+  public static int getClientPoolValidationInterval(Configuration conf)
+  {
+    return conf.getInt(KEY_CLIENT_POOL_VALIDATION_INTERVAL, DEFAULT_CLIENT_POOL_VALIDATION_INTERVAL);
+  }
+
   public static String getMetricsReporters(Configuration conf)
   {
     return conf.get(KEY_METRICS_REPORTERS, DEFAULT_METRICS_REPORTERS);
@@ -313,11 +451,111 @@ public class CacheConfig
     return conf.getInt(KEY_REMOTE_FETCH_THREADS, DEFAULT_REMOTE_FETCH_THREADS);
   }
 
+  public static long getRemoteFetchMaxChainSize(Configuration conf)
+  {
+    return conf.getLong(KEY_REMOTE_FETCH_MAX_CHAIN_SIZE, DEFAULT_REMOTE_FETCH_MAX_CHAIN_SIZE);
+  }
+
+  public static boolean isRemoteFileSystemPoolEnabled(Configuration conf)
+  {
+    return conf.getBoolean(KEY_REMOTE_FILESYSTEM_POOL_ENABLED, DEFAULT_REMOTE_FILESYSTEM_POOL_ENABLED);
+  }
+
+  public static long getRemoteReadParallelPartSize(Configuration conf)
+  {
+    return conf.getLong(KEY_REMOTE_READ_PARALLEL_PART_SIZE, DEFAULT_REMOTE_READ_PARALLEL_PART_SIZE);
+  }
+
+  public static int getRemoteReadParallelPartsPerFile(Configuration conf)
+  {
+    return conf.getInt(KEY_REMOTE_READ_PARALLEL_PARTS_PER_FILE, DEFAULT_REMOTE_READ_PARALLEL_PARTS_PER_FILE);
+  }
+
+  public static int getRemoteReadParallelMaxParts(Configuration conf)
+  {
+    return conf.getInt(KEY_REMOTE_READ_PARALLEL_MAX_PARTS, DEFAULT_REMOTE_READ_PARALLEL_MAX_PARTS);
+  }
+
+  public static int getReadForegroundThreads(Configuration conf)
+  {
+    return conf.getInt(KEY_READ_FOREGROUND_THREADS, DEFAULT_READ_FOREGROUND_THREADS);
+  }
+
+  public static int getReadBackgroundThreads(Configuration conf)
+  {
+    return conf.getInt(KEY_READ_BACKGROUND_THREADS, DEFAULT_READ_BACKGROUND_THREADS);
+  }
+
+  public static int getReadBackgroundQueueSize(Configuration conf)
+  {
+    return conf.getInt(KEY_READ_BACKGROUND_QUEUE_SIZE, DEFAULT_READ_BACKGROUND_QUEUE_SIZE);
+  }
+
+  public static int getReadQueryMaxThreads(Configuration conf)
+  {
+    return conf.getInt(KEY_READ_QUERY_MAX_THREADS, DEFAULT_READ_QUERY_MAX_THREADS);
+  }
+
+  public static int getReadQueryMaxQueued(Configuration conf)
+  {
+    return conf.getInt(KEY_READ_QUERY_MAX_QUEUED, DEFAULT_READ_QUERY_MAX_QUEUED);
+  }
+
+  public static String getReadQueryIdProperty(Configuration conf)
+  {
+    return conf.get(KEY_READ_QUERY_ID_PROPERTY, DEFAULT_READ_QUERY_ID_PROPERTY);
+  }
+
   public static int getServerMaxThreads(Configuration conf)
   {
     return conf.getInt(KEY_SERVER_MAX_THREADS, DEFAULT_SERVER_MAX_THREADS);
   }
 
+  public static ServerMode getServerMode(Configuration conf)
+  {
+    return ServerMode.valueOf(conf.get(KEY_SERVER_MODE, DEFAULT_SERVER_MODE).trim().toUpperCase());
+  }
+
+  public static CacheEvictionPolicy getCacheEvictionPolicy(Configuration conf)
+  {
+    return CacheEvictionPolicy.valueOf(conf.get(KEY_CACHE_EVICTION_POLICY, DEFAULT_CACHE_EVICTION_POLICY).trim().toUpperCase());
+  }
+
+  public static int getCacheEvictionSketchSize(Configuration conf)
+  {
+    return conf.getInt(KEY_CACHE_EVICTION_SKETCH_SIZE, DEFAULT_CACHE_EVICTION_SKETCH_SIZE);
+  }
+
+  public static boolean isBlockEvictionEnabled(Configuration conf)
+  {
+    return conf.getBoolean(KEY_BLOCK_EVICTION_ENABLED, DEFAULT_BLOCK_EVICTION_ENABLED);
+  }
+
+  public static int getBlockEvictionHoleDelay(Configuration conf)
+  {
+    return conf.getInt(KEY_BLOCK_EVICTION_HOLE_DELAY, DEFAULT_BLOCK_EVICTION_HOLE_DELAY);
+  }
+
+  public static boolean isCacheDiskPlacementWeighted(Configuration conf)
+  {
+    return conf.getBoolean(KEY_CACHE_DISK_PLACEMENT_WEIGHTED, DEFAULT_CACHE_DISK_PLACEMENT_WEIGHTED);
+  }
+
+  public static String getCacheDiskWeights(Configuration conf)
+  {
+    return conf.get(KEY_CACHE_DISK_WEIGHTS, DEFAULT_CACHE_DISK_WEIGHTS);
+  }
+
+  public static int getServerSelectorThreads(Configuration conf)
+  {
+    return conf.getInt(KEY_SERVER_SELECTOR_THREADS, DEFAULT_SERVER_SELECTOR_THREADS);
+  }
+
+  public static int getServerWorkerThreads(Configuration conf)
+  {
+    return conf.getInt(KEY_SERVER_WORKER_THREADS, DEFAULT_SERVER_WORKER_THREADS);
+  }
+
   public static int getServerPort(Configuration conf)
   {
     return conf.getInt(KEY_SERVER_PORT, DEFAULT_SERVER_PORT);
@@ -403,6 +641,86 @@ public class CacheConfig
     return conf.getBoolean(KEY_PARALLEL_WARMUP, DEFAULT_PARALLEL_WARMUP);
   }
 
+  public static boolean isCacheStatusPrefetchEnabled(Configuration conf)
+  {
+    return conf.getBoolean(KEY_CACHE_STATUS_PREFETCH_ENABLED, DEFAULT_CACHE_STATUS_PREFETCH_ENABLED);
+  }
+
+  public static int getCacheStatusPrefetchBlocks(Configuration conf)
+  {
+    return conf.getInt(KEY_CACHE_STATUS_PREFETCH_BLOCKS, DEFAULT_CACHE_STATUS_PREFETCH_BLOCKS);
+  }
+
+  public static boolean isReadAheadEnabled(Configuration conf)
+  {
+    return conf.getBoolean(KEY_READ_AHEAD_ENABLED, DEFAULT_READ_AHEAD_ENABLED);
+  }
+
+  public static int getReadAheadMaxBlocks(Configuration conf)
+  {
+    return conf.getInt(KEY_READ_AHEAD_MAX_BLOCKS, DEFAULT_READ_AHEAD_MAX_BLOCKS);
+  }
+
+  public static boolean isFileTailCacheEnabled(Configuration conf)
+  {
+    return conf.getBoolean(KEY_FILE_TAIL_CACHE_ENABLED, DEFAULT_FILE_TAIL_CACHE_ENABLED);
+  }
+
+  public static int getFileTailSize(Configuration conf)
+  {
+    return conf.getInt(KEY_FILE_TAIL_SIZE, DEFAULT_FILE_TAIL_SIZE);
+  }
+
+  public static long getFileTailCacheMaxMemory(Configuration conf)
+  {
+    return conf.getLong(KEY_FILE_TAIL_CACHE_MAX_MEMORY, DEFAULT_FILE_TAIL_CACHE_MAX_MEMORY);
+  }
+
+  public static boolean isMemoryTierEnabled(Configuration conf)
+  {
+    return conf.getBoolean(KEY_MEMORY_TIER_ENABLED, DEFAULT_MEMORY_TIER_ENABLED);
+  }
+
+  public static long getMemoryTierMaxMemory(Configuration conf)
+  {
+    return conf.getLong(KEY_MEMORY_TIER_MAX_MEMORY, DEFAULT_MEMORY_TIER_MAX_MEMORY);
+  }
+
+  public static boolean isMmapEnabled(Configuration conf)
+  {
+    return conf.getBoolean(KEY_MMAP_ENABLED, DEFAULT_MMAP_ENABLED);
+  }
+
+  public static long getMmapRegionSize(Configuration conf)
+  {
+    return conf.getLong(KEY_MMAP_REGION_SIZE, DEFAULT_MMAP_REGION_SIZE);
+  }
+
+  public static int getMmapMaxRegions(Configuration conf)
+  {
+    return conf.getInt(KEY_MMAP_MAX_REGIONS, DEFAULT_MMAP_MAX_REGIONS);
+  }
+
+  public static int getMmapMaxIdle(Configuration conf)
+  {
+    return conf.getInt(KEY_MMAP_MAX_IDLE, DEFAULT_MMAP_MAX_IDLE);
+  }
+
+  public static boolean isFileChannelCacheEnabled(Configuration conf)
+  {
+    return conf.getBoolean(KEY_FILE_CHANNEL_CACHE_ENABLED, DEFAULT_FILE_CHANNEL_CACHE_ENABLED);
+  }
+
+  public static int getFileChannelCacheMaxFiles(Configuration conf)
+  {
+    return conf.getInt(KEY_FILE_CHANNEL_CACHE_MAX_FILES, DEFAULT_FILE_CHANNEL_CACHE_MAX_FILES);
+  }
+
+  public static int getFileChannelCacheMaxIdle(Configuration conf)
+  {
+    return conf.getInt(KEY_FILE_CHANNEL_CACHE_MAX_IDLE, DEFAULT_FILE_CHANNEL_CACHE_MAX_IDLE);
+  }
+
   public static boolean isValidationEnabled(Configuration conf)
   {
     return conf.getBoolean(KEY_VALIDATION_ENABLED, DEFAULT_VALIDATION_ENABLED);
@@ -453,6 +771,11 @@ public class CacheConfig
     return conf.getLong(KEY_CACHE_FILE_SPLIT_SIZE, DEFAULT_CACHE_FILE_SPLIT_SIZE);
   }
 
+  public static int getSplitOwnerCacheMaxFiles(Configuration conf)
+  {
+    return conf.getInt(KEY_SPLIT_OWNER_CACHE_MAX_FILES, DEFAULT_SPLIT_OWNER_CACHE_MAX_FILES);
+  }
+
   public static int getWorkerNodeInfoExpiryPeriod(Configuration conf)
   {
     return conf.getInt(KEY_WORKER_NODEINFO_EXPIRY_PERIOD, DEFAULT_WORKER_NODEINFO_EXPIRY_PERIOD);
@@ -463,6 +786,11 @@ public class CacheConfig
     return conf.getBoolean(KEY_CLEANUP_FILES_DURING_START, DEFAULT_CLEANUP_FILES_DURING_START);
   }
 
+  public static boolean isRecoverFilesDuringStartEnabled(Configuration conf)
+  {
+    return conf.getBoolean(KEY_RECOVER_FILES_DURING_START, DEFAULT_RECOVER_FILES_DURING_START);
+  }
+
   public static int getClusterType(Configuration conf)
   {
     return conf.getInt(KEY_RUBIX_CLUSTER_TYPE, DEFAULT_RUBIX_CLUSTER_TYPE);
@@ -518,6 +846,11 @@ public class CacheConfig
     conf.setInt(KEY_DATA_CACHE_EXPIRY_AFTER_WRITE, expiryAfterWrite);
   }
 
+  public static void setCacheDataFullnessMaxSize(Configuration conf, long maxSize)
+  {
+    conf.setLong(KEY_MAX_CACHE_SIZE, maxSize);
+  }
+
   public static void setCacheDataLocationWhitelist(Configuration conf, String whitelist)
   {
     conf.set(KEY_DATA_CACHE_LOCATION_WHITELIST, whitelist);
@@ -548,6 +881,11 @@ public class CacheConfig
     conf.set(KEY_CACHE_METADATA_FILE_SUFFIX, fileSuffix);
   }
 
+  public static void setCacheChecksumEnabled(Configuration conf, boolean checksumEnabled)
+  {
+    conf.setBoolean(KEY_CACHE_CHECKSUM_ENABLED, checksumEnabled);
+  }
+
   public static void setCacheMetricsEnabled(Configuration conf, boolean cacheMetricsEnabled)
   {
     conf.setBoolean(KEY_METRICS_CACHE_ENABLED, cacheMetricsEnabled);
@@ -578,6 +916,46 @@ public class CacheConfig
     conf.setBoolean(KEY_PARALLEL_WARMUP, isParallelWarmupEnabled);
   }
 
+  public static void setCacheStatusPrefetchEnabled(Configuration conf, boolean prefetchEnabled)
+  {
+    conf.setBoolean(KEY_CACHE_STATUS_PREFETCH_ENABLED, prefetchEnabled);
+  }
+
+  public static void setReadAheadEnabled(Configuration conf, boolean readAheadEnabled)
+  {
+    conf.setBoolean(KEY_READ_AHEAD_ENABLED, readAheadEnabled);
+  }
+
+  public static void setReadAheadMaxBlocks(Configuration conf, int maxBlocks)
+  {
+    conf.setInt(KEY_READ_AHEAD_MAX_BLOCKS, maxBlocks);
+  }
+
+  public static void setFileTailCacheEnabled(Configuration conf, boolean tailCacheEnabled)
+  {
+    conf.setBoolean(KEY_FILE_TAIL_CACHE_ENABLED, tailCacheEnabled);
+  }
+
+  public static void setFileTailSize(Configuration conf, int tailSize)
+  {
+    conf.setInt(KEY_FILE_TAIL_SIZE, tailSize);
+  }
+
+  public static void setMemoryTierEnabled(Configuration conf, boolean memoryTierEnabled)
+  {
+    conf.setBoolean(KEY_MEMORY_TIER_ENABLED, memoryTierEnabled);
+  }
+
+  public static void setMmapEnabled(Configuration conf, boolean mmapEnabled)
+  {
+    conf.setBoolean(KEY_MMAP_ENABLED, mmapEnabled);
+  }
+
+  public static void setFileChannelCacheEnabled(Configuration conf, boolean fileChannelCacheEnabled)
+  {
+    conf.setBoolean(KEY_FILE_CHANNEL_CACHE_ENABLED, fileChannelCacheEnabled);
+  }
+
   public static void setJvmMetricsEnabled(Configuration conf, boolean jvmMetricsEnabled)
   {
     conf.setBoolean(KEY_METRICS_JVM_ENABLED, jvmMetricsEnabled);
@@ -613,16 +991,96 @@ public class CacheConfig
     conf.setInt(KEY_REMOTE_FETCH_PROCESS_INTERVAL, interval);
   }
 
+  public static void setRemoteFetchMaxChainSize(Configuration conf, long maxChainSize)
+  {
+    conf.setLong(KEY_REMOTE_FETCH_MAX_CHAIN_SIZE, maxChainSize);
+  }
+
+  public static void setRemoteFileSystemPoolEnabled(Configuration conf, boolean remoteFileSystemPoolEnabled)
+  {
+    conf.setBoolean(KEY_REMOTE_FILESYSTEM_POOL_ENABLED, remoteFileSystemPoolEnabled);
+  }
+
+  public static void setRemoteReadParallelPartSize(Configuration conf, long partSize)
+  {
+    conf.setLong(KEY_REMOTE_READ_PARALLEL_PART_SIZE, partSize);
+  }
+
+  public static void setRemoteReadParallelPartsPerFile(Configuration conf, int partsPerFile)
+  {
+    conf.setInt(KEY_REMOTE_READ_PARALLEL_PARTS_PER_FILE, partsPerFile);
+  }
+
+  public static void setReadQueryMaxThreads(Configuration conf, int maxThreads)
+  {
+    conf.setInt(KEY_READ_QUERY_MAX_THREADS, maxThreads);
+  }
+
+  public static void setReadQueryIdProperty(Configuration conf, String queryIdProperty)
+  {
+    conf.set(KEY_READ_QUERY_ID_PROPERTY, queryIdProperty);
+  }
+
   public static void setServerConnectTimeout(Configuration conf, int timeout)
   {
     conf.setInt(KEY_SERVER_CONNECT_TIMEOUT, timeout);
   }
 
+  public static void setClientPoolEnabled(Configuration conf, boolean isPoolEnabled)
+  {
+    conf.setBoolean(KEY_CLIENT_POOL_ENABLED, isPoolEnabled);
+  }
+
+  public static void setClientPoolMaxSize(Configuration conf, int maxSize)
+  {
+    conf.setInt(KEY_CLIENT_POOL_MAX_SIZE, maxSize);
+  }
+
+  public static void setClientPoolWaitTimeout(Configuration conf, int timeout)
+  {
+    conf.setInt(KEY_CLIENT_POOL_WAIT_TIMEOUT, timeout);
+  }
+
+  public static void setClientPoolIdleTimeout(Configuration conf, int timeout)
+  {
+    conf.setInt(KEY_CLIENT_POOL_IDLE_TIMEOUT, timeout);
+  }
+
   public static void setServerSocketTimeout(Configuration conf, int timeout)
   {
     conf.setInt(KEY_SERVER_SOCKET_TIMEOUT, timeout);
   }
 
+  public static void setServerMode(Configuration conf, ServerMode serverMode)
+  {
+    conf.set(KEY_SERVER_MODE, serverMode.name());
+  }
+
+  public static void setCacheEvictionPolicy(Configuration conf, CacheEvictionPolicy evictionPolicy)
+  {
+    conf.set(KEY_CACHE_EVICTION_POLICY, evictionPolicy.name());
+  }
+
+  public static void setBlockEvictionEnabled(Configuration conf, boolean blockEvictionEnabled)
+  {
+    conf.setBoolean(KEY_BLOCK_EVICTION_ENABLED, blockEvictionEnabled);
+  }
+
+  public static void setBlockEvictionHoleDelay(Configuration conf, int holeDelay)
+  {
+    conf.setInt(KEY_BLOCK_EVICTION_HOLE_DELAY, holeDelay);
+  }
+
+  public static void setCacheDiskPlacementWeighted(Configuration conf, boolean placementWeighted)
+  {
+    conf.setBoolean(KEY_CACHE_DISK_PLACEMENT_WEIGHTED, placementWeighted);
+  }
+
+  public static void setCacheDiskWeights(Configuration conf, String diskWeights)
+  {
+    conf.set(KEY_CACHE_DISK_WEIGHTS, diskWeights);
+  }
+
   public static void setServerPort(Configuration conf, int serverPort)
   {
     conf.setInt(KEY_SERVER_PORT, serverPort);
@@ -718,6 +1176,11 @@ public class CacheConfig
     conf.setBoolean(KEY_CLEANUP_FILES_DURING_START, isCleanupRequired);
   }
 
+  public static void setRecoverFilesDuringStart(Configuration conf, boolean isRecoveryRequired)
+  {
+    conf.setBoolean(KEY_RECOVER_FILES_DURING_START, isRecoveryRequired);
+  }
+
   public static void setRubixClusterType(Configuration conf, int clusterType)
   {
     if (ClusterType.findByValue(clusterType) != null) {
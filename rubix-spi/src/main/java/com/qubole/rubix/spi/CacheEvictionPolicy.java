@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.spi;
+
+/**
+ * The policies the BookKeeper can decide with which files are kept in the cache.
+ */
+public enum CacheEvictionPolicy
+{
+  /**
+   * Every file is cached, the least recently used files being evicted to make room for new ones.
+   */
+  LRU,
+  /**
+   * Files are evicted in LRU order, but a new file is only cached when the cache is full if it was requested more
+   * often recently than the file it would evict, so that a single scan of many files cannot flush the working set.
+   */
+  TINY_LFU
+}
@@ -13,6 +13,7 @@
 package com.qubole.rubix.spi;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.hash.HashCode;
@@ -29,11 +30,16 @@ import java.net.URI;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class CacheUtil
 {
   private static final Log log = LogFactory.getLog(CacheUtil.class.getName());
 
+  // Total space of the cache disks in MB, by disk path
+  private static final ConcurrentMap<String, Long> diskCapacities = new ConcurrentHashMap<>();
+
   private CacheUtil()
   {
   }
@@ -159,6 +165,30 @@ public class CacheUtil
     return absLocation + "/" + getName(remotePath) + CacheConfig.getCacheMetadataFileSuffix(conf);
   }
 
+  /**
+   * Determine the path of the file holding the block checksums for a given remote path.
+   *
+   * @param remotePath  The path for a remote location.
+   * @param conf        The current Hadoop configuration.
+   * @return The checksum file path.
+   */
+  public static String getChecksumFilePath(String remotePath, Configuration conf)
+  {
+    return getLocalPath(remotePath, conf) + CacheConfig.getCacheChecksumFileSuffix(conf);
+  }
+
+  /**
+   * Determine whether the file at the given path is a checksum file.
+   *
+   * @param filePath  The path to a possible checksum file.
+   * @param conf      The current Hadoop configuration.
+   * @return true if the file is a checksum file, false otherwise
+   */
+  public static boolean isChecksumFile(String filePath, Configuration conf)
+  {
+    return filePath.endsWith(CacheConfig.getCacheChecksumFileSuffix(conf));
+  }
+
   /**
    * Determine whether the file at the given path is a metadata file.
    *
@@ -276,15 +306,90 @@ public class CacheUtil
    */
   private static String getLocalDirFor(String remotePath, Configuration conf)
   {
+    final int dirNum = getCacheDiskIndex(remotePath, conf);
+
+    final String dirname = getDirPath(dirNum, conf) + CacheConfig.getCacheDataDirSuffix(conf);
+    return dirname;
+  }
+
+  /**
+   * Get the index of the disk the data of a given remote path is cached on.
+   *
+   * @param remotePath  The remote path location.
+   * @param conf        The current Hadoop configuration.
+   * @return The index of the cache disk.
+   */
+  public static int getCacheDiskIndex(String remotePath, Configuration conf)
+  {
+    if (CacheConfig.isCacheDiskPlacementWeighted(conf)) {
+      return getWeightedCacheDiskIndex(remotePath, getCacheDiskWeights(conf));
+    }
+
     final int numDisks = getCacheDiskCount(conf);
     final int numBuckets = 100 * numDisks;
     final HashFunction hf = Hashing.murmur3_32();
     final HashCode hc = hf.hashString(remotePath, Charsets.UTF_8);
     final int bucket = Math.abs(hc.asInt()) % numBuckets;
-    final int dirNum = (bucket / numDisks) % numDisks;
+    return (bucket / numDisks) % numDisks;
+  }
 
-    final String dirname = getDirPath(dirNum, conf) + CacheConfig.getCacheDataDirSuffix(conf);
-    return dirname;
+  /**
+   * Pick the disk of a remote path by weighted rendezvous hashing: every disk gets a share of the paths proportional
+   * to its weight, and changing the weight of one disk only moves paths from or to that disk.
+   */
+  private static int getWeightedCacheDiskIndex(String remotePath, long[] weights)
+  {
+    final HashFunction hf = Hashing.murmur3_32();
+    int dirNum = 0;
+    double maxScore = Double.NEGATIVE_INFINITY;
+    for (int disk = 0; disk < weights.length; disk++) {
+      final int hash = hf.newHasher().putString(remotePath, Charsets.UTF_8).putInt(disk).hash().asInt();
+      // Uniform in (0, 1)
+      final double point = ((hash & 0xffffffffL) + 0.5) / (1L << 32);
+      final double score = -weights[disk] / Math.log(point);
+      if (score > maxScore) {
+        maxScore = score;
+        dirNum = disk;
+      }
+    }
+    return dirNum;
+  }
+
+  /**
+   * Get the relative weights of the cache disks for placing cached files, as configured or else the total space
+   * of every disk in MB. The weights only depend on the disk layout, so that clients and BookKeeper agree on the
+   * location of cached files.
+   *
+   * @param conf  The current Hadoop configuration.
+   * @return The weight of every cache disk.
+   */
+  public static long[] getCacheDiskWeights(Configuration conf)
+  {
+    final int numDisks = getCacheDiskCount(conf);
+    final long[] weights = new long[numDisks];
+    final String configuredWeights = CacheConfig.getCacheDiskWeights(conf);
+
+    if (!configuredWeights.trim().isEmpty()) {
+      List<String> diskWeights = Splitter.on(',').trimResults().splitToList(configuredWeights);
+      for (int disk = 0; disk < numDisks; disk++) {
+        weights[disk] = disk < diskWeights.size() ? Long.parseLong(diskWeights.get(disk)) : 1;
+        if (weights[disk] <= 0) {
+          throw new IllegalArgumentException("Invalid cache disk weights: " + configuredWeights);
+        }
+      }
+      return weights;
+    }
+
+    for (int disk = 0; disk < numDisks; disk++) {
+      final String diskPath = getDirPath(disk, conf);
+      Long capacity = diskCapacities.get(diskPath);
+      if (capacity == null) {
+        capacity = Math.max(1, new File(diskPath).getTotalSpace() / 1024 / 1024);
+        diskCapacities.put(diskPath, capacity);
+      }
+      weights[disk] = capacity;
+    }
+    return weights;
   }
 
   /**
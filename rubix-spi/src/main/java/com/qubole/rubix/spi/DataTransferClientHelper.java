@@ -19,6 +19,8 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by sakshia on 21/11/16.
@@ -43,31 +45,87 @@ public class DataTransferClientHelper
     /* order is:
     int : filePathLength
     String : filePath
-    long : offset
-    int : readLength
     long : fileSize
     long : lastModified
-    int : clusterType */
+    int : rangeCount
+    rangeCount times:
+      long : offset
+      int : readLength */
+
+  // Size of a header without its file path and ranges
+  public static final int FIXED_HEADER_SIZE = 4 + 8 + 8 + 4;
+  // Size of each range in a header
+  public static final int RANGE_SIZE = 8 + 4;
+
+  /**
+   * Get the number of ranges of a file which can be sent in a single header.
+   *
+   * @param conf      The current Hadoop configuration.
+   * @param filePath  The path of the file to read.
+   * @return The maximum number of ranges per header, at least 1.
+   */
+  public static int getMaxRangesPerHeader(Configuration conf, String filePath)
+  {
+    int spaceForRanges = CacheConfig.getMaxHeaderSize(conf) - FIXED_HEADER_SIZE - filePath.getBytes().length;
+    return Math.max(1, spaceForRanges / RANGE_SIZE);
+  }
 
   public static ByteBuffer writeHeaders(Configuration conf, DataTransferHeader header)
   {
-    ByteBuffer buf = ByteBuffer.allocate(CacheConfig.getMaxHeaderSize(conf));
-    buf.putInt(header.getFilePath().length());
-    buf.put(header.getFilePath().getBytes());
-    buf.putLong(header.getOffset());
-    buf.putInt(header.getReadLength());
+    byte[] filePathBytes = header.getFilePath().getBytes();
+    ByteBuffer buf = ByteBuffer.allocate(Math.max(CacheConfig.getMaxHeaderSize(conf),
+        FIXED_HEADER_SIZE + filePathBytes.length + header.getRanges().size() * RANGE_SIZE));
+    buf.putInt(filePathBytes.length);
+    buf.put(filePathBytes);
     buf.putLong(header.getFileSize());
     buf.putLong(header.getLastModified());
+    buf.putInt(header.getRanges().size());
+    for (DataTransferHeader.ReadRange range : header.getRanges()) {
+      buf.putLong(range.getOffset());
+      buf.putInt(range.getReadLength());
+    }
     buf.flip();
     return buf;
   }
 
+  /**
+   * Get the size of the header at the start of the given buffer.
+   *
+   * @param dataInfo  The bytes read so far, from position 0 up to the current position.
+   * @return The size of the header, or -1 if not enough of it has been read to know its size yet.
+   */
+  public static int getHeaderSize(ByteBuffer dataInfo)
+  {
+    if (dataInfo.position() < 4) {
+      return -1;
+    }
+    int filePathLength = dataInfo.getInt(0);
+    if (filePathLength < 0) {
+      throw new IllegalArgumentException("Invalid file path length " + filePathLength);
+    }
+    int rangeCountPosition = 4 + filePathLength + 8 + 8;
+    if (dataInfo.position() < rangeCountPosition + 4) {
+      return -1;
+    }
+    int rangeCount = dataInfo.getInt(rangeCountPosition);
+    if (rangeCount <= 0) {
+      throw new IllegalArgumentException("Invalid number of ranges " + rangeCount);
+    }
+    return FIXED_HEADER_SIZE + filePathLength + rangeCount * RANGE_SIZE;
+  }
+
   public static DataTransferHeader readHeaders(ByteBuffer dataInfo)
   {
     byte[] fileBytes = new byte[dataInfo.getInt()];
     dataInfo.get(fileBytes);
     String remotePath = new String(fileBytes);
-    return new DataTransferHeader(dataInfo.getLong(), dataInfo.getInt(), dataInfo.getLong(),
-        dataInfo.getLong(), remotePath);
+    long fileSize = dataInfo.getLong();
+    long lastModified = dataInfo.getLong();
+    int rangeCount = dataInfo.getInt();
+    List<DataTransferHeader.ReadRange> ranges = new ArrayList<>(rangeCount);
+    for (int i = 0; i < rangeCount; i++) {
+      ranges.add(new DataTransferHeader.ReadRange(dataInfo.getLong(), dataInfo.getInt()));
+    }
+    return new DataTransferHeader(ranges, fileSize, lastModified, remotePath);
   }
 }
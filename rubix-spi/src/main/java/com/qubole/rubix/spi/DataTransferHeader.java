@@ -12,13 +12,16 @@
  */
 package com.qubole.rubix.spi;
 
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
 /**
  * Created by qubole on 21/11/16.
  */
 public class DataTransferHeader
 {
-  public long offset;
-  public int readLength;
+  public List<ReadRange> ranges;
   public long fileSize;
   public long lastModified;
   public int filePathLength;
@@ -26,22 +29,24 @@ public class DataTransferHeader
 
   public DataTransferHeader(long offset, int readLength, long fileSize, long lastModified, String filePath)
   {
+    this(ImmutableList.of(new ReadRange(offset, readLength)), fileSize, lastModified, filePath);
+  }
+
+  public DataTransferHeader(List<ReadRange> ranges, long fileSize, long lastModified, String filePath)
+  {
+    this.ranges = ranges;
     this.filePath = filePath;
     this.fileSize = fileSize;
     this.lastModified = lastModified;
-    this.offset = offset;
     this.filePathLength = filePath.length();
-    this.readLength = readLength;
-  }
-
-  public long getOffset()
-  {
-    return offset;
   }
 
-  public int getReadLength()
+  /**
+   * @return The ranges of the file to send, in the order they must be sent back.
+   */
+  public List<ReadRange> getRanges()
   {
-    return readLength;
+    return ranges;
   }
 
   public long getFileSize()
@@ -63,4 +68,29 @@ public class DataTransferHeader
   {
     return filePath;
   }
+
+  /**
+   * A range of the file requested by a non-local node.
+   */
+  public static class ReadRange
+  {
+    private final long offset;
+    private final int readLength;
+
+    public ReadRange(long offset, int readLength)
+    {
+      this.offset = offset;
+      this.readLength = readLength;
+    }
+
+    public long getOffset()
+    {
+      return offset;
+    }
+
+    public int getReadLength()
+    {
+      return readLength;
+    }
+  }
 }
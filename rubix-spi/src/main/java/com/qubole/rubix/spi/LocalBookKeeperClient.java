@@ -51,6 +51,40 @@ public class LocalBookKeeperClient extends RetryingBookkeeperClient
     bookKeeper.setAllCached(request);
   }
 
+  @Override
+  public List<List<BlockLocation>> getCacheStatusBatch(List<CacheStatusRequest> requests) throws TException
+  {
+    return bookKeeper.getCacheStatusBatch(requests);
+  }
+
+  @Override
+  public void incrCacheStatusMetrics(String remotePath, List<BlockLocation> blockLocations, List<Long> blockNums)
+      throws TException
+  {
+    bookKeeper.incrCacheStatusMetrics(remotePath, blockLocations, blockNums);
+  }
+
+  @Override
+  public void setAllCachedBatch(List<SetCachedRequest> requests)
+      throws TException
+  {
+    bookKeeper.setAllCachedBatch(requests);
+  }
+
+  @Override
+  public void setUncached(SetCachedRequest request)
+      throws TException
+  {
+    bookKeeper.setUncached(request);
+  }
+
+  @Override
+  public void setUncachedBatch(List<SetCachedRequest> requests)
+      throws TException
+  {
+    bookKeeper.setUncachedBatch(requests);
+  }
+
   @Override
   public void close()
       throws IOException
@@ -74,6 +74,81 @@ public class RetryingBookkeeperClient extends BookKeeperService.Client implement
     });
   }
 
+  @Override
+  public List<List<BlockLocation>> getCacheStatusBatch(final List<CacheStatusRequest> requests) throws TException
+  {
+    return retryConnection(new Callable<List<List<BlockLocation>>>()
+    {
+      @Override
+      public List<List<BlockLocation>> call()
+          throws TException
+      {
+        return RetryingBookkeeperClient.super.getCacheStatusBatch(requests);
+      }
+    });
+  }
+
+  @Override
+  public void incrCacheStatusMetrics(final String remotePath, final List<BlockLocation> blockLocations,
+                                     final List<Long> blockNums) throws TException
+  {
+    retryConnection(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+          throws Exception
+      {
+        RetryingBookkeeperClient.super.incrCacheStatusMetrics(remotePath, blockLocations, blockNums);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public void setAllCachedBatch(final List<SetCachedRequest> requests) throws TException
+  {
+    retryConnection(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+          throws Exception
+      {
+        RetryingBookkeeperClient.super.setAllCachedBatch(requests);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public void setUncached(final SetCachedRequest request) throws TException
+  {
+    retryConnection(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+          throws Exception
+      {
+        RetryingBookkeeperClient.super.setUncached(request);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public void setUncachedBatch(final List<SetCachedRequest> requests) throws TException
+  {
+    retryConnection(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+          throws Exception
+      {
+        RetryingBookkeeperClient.super.setUncachedBatch(requests);
+        return null;
+      }
+    });
+  }
+
   @Override
   public void handleHeartbeat(final HeartbeatRequest request) throws TException
   {
@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.spi;
+
+/**
+ * The kinds of Thrift server the BookKeeper can be started with.
+ */
+public enum ServerMode
+{
+  /**
+   * One thread per client connection, with unframed transport.
+   */
+  THREAD_POOL(false),
+  /**
+   * A few selector threads reading requests, which are handed to a pool of worker threads. Uses framed transport.
+   */
+  THREADED_SELECTOR(true),
+  /**
+   * A single selector thread reading requests, which are handed to a pool of worker threads. Uses framed transport.
+   */
+  HSHA(true);
+
+  private final boolean framedTransport;
+
+  ServerMode(boolean framedTransport)
+  {
+    this.framedTransport = framedTransport;
+  }
+
+  /**
+   * @return true if clients must use framed transport to talk to a server in this mode.
+   */
+  public boolean isFramedTransport()
+  {
+    return framedTransport;
+  }
+}
@@ -42,6 +42,7 @@ struct CacheStatusRequest {
 	4: required long startBlock;
 	5: required long endBlock;
 	6: optional bool incrMetrics = false;
+	7: optional bool countAccess = true;
 }
 
 struct ReadDataRequest {
@@ -50,6 +51,7 @@ struct ReadDataRequest {
     3: required long readLength;
     4: required long fileSize;
     5: required long lastModified;
+    6: optional bool countAccess = true;
 }
 
 struct SetCachedRequest {
@@ -71,6 +73,16 @@ service BookKeeperService
 
     oneway void setAllCached(1:SetCachedRequest request)
 
+    list<list<BlockLocation>> getCacheStatusBatch(1:list<CacheStatusRequest> requests)
+
+    oneway void incrCacheStatusMetrics(1:string remotePath, 2:list<BlockLocation> blockLocations, 3:list<long> blockNums)
+
+    oneway void setAllCachedBatch(1:list<SetCachedRequest> requests)
+
+    oneway void setUncached(1:SetCachedRequest request)
+
+    oneway void setUncachedBatch(1:list<SetCachedRequest> requests)
+
     map<string,double> getCacheMetrics()
 
     bool readData(1:ReadDataRequest request)
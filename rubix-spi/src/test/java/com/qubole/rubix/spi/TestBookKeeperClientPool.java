@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.spi;
+
+import com.qubole.rubix.spi.thrift.BookKeeperService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.transport.TServerSocket;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestBookKeeperClientPool
+{
+  private static final Log log = LogFactory.getLog(TestBookKeeperClientPool.class);
+
+  private static final String HOST = "localhost";
+  private static final int WAIT_FOR_BKS_START = 200;
+
+  private final Configuration conf = new Configuration();
+  private BookKeeperClientPool clientPool;
+  private TServer server;
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    clientPool = new BookKeeperClientPool();
+
+    BookKeeperService.Iface bookKeeper = mock(BookKeeperService.Iface.class);
+    when(bookKeeper.isBookKeeperAlive()).thenReturn(true);
+    server = new TThreadPoolServer(new TThreadPoolServer.Args(new TServerSocket(CacheConfig.getServerPort(conf)))
+        .processor(new BookKeeperService.Processor<>(bookKeeper)));
+    new Thread()
+    {
+      @Override
+      public void run()
+      {
+        server.serve();
+      }
+    }.start();
+
+    while (!server.isServing()) {
+      Thread.sleep(WAIT_FOR_BKS_START);
+      log.info("Waiting for mock BookKeeper server to come up");
+    }
+  }
+
+  @AfterMethod
+  public void tearDown()
+  {
+    server.stop();
+    conf.clear();
+  }
+
+  @Test
+  public void testBorrowClient_reusesReleasedConnection() throws Exception
+  {
+    RetryingBookkeeperClient client = clientPool.borrowClient(HOST, conf);
+    assertTrue(client.isBookKeeperAlive());
+    client.close();
+
+    assertEquals(clientPool.getIdleConnectionCount(), 1);
+
+    client = clientPool.borrowClient(HOST, conf);
+    assertTrue(client.isBookKeeperAlive());
+    client.close();
+
+    assertEquals(clientPool.getMissCount(), 1);
+    assertEquals(clientPool.getHitCount(), 1);
+  }
+
+  @Test
+  public void testBorrowClient_opensConnectionOutsidePoolWhenExhausted() throws Exception
+  {
+    CacheConfig.setClientPoolMaxSize(conf, 1);
+    CacheConfig.setClientPoolWaitTimeout(conf, 10);
+
+    RetryingBookkeeperClient pooledClient = clientPool.borrowClient(HOST, conf);
+    RetryingBookkeeperClient extraClient = clientPool.borrowClient(HOST, conf);
+    assertTrue(extraClient.isBookKeeperAlive());
+    extraClient.close();
+    pooledClient.close();
+
+    assertEquals(clientPool.getWaitCount(), 1);
+    assertEquals(clientPool.getMissCount(), 2);
+    assertEquals(clientPool.getIdleConnectionCount(), 1);
+  }
+
+  @Test
+  public void testRelease_dropsClosedConnection() throws Exception
+  {
+    RetryingBookkeeperClient client = clientPool.borrowClient(HOST, conf);
+    client.transport.close();
+    client.close();
+
+    assertEquals(clientPool.getIdleConnectionCount(), 0);
+  }
+
+  @Test
+  public void testEvictIdleConnections() throws Exception
+  {
+    CacheConfig.setClientPoolIdleTimeout(conf, 0);
+
+    RetryingBookkeeperClient client = clientPool.borrowClient(HOST, conf);
+    client.close();
+    Thread.sleep(1);
+    clientPool.evictIdleConnections();
+
+    assertEquals(clientPool.getIdleConnectionCount(), 0);
+  }
+
+  @Test
+  public void testBorrowClient_poolDisabled() throws Exception
+  {
+    CacheConfig.setClientPoolEnabled(conf, false);
+    BookKeeperClientPool sharedPool = BookKeeperFactory.getClientPool();
+    long missCount = sharedPool.getMissCount();
+
+    RetryingBookkeeperClient client = new BookKeeperFactory().createBookKeeperClient(HOST, conf);
+    assertTrue(client.isBookKeeperAlive());
+    client.close();
+
+    assertEquals(sharedPool.getMissCount(), missCount);
+    assertEquals(sharedPool.getIdleConnectionCount(), 0);
+  }
+}
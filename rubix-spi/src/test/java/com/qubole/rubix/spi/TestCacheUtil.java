@@ -142,6 +142,37 @@ public class TestCacheUtil
     assertEquals(dirPath, cacheTestDirPrefix + "1", "Paths don't match");
   }
 
+  @Test
+  public void testGetCacheDiskIndex_weightedPlacement()
+  {
+    CacheConfig.setCacheDataDirPrefix(conf, cacheTestDirPrefix);
+    CacheConfig.setCacheDataDirSuffix(conf, "/fcache/");
+    CacheConfig.setMaxDisks(conf, 3);
+    CacheConfig.setCacheDiskPlacementWeighted(conf, true);
+    CacheConfig.setCacheDiskWeights(conf, "6, 3, 1");
+
+    createCacheDirectoriesForTest(conf);
+
+    int[] filesPerDisk = new int[3];
+    for (int i = 0; i < 10000; i++) {
+      filesPerDisk[CacheUtil.getCacheDiskIndex("s3://testbucket/file" + i, conf)]++;
+    }
+    assertTrue(Math.abs(filesPerDisk[0] - 6000) < 300, "Unexpected number of files on disk 0: " + filesPerDisk[0]);
+    assertTrue(Math.abs(filesPerDisk[1] - 3000) < 300, "Unexpected number of files on disk 1: " + filesPerDisk[1]);
+    assertTrue(Math.abs(filesPerDisk[2] - 1000) < 300, "Unexpected number of files on disk 2: " + filesPerDisk[2]);
+
+    // Files only move to the disk whose weight grew
+    CacheConfig.setCacheDiskWeights(conf, "6, 3, 2");
+    for (int i = 0; i < 1000; i++) {
+      String remotePath = "s3://testbucket/file" + i;
+      int disk = CacheUtil.getCacheDiskIndex(remotePath, conf);
+      CacheConfig.setCacheDiskWeights(conf, "6, 3, 1");
+      int previousDisk = CacheUtil.getCacheDiskIndex(remotePath, conf);
+      CacheConfig.setCacheDiskWeights(conf, "6, 3, 2");
+      assertTrue(disk == previousDisk || disk == 2, "File moved from disk " + previousDisk + " to disk " + disk);
+    }
+  }
+
   @Test
   public void testGetLocalPath()
   {
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2019. Qubole Inc
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an AS IS BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package com.qubole.rubix.spi;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.hadoop.conf.Configuration;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestDataTransferClientHelper
+{
+  private static final String TEST_FILE_PATH = "s3://bucket/path/to/file";
+
+  private final Configuration conf = new Configuration();
+
+  @Test
+  public void testHeaderRoundTrip_multipleRanges()
+  {
+    List<DataTransferHeader.ReadRange> ranges = ImmutableList.of(
+        new DataTransferHeader.ReadRange(0, 100),
+        new DataTransferHeader.ReadRange(200, 50),
+        new DataTransferHeader.ReadRange(1L << 40, 10));
+
+    ByteBuffer written = DataTransferClientHelper.writeHeaders(conf, new DataTransferHeader(ranges, 5000, 1234, TEST_FILE_PATH));
+
+    // The server reads the header as it arrives, into a buffer positioned after the bytes read so far
+    ByteBuffer received = ByteBuffer.allocate(CacheConfig.getMaxHeaderSize(conf));
+    received.put(written);
+    assertEquals(DataTransferClientHelper.getHeaderSize(received), received.position());
+
+    received.flip();
+    DataTransferHeader header = DataTransferClientHelper.readHeaders(received);
+    assertEquals(header.getFilePath(), TEST_FILE_PATH);
+    assertEquals(header.getFileSize(), 5000);
+    assertEquals(header.getLastModified(), 1234);
+    assertEquals(header.getRanges().size(), ranges.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      assertEquals(header.getRanges().get(i).getOffset(), ranges.get(i).getOffset());
+      assertEquals(header.getRanges().get(i).getReadLength(), ranges.get(i).getReadLength());
+    }
+  }
+
+  @Test
+  public void testGetHeaderSize_partialHeader()
+  {
+    ByteBuffer written = DataTransferClientHelper.writeHeaders(conf, new DataTransferHeader(0, 100, 5000, 1234, TEST_FILE_PATH));
+
+    ByteBuffer received = ByteBuffer.allocate(CacheConfig.getMaxHeaderSize(conf));
+    written.limit(4 + TEST_FILE_PATH.length());
+    received.put(written);
+    assertEquals(DataTransferClientHelper.getHeaderSize(received), -1);
+  }
+
+  @Test
+  public void testGetMaxRangesPerHeader()
+  {
+    int maxRanges = DataTransferClientHelper.getMaxRangesPerHeader(conf, TEST_FILE_PATH);
+    int headerSize = DataTransferClientHelper.FIXED_HEADER_SIZE + TEST_FILE_PATH.length() + maxRanges * DataTransferClientHelper.RANGE_SIZE;
+
+    assertTrue(headerSize <= CacheConfig.getMaxHeaderSize(conf));
+    assertTrue(headerSize + DataTransferClientHelper.RANGE_SIZE > CacheConfig.getMaxHeaderSize(conf));
+  }
+}
@@ -57,6 +57,7 @@ public class TestCachingInputStream
   Path backendPath = new Path("file:///" + backendFileName.substring(1));
 
   CachingInputStream inputStream;
+  CachingFileSystemStats stats;
 
   private static final String testDirectory = testDirectoryPrefix + "dir0";
   private static Configuration conf;
@@ -131,8 +132,9 @@ public class TestCachingInputStream
     CacheConfig.setBlockSize(conf, blockSize);
 
     // This should be after server comes up else client could not be created
+    stats = new CachingFileSystemStats();
     inputStream = new CachingInputStream(fsDataInputStream, conf, backendPath, file.length(),
-        file.lastModified(), new CachingFileSystemStats(),
+        file.lastModified(), stats,
         new BookKeeperFactory(), FileSystem.get(new URI(backendFileName), conf),
         CacheConfig.getBlockSize(conf), null);
   }
@@ -248,6 +250,77 @@ public class TestCachingInputStream
     assertTrue(readSize == -1, "Did not get EOF");
   }
 
+  @Test
+  public void testSequentialRead_withCacheStatusPrefetch()
+      throws IOException, InterruptedException, URISyntaxException
+  {
+    inputStream.close();
+    CacheConfig.setCacheStatusPrefetchEnabled(conf, true);
+    createCachingStream(conf);
+
+    byte[] buffer = new byte[150];
+    int readSize = inputStream.read(buffer, 0, 150);
+    assertions(readSize, 150, buffer, DataGen.generateContent().substring(0, 150));
+
+    // The remainder of block 1 must now be served from the cache, the rest of the read from the prefetched status
+    Thread.sleep(3000); // sleep to give server chance to update cache status
+    DataGen.writeZerosInFile(backendFileName, 0, 200);
+    readSize = inputStream.read(buffer, 0, 150);
+    assertions(readSize, 150, buffer, DataGen.generateContent().substring(150, 300));
+
+    buffer = new byte[2300];
+    readSize = inputStream.read(buffer, 0, 2300);
+    assertions(readSize, 2300, buffer, DataGen.generateContent().substring(300, 2600));
+  }
+
+  @Test
+  public void testSequentialRead_withReadAhead()
+      throws IOException, InterruptedException, URISyntaxException
+  {
+    inputStream.close();
+    CacheConfig.setReadAheadEnabled(conf, true);
+    createCachingStream(conf);
+
+    byte[] buffer = new byte[100];
+    for (int i = 0; i < 3; i++) {
+      int readSize = inputStream.read(buffer, 0, 100);
+      assertions(readSize, 100, buffer, DataGen.generateContent().substring(i * 100, (i + 1) * 100));
+    }
+
+    // The third sequential read should have started caching the block after it
+    for (int i = 0; i < 50 && stats.getReadAheadBlocks() == 0; i++) {
+      Thread.sleep(100);
+    }
+    assertTrue(stats.getReadAheadBlocks() == 1, "Expected one block to be read ahead, got " + stats.getReadAheadBlocks());
+
+    DataGen.writeZerosInFile(backendFileName, 300, 400);
+    int readSize = inputStream.read(buffer, 0, 100);
+    assertions(readSize, 100, buffer, DataGen.generateContent().substring(300, 400));
+  }
+
+  @Test
+  public void testTailRead_withFileTailCache()
+      throws IOException, InterruptedException, URISyntaxException
+  {
+    inputStream.close();
+    CacheConfig.setFileTailCacheEnabled(conf, true);
+    createCachingStream(conf);
+
+    // The file is smaller than the tail size, so the first read keeps all of it in memory
+    inputStream.seek(2500);
+    byte[] buffer = new byte[100];
+    int readSize = inputStream.read(buffer, 0, 100);
+    assertions(readSize, 100, buffer, DataGen.generateContent().substring(2500, 2600));
+
+    new File(backendFileName).delete();
+    new File(CacheUtil.getLocalPath(backendPath.toString(), conf)).delete();
+
+    inputStream.seek(100);
+    buffer = new byte[1000];
+    readSize = inputStream.read(buffer, 0, 1000);
+    assertions(readSize, 1000, buffer, DataGen.generateContent().substring(100, 1100));
+  }
+
   private void assertions(int readSize, int expectedReadSize, byte[] outputBuffer, String expectedOutput)
   {
     assertTrue(readSize == expectedReadSize, "Wrong amount of data read " + readSize + " was expecting " + expectedReadSize);
@@ -180,6 +180,40 @@ public class TestNonLocalReadRequestChain
     test(nonLocalReadRequestChain);
   }
 
+  /**
+   * Verify that ranges sent back to back on one connection are each copied to their own part of the buffer only.
+   */
+  @Test(timeOut = 60000)
+  public void testRemoteRead_SeveralRangesInOneHeader() throws Exception
+  {
+    localDataTransferServer.start();
+    while (!LocalDataTransferServer.isServerUp()) {
+      Thread.sleep(200);
+      log.info("Waiting for Local Data Transfer Server to come up");
+    }
+    nonLocalReadRequestChain.strictMode = true;
+
+    // Every range is followed by a gap of the buffer which must not be written
+    byte[] buffer = new byte[300];
+    nonLocalReadRequestChain.addReadRequest(new ReadRequest(0, 100, 0, 50, buffer, 0, backendFile.length()));
+    nonLocalReadRequestChain.addReadRequest(new ReadRequest(200, 300, 200, 250, buffer, 100, backendFile.length()));
+    nonLocalReadRequestChain.addReadRequest(new ReadRequest(400, 500, 400, 450, buffer, 200, backendFile.length()));
+    nonLocalReadRequestChain.lock();
+
+    int readSize = nonLocalReadRequestChain.call();
+
+    assertTrue(readSize == 150, "Wrong amount of data read " + readSize + " was expecting " + 150);
+    String expectedContent = DataGen.getExpectedOutput(1000);
+    String output = new String(buffer, Charset.defaultCharset());
+    for (int range = 0; range < 3; range++) {
+      String expectedOutput = expectedContent.substring(range * 200, range * 200 + 50);
+      assertTrue(expectedOutput.equals(output.substring(range * 100, range * 100 + 50)), "Wrong data read for range " + range);
+      for (int i = range * 100 + 50; i < (range + 1) * 100; i++) {
+        assertTrue(buffer[i] == 0, "Data written outside of range " + range + " at " + i);
+      }
+    }
+  }
+
   public void test(NonLocalReadRequestChain requestChain) throws Exception
   {
     Logger.getRootLogger().setLevel(Level.INFO);